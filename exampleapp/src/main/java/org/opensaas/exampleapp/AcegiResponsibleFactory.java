@@ -19,6 +19,7 @@ import org.acegisecurity.context.SecurityContext;
 import org.acegisecurity.context.SecurityContextHolder;
 import org.opensaas.jaudit.AuditSubject;
 import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.webapp.FingerprintingResponsibleFactory;
 import org.opensaas.jaudit.webapp.ResponsibleFactory;
 
 /**
@@ -27,7 +28,19 @@ import org.opensaas.jaudit.webapp.ResponsibleFactory;
  * 
  * TODO: We may want to move this into another more shareable project.
  */
-public class AcegiResponsibleFactory implements ResponsibleFactory {
+public class AcegiResponsibleFactory implements
+        FingerprintingResponsibleFactory {
+
+    /**
+     * The current {@link Authentication}; it is kept for the life of a login,
+     * and anonymous tokens compare equal to each other.
+     * 
+     * {@inheritDoc}
+     */
+    public Object getResponsibleFingerprint(HttpServletRequest request) {
+        SecurityContext sc = SecurityContextHolder.getContext();
+        return sc != null ? sc.getAuthentication() : null;
+    }
 
     /**
      * {@inheritDoc}
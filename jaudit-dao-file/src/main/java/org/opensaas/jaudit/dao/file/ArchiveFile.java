@@ -0,0 +1,870 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.AuditEventVO;
+import org.opensaas.jaudit.AuditRecordDecoder;
+import org.opensaas.jaudit.AuditRecordEncoder;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.BusinessAuditEvent;
+import org.opensaas.jaudit.BusinessAuditEventVO;
+import org.opensaas.jaudit.ConsumptionAuditEvent;
+import org.opensaas.jaudit.ConsumptionAuditEventVO;
+import org.opensaas.jaudit.LifeCycleAuditEvent;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.MembershipChangeAuditEvent;
+import org.opensaas.jaudit.MembershipChangeAuditEventVO;
+import org.opensaas.jaudit.MembershipChangeType;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.PropertyValueChangeVO;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * One immutable file of a {@link ColumnarAuditArchive}.
+ * 
+ * The events of a file are stored column by column, each column a message of
+ * {@link AuditRecordEncoder} values compressed with deflate: the ids; the
+ * time stamps, as deltas from the one before; the target subject types,
+ * dictionary encoded; the target subject ids; the life cycle types, run
+ * length encoded; and the rest of each event. A footer holds the row count,
+ * the range of time stamps and of ids, the set of subject types and a bloom
+ * filter of the ids, so that most files are ruled out by a query without
+ * reading them, and the offsets of the columns. A query reads only the
+ * columns it filters on until it knows that some rows match.
+ * 
+ * Files are written once, through a temporary file that is then renamed, and
+ * never changed. Instances are thread safe.
+ */
+/* package */final class ArchiveFile {
+
+    private static final int MAGIC = 0x6a616361;
+
+    private static final int ID = 0;
+
+    private static final int TS = 1;
+
+    private static final int SUBJECT_TYPE = 2;
+
+    private static final int SUBJECT_ID = 3;
+
+    private static final int LIFE_CYCLE_TYPE = 4;
+
+    private static final int BODY = 5;
+
+    private static final int COLUMNS = 6;
+
+    private static final int OTHER = 0;
+
+    private static final int LIFE_CYCLE = 1;
+
+    private static final int BUSINESS = 2;
+
+    private static final int CONSUMPTION = 3;
+
+    private static final int MEMBERSHIP = 4;
+
+    private static final int BLOOM_BITS_PER_ID = 10;
+
+    private static final int BLOOM_HASHES = 4;
+
+    /**
+     * Collects the columns of a new file, one event at a time. Not thread
+     * safe.
+     */
+    static final class Writer {
+
+        private final AuditRecordEncoder[] _columns = new AuditRecordEncoder[COLUMNS];
+
+        private int[] _lifeCycleTypes = new int[256];
+
+        private final Set<String> _ids = new LinkedHashSet<String>();
+
+        private final Set<String> _subjectTypes = new TreeSet<String>();
+
+        private long _minTs = Long.MAX_VALUE;
+
+        private long _maxTs = Long.MIN_VALUE;
+
+        private String _minId;
+
+        private String _maxId;
+
+        Writer() {
+            for (int i = 0; i < COLUMNS; i++) {
+                if (i != LIFE_CYCLE_TYPE) {
+                    _columns[i] = new AuditRecordEncoder(4096);
+                    _columns[i].begin();
+                }
+            }
+        }
+
+        /**
+         * Returns the number of events added.
+         * 
+         * @return the row count.
+         */
+        int size() {
+            return _ids.size();
+        }
+
+        /**
+         * Returns whether an event has been added.
+         * 
+         * @param id
+         *            the id of the event.
+         * @return true if it has.
+         */
+        boolean contains(final String id) {
+            return _ids.contains(id);
+        }
+
+        /**
+         * Add an event as the next row.
+         * 
+         * @param event
+         *            the event.
+         */
+        void add(final AuditEvent event) {
+            final String id = event.getId();
+            final Date ts = event.getTs();
+            if (id == null || ts == null) {
+                throw new IllegalArgumentException(
+                        "Event id and time stamp are required.");
+            }
+            final int kind = kindOf(event);
+            final AuditSubject target = event.getTarget();
+
+            _columns[ID].writeString(id);
+            _columns[TS].writeDate(ts);
+            _columns[SUBJECT_TYPE].writeInternedString(target == null ? null
+                    : target.getSubjectType());
+            _columns[SUBJECT_ID].writeString(target == null ? null : target
+                    .getSubjectId());
+            writeBody(_columns[BODY], kind, event);
+
+            final int row = _ids.size();
+            if (row == _lifeCycleTypes.length) {
+                final int[] grown = new int[row * 2];
+                System.arraycopy(_lifeCycleTypes, 0, grown, 0, row);
+                _lifeCycleTypes = grown;
+            }
+            final LifeCycleType type = kind == LIFE_CYCLE ? ((LifeCycleAuditEvent) event)
+                    .getLifeCycleEventType()
+                    : null;
+            _lifeCycleTypes[row] = type == null ? 0 : type.ordinal() + 1;
+
+            _ids.add(id);
+            if (target != null && target.getSubjectType() != null) {
+                _subjectTypes.add(target.getSubjectType());
+            }
+            _minTs = Math.min(_minTs, ts.getTime());
+            _maxTs = Math.max(_maxTs, ts.getTime());
+            if (_minId == null || id.compareTo(_minId) < 0) {
+                _minId = id;
+            }
+            if (_maxId == null || id.compareTo(_maxId) > 0) {
+                _maxId = id;
+            }
+        }
+
+        /**
+         * Write the file.
+         * 
+         * @param file
+         *            the file to write.
+         * @param compressionLevel
+         *            the deflate level.
+         * @return the file, opened for reading.
+         * @throws IOException
+         *             when the file can not be written.
+         */
+        ArchiveFile write(final File file, final int compressionLevel)
+                throws IOException {
+            final int rows = _ids.size();
+            final AuditRecordEncoder lifeCycleTypes = new AuditRecordEncoder();
+            lifeCycleTypes.begin();
+            for (int start = 0; start < rows;) {
+                int end = start + 1;
+                while (end < rows
+                        && _lifeCycleTypes[end] == _lifeCycleTypes[start]) {
+                    end++;
+                }
+                lifeCycleTypes.writeVarLong(_lifeCycleTypes[start]);
+                lifeCycleTypes.writeVarLong(end - start);
+                start = end;
+            }
+            _columns[LIFE_CYCLE_TYPE] = lifeCycleTypes;
+
+            final byte[] bloom = new byte[(rows * BLOOM_BITS_PER_ID + 7) / 8];
+            for (final String id : _ids) {
+                final int bits = bloom.length * 8;
+                final int h1 = id.hashCode();
+                final int h2 = bloomHash(h1);
+                for (int k = 0; k < BLOOM_HASHES; k++) {
+                    final int bit = ((h1 + k * h2) & Integer.MAX_VALUE) % bits;
+                    bloom[bit >>> 3] |= 1 << (bit & 7);
+                }
+            }
+
+            final File tmpFile = new File(file.getPath() + ".tmp");
+            final FileOutputStream fileOut = new FileOutputStream(tmpFile);
+            try {
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fileOut));
+                out.writeInt(MAGIC);
+                final long[] offsets = new long[COLUMNS];
+                final int[] lengths = new int[COLUMNS];
+                final int[] rawLengths = new int[COLUMNS];
+                for (int i = 0; i < COLUMNS; i++) {
+                    final byte[] raw = _columns[i].toByteArray();
+                    final byte[] compressed = deflate(raw, compressionLevel);
+                    offsets[i] = out.size();
+                    lengths[i] = compressed.length;
+                    rawLengths[i] = raw.length;
+                    out.write(compressed);
+                }
+
+                final int footerStart = out.size();
+                out.writeInt(rows);
+                out.writeLong(_minTs);
+                out.writeLong(_maxTs);
+                out.writeUTF(_minId);
+                out.writeUTF(_maxId);
+                out.writeInt(_subjectTypes.size());
+                for (final String subjectType : _subjectTypes) {
+                    out.writeUTF(subjectType);
+                }
+                out.writeInt(bloom.length);
+                out.write(bloom);
+                out.writeInt(COLUMNS);
+                for (int i = 0; i < COLUMNS; i++) {
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                    out.writeInt(rawLengths[i]);
+                }
+                out.writeInt(out.size() - footerStart);
+                out.writeInt(MAGIC);
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmpFile + " to "
+                        + file + ".");
+            }
+            return open(file);
+        }
+    }
+
+    private final File _file;
+
+    private final int _rows;
+
+    private final long _minTs;
+
+    private final long _maxTs;
+
+    private final String _minId;
+
+    private final String _maxId;
+
+    private final Set<String> _subjectTypes;
+
+    private final byte[] _bloom;
+
+    private final long[] _offsets = new long[COLUMNS];
+
+    private final int[] _lengths = new int[COLUMNS];
+
+    private final int[] _rawLengths = new int[COLUMNS];
+
+    private ArchiveFile(final File file, final DataInputStream footer)
+            throws IOException {
+        _file = file;
+        _rows = footer.readInt();
+        _minTs = footer.readLong();
+        _maxTs = footer.readLong();
+        _minId = footer.readUTF();
+        _maxId = footer.readUTF();
+        final int subjectTypes = footer.readInt();
+        final Set<String> types = new HashSet<String>();
+        for (int i = 0; i < subjectTypes; i++) {
+            types.add(footer.readUTF());
+        }
+        _subjectTypes = Collections.unmodifiableSet(types);
+        _bloom = new byte[footer.readInt()];
+        footer.readFully(_bloom);
+        if (footer.readInt() != COLUMNS) {
+            throw new IOException("Unsupported column count in " + file + ".");
+        }
+        for (int i = 0; i < COLUMNS; i++) {
+            _offsets[i] = footer.readLong();
+            _lengths[i] = footer.readInt();
+            _rawLengths[i] = footer.readInt();
+        }
+    }
+
+    /**
+     * Open an existing file, reading its footer.
+     * 
+     * @param file
+     *            the file.
+     * @return the file.
+     * @throws IOException
+     *             when the file can not be read or is not an archive file.
+     */
+    static ArchiveFile open(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final long length = raf.length();
+            if (length < 12L) {
+                throw new IOException("Not an archive file: " + file);
+            }
+            raf.seek(length - 8L);
+            final int footerLength = raf.readInt();
+            if (raf.readInt() != MAGIC || footerLength < 0
+                    || footerLength > length - 12L) {
+                throw new IOException("Not an archive file: " + file);
+            }
+            final byte[] footer = new byte[footerLength];
+            raf.seek(length - 8L - footerLength);
+            raf.readFully(footer);
+            return new ArchiveFile(file, new DataInputStream(
+                    new ByteArrayInputStream(footer)));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the file.
+     * 
+     * @return the file.
+     */
+    File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns the number of events in the file.
+     * 
+     * @return the row count.
+     */
+    int getRows() {
+        return _rows;
+    }
+
+    /**
+     * Returns the lowest time stamp in the file.
+     * 
+     * @return the time stamp in milliseconds.
+     */
+    long getMinTs() {
+        return _minTs;
+    }
+
+    /**
+     * Returns whether the file may hold an id, from the footer alone.
+     * 
+     * @param id
+     *            the id.
+     * @return false if it certainly does not.
+     */
+    boolean mightContain(final String id) {
+        if (id.compareTo(_minId) < 0 || id.compareTo(_maxId) > 0) {
+            return false;
+        }
+        final int bits = _bloom.length * 8;
+        final int h1 = id.hashCode();
+        final int h2 = bloomHash(h1);
+        for (int k = 0; k < BLOOM_HASHES; k++) {
+            final int bit = ((h1 + k * h2) & Integer.MAX_VALUE) % bits;
+            if ((_bloom[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the file holds an id, reading the id column only when
+     * the footer can not rule it out.
+     * 
+     * @param id
+     *            the id.
+     * @return true if it does.
+     * @throws IOException
+     *             when the file can not be read.
+     */
+    boolean contains(final String id) throws IOException {
+        if (!mightContain(id)) {
+            return false;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(_file, "r");
+        try {
+            return Arrays.asList(readStrings(raf, ID)).contains(id);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read one event.
+     * 
+     * @param id
+     *            the id of the event.
+     * @return the event, or null if it is not in the file.
+     * @throws IOException
+     *             when the file can not be read.
+     */
+    AuditEvent read(final String id) throws IOException {
+        if (!mightContain(id)) {
+            return null;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(_file, "r");
+        try {
+            final String[] ids = readStrings(raf, ID);
+            for (int i = 0; i < _rows; i++) {
+                if (id.equals(ids[i])) {
+                    final boolean[] selected = new boolean[_rows];
+                    selected[i] = true;
+                    return materialize(raf, selected, i).get(0);
+                }
+            }
+            return null;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Find the events matching a query, in no particular order. Rows are
+     * selected on the time stamp, id and subject columns; with a limit only
+     * the first rows in time stamp then id order are decoded, more being
+     * taken only when the subject discriminator rules some of them out.
+     * 
+     * @param target
+     *            the target, or null for all.
+     * @param from
+     *            the inclusive lower time stamp bound in milliseconds.
+     * @param to
+     *            the exclusive upper time stamp bound in milliseconds.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of events, or 0 for all.
+     * @return the matching events.
+     * @throws IOException
+     *             when the file can not be read.
+     */
+    List<SegmentStore.Hit<AuditEvent>> scan(final AuditSubject target,
+            final long from, final long to, final PageKey after,
+            final int limit) throws IOException {
+        final long afterTs = after == null ? Long.MIN_VALUE : after.getTs()
+                .getTime();
+        if (_maxTs < from || _minTs >= to || _maxTs < afterTs
+                || target != null && target.getSubjectType() != null
+                && !_subjectTypes.contains(target.getSubjectType())) {
+            return Collections.emptyList();
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(_file, "r");
+        try {
+            final boolean[] selected = new boolean[_rows];
+            final long[] ts = readTs(raf);
+            int count = 0;
+            for (int i = 0; i < _rows; i++) {
+                if (ts[i] >= from && ts[i] < to && ts[i] >= afterTs) {
+                    selected[i] = true;
+                    count++;
+                }
+            }
+            if (count > 0 && target != null) {
+                count = filter(selected, readStrings(raf, SUBJECT_ID), target
+                        .getSubjectId());
+                if (count > 0 && target.getSubjectType() != null) {
+                    count = filter(selected, readStrings(raf, SUBJECT_TYPE),
+                            target.getSubjectType());
+                }
+            }
+            final boolean ordered = limit > 0 && count > limit;
+            final String[] ids = count > 0 && (after != null || ordered) ? readStrings(
+                    raf, ID)
+                    : null;
+            if (count > 0 && after != null) {
+                for (int i = 0; i < _rows; i++) {
+                    if (selected[i] && ts[i] == afterTs
+                            && ids[i].compareTo(after.getId()) <= 0) {
+                        selected[i] = false;
+                        count--;
+                    }
+                }
+            }
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+
+            final Integer[] rows = new Integer[count];
+            for (int i = 0, j = 0; i < _rows; i++) {
+                if (selected[i]) {
+                    rows[j++] = Integer.valueOf(i);
+                }
+            }
+            if (ordered && count > limit) {
+                Arrays.sort(rows, new Comparator<Integer>() {
+                    public int compare(final Integer a, final Integer b) {
+                        final long tsA = ts[a.intValue()];
+                        final long tsB = ts[b.intValue()];
+                        return tsA < tsB ? -1 : tsA > tsB ? 1 : ids[a
+                                .intValue()].compareTo(ids[b.intValue()]);
+                    }
+                });
+            }
+
+            final List<SegmentStore.Hit<AuditEvent>> hits = new ArrayList<SegmentStore.Hit<AuditEvent>>();
+            for (int next = 0; next < count
+                    && (limit == 0 || hits.size() < limit);) {
+                final int end = limit == 0 ? count : Math.min(count, next
+                        + limit - hits.size());
+                final boolean[] batch = new boolean[_rows];
+                int last = -1;
+                for (; next < end; next++) {
+                    final int row = rows[next].intValue();
+                    batch[row] = true;
+                    last = Math.max(last, row);
+                }
+                for (final AuditEvent event : materialize(raf, batch, last)) {
+                    if (target == null
+                            || GenericDaoFile.matchesSubject(target, event
+                                    .getTarget())) {
+                        hits.add(new SegmentStore.Hit<AuditEvent>(event
+                                .getTs().getTime(), event.getId(), event));
+                    }
+                }
+            }
+            return hits;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int filter(final boolean[] selected, final String[] values,
+            final String value) {
+        int count = 0;
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                if (value == null ? values[i] == null : value
+                        .equals(values[i])) {
+                    count++;
+                } else {
+                    selected[i] = false;
+                }
+            }
+        }
+        return count;
+    }
+
+    private List<AuditEvent> materialize(final RandomAccessFile raf,
+            final boolean[] selected, final int last) throws IOException {
+        final String[] ids = readStrings(raf, ID);
+        final long[] ts = readTs(raf);
+        final String[] subjectTypes = readStrings(raf, SUBJECT_TYPE);
+        final String[] subjectIds = readStrings(raf, SUBJECT_ID);
+        final int[] lifeCycleTypes = readLifeCycleTypes(raf);
+        final AuditRecordDecoder body = column(raf, BODY);
+
+        final LifeCycleType[] types = LifeCycleType.values();
+        final List<AuditEvent> events = new ArrayList<AuditEvent>();
+        for (int i = 0; i <= last; i++) {
+            final AuditEventVO event = readBody(body);
+            event.setId(ids[i]);
+            event.setTs(new Date(ts[i]));
+            if (event.getTarget() != null) {
+                event.getTarget().setSubjectType(subjectTypes[i]);
+                event.getTarget().setSubjectId(subjectIds[i]);
+            }
+            if (event instanceof LifeCycleAuditEventVO
+                    && lifeCycleTypes[i] > 0) {
+                ((LifeCycleAuditEventVO) event)
+                        .setLifeCycleEventType(types[lifeCycleTypes[i] - 1]);
+            }
+            if (selected[i]) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private String[] readStrings(final RandomAccessFile raf, final int column)
+            throws IOException {
+        final AuditRecordDecoder decoder = column(raf, column);
+        final String[] values = new String[_rows];
+        for (int i = 0; i < _rows; i++) {
+            values[i] = column == SUBJECT_TYPE ? decoder.readInternedString()
+                    : decoder.readString();
+        }
+        return values;
+    }
+
+    private long[] readTs(final RandomAccessFile raf) throws IOException {
+        final AuditRecordDecoder decoder = column(raf, TS);
+        final long[] values = new long[_rows];
+        for (int i = 0; i < _rows; i++) {
+            values[i] = decoder.readDate().getTime();
+        }
+        return values;
+    }
+
+    private int[] readLifeCycleTypes(final RandomAccessFile raf)
+            throws IOException {
+        final AuditRecordDecoder decoder = column(raf, LIFE_CYCLE_TYPE);
+        final int[] values = new int[_rows];
+        for (int i = 0; i < _rows;) {
+            final int value = (int) decoder.readVarLong();
+            final long run = decoder.readVarLong();
+            if (run < 1L || run > _rows - i) {
+                throw new IOException("Bad run length in " + _file + ".");
+            }
+            for (final int end = i + (int) run; i < end; i++) {
+                values[i] = value;
+            }
+        }
+        return values;
+    }
+
+    private AuditRecordDecoder column(final RandomAccessFile raf,
+            final int column) throws IOException {
+        final byte[] compressed = new byte[_lengths[column]];
+        raf.seek(_offsets[column]);
+        raf.readFully(compressed);
+
+        final byte[] raw = new byte[_rawLengths[column]];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length) {
+                final int read = inflater.inflate(raw, length, raw.length
+                        - length);
+                if (read == 0
+                        && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated column in " + _file
+                            + ".");
+                }
+                length += read;
+            }
+        } catch (final DataFormatException e) {
+            final IOException ioe = new IOException("Corrupt column in "
+                    + _file + ".");
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            inflater.end();
+        }
+
+        final AuditRecordDecoder decoder = new AuditRecordDecoder();
+        decoder.begin(ByteBuffer.wrap(raw));
+        return decoder;
+    }
+
+    private static int kindOf(final AuditEvent event) {
+        if (event instanceof LifeCycleAuditEvent) {
+            return LIFE_CYCLE;
+        } else if (event instanceof BusinessAuditEvent) {
+            return BUSINESS;
+        } else if (event instanceof ConsumptionAuditEvent) {
+            return CONSUMPTION;
+        } else if (event instanceof MembershipChangeAuditEvent) {
+            return MEMBERSHIP;
+        }
+        return OTHER;
+    }
+
+    private static void writeBody(final AuditRecordEncoder body,
+            final int kind, final AuditEvent event) {
+        final AuditSubject target = event.getTarget();
+        body.writeByte(kind);
+        body.writeString(event.getDescription());
+        body.writeBoolean(target != null);
+        body.writeInternedString(target == null ? null : target
+                .getSubjectDiscriminator());
+        body.writeRecord(event.getSessionRecord());
+        body.writeRecord(event.getTransactionRecord());
+
+        switch (kind) {
+        case LIFE_CYCLE:
+            final Collection<PropertyValueChange> changes = ((LifeCycleAuditEvent) event)
+                    .getPropertyValueChanges();
+            body.writeVarLong(changes == null ? 0 : changes.size());
+            if (changes != null) {
+                for (final PropertyValueChange change : changes) {
+                    body.writeString(change.getId());
+                    body.writeInternedString(change.getPropertyName());
+                    body.writeInternedString(change.getPropertyType());
+                    body.writeString(change.getOldValue());
+                    body.writeString(change.getNewValue());
+                    body.writeByte((change.isOldValueSpecified() ? 1 : 0)
+                            | (change.isNewValueSpecified() ? 2 : 0));
+                }
+            }
+            break;
+        case BUSINESS:
+            final BusinessAuditEvent business = (BusinessAuditEvent) event;
+            body.writeInternedString(business.getBusinessClass());
+            body.writeString(business.getBusinessAction());
+            break;
+        case CONSUMPTION:
+            final ConsumptionAuditEvent consumption = (ConsumptionAuditEvent) event;
+            final Double amount = consumption.getAmountConsumed();
+            body.writeBoolean(amount != null);
+            if (amount != null) {
+                body.writeVarLong(Double.doubleToLongBits(amount
+                        .doubleValue()));
+            }
+            final Integer scale = consumption.getScale();
+            body.writeBoolean(scale != null);
+            if (scale != null) {
+                body.writeVarLong(scale.intValue() & 0xFFFFFFFFL);
+            }
+            break;
+        case MEMBERSHIP:
+            final MembershipChangeAuditEvent membership = (MembershipChangeAuditEvent) event;
+            body.writeEnum(membership.getMembershipChangeEventType());
+            body.writeSubject(membership.getMembershipGroup());
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static AuditEventVO readBody(final AuditRecordDecoder body) {
+        final int kind = body.readByte();
+        final String description = body.readString();
+        final boolean hasTarget = body.readBoolean();
+        final String discriminator = body.readInternedString();
+        final SessionRecord sessionRecord = (SessionRecord) body.readRecord();
+        final TransactionRecord transactionRecord = (TransactionRecord) body
+                .readRecord();
+
+        final AuditEventVO event;
+        switch (kind) {
+        case LIFE_CYCLE:
+            final LifeCycleAuditEventVO lifeCycle = new LifeCycleAuditEventVO();
+            final int count = (int) body.readVarLong();
+            final Collection<PropertyValueChange> changes = new ArrayList<PropertyValueChange>(
+                    count);
+            for (int i = 0; i < count; i++) {
+                final PropertyValueChangeVO change = new PropertyValueChangeVO();
+                change.setId(body.readString());
+                change.setPropertyName(body.readInternedString());
+                change.setPropertyType(body.readInternedString());
+                change.setOldValue(body.readString());
+                change.setNewValue(body.readString());
+                final int flags = body.readByte();
+                change.setOldValueSpecified((flags & 1) != 0);
+                change.setNewValueSpecified((flags & 2) != 0);
+                change.setLifeCycleAuditEvent(lifeCycle);
+                changes.add(change);
+            }
+            lifeCycle.setPropertyValueChanges(changes);
+            event = lifeCycle;
+            break;
+        case BUSINESS:
+            final BusinessAuditEventVO business = new BusinessAuditEventVO();
+            business.setBusinessClass(body.readInternedString());
+            business.setBusinessAction(body.readString());
+            event = business;
+            break;
+        case CONSUMPTION:
+            final ConsumptionAuditEventVO consumption = new ConsumptionAuditEventVO();
+            consumption.setAmountConsumed(body.readBoolean() ? Double
+                    .valueOf(Double.longBitsToDouble(body.readVarLong()))
+                    : null);
+            consumption.setScale(body.readBoolean() ? Integer
+                    .valueOf((int) body.readVarLong()) : null);
+            event = consumption;
+            break;
+        case MEMBERSHIP:
+            final MembershipChangeAuditEventVO membership = new MembershipChangeAuditEventVO();
+            membership.setMembershipChangeEventType(body
+                    .readEnum(MembershipChangeType.class));
+            membership.setMembershipGroup(body.readSubject());
+            event = membership;
+            break;
+        default:
+            event = new AuditEventVO();
+            break;
+        }
+
+        event.setDescription(description);
+        if (hasTarget) {
+            final AuditSubject target = new AuditSubject();
+            target.setSubjectDiscriminator(discriminator);
+            event.setTarget(target);
+        }
+        event.setSessionRecord(sessionRecord);
+        event.setTransactionRecord(transactionRecord);
+        return event;
+    }
+
+    private static int bloomHash(final int hash) {
+        return Integer.rotateLeft(hash * 0x9E3779B9, 16) | 1;
+    }
+
+    private static byte[] deflate(final byte[] raw, final int level) {
+        final Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math
+                    .max(64, raw.length / 4));
+            final byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.util.Date;
+
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.AuditEventMutable;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.dao.AuditEventDao;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Segmented file implementation of {@link AuditEventDao}. Events are indexed
+ * by {@link AuditEvent#getTs()}; finding the events of a session or a
+ * transaction reads every event, so prefer the time bounded finders on large
+ * stores. The store is append only, so events can not be purged from it.
+ * 
+ * @param <T>
+ *            the specific type of {@link AuditEvent} in use.
+ */
+public class AuditEventDaoFile<T extends AuditEventMutable> extends
+        GenericDaoFile<T> implements AuditEventDao<T> {
+
+    /**
+     * Required constructor.
+     * 
+     * @param type
+     *            the type we are managing.
+     */
+    public AuditEventDaoFile(final Class<T> type) {
+        super(type, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByTarget(final AuditSubject target,
+            final Date from, final Date to, final PageKey after,
+            final int limit) {
+        if (target == null) {
+            throw new IllegalArgumentException("Subject is required.");
+        }
+        return find(from, to, after, limit, new Matcher<T>() {
+            public boolean matches(final T record) {
+                return matchesSubject(target, record.getTarget());
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findBySessionRecord(final String sessionRecordId,
+            final PageKey after, final int limit) {
+        return find(null, null, after, limit, new Matcher<T>() {
+            public boolean matches(final T record) {
+                final SessionRecord sessionRecord = record.getSessionRecord();
+                return same(sessionRecordId, sessionRecord == null ? null
+                        : sessionRecord.getId());
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByTransactionRecord(
+            final String transactionRecordId, final PageKey after,
+            final int limit) {
+        return find(null, null, after, limit, new Matcher<T>() {
+            public boolean matches(final T record) {
+                final TransactionRecord transactionRecord = record
+                        .getTransactionRecord();
+                return same(transactionRecordId,
+                        transactionRecord == null ? null : transactionRecord
+                                .getId());
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByTs(final Date from, final Date to,
+            final PageKey after, final int limit) {
+        return find(from, to, after, limit, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getId(final T instance) {
+        return instance.getId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Date getTs(final T instance) {
+        return instance.getTs();
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.dao.AuditEventArchive;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * An {@link AuditEventArchive} kept in a directory of compressed, columnar,
+ * immutable files; see {@link ArchiveFile} for the layout. Appended events
+ * are encoded into columns in memory and {@link #flush()} writes them as a
+ * new file, so each flush should carry a large batch of events.
+ * 
+ * Queries are pushed down to the files: a file whose time range, subject
+ * types or id filter rule out a query is not opened, and the others are read
+ * column by column, decoding whole events only for the rows that match on
+ * time stamp and subject, and for a page only as many as it needs. Events
+ * read back are value objects, and records they refer to, such as the
+ * session record of an event, are copies.
+ * 
+ * An event whose id is already archived, or already appended, is skipped, so
+ * a batch that is archived again, as when the delete that should have
+ * followed it was rolled back, does not leave copies behind.
+ */
+public class ColumnarAuditArchive implements AuditEventArchive {
+
+    private static final String SUFFIX = ".jca";
+
+    private static final Comparator<ArchiveFile> MIN_TS_ORDER = new Comparator<ArchiveFile>() {
+        public int compare(final ArchiveFile a, final ArchiveFile b) {
+            return a.getMinTs() < b.getMinTs() ? -1
+                    : a.getMinTs() == b.getMinTs() ? 0 : 1;
+        }
+    };
+
+    private File _directory;
+
+    private String _name = "archive";
+
+    private int _compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private int _fetchSize = 100;
+
+    private ArchiveFile.Writer _writer;
+
+    private long _lastNumber = 0L;
+
+    private volatile List<ArchiveFile> _files;
+
+    /**
+     * Default constructor.
+     */
+    public ColumnarAuditArchive() {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Skips an event whose id is already archived.
+     */
+    public synchronized void append(final AuditEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event is required.");
+        }
+        if (_writer == null) {
+            _writer = new ArchiveFile.Writer();
+        }
+        final String id = event.getId();
+        if (id != null && (_writer.contains(id) || isArchived(id))) {
+            return;
+        }
+        _writer.add(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Writes one new file.
+     */
+    public synchronized void flush() {
+        if (_writer == null || _writer.size() == 0) {
+            return;
+        }
+        final List<ArchiveFile> files = getFiles();
+        if (!_directory.isDirectory() && !_directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + _directory
+                    + ".");
+        }
+        final File file = new File(_directory, String.format("%s-%010d%s",
+                _name, Long.valueOf(_lastNumber + 1L), SUFFIX));
+        try {
+            final List<ArchiveFile> updated = new ArrayList<ArchiveFile>(files);
+            updated.add(_writer.write(file, _compressionLevel));
+            Collections.sort(updated, MIN_TS_ORDER);
+            _files = Collections.unmodifiableList(updated);
+        } catch (final IOException e) {
+            throw failure("Cannot write " + file, e);
+        }
+        _lastNumber++;
+        _writer = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public AuditEvent read(final String id) {
+        if (id == null) {
+            throw new IllegalArgumentException("Id is required.");
+        }
+        for (final ArchiveFile file : getFiles()) {
+            try {
+                final AuditEvent event = file.read(id);
+                if (event != null) {
+                    return event;
+                }
+            } catch (final IOException e) {
+                throw failure("Cannot read " + file.getFile(), e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<AuditEvent> find(final AuditSubject target,
+            final Date from, final Date to, final PageKey after,
+            final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative.");
+        }
+        final List<ArchiveFile> files = getFiles();
+        final long fromTs = from == null ? Long.MIN_VALUE : from.getTime();
+        final long toTs = to == null ? Long.MAX_VALUE : to.getTime();
+        return new PagedResultCursor<AuditEvent>(
+                new PagedResultCursor.Pager<AuditEvent>() {
+                    public List<SegmentStore.Hit<AuditEvent>> page(
+                            final PageKey pageAfter, final int pageLimit) {
+                        return scan(files, target, fromTs, toTs, pageAfter,
+                                pageLimit);
+                    }
+                }, after, limit, _fetchSize);
+    }
+
+    /**
+     * Returns the number of archive files.
+     * 
+     * @return the file count.
+     */
+    public int getFileCount() {
+        return getFiles().size();
+    }
+
+    private static List<SegmentStore.Hit<AuditEvent>> scan(
+            final List<ArchiveFile> files, final AuditSubject target,
+            final long from, final long to, final PageKey after,
+            final int limit) {
+        final List<SegmentStore.Hit<AuditEvent>> hits = new ArrayList<SegmentStore.Hit<AuditEvent>>();
+        for (final ArchiveFile file : files) {
+            if (hits.size() >= limit) {
+                Collections.sort(hits, SegmentStore.HIT_ORDER);
+                hits.subList(limit, hits.size()).clear();
+                if (file.getMinTs() > hits.get(limit - 1)._ts) {
+                    break;
+                }
+            }
+            try {
+                hits.addAll(file.scan(target, from, to, after, limit));
+            } catch (final IOException e) {
+                throw failure("Cannot read " + file.getFile(), e);
+            }
+        }
+        Collections.sort(hits, SegmentStore.HIT_ORDER);
+        if (hits.size() > limit) {
+            hits.subList(limit, hits.size()).clear();
+        }
+        return hits;
+    }
+
+    private boolean isArchived(final String id) {
+        for (final ArchiveFile file : getFiles()) {
+            try {
+                if (file.contains(id)) {
+                    return true;
+                }
+            } catch (final IOException e) {
+                throw failure("Cannot read " + file.getFile(), e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the files, ordered by their lowest time stamp, listing the
+     * directory on first use.
+     * 
+     * @return the files.
+     */
+    /* package */List<ArchiveFile> getFiles() {
+        List<ArchiveFile> files = _files;
+        if (files == null) {
+            synchronized (this) {
+                files = _files;
+                if (files == null) {
+                    files = openFiles();
+                    _files = files;
+                }
+            }
+        }
+        return files;
+    }
+
+    private List<ArchiveFile> openFiles() {
+        if (_directory == null) {
+            throw new IllegalStateException("Directory is required.");
+        }
+        final String prefix = _name + "-";
+        final String[] names = _directory.list(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(prefix) && name.endsWith(SUFFIX);
+            }
+        });
+        final List<ArchiveFile> files = new ArrayList<ArchiveFile>();
+        if (names != null) {
+            for (final String name : names) {
+                final String number = name.substring(prefix.length(), name
+                        .length()
+                        - SUFFIX.length());
+                final File file = new File(_directory, name);
+                try {
+                    _lastNumber = Math.max(_lastNumber, Long
+                            .parseLong(number));
+                    files.add(ArchiveFile.open(file));
+                } catch (final NumberFormatException e) {
+                    continue;
+                } catch (final IOException e) {
+                    throw failure("Cannot open " + file, e);
+                }
+            }
+        }
+        Collections.sort(files, MIN_TS_ORDER);
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Returns the directory the archive files are kept in.
+     * 
+     * @return the directory.
+     */
+    public File getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * Sets the directory the archive files are kept in. It is created if
+     * missing, and may be shared with other archives of different names.
+     * 
+     * @param directory
+     *            the directory.
+     */
+    public void setDirectory(final File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory is required.");
+        }
+        _directory = directory;
+    }
+
+    /**
+     * Returns the name the archive files start with. Defaults to
+     * <tt>archive</tt>.
+     * 
+     * @return the name.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Sets the name the archive files start with.
+     * 
+     * @param name
+     *            the name.
+     */
+    public void setName(final String name) {
+        if (name == null || name.length() == 0) {
+            throw new IllegalArgumentException("Name is required.");
+        }
+        _name = name;
+    }
+
+    /**
+     * Returns the deflate level of new files. Defaults to
+     * {@link Deflater#DEFAULT_COMPRESSION}.
+     * 
+     * @return the compression level.
+     */
+    public int getCompressionLevel() {
+        return _compressionLevel;
+    }
+
+    /**
+     * Sets the deflate level of new files, from 0 to 9, or -1 for the
+     * default.
+     * 
+     * @param compressionLevel
+     *            the compression level.
+     */
+    public void setCompressionLevel(final int compressionLevel) {
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException(
+                    "Compression level must be from -1 to 9.");
+        }
+        _compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Returns the number of events a cursor fetches at a time. Defaults to
+     * 100.
+     * 
+     * @return the fetch size.
+     */
+    public int getFetchSize() {
+        return _fetchSize;
+    }
+
+    /**
+     * Sets the number of events a cursor fetches at a time.
+     * 
+     * @param fetchSize
+     *            the fetch size.
+     */
+    public void setFetchSize(final int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive.");
+        }
+        _fetchSize = fetchSize;
+    }
+
+    private static IllegalStateException failure(final String message,
+            final IOException cause) {
+        final IllegalStateException e = new IllegalStateException(message);
+        e.initCause(cause);
+        return e;
+    }
+}
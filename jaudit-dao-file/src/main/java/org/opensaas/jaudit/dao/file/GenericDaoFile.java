@@ -0,0 +1,432 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.opensaas.jaudit.AuditRecordCodec;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.dao.GenericDao;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * A {@link GenericDao} that appends records, encoded with
+ * {@link AuditRecordCodec}, to a {@link SegmentStore} in a directory of its
+ * own instead of a database. Writes are sequential appends to a memory mapped
+ * segment, and {@link #createAll(Collection)} appends a whole batch under one
+ * lock.
+ * 
+ * Records are indexed by id and by time stamp only; the other find criteria
+ * are applied to the records of the time range, so queries should be bounded
+ * in time. Records read back are copies: records they refer to, such as the
+ * session record of an event, are copies of the referenced record as it was
+ * when the referring one was written.
+ * 
+ * Appended records reach the disk when the operating system writes them back
+ * or when {@link #flush()} or {@link #close()} is called; put a write ahead
+ * log in front of the dao, or call {@link #flush()}, where every record must
+ * survive a crash of the machine. The store is opened on first use, and
+ * {@link #close()} should be configured as the destroy method of the bean.
+ * 
+ * @param <T>
+ *            Type of the VO being managed.
+ */
+public abstract class GenericDaoFile<T> implements GenericDao<T, String> {
+
+    /**
+     * Filters the records of a query.
+     * 
+     * @param <T>
+     *            Type of the VO being managed.
+     */
+    protected interface Matcher<T> {
+
+        /**
+         * Returns whether a record belongs in the result.
+         * 
+         * @param record
+         *            the record.
+         * @return true if it does.
+         */
+        boolean matches(T record);
+    }
+
+    private final Class<T> _type;
+
+    private final boolean _versioned;
+
+    private File _directory;
+
+    private String _name;
+
+    private int _segmentSize = 64 * 1024 * 1024;
+
+    private int _indexInterval = 128;
+
+    private int _fetchSize = 100;
+
+    private SegmentStore _store;
+
+    /**
+     * Constructor with required type passed in.
+     * 
+     * @param type
+     *            required type of the dao's managed object.
+     * @param versioned
+     *            whether records are updated by appending new versions, in
+     *            which case queries skip the superseded ones.
+     */
+    protected GenericDaoFile(final Class<T> type, final boolean versioned) {
+        if (type == null) {
+            throw new IllegalArgumentException("Type is required.");
+        }
+        _type = type;
+        _versioned = versioned;
+        _name = type.getSimpleName();
+    }
+
+    /**
+     * Returns the id of a record.
+     * 
+     * @param instance
+     *            the record.
+     * @return the id.
+     */
+    protected abstract String getId(T instance);
+
+    /**
+     * Returns the time stamp a record is indexed and ordered by.
+     * 
+     * @param instance
+     *            the record.
+     * @return the time stamp, or null.
+     */
+    protected abstract Date getTs(T instance);
+
+    /**
+     * {@inheritDoc}
+     */
+    public String create(final T newInstance) {
+        return createAll(Collections.singletonList(newInstance)).get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<String> createAll(final Collection<? extends T> newInstances) {
+        if (newInstances == null) {
+            throw new IllegalArgumentException("Instances are required.");
+        }
+
+        final List<String> keys = new ArrayList<String>(newInstances.size());
+        final List<SegmentStore.Entry> entries = new ArrayList<SegmentStore.Entry>(
+                newInstances.size());
+        for (final T newInstance : newInstances) {
+            if (newInstance == null) {
+                throw new IllegalArgumentException("Instance is required.");
+            }
+            final String id = getId(newInstance);
+            if (id == null) {
+                throw new IllegalArgumentException("Id is required.");
+            }
+            final Date ts = getTs(newInstance);
+            entries.add(new SegmentStore.Entry(id, ts == null ? 0L : ts
+                    .getTime(), AuditRecordCodec.encode(newInstance)));
+            keys.add(id);
+        }
+        if (!entries.isEmpty()) {
+            try {
+                getStore().append(entries);
+            } catch (final IOException e) {
+                throw failure("Cannot append to " + _name + " in "
+                        + _directory, e);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T read(final String id) {
+        if (id == null) {
+            return null;
+        }
+        final byte[] data = getStore().read(id);
+        return data == null ? null : decode(data);
+    }
+
+    /**
+     * Force the records written so far to disk.
+     */
+    public void flush() {
+        getStore().flush();
+    }
+
+    /**
+     * Force the records to disk and close the store. The dao can not be used
+     * afterwards.
+     */
+    public synchronized void close() {
+        if (_store != null) {
+            try {
+                _store.close();
+            } catch (final IOException e) {
+                throw failure("Cannot close " + _name + " in "
+                        + _directory, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the managed type.
+     * 
+     * @return the managed type.
+     */
+    public Class<T> getType() {
+        return _type;
+    }
+
+    /**
+     * Returns the directory the segment files are kept in.
+     * 
+     * @return the directory.
+     */
+    public File getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * Sets the directory the segment files are kept in. It is created if
+     * missing, and may be shared with other daos of different names.
+     * 
+     * @param directory
+     *            the directory.
+     */
+    public void setDirectory(final File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory is required.");
+        }
+        _directory = directory;
+    }
+
+    /**
+     * Returns the name the segment files start with. Defaults to the simple
+     * name of the managed type.
+     * 
+     * @return the name.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Sets the name the segment files start with.
+     * 
+     * @param name
+     *            the name.
+     */
+    public void setName(final String name) {
+        if (name == null || name.length() == 0) {
+            throw new IllegalArgumentException("Name is required.");
+        }
+        _name = name;
+    }
+
+    /**
+     * Returns the size of a new segment in bytes. Defaults to 64 MiB.
+     * 
+     * @return the segment size.
+     */
+    public int getSegmentSize() {
+        return _segmentSize;
+    }
+
+    /**
+     * Sets the size of a new segment in bytes, which bounds the size of a
+     * record. Existing segments keep their size.
+     * 
+     * @param segmentSize
+     *            the segment size.
+     */
+    public void setSegmentSize(final int segmentSize) {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException(
+                    "Segment size must be at least 1024.");
+        }
+        _segmentSize = segmentSize;
+    }
+
+    /**
+     * Returns the number of records per block of the time index. Defaults to
+     * 128.
+     * 
+     * @return the index interval.
+     */
+    public int getIndexInterval() {
+        return _indexInterval;
+    }
+
+    /**
+     * Sets the number of records per block of the time index. Smaller blocks
+     * make range queries read fewer records and the index bigger.
+     * 
+     * @param indexInterval
+     *            the index interval.
+     */
+    public void setIndexInterval(final int indexInterval) {
+        if (indexInterval < 1) {
+            throw new IllegalArgumentException(
+                    "Index interval must be positive.");
+        }
+        _indexInterval = indexInterval;
+    }
+
+    /**
+     * Returns the number of records a cursor fetches at a time. Defaults to
+     * 100.
+     * 
+     * @return the fetch size.
+     */
+    public int getFetchSize() {
+        return _fetchSize;
+    }
+
+    /**
+     * Sets the number of records a cursor fetches at a time.
+     * 
+     * @param fetchSize
+     *            the fetch size.
+     */
+    public void setFetchSize(final int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive.");
+        }
+        _fetchSize = fetchSize;
+    }
+
+    /**
+     * Find records in a time range, ordered by time stamp then id.
+     * 
+     * @param from
+     *            the earliest time stamp, or null.
+     * @param to
+     *            the time stamp to stop before, or null.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of records, or 0 for all.
+     * @param matcher
+     *            the other criteria, or null.
+     * @return the records.
+     */
+    protected ResultCursor<T> find(final Date from, final Date to,
+            final PageKey after, final int limit, final Matcher<T> matcher) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative.");
+        }
+        final long lower = from == null ? Long.MIN_VALUE : from.getTime();
+        final long upper = to == null ? Long.MAX_VALUE : to.getTime();
+        final SegmentStore store = getStore();
+        final SegmentStore.RecordFilter<T> filter = new SegmentStore.RecordFilter<T>() {
+            public T accept(final byte[] data) {
+                final T record = decode(data);
+                return matcher == null || matcher.matches(record) ? record
+                        : null;
+            }
+        };
+        return new PagedResultCursor<T>(new PagedResultCursor.Pager<T>() {
+            public List<SegmentStore.Hit<T>> page(final PageKey pageAfter,
+                    final int pageLimit) {
+                return store.page(lower, upper, pageAfter, pageLimit,
+                        _versioned, filter);
+            }
+        }, after, limit, _fetchSize);
+    }
+
+    /**
+     * Returns whether two values are both null or equal.
+     * 
+     * @param a
+     *            a value.
+     * @param b
+     *            another value.
+     * @return true if they are.
+     */
+    protected static boolean same(final Object a, final Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns whether a subject matches the criteria: the same subject id,
+     * and the same type and discriminator where those are set on the
+     * criteria.
+     * 
+     * @param criteria
+     *            the subject searched for.
+     * @param subject
+     *            the subject of a record, or null.
+     * @return true if it matches.
+     */
+    protected static boolean matchesSubject(final AuditSubject criteria,
+            final AuditSubject subject) {
+        if (subject == null) {
+            return false;
+        }
+        return same(criteria.getSubjectId(), subject.getSubjectId())
+                && (criteria.getSubjectType() == null || criteria
+                        .getSubjectType().equals(subject.getSubjectType()))
+                && (criteria.getSubjectDiscriminator() == null || criteria
+                        .getSubjectDiscriminator().equals(
+                                subject.getSubjectDiscriminator()));
+    }
+
+    /**
+     * Returns the store, opening it on first use.
+     * 
+     * @return the store.
+     */
+    /* package */synchronized SegmentStore getStore() {
+        if (_store == null) {
+            if (_directory == null) {
+                throw new IllegalStateException("Directory is required.");
+            }
+            try {
+                _store = new SegmentStore(_directory, _name, _segmentSize,
+                        _indexInterval);
+            } catch (final IOException e) {
+                throw failure("Cannot open " + _name + " in "
+                        + _directory, e);
+            }
+        }
+        return _store;
+    }
+
+    private T decode(final byte[] data) {
+        return _type.cast(AuditRecordCodec.decode(data));
+    }
+
+    private static IllegalStateException failure(final String message,
+            final IOException cause) {
+        final IllegalStateException e = new IllegalStateException(message);
+        e.initCause(cause);
+        return e;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import org.opensaas.jaudit.LifeCycleAuditEvent;
+import org.opensaas.jaudit.LifeCycleAuditEventMutable;
+import org.opensaas.jaudit.dao.LifeCycleAuditEventDao;
+
+/**
+ * Segmented file implementation of {@link LifeCycleAuditEventDao}. The
+ * {@link LifeCycleAuditEvent#getPropertyValueChanges() property value changes}
+ * of an event are encoded with it, in the same record.
+ * 
+ * @param <T>
+ *            the specific type of {@link LifeCycleAuditEvent} in use.
+ */
+public class LifeCycleAuditEventDaoFile<T extends LifeCycleAuditEventMutable>
+        extends AuditEventDaoFile<T> implements LifeCycleAuditEventDao<T> {
+
+    /**
+     * Required constructor.
+     * 
+     * @param type
+     *            the type we are managing.
+     */
+    public LifeCycleAuditEventDaoFile(final Class<T> type) {
+        super(type);
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * A {@link ResultCursor} that fetches its records a page at a time from a
+ * {@link SegmentStore}, continuing each page after the last record of the
+ * one before, so at most one page is held in memory.
+ * 
+ * @param <T>
+ *            the type of record returned.
+ */
+/* package */final class PagedResultCursor<T> implements ResultCursor<T> {
+
+    /**
+     * Fetches one page of the query.
+     * 
+     * @param <T>
+     *            the type of record returned.
+     */
+    interface Pager<T> {
+
+        /**
+         * Fetch the records after a key.
+         * 
+         * @param after
+         *            the key to continue after, or null.
+         * @param limit
+         *            the maximum number of records.
+         * @return the records, in order.
+         */
+        List<SegmentStore.Hit<T>> page(PageKey after, int limit);
+    }
+
+    private final Pager<T> _pager;
+
+    private final int _fetchSize;
+
+    private int _remaining;
+
+    private Iterator<SegmentStore.Hit<T>> _page;
+
+    private boolean _lastPage = false;
+
+    private boolean _closed = false;
+
+    private PageKey _after;
+
+    private PageKey _pageKey;
+
+    /**
+     * Required constructor.
+     * 
+     * @param pager
+     *            fetches the pages.
+     * @param after
+     *            the key to start after, or null.
+     * @param limit
+     *            the maximum number of records, or 0 for all.
+     * @param fetchSize
+     *            the number of records per page.
+     */
+    PagedResultCursor(final Pager<T> pager, final PageKey after,
+            final int limit, final int fetchSize) {
+        _pager = pager;
+        _after = after;
+        _remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+        _fetchSize = fetchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (_closed) {
+            return false;
+        }
+        if ((_page == null || !_page.hasNext()) && !_lastPage
+                && _remaining > 0) {
+            final int size = Math.min(_remaining, _fetchSize);
+            final List<SegmentStore.Hit<T>> hits = _pager.page(_after, size);
+            _lastPage = hits.size() < size;
+            _page = hits.iterator();
+        }
+        if (_page == null || !_page.hasNext()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final SegmentStore.Hit<T> hit = _page.next();
+        _pageKey = hit.getPageKey();
+        _after = _pageKey;
+        _remaining--;
+        return hit._record;
+    }
+
+    /**
+     * Not supported.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("Cursors are read only.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public PageKey getPageKey() {
+        return _pageKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        _closed = true;
+        _page = null;
+    }
+}
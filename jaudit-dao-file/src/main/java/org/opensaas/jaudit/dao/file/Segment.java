@@ -0,0 +1,619 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * One memory mapped, append only file of a {@link SegmentStore}.
+ * 
+ * Each record is a length, a CRC32 of the rest, the time stamp, the id and
+ * the encoded record. Records are grouped into blocks of a fixed number of
+ * records, and each block remembers the lowest and highest time stamp in it:
+ * the sparse time index. While a segment is being written its ids are kept
+ * in a hash map; once it is full it is sealed, and the blocks and the ids,
+ * sorted, are written to an index file next to it that is mapped and binary
+ * searched from then on, so sealed segments cost almost no heap.
+ * 
+ * Not thread safe; the {@link SegmentStore} guards every segment with its
+ * lock.
+ */
+/* package */final class Segment {
+
+    /**
+     * Written in place of a length when the rest of a segment is unused.
+     */
+    static final int END_OF_SEGMENT = -1;
+
+    /**
+     * Length, CRC, time stamp and id length.
+     */
+    static final int HEADER_SIZE = 18;
+
+    private static final int INDEX_MAGIC = 0x6a616978;
+
+    private static final int INDEX_HEADER_SIZE = 32;
+
+    private static final int BLOCK_SIZE = 24;
+
+    private static final int ENTRY_SIZE = 12;
+
+    /**
+     * A run of consecutive records and the range of their time stamps.
+     */
+    static final class Block {
+
+        final Segment _segment;
+
+        final int _start;
+
+        int _end;
+
+        long _minTs = Long.MAX_VALUE;
+
+        long _maxTs = Long.MIN_VALUE;
+
+        int _records;
+
+        Block(final Segment segment, final int start) {
+            _segment = segment;
+            _start = start;
+            _end = start;
+        }
+    }
+
+    private final long _number;
+
+    private final File _file;
+
+    private final File _indexFile;
+
+    private final int _indexInterval;
+
+    private FileChannel _channel;
+
+    private MappedByteBuffer _data;
+
+    private int _end;
+
+    private final List<Block> _blocks = new ArrayList<Block>();
+
+    private long _minTs = Long.MAX_VALUE;
+
+    private long _maxTs = Long.MIN_VALUE;
+
+    private Map<String, Integer> _ids;
+
+    private MappedByteBuffer _index;
+
+    private int _idCount;
+
+    private Segment(final long number, final File file, final File indexFile,
+            final int indexInterval) {
+        _number = number;
+        _file = file;
+        _indexFile = indexFile;
+        _indexInterval = indexInterval;
+    }
+
+    /**
+     * Create a new, empty segment to write to.
+     * 
+     * @param number
+     *            the number of the segment.
+     * @param file
+     *            the segment file.
+     * @param indexFile
+     *            the index file written when the segment is sealed.
+     * @param size
+     *            the size of the segment in bytes.
+     * @param indexInterval
+     *            the number of records per time index block.
+     * @return the segment.
+     * @throws IOException
+     *             when the file can not be created.
+     */
+    static Segment create(final long number, final File file,
+            final File indexFile, final int size, final int indexInterval)
+            throws IOException {
+        final Segment segment = new Segment(number, file, indexFile,
+                indexInterval);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(size);
+        segment._channel = raf.getChannel();
+        segment._data = segment._channel.map(FileChannel.MapMode.READ_WRITE,
+                0L, size);
+        segment._ids = new HashMap<String, Integer>();
+        return segment;
+    }
+
+    /**
+     * Open an existing segment. A segment with an index file is opened
+     * sealed; otherwise its records are scanned up to the first one that is
+     * incomplete or fails its check, whatever follows is cleared, and the
+     * segment is left open for writing.
+     * 
+     * @param number
+     *            the number of the segment.
+     * @param file
+     *            the segment file.
+     * @param indexFile
+     *            the index file.
+     * @param indexInterval
+     *            the number of records per time index block.
+     * @return the segment.
+     * @throws IOException
+     *             when the files can not be read.
+     */
+    static Segment open(final long number, final File file,
+            final File indexFile, final int indexInterval) throws IOException {
+        final Segment segment = new Segment(number, file, indexFile,
+                indexInterval);
+        if (indexFile.exists()) {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            segment._channel = raf.getChannel();
+            segment._data = segment._channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0L, raf.length());
+            segment.loadIndex();
+        } else {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            segment._channel = raf.getChannel();
+            segment._data = segment._channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0L, raf.length());
+            segment._ids = new HashMap<String, Integer>();
+            segment.recover();
+        }
+        return segment;
+    }
+
+    /**
+     * Append a record.
+     * 
+     * @param id
+     *            the id of the record.
+     * @param idBytes
+     *            the id in UTF-8.
+     * @param ts
+     *            the time stamp of the record.
+     * @param data
+     *            the encoded record.
+     * @return false if the record does not fit in the rest of the segment.
+     */
+    boolean append(final String id, final byte[] idBytes, final long ts,
+            final byte[] data) {
+        final int length = HEADER_SIZE - 8 + idBytes.length + data.length;
+        if (_end + 8 + length > _data.capacity()) {
+            return false;
+        }
+
+        final ByteBuffer buffer = _data.duplicate();
+        buffer.position(_end + 8);
+        buffer.putLong(ts);
+        buffer.putShort((short) idBytes.length);
+        buffer.put(idBytes);
+        buffer.put(data);
+
+        final CRC32 crc = new CRC32();
+        crc.update(header(ts, idBytes.length));
+        crc.update(idBytes);
+        crc.update(data);
+        _data.putInt(_end + 4, (int) crc.getValue());
+        _data.putInt(_end, length);
+
+        indexRecord(id, ts, _end, _end + 8 + length);
+        return true;
+    }
+
+    /**
+     * Find the newest record with the passed id in this segment.
+     * 
+     * @param id
+     *            the id.
+     * @param idBytes
+     *            the id in UTF-8.
+     * @return the offset of the record, or -1 if there is none.
+     */
+    int find(final String id, final byte[] idBytes) {
+        if (_ids != null) {
+            final Integer offset = _ids.get(id);
+            return offset == null ? -1 : offset.intValue();
+        }
+
+        final int entries = INDEX_HEADER_SIZE + _blocks.size() * BLOCK_SIZE;
+        int low = 0;
+        int high = _idCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int entry = entries + mid * ENTRY_SIZE;
+            final int c = compare(_index, _index.getInt(entry), _index
+                    .getInt(entry + 4), idBytes);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return _index.getInt(entry + 8);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add the blocks that may hold time stamps in the passed range.
+     * 
+     * @param from
+     *            the inclusive lower bound.
+     * @param to
+     *            the exclusive upper bound.
+     * @param blocks
+     *            the list to add to.
+     */
+    void collectBlocks(final long from, final long to, final List<Block> blocks) {
+        if (_maxTs < from || _minTs >= to) {
+            return;
+        }
+        for (final Block block : _blocks) {
+            if (block._maxTs >= from && block._minTs < to) {
+                blocks.add(block);
+            }
+        }
+    }
+
+    /**
+     * Returns the offset of the record after the one at the passed offset.
+     * 
+     * @param offset
+     *            the offset of a record.
+     * @return the offset of the next.
+     */
+    int next(final int offset) {
+        return offset + 8 + _data.getInt(offset);
+    }
+
+    /**
+     * Returns the time stamp of the record at the passed offset.
+     * 
+     * @param offset
+     *            the offset of a record.
+     * @return the time stamp.
+     */
+    long tsAt(final int offset) {
+        return _data.getLong(offset + 8);
+    }
+
+    /**
+     * Returns the id of the record at the passed offset.
+     * 
+     * @param offset
+     *            the offset of a record.
+     * @return the id.
+     */
+    String idAt(final int offset) {
+        final byte[] bytes = new byte[_data.getShort(offset + 16) & 0xFFFF];
+        final ByteBuffer buffer = _data.duplicate();
+        buffer.position(offset + HEADER_SIZE);
+        buffer.get(bytes);
+        return SegmentStore.toString(bytes);
+    }
+
+    /**
+     * Returns the encoded record at the passed offset.
+     * 
+     * @param offset
+     *            the offset of a record.
+     * @return the encoded record.
+     */
+    byte[] dataAt(final int offset) {
+        final int idLength = _data.getShort(offset + 16) & 0xFFFF;
+        final byte[] data = new byte[_data.getInt(offset) - HEADER_SIZE + 8
+                - idLength];
+        final ByteBuffer buffer = _data.duplicate();
+        buffer.position(offset + HEADER_SIZE + idLength);
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Mark the end of the records, force them to disk and write the index
+     * file. The segment can not be written to afterwards.
+     * 
+     * @throws IOException
+     *             when the index can not be written.
+     */
+    void seal() throws IOException {
+        if (_ids == null) {
+            return;
+        }
+        if (_end + 4 <= _data.capacity()) {
+            _data.putInt(_end, END_OF_SEGMENT);
+        }
+        _data.force();
+
+        final List<Map.Entry<byte[], Integer>> entries = new ArrayList<Map.Entry<byte[], Integer>>(
+                _ids.size());
+        int keysSize = 0;
+        for (final Map.Entry<String, Integer> id : _ids.entrySet()) {
+            final byte[] key = SegmentStore.toBytes(id.getKey());
+            keysSize += key.length;
+            entries.add(new Entry(key, id.getValue()));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<byte[], Integer>>() {
+            public int compare(final Map.Entry<byte[], Integer> a,
+                    final Map.Entry<byte[], Integer> b) {
+                return Segment.compare(ByteBuffer.wrap(a.getKey()), 0, a
+                        .getKey().length, b.getKey());
+            }
+        });
+
+        final int keysOffset = INDEX_HEADER_SIZE + _blocks.size()
+                * BLOCK_SIZE + entries.size() * ENTRY_SIZE;
+        final ByteBuffer index = ByteBuffer.allocate(keysOffset + keysSize);
+        index.putInt(INDEX_MAGIC);
+        index.putInt(_end);
+        index.putInt(_blocks.size());
+        index.putInt(entries.size());
+        index.putLong(_minTs);
+        index.putLong(_maxTs);
+        for (final Block block : _blocks) {
+            index.putLong(block._minTs);
+            index.putLong(block._maxTs);
+            index.putInt(block._start);
+            index.putInt(block._end);
+        }
+        int keyOffset = keysOffset;
+        for (final Map.Entry<byte[], Integer> entry : entries) {
+            index.putInt(keyOffset);
+            index.putInt(entry.getKey().length);
+            index.putInt(entry.getValue().intValue());
+            keyOffset += entry.getKey().length;
+        }
+        for (final Map.Entry<byte[], Integer> entry : entries) {
+            index.put(entry.getKey());
+        }
+        index.flip();
+
+        // written aside and renamed, so an index file is always complete
+        final File temp = new File(_indexFile.getPath() + ".tmp");
+        final RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+            raf.setLength(0L);
+            final FileChannel channel = raf.getChannel();
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+            channel.force(true);
+        } finally {
+            raf.close();
+        }
+        if (!temp.renameTo(_indexFile)) {
+            throw new IOException("Cannot rename " + temp + " to "
+                    + _indexFile);
+        }
+
+        _ids = null;
+        mapIndex();
+    }
+
+    /**
+     * Force the records written so far to disk.
+     */
+    void force() {
+        if (_ids != null) {
+            _data.force();
+        }
+    }
+
+    /**
+     * Close the segment files.
+     * 
+     * @throws IOException
+     *             when a file can not be closed.
+     */
+    void close() throws IOException {
+        _channel.close();
+    }
+
+    /**
+     * Returns the number of the segment.
+     * 
+     * @return the number.
+     */
+    long getNumber() {
+        return _number;
+    }
+
+    /**
+     * Returns whether the segment is sealed.
+     * 
+     * @return true once sealed.
+     */
+    boolean isSealed() {
+        return _ids == null;
+    }
+
+    /**
+     * Returns the offset just after the last record.
+     * 
+     * @return the end of the records.
+     */
+    int getEnd() {
+        return _end;
+    }
+
+    /**
+     * Returns the segment file.
+     * 
+     * @return the file.
+     */
+    File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns the index file.
+     * 
+     * @return the file.
+     */
+    File getIndexFile() {
+        return _indexFile;
+    }
+
+    private void indexRecord(final String id, final long ts, final int start,
+            final int end) {
+        Block block = _blocks.isEmpty() ? null : _blocks
+                .get(_blocks.size() - 1);
+        if (block == null || block._records == _indexInterval) {
+            block = new Block(this, start);
+            _blocks.add(block);
+        }
+        block._end = end;
+        block._records++;
+        block._minTs = Math.min(block._minTs, ts);
+        block._maxTs = Math.max(block._maxTs, ts);
+        _minTs = Math.min(_minTs, ts);
+        _maxTs = Math.max(_maxTs, ts);
+        _ids.put(id, Integer.valueOf(start));
+        _end = end;
+    }
+
+    private void recover() throws IOException {
+        final int capacity = _data.capacity();
+        int offset = 0;
+        boolean ended = false;
+        while (offset + HEADER_SIZE <= capacity) {
+            final int length = _data.getInt(offset);
+            if (length == END_OF_SEGMENT) {
+                ended = true;
+                break;
+            }
+            if (length < HEADER_SIZE - 8 || offset + 8 + length > capacity) {
+                break;
+            }
+            final byte[] body = new byte[length];
+            final ByteBuffer buffer = _data.duplicate();
+            buffer.position(offset + 8);
+            buffer.get(body);
+            final CRC32 crc = new CRC32();
+            crc.update(body);
+            final int idLength = _data.getShort(offset + 16) & 0xFFFF;
+            if ((int) crc.getValue() != _data.getInt(offset + 4)
+                    || HEADER_SIZE - 8 + idLength > length) {
+                break;
+            }
+            indexRecord(idAt(offset), tsAt(offset), offset, offset + 8
+                    + length);
+            offset += 8 + length;
+        }
+
+        if (!ended) {
+            // drop a torn record so that it is not mistaken for data later
+            final byte[] zeros = new byte[8192];
+            final ByteBuffer target = _data.duplicate();
+            target.position(_end);
+            while (target.hasRemaining()) {
+                target.put(zeros, 0, Math.min(zeros.length, target
+                        .remaining()));
+            }
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        mapIndex();
+        if (_index.capacity() < INDEX_HEADER_SIZE
+                || _index.getInt(0) != INDEX_MAGIC) {
+            throw new IOException("Not a segment index: " + _indexFile);
+        }
+        _end = _index.getInt(4);
+        final int blocks = _index.getInt(8);
+        _idCount = _index.getInt(12);
+        _minTs = _index.getLong(16);
+        _maxTs = _index.getLong(24);
+        for (int i = 0; i < blocks; i++) {
+            final int position = INDEX_HEADER_SIZE + i * BLOCK_SIZE;
+            final Block block = new Block(this, _index.getInt(position + 16));
+            block._minTs = _index.getLong(position);
+            block._maxTs = _index.getLong(position + 8);
+            block._end = _index.getInt(position + 20);
+            _blocks.add(block);
+        }
+    }
+
+    private void mapIndex() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(_indexFile, "r");
+        try {
+            _index = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L,
+                    raf.length());
+        } finally {
+            raf.close();
+        }
+        _idCount = _index.getInt(12);
+    }
+
+    private static byte[] header(final long ts, final int idLength) {
+        final byte[] header = new byte[10];
+        ByteBuffer.wrap(header).putLong(ts).putShort((short) idLength);
+        return header;
+    }
+
+    /**
+     * Compare UTF-8 bytes in a buffer with others, unsigned, the way the
+     * index is sorted.
+     */
+    private static int compare(final ByteBuffer buffer, final int offset,
+            final int length, final byte[] bytes) {
+        final int n = Math.min(length, bytes.length);
+        for (int i = 0; i < n; i++) {
+            final int c = (buffer.get(offset + i) & 0xFF) - (bytes[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - bytes.length;
+    }
+
+    private static final class Entry implements Map.Entry<byte[], Integer> {
+
+        private final byte[] _key;
+
+        private final Integer _value;
+
+        Entry(final byte[] key, final Integer value) {
+            _key = key;
+            _value = value;
+        }
+
+        public byte[] getKey() {
+            return _key;
+        }
+
+        public Integer getValue() {
+            return _value;
+        }
+
+        public Integer setValue(final Integer value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * An append only store of records kept in a directory as a series of
+ * {@link Segment}s of a fixed size. Records are only ever added; a record
+ * appended again with the same id supersedes the earlier one for
+ * {@link #read(String)}, and for {@link #page} when asked for the latest
+ * versions only.
+ * 
+ * Appends take a write lock and reads a read lock, so reads run in parallel
+ * with each other but not with appends.
+ */
+/* package */final class SegmentStore {
+
+    /**
+     * Decides whether a record belongs in a page, and decodes it.
+     * 
+     * @param <T>
+     *            the type of record.
+     */
+    interface RecordFilter<T> {
+
+        /**
+         * Decode a record if it matches.
+         * 
+         * @param data
+         *            the encoded record.
+         * @return the record, or null if it does not match.
+         */
+        T accept(byte[] data);
+    }
+
+    /**
+     * A record to append.
+     */
+    static final class Entry {
+
+        final String _id;
+
+        final long _ts;
+
+        final byte[] _data;
+
+        /**
+         * Required constructor.
+         * 
+         * @param id
+         *            the id of the record.
+         * @param ts
+         *            the time stamp of the record.
+         * @param data
+         *            the encoded record.
+         */
+        Entry(final String id, final long ts, final byte[] data) {
+            _id = id;
+            _ts = ts;
+            _data = data;
+        }
+    }
+
+    /**
+     * A record found by {@link SegmentStore#page}.
+     * 
+     * @param <T>
+     *            the type of record.
+     */
+    static final class Hit<T> {
+
+        final long _ts;
+
+        final String _id;
+
+        final T _record;
+
+        Hit(final long ts, final String id, final T record) {
+            _ts = ts;
+            _id = id;
+            _record = record;
+        }
+
+        /**
+         * Returns the key of the record.
+         * 
+         * @return the key.
+         */
+        PageKey getPageKey() {
+            return new PageKey(new Date(_ts), _id);
+        }
+    }
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Orders hits by time stamp then id.
+     */
+    static final Comparator<Hit<?>> HIT_ORDER = new Comparator<Hit<?>>() {
+        public int compare(final Hit<?> a, final Hit<?> b) {
+            if (a._ts != b._ts) {
+                return a._ts < b._ts ? -1 : 1;
+            }
+            return a._id.compareTo(b._id);
+        }
+    };
+
+    private static final Comparator<Segment.Block> BLOCK_ORDER = new Comparator<Segment.Block>() {
+        public int compare(final Segment.Block a, final Segment.Block b) {
+            return a._minTs < b._minTs ? -1 : a._minTs == b._minTs ? 0 : 1;
+        }
+    };
+
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+    private final File _directory;
+
+    private final String _prefix;
+
+    private final int _segmentSize;
+
+    private final int _indexInterval;
+
+    private final List<Segment> _segments = new ArrayList<Segment>();
+
+    private Segment _active;
+
+    private boolean _closed = false;
+
+    /**
+     * Open the store, recovering the segments already in the directory.
+     * 
+     * @param directory
+     *            the directory of the segment files, created if missing.
+     * @param prefix
+     *            the name the segment files start with.
+     * @param segmentSize
+     *            the size of a segment in bytes.
+     * @param indexInterval
+     *            the number of records per time index block.
+     * @throws IOException
+     *             when the segments can not be opened.
+     */
+    SegmentStore(final File directory, final String prefix,
+            final int segmentSize, final int indexInterval) throws IOException {
+        _directory = directory;
+        _prefix = prefix;
+        _segmentSize = segmentSize;
+        _indexInterval = indexInterval;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        final String start = prefix + "-";
+        final String[] names = directory.list(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(start) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        final List<Long> numbers = new ArrayList<Long>(names.length);
+        for (final String name : names) {
+            try {
+                numbers.add(Long.valueOf(name.substring(start.length(), name
+                        .length()
+                        - SEGMENT_SUFFIX.length())));
+            } catch (final NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        Collections.sort(numbers);
+
+        for (final Long number : numbers) {
+            final Segment segment = Segment.open(number.longValue(),
+                    segmentFile(number.longValue()), indexFile(number
+                            .longValue()), indexInterval);
+            _segments.add(segment);
+        }
+        for (int i = 0; i < _segments.size() - 1; i++) {
+            _segments.get(i).seal();
+        }
+        if (!_segments.isEmpty()) {
+            final Segment last = _segments.get(_segments.size() - 1);
+            if (!last.isSealed()) {
+                _active = last;
+            }
+        }
+    }
+
+    /**
+     * Append records, in order, starting new segments as they fill up.
+     * 
+     * @param entries
+     *            the records to append.
+     * @throws IOException
+     *             when a segment can not be sealed or created.
+     */
+    void append(final List<Entry> entries) throws IOException {
+        final byte[][] ids = new byte[entries.size()][];
+        for (int i = 0; i < ids.length; i++) {
+            final Entry entry = entries.get(i);
+            ids[i] = toBytes(entry._id);
+            if (ids[i].length > 0xFFFF) {
+                throw new IllegalArgumentException("Id is too long: "
+                        + entry._id);
+            }
+            if (Segment.HEADER_SIZE + ids[i].length + entry._data.length > _segmentSize) {
+                throw new IllegalArgumentException("Record " + entry._id
+                        + " does not fit in a segment.");
+            }
+        }
+
+        _lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (int i = 0; i < ids.length; i++) {
+                final Entry entry = entries.get(i);
+                if (_active == null
+                        || !_active.append(entry._id, ids[i], entry._ts,
+                                entry._data)) {
+                    roll();
+                    _active.append(entry._id, ids[i], entry._ts, entry._data);
+                }
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read the latest version of a record.
+     * 
+     * @param id
+     *            the id of the record.
+     * @return the encoded record, or null if there is none.
+     */
+    byte[] read(final String id) {
+        final byte[] idBytes = toBytes(id);
+        _lock.readLock().lock();
+        try {
+            checkOpen();
+            for (int i = _segments.size() - 1; i >= 0; i--) {
+                final Segment segment = _segments.get(i);
+                final int offset = segment.find(id, idBytes);
+                if (offset >= 0) {
+                    return segment.dataAt(offset);
+                }
+            }
+            return null;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find a page of records ordered by time stamp then id. Only the blocks
+     * of the time index that overlap the range are read, lowest time stamps
+     * first, and reading stops once no remaining block can hold a record
+     * that sorts before the last one of a full page.
+     * 
+     * @param <T>
+     *            the type of record.
+     * @param from
+     *            the inclusive lower time stamp bound.
+     * @param to
+     *            the exclusive upper time stamp bound.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of records, at least 1.
+     * @param latestOnly
+     *            whether to skip records superseded by a later version.
+     * @param filter
+     *            the filter deciding which records match.
+     * @return the records, in order.
+     */
+    <T> List<Hit<T>> page(final long from, final long to,
+            final PageKey after, final int limit, final boolean latestOnly,
+            final RecordFilter<T> filter) {
+        final long afterTs = after == null ? Long.MIN_VALUE : after.getTs()
+                .getTime();
+        final long lower = Math.max(from, afterTs);
+        final PriorityQueue<Hit<T>> page = new PriorityQueue<Hit<T>>(limit,
+                Collections.reverseOrder(HIT_ORDER));
+
+        _lock.readLock().lock();
+        try {
+            checkOpen();
+            final List<Segment.Block> blocks = new ArrayList<Segment.Block>();
+            for (final Segment segment : _segments) {
+                segment.collectBlocks(lower, to, blocks);
+            }
+            Collections.sort(blocks, BLOCK_ORDER);
+
+            for (final Segment.Block block : blocks) {
+                if (page.size() == limit && block._minTs > page.peek()._ts) {
+                    break;
+                }
+                final Segment segment = block._segment;
+                for (int offset = block._start; offset < block._end; offset = segment
+                        .next(offset)) {
+                    final long ts = segment.tsAt(offset);
+                    if (ts < lower || ts >= to) {
+                        continue;
+                    }
+                    if (page.size() == limit && ts > page.peek()._ts) {
+                        continue;
+                    }
+                    final String id = segment.idAt(offset);
+                    if (after != null && ts == afterTs
+                            && id.compareTo(after.getId()) <= 0) {
+                        continue;
+                    }
+                    if (latestOnly && !isLatest(segment, offset, id)) {
+                        continue;
+                    }
+                    final T record = filter.accept(segment.dataAt(offset));
+                    if (record == null) {
+                        continue;
+                    }
+                    page.add(new Hit<T>(ts, id, record));
+                    if (page.size() > limit) {
+                        page.poll();
+                    }
+                }
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        final List<Hit<T>> hits = new ArrayList<Hit<T>>(page);
+        Collections.sort(hits, HIT_ORDER);
+        return hits;
+    }
+
+    /**
+     * Force the records appended so far to disk.
+     */
+    void flush() {
+        _lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (_active != null) {
+                _active.force();
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Force the records to disk and close the segments. Closing twice has no
+     * effect.
+     * 
+     * @throws IOException
+     *             when a segment can not be closed.
+     */
+    void close() throws IOException {
+        _lock.writeLock().lock();
+        try {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            if (_active != null) {
+                _active.force();
+            }
+            for (final Segment segment : _segments) {
+                segment.close();
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of segments.
+     * 
+     * @return the number of segments.
+     */
+    int getSegmentCount() {
+        _lock.readLock().lock();
+        try {
+            return _segments.size();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    private boolean isLatest(final Segment segment, final int offset,
+            final String id) {
+        final byte[] idBytes = toBytes(id);
+        for (int i = _segments.size() - 1; i >= 0; i--) {
+            final Segment newer = _segments.get(i);
+            if (newer == segment) {
+                return newer.find(id, idBytes) == offset;
+            }
+            if (newer.find(id, idBytes) >= 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void roll() throws IOException {
+        if (_active != null) {
+            _active.seal();
+        }
+        final long number = _segments.isEmpty() ? 0L : _segments.get(
+                _segments.size() - 1).getNumber() + 1;
+        _active = Segment.create(number, segmentFile(number),
+                indexFile(number), _segmentSize, _indexInterval);
+        _segments.add(_active);
+    }
+
+    private void checkOpen() {
+        if (_closed) {
+            throw new IllegalStateException("Store is closed.");
+        }
+    }
+
+    private File segmentFile(final long number) {
+        return new File(_directory, name(number) + SEGMENT_SUFFIX);
+    }
+
+    private File indexFile(final long number) {
+        return new File(_directory, name(number) + INDEX_SUFFIX);
+    }
+
+    private String name(final long number) {
+        return _prefix + "-" + String.format("%010d", Long.valueOf(number));
+    }
+
+    /**
+     * Returns a string as UTF-8.
+     * 
+     * @param s
+     *            the string.
+     * @return the bytes.
+     */
+    static byte[] toBytes(final String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported.");
+        }
+    }
+
+    /**
+     * Returns a string read from UTF-8.
+     * 
+     * @param bytes
+     *            the bytes.
+     * @return the string.
+     */
+    static String toString(final byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported.");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.util.Date;
+
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordMutable;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+import org.opensaas.jaudit.dao.SessionRecordDao;
+
+/**
+ * Segmented file implementation of {@link SessionRecordDao}. Records are
+ * indexed by {@link SessionRecord#getStartedTs()}. An update appends a new
+ * version of the record, which supersedes the earlier ones.
+ * 
+ * @param <T>
+ *            the specific type of {@link SessionRecordMutable} in use.
+ */
+public class SessionRecordDaoFile<T extends SessionRecordMutable> extends
+        GenericDaoFile<T> implements SessionRecordDao<T> {
+
+    /**
+     * Required constructor.
+     * 
+     * @param type
+     *            the type we are managing.
+     */
+    public SessionRecordDaoFile(final Class<T> type) {
+        super(type, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized SessionRecord updateEndedTs(
+            final SessionRecord sessionRecord, final Date endedTs) {
+        if (sessionRecord == null) {
+            throw new IllegalArgumentException(
+                    "Session record must not be null.");
+        }
+
+        final T sr = read(sessionRecord.getId());
+        if (sr == null) {
+            throw new IllegalArgumentException(
+                    "Session record does not exist in persistence.");
+        }
+
+        sr.setEndedTs(endedTs);
+
+        create(sr);
+        return sr;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized SessionRecord updateResponsibleInformation(
+            final SessionRecord sessionRecord,
+            final ResponsibleInformation responsibleInformation) {
+        if (sessionRecord == null) {
+            throw new IllegalArgumentException(
+                    "Session record must not be null.");
+        }
+
+        final T sr = read(sessionRecord.getId());
+        if (sr == null) {
+            throw new IllegalArgumentException(
+                    "Session record does not exist in persistence.");
+        }
+
+        if (sr.getEndedTs() != null) {
+            throw new IllegalArgumentException(
+                    "Session record has already been ended at: "
+                            + sr.getEndedTs());
+        }
+
+        sr.setResponsibleInformation(responsibleInformation);
+
+        create(sr);
+        return sr;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByResponsible(final AuditSubject responsible,
+            final Date from, final Date to, final PageKey after,
+            final int limit) {
+        if (responsible == null) {
+            throw new IllegalArgumentException("Subject is required.");
+        }
+        return find(from, to, after, limit, new Matcher<T>() {
+            public boolean matches(final T record) {
+                final ResponsibleInformation ri = record
+                        .getResponsibleInformation();
+                return matchesSubject(responsible, ri == null ? null : ri
+                        .getResponsible());
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByStartedTs(final Date from, final Date to,
+            final PageKey after, final int limit) {
+        return find(from, to, after, limit, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getId(final T instance) {
+        return instance.getId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Date getTs(final T instance) {
+        return instance.getStartedTs();
+    }
+}
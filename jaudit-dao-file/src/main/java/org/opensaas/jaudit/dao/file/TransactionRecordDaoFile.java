@@ -0,0 +1,108 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.util.Date;
+
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.TransactionRecordMutable;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+import org.opensaas.jaudit.dao.TransactionRecordDao;
+
+/**
+ * Segmented file implementation of {@link TransactionRecordDao}. Records are
+ * indexed by {@link TransactionRecord#getStartedTs()}. Ending a transaction
+ * appends a new version of its record, which supersedes the earlier ones.
+ * 
+ * @param <T>
+ *            the specific type of {@link TransactionRecordMutable} in use.
+ */
+public class TransactionRecordDaoFile<T extends TransactionRecordMutable>
+        extends GenericDaoFile<T> implements TransactionRecordDao<T> {
+
+    /**
+     * Required constructor.
+     * 
+     * @param type
+     *            the type we are managing.
+     */
+    public TransactionRecordDaoFile(final Class<T> type) {
+        super(type, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized TransactionRecord transactionEnded(
+            final TransactionRecord transactionRecord,
+            final TransactionCompletionStatus transactionStatus,
+            final Date endedTs) {
+        if (transactionRecord == null) {
+            throw new IllegalArgumentException(
+                    "Transaction record must not be null.");
+        }
+
+        final T tr = read(transactionRecord.getId());
+        if (tr == null) {
+            throw new IllegalArgumentException(
+                    "Transaction record does not exist in persistence.");
+        }
+
+        tr.setEndedTs(endedTs);
+        tr.setTransactionCompletionStatus(transactionStatus);
+
+        create(tr);
+        return tr;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findBySessionRecord(final String sessionRecordId,
+            final PageKey after, final int limit) {
+        return find(null, null, after, limit, new Matcher<T>() {
+            public boolean matches(final T record) {
+                final SessionRecord sessionRecord = record.getSessionRecord();
+                return same(sessionRecordId, sessionRecord == null ? null
+                        : sessionRecord.getId());
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByStartedTs(final Date from, final Date to,
+            final PageKey after, final int limit) {
+        return find(from, to, after, limit, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getId(final T instance) {
+        return instance.getId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Date getTs(final T instance) {
+        return instance.getStartedTs();
+    }
+}
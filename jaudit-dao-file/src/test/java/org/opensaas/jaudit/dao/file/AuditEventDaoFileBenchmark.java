@@ -0,0 +1,117 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.opensaas.jaudit.BusinessAuditEventVO;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Measures the append rate of {@link AuditEventDaoFile} for batches of
+ * business events, and the rate of a time range scan over them. Run with
+ * <tt>java org.opensaas.jaudit.dao.file.AuditEventDaoFileBenchmark
+ * [events] [batch size]</tt> on the test class path; the segment files are
+ * written to a temporary directory and deleted afterwards.
+ */
+public final class AuditEventDaoFileBenchmark {
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            optional number of events and batch size.
+     * @throws Exception
+     *             when an error occurs.
+     */
+    public static void main(final String[] args) throws Exception {
+        final int events = args.length > 0 ? Integer.parseInt(args[0])
+                : 1000000;
+        final int batchSize = args.length > 1 ? Integer.parseInt(args[1])
+                : 100;
+
+        for (int round = 0; round < 3; ++round) {
+            final File directory = File.createTempFile("jaudit", ".bench");
+            directory.delete();
+            final AuditEventDaoFile<BusinessAuditEventVO> dao = new AuditEventDaoFile<BusinessAuditEventVO>(
+                    BusinessAuditEventVO.class);
+            dao.setDirectory(directory);
+            dao.setFetchSize(1000);
+            try {
+                final long write = timeWrite(dao, events, batchSize);
+                final long scan = timeScan(dao, events);
+                System.out.println("round " + round + ": append "
+                        + (events * 1000000000L / write) + " events/s, scan "
+                        + (events / 2 * 1000000000L / scan) + " events/s, "
+                        + dao.getStore().getSegmentCount() + " segments");
+            } finally {
+                dao.close();
+                for (final File file : directory.listFiles()) {
+                    file.delete();
+                }
+                directory.delete();
+            }
+        }
+    }
+
+    private static long timeWrite(
+            final AuditEventDaoFile<BusinessAuditEventVO> dao,
+            final int events, final int batchSize) {
+        final SessionRecordVO sr = FileStoreTestBase.newSessionRecord("s1",
+                0L);
+        final TransactionRecordVO tr = FileStoreTestBase
+                .newTransactionRecord("t1", sr, 0L);
+        final List<BusinessAuditEventVO> batch = new ArrayList<BusinessAuditEventVO>(
+                batchSize);
+        final long start = System.nanoTime();
+        for (int i = 0; i < events; ++i) {
+            batch.add(FileStoreTestBase.newEvent("e" + i, tr,
+                    FileStoreTestBase.newSubject("order", "o" + (i % 1000)),
+                    i));
+            if (batch.size() == batchSize) {
+                dao.createAll(batch);
+                batch.clear();
+            }
+        }
+        dao.createAll(batch);
+        dao.flush();
+        return System.nanoTime() - start;
+    }
+
+    private static long timeScan(
+            final AuditEventDaoFile<BusinessAuditEventVO> dao,
+            final int events) {
+        int check = 0;
+        final long start = System.nanoTime();
+        final ResultCursor<BusinessAuditEventVO> cursor = dao.findByTs(
+                new Date(events / 4), new Date(events / 4 * 3), null, 0);
+        while (cursor.hasNext()) {
+            check += cursor.next().hashCode();
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (check == 42) {
+            System.out.println();
+        }
+        return elapsed;
+    }
+
+    private AuditEventDaoFileBenchmark() {
+        throw new UnsupportedOperationException(
+                "Cannot construct benchmark class.");
+    }
+}
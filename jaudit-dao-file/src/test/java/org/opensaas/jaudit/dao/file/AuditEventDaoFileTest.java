@@ -0,0 +1,280 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.BusinessAuditEventVO;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Test class for {@link AuditEventDaoFile}.
+ */
+public class AuditEventDaoFileTest extends FileStoreTestBase {
+
+    private AuditEventDaoFile<BusinessAuditEventVO> _dao;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close() {
+        if (_dao != null) {
+            _dao.close();
+        }
+    }
+
+    /**
+     * Test create and read.
+     */
+    @Test
+    public void testCreateRead() {
+        _dao = newDao();
+        final TransactionRecordVO tr = newTransactionRecord("t1",
+                newSessionRecord("s1", 1000L), 1000L);
+        final BusinessAuditEventVO event = newEvent("e1", tr, newSubject(
+                "order", "o1"), 1500L);
+
+        Assert.assertEquals("e1", _dao.create(event));
+        final BusinessAuditEventVO read = _dao.read("e1");
+        Assert.assertEquals(event, read);
+        Assert.assertNotSame(event, read);
+        Assert.assertEquals(event.getTs(), read.getTs());
+        Assert.assertEquals(event.getTarget(), read.getTarget());
+        Assert.assertEquals("approve", read.getBusinessAction());
+        Assert.assertEquals("s1", read.getSessionRecord().getId());
+        Assert.assertEquals("t1", read.getTransactionRecord().getId());
+        Assert.assertNull(_dao.read("e2"));
+        Assert.assertNull(_dao.read(null));
+    }
+
+    /**
+     * Test createAll over several segments, and reading back after the dao is
+     * reopened.
+     */
+    @Test
+    public void testCreateAllReopen() {
+        _dao = newDao();
+        final List<BusinessAuditEventVO> events = newEvents(50);
+        final List<String> ids = _dao.createAll(events);
+        Assert.assertEquals(50, ids.size());
+        Assert.assertTrue(_dao.getStore().getSegmentCount() > 1);
+        _dao.close();
+
+        _dao = newDao();
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(ids.get(i), events.get(i).getId());
+            Assert.assertEquals(events.get(i), _dao.read(ids.get(i)));
+        }
+        Assert.assertTrue(_dao.createAll(new ArrayList<BusinessAuditEventVO>())
+                .isEmpty());
+    }
+
+    /**
+     * An event needs an id.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateNoId() {
+        _dao = newDao();
+        final BusinessAuditEventVO event = newEvents(1).get(0);
+        event.setId(null);
+        _dao.create(event);
+    }
+
+    /**
+     * createAll needs instances.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateAllNull() {
+        _dao = newDao();
+        _dao.createAll(null);
+    }
+
+    /**
+     * The dao needs a directory.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testNoDirectory() {
+        new AuditEventDaoFile<BusinessAuditEventVO>(BusinessAuditEventVO.class)
+                .read("e1");
+    }
+
+    /**
+     * Test the property validation.
+     */
+    @Test
+    public void testProperties() {
+        final AuditEventDaoFile<BusinessAuditEventVO> dao = new AuditEventDaoFile<BusinessAuditEventVO>(
+                BusinessAuditEventVO.class);
+        Assert.assertEquals(BusinessAuditEventVO.class, dao.getType());
+        Assert.assertEquals("BusinessAuditEventVO", dao.getName());
+        Assert.assertEquals(64 * 1024 * 1024, dao.getSegmentSize());
+        Assert.assertEquals(128, dao.getIndexInterval());
+        Assert.assertEquals(100, dao.getFetchSize());
+        assertRejected(dao, "segmentSize", 1023);
+        assertRejected(dao, "indexInterval", 0);
+        assertRejected(dao, "fetchSize", 0);
+        try {
+            dao.setName("");
+            Assert.fail("Empty name accepted.");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            dao.setDirectory(null);
+            Assert.fail("Null directory accepted.");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test findByTs, fetching over several pages and continuing after a page
+     * key.
+     */
+    @Test
+    public void testFindByTs() {
+        _dao = newDao();
+        _dao.setFetchSize(3);
+        final List<BusinessAuditEventVO> events = newEvents(50);
+        _dao.createAll(events);
+
+        ResultCursor<BusinessAuditEventVO> cursor = _dao.findByTs(new Date(
+                10L), new Date(30L), null, 0);
+        Assert.assertNull(cursor.getPageKey());
+        for (int i = 10; i < 30; i++) {
+            Assert.assertTrue(cursor.hasNext());
+            Assert.assertEquals(events.get(i), cursor.next());
+        }
+        Assert.assertFalse(cursor.hasNext());
+        Assert.assertEquals(new PageKey(new Date(29L), "e29"), cursor
+                .getPageKey());
+
+        cursor = _dao.findByTs(null, null, new PageKey(new Date(44L), "e44"),
+                4);
+        Assert.assertEquals(Arrays.asList(events.get(45), events.get(46),
+                events.get(47), events.get(48)), toList(cursor));
+    }
+
+    /**
+     * Test findByTarget, narrowed by subject type when set.
+     */
+    @Test
+    public void testFindByTarget() {
+        _dao = newDao();
+        final List<BusinessAuditEventVO> events = newEvents(50);
+        _dao.createAll(events);
+
+        Assert.assertEquals(Arrays.asList(events.get(13), events.get(18)),
+                toList(_dao.findByTarget(newSubject(null, "o3"), new Date(
+                        10L), new Date(20L), null, 0)));
+        Assert.assertEquals(Arrays.asList(events.get(13)), toList(_dao
+                .findByTarget(newSubject("order", "o3"), new Date(10L),
+                        new Date(20L), null, 0)));
+        Assert.assertTrue(toList(
+                _dao.findByTarget(newSubject("customer", "o1"), null, null,
+                        null, 0)).isEmpty());
+    }
+
+    /**
+     * Test findBySessionRecord and findByTransactionRecord.
+     */
+    @Test
+    public void testFindBySessionTransaction() {
+        _dao = newDao();
+        final List<BusinessAuditEventVO> events = newEvents(50);
+        _dao.createAll(events);
+
+        final List<BusinessAuditEventVO> session = toList(_dao
+                .findBySessionRecord("s1", null, 0));
+        Assert.assertEquals(25, session.size());
+        Assert.assertEquals(events.get(1), session.get(0));
+        Assert.assertEquals(Arrays.asList(events.get(10), events.get(20)),
+                toList(_dao.findByTransactionRecord("t0", new PageKey(
+                        new Date(0L), "e0"), 2)));
+    }
+
+    /**
+     * A negative limit is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindLimitInvalid() {
+        _dao = newDao();
+        _dao.findByTs(null, null, null, -1);
+    }
+
+    private AuditEventDaoFile<BusinessAuditEventVO> newDao() {
+        final AuditEventDaoFile<BusinessAuditEventVO> dao = new AuditEventDaoFile<BusinessAuditEventVO>(
+                BusinessAuditEventVO.class);
+        dao.setDirectory(getDirectory());
+        dao.setSegmentSize(4096);
+        dao.setIndexInterval(4);
+        return dao;
+    }
+
+    /**
+     * Events e0 to e(count - 1) at time stamps 0 to count - 1, in two
+     * sessions of five transactions each, about targets o0 to o3 of
+     * alternating types.
+     */
+    private static List<BusinessAuditEventVO> newEvents(final int count) {
+        final SessionRecordVO[] srs = { newSessionRecord("s0", 0L),
+                newSessionRecord("s1", 0L) };
+        final TransactionRecordVO[] trs = new TransactionRecordVO[10];
+        for (int i = 0; i < trs.length; i++) {
+            trs[i] = newTransactionRecord("t" + i, srs[i % 2], 0L);
+        }
+        final List<BusinessAuditEventVO> events = new ArrayList<BusinessAuditEventVO>(
+                count);
+        for (int i = 0; i < count; i++) {
+            events.add(newEvent("e" + i, trs[i % 10], newSubject(
+                    i % 4 == 1 ? "order" : "invoice", "o" + (i % 5 == 3 ? 3
+                            : i % 3)), i));
+        }
+        return events;
+    }
+
+    private static <T> List<T> toList(final ResultCursor<T> cursor) {
+        final List<T> list = new ArrayList<T>();
+        while (cursor.hasNext()) {
+            list.add(cursor.next());
+        }
+        return list;
+    }
+
+    private static void assertRejected(
+            final AuditEventDaoFile<BusinessAuditEventVO> dao,
+            final String property, final int value) {
+        try {
+            if ("segmentSize".equals(property)) {
+                dao.setSegmentSize(value);
+            } else if ("indexInterval".equals(property)) {
+                dao.setIndexInterval(value);
+            } else {
+                dao.setFetchSize(value);
+            }
+            Assert.fail(property + " " + value + " accepted.");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
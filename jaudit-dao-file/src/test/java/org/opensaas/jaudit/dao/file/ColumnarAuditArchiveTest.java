@@ -0,0 +1,363 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.BusinessAuditEventVO;
+import org.opensaas.jaudit.ConsumptionAuditEventVO;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.MembershipChangeAuditEventVO;
+import org.opensaas.jaudit.MembershipChangeType;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.PropertyValueChangeVO;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Test class for {@link ColumnarAuditArchive}.
+ */
+public class ColumnarAuditArchiveTest extends FileStoreTestBase {
+
+    private ColumnarAuditArchive _archive;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close() {
+        // nothing held open
+    }
+
+    /**
+     * Every type of event reads back with all of its fields, once flushed and
+     * after the archive is reopened.
+     */
+    @Test
+    public void testAppendRead() {
+        _archive = newArchive();
+        final TransactionRecordVO tr = newTransactionRecord("t1",
+                newSessionRecord("s1", 1000L), 1000L);
+
+        final BusinessAuditEventVO business = newEvent("e1", tr, newSubject(
+                "order", "o1"), 1500L);
+        business.getTarget().setSubjectDiscriminator("retail");
+
+        final LifeCycleAuditEventVO lifeCycle = newLifeCycleEvent("e2",
+                LifeCycleType.UPDATE, 1600L);
+        final Collection<PropertyValueChange> changes = new ArrayList<PropertyValueChange>();
+        final PropertyValueChangeVO change = new PropertyValueChangeVO();
+        change.setId("c1");
+        change.setPropertyName("name");
+        change.setPropertyType("string");
+        change.setNewValue("b");
+        change.setNewValueSpecified(true);
+        changes.add(change);
+        lifeCycle.setPropertyValueChanges(changes);
+        lifeCycle.setTransactionRecord(tr);
+
+        final ConsumptionAuditEventVO consumption = new ConsumptionAuditEventVO();
+        consumption.setId("e3");
+        consumption.setTs(new Date(1700L));
+        consumption.setAmountConsumed(Double.valueOf(2.5));
+        consumption.setScale(Integer.valueOf(3));
+
+        final MembershipChangeAuditEventVO membership = new MembershipChangeAuditEventVO();
+        membership.setId("e4");
+        membership.setTs(new Date(1800L));
+        membership.setTarget(newSubject("user", "u1"));
+        membership.setMembershipChangeEventType(MembershipChangeType.REMOVED);
+        membership.setMembershipGroup(newSubject("group", "g1"));
+
+        _archive.append(business);
+        _archive.append(lifeCycle);
+        _archive.append(consumption);
+        _archive.append(membership);
+        Assert.assertNull(_archive.read("e1"));
+        _archive.flush();
+        Assert.assertEquals(1, _archive.getFileCount());
+
+        _archive = newArchive();
+        final BusinessAuditEventVO readBusiness = (BusinessAuditEventVO) _archive
+                .read("e1");
+        Assert.assertEquals(business, readBusiness);
+        Assert.assertEquals(new Date(1500L), readBusiness.getTs());
+        Assert.assertEquals(business.getTarget(), readBusiness.getTarget());
+        Assert.assertEquals("retail", readBusiness.getTarget()
+                .getSubjectDiscriminator());
+        Assert.assertEquals("event e1", readBusiness.getDescription());
+        Assert.assertEquals("Order", readBusiness.getBusinessClass());
+        Assert.assertEquals("approve", readBusiness.getBusinessAction());
+        Assert.assertEquals("s1", readBusiness.getSessionRecord().getId());
+        Assert.assertEquals("t1", readBusiness.getTransactionRecord().getId());
+
+        final LifeCycleAuditEventVO readLifeCycle = (LifeCycleAuditEventVO) _archive
+                .read("e2");
+        Assert.assertEquals(LifeCycleType.UPDATE, readLifeCycle
+                .getLifeCycleEventType());
+        Assert.assertNull(readLifeCycle.getTarget());
+        Assert.assertEquals(1, readLifeCycle.getPropertyValueChanges().size());
+        final PropertyValueChange readChange = readLifeCycle
+                .getPropertyValueChanges().iterator().next();
+        Assert.assertEquals(change, readChange);
+        Assert.assertEquals("name", readChange.getPropertyName());
+        Assert.assertEquals("b", readChange.getNewValue());
+        Assert.assertNull(readChange.getOldValue());
+        Assert.assertTrue(readChange.isNewValueSpecified());
+        Assert.assertFalse(readChange.isOldValueSpecified());
+        Assert.assertSame(readLifeCycle, readChange.getLifeCycleAuditEvent());
+        Assert.assertEquals("t1", readLifeCycle.getTransactionRecord().getId());
+
+        final ConsumptionAuditEventVO readConsumption = (ConsumptionAuditEventVO) _archive
+                .read("e3");
+        Assert.assertEquals(Double.valueOf(2.5), readConsumption
+                .getAmountConsumed());
+        Assert.assertEquals(Integer.valueOf(3), readConsumption.getScale());
+
+        final MembershipChangeAuditEventVO readMembership = (MembershipChangeAuditEventVO) _archive
+                .read("e4");
+        Assert.assertEquals(MembershipChangeType.REMOVED, readMembership
+                .getMembershipChangeEventType());
+        Assert.assertEquals(newSubject("group", "g1"), readMembership
+                .getMembershipGroup());
+
+        Assert.assertNull(_archive.read("e5"));
+        Assert.assertNull(_archive.read("a"));
+    }
+
+    /**
+     * Runs of life cycle types, and events of other types between them, keep
+     * their order.
+     */
+    @Test
+    public void testLifeCycleTypeRuns() {
+        _archive = newArchive();
+        final LifeCycleType[] types = { LifeCycleType.CREATE,
+                LifeCycleType.CREATE, LifeCycleType.CREATE, null,
+                LifeCycleType.UPDATE, LifeCycleType.UPDATE,
+                LifeCycleType.DELETE };
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == null) {
+                _archive.append(newEvent("e" + i, newTransactionRecord("t1",
+                        newSessionRecord("s1", 0L), 0L), null, i));
+            } else {
+                _archive.append(newLifeCycleEvent("e" + i, types[i], i));
+            }
+        }
+        _archive.flush();
+
+        for (int i = 0; i < types.length; i++) {
+            final AuditEvent event = _archive.read("e" + i);
+            if (types[i] == null) {
+                Assert.assertTrue(event instanceof BusinessAuditEventVO);
+            } else {
+                Assert.assertEquals(types[i], ((LifeCycleAuditEventVO) event)
+                        .getLifeCycleEventType());
+            }
+        }
+    }
+
+    /**
+     * Queries span files, are ordered, filter on time and subject, and page
+     * with after and limit.
+     */
+    @Test
+    public void testFind() {
+        _archive = newArchive();
+        _archive.setFetchSize(3);
+        final TransactionRecordVO tr = newTransactionRecord("t1",
+                newSessionRecord("s1", 0L), 0L);
+        // three files; the second overlaps the first in time
+        for (int file = 0; file < 3; file++) {
+            for (int i = 0; i < 10; i++) {
+                final long ts = file * 800L + i * 100L;
+                _archive.append(newEvent("e" + file + i, tr, newSubject(
+                        i % 2 == 0 ? "order" : "user", "s" + (i % 4)), ts));
+            }
+            _archive.flush();
+        }
+        Assert.assertEquals(3, _archive.getFileCount());
+
+        final List<String> all = ids(_archive.find(null, null, null, null, 0));
+        Assert.assertEquals(30, all.size());
+        Assert.assertEquals("e00", all.get(0));
+        Assert.assertEquals("e08", all.get(8));
+        Assert.assertEquals("e10", all.get(9));
+        Assert.assertEquals("e29", all.get(29));
+
+        Assert.assertEquals("[e07, e08, e10, e09, e11, e12, e13]", ids(
+                _archive.find(null, new Date(700L), new Date(1200L), null, 0))
+                .toString());
+        Assert.assertEquals("[e10, e09]", ids(
+                _archive.find(null, new Date(700L), new Date(1200L),
+                        new PageKey(new Date(800L), "e08"), 2)).toString());
+
+        Assert.assertEquals("[e00, e04, e08, e10, e14, e18, e20, e24, e28]", ids(
+                _archive.find(newSubject("order", "s0"), null, null, null, 0))
+                .toString());
+        Assert.assertEquals("[e01, e05, e09, e11]", ids(
+                _archive.find(newSubject("user", "s1"), null, new Date(
+                        1000L), null, 0)).toString());
+        final AuditSubject anyType = newSubject(null, "s2");
+        Assert.assertEquals("[e02, e06]", ids(
+                _archive.find(anyType, null, null, null, 2)).toString());
+        Assert.assertTrue(ids(
+                _archive.find(newSubject("group", "s0"), null, null, null, 0))
+                .isEmpty());
+    }
+
+    /**
+     * A limited query decodes the first rows of a file in time stamp order,
+     * and decodes more when the subject discriminator rules some out.
+     * 
+     * @throws IOException
+     *             when the file can not be read.
+     */
+    @Test
+    public void testFindLimit() throws IOException {
+        _archive = newArchive();
+        final TransactionRecordVO tr = newTransactionRecord("t1",
+                newSessionRecord("s1", 0L), 0L);
+        // appended newest first, so file order is not time order
+        for (int i = 9; i >= 0; i--) {
+            final BusinessAuditEventVO event = newEvent("e" + i, tr,
+                    newSubject("order", "o1"), i * 100L);
+            event.getTarget().setSubjectDiscriminator(
+                    i < 3 ? "retail" : "wholesale");
+            _archive.append(event);
+        }
+        _archive.flush();
+        final ArchiveFile file = _archive.getFiles().get(0);
+
+        Assert.assertEquals("[e0, e1, e2]", ids(file.scan(null,
+                Long.MIN_VALUE, Long.MAX_VALUE, null, 3)).toString());
+        Assert.assertEquals("[e4, e5]", ids(file.scan(null,
+                Long.MIN_VALUE, Long.MAX_VALUE, new PageKey(new Date(300L),
+                        "e3"), 2)).toString());
+        Assert.assertEquals(10, file.scan(null, Long.MIN_VALUE,
+                Long.MAX_VALUE, null, 0).size());
+
+        final AuditSubject wholesale = newSubject("order", "o1");
+        wholesale.setSubjectDiscriminator("wholesale");
+        Assert.assertEquals("[e3, e4]", ids(file.scan(wholesale,
+                Long.MIN_VALUE, Long.MAX_VALUE, null, 2)).toString());
+        Assert.assertEquals("[e3, e4]", ids(
+                _archive.find(wholesale, null, null, null, 2)).toString());
+    }
+
+    /**
+     * Events already archived, or already appended, are skipped, so archiving
+     * a batch again leaves one copy.
+     */
+    @Test
+    public void testAppendAgain() {
+        _archive = newArchive();
+        for (int i = 0; i < 3; i++) {
+            _archive.append(newLifeCycleEvent("e" + i, LifeCycleType.CREATE,
+                    i));
+        }
+        _archive.append(newLifeCycleEvent("e0", LifeCycleType.CREATE, 0L));
+        _archive.flush();
+        for (int i = 0; i < 4; i++) {
+            _archive.append(newLifeCycleEvent("e" + i, LifeCycleType.CREATE,
+                    i));
+        }
+        _archive.flush();
+        Assert.assertEquals(2, _archive.getFileCount());
+
+        _archive = newArchive();
+        for (int i = 0; i < 4; i++) {
+            _archive.append(newLifeCycleEvent("e" + i, LifeCycleType.CREATE,
+                    i));
+        }
+        _archive.flush();
+        Assert.assertEquals(2, _archive.getFileCount());
+        Assert.assertEquals("[e0, e1, e2, e3]", ids(
+                _archive.find(null, null, null, null, 0)).toString());
+    }
+
+    /**
+     * Nothing is written for an empty flush; events need an id and a time
+     * stamp.
+     */
+    @Test
+    public void testFlushEmpty() {
+        _archive = newArchive();
+        _archive.flush();
+        Assert.assertEquals(0, _archive.getFileCount());
+        Assert.assertEquals(0, getDirectory().list().length);
+        try {
+            _archive.append(newLifeCycleEvent("e1", LifeCycleType.CREATE, 0L));
+            final LifeCycleAuditEventVO event = newLifeCycleEvent("e2",
+                    LifeCycleType.CREATE, 0L);
+            event.setTs(null);
+            _archive.append(event);
+            Assert.fail("Expected an exception.");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        _archive.flush();
+        Assert.assertNotNull(_archive.read("e1"));
+        Assert.assertEquals(1, getDirectory().list().length);
+        Assert.assertTrue(new File(getDirectory(), "archive-0000000001.jca")
+                .isFile());
+    }
+
+    private ColumnarAuditArchive newArchive() {
+        final ColumnarAuditArchive archive = new ColumnarAuditArchive();
+        archive.setDirectory(getDirectory());
+        return archive;
+    }
+
+    private static LifeCycleAuditEventVO newLifeCycleEvent(final String id,
+            final LifeCycleType type, final long ts) {
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setId(id);
+        event.setTs(new Date(ts));
+        event.setLifeCycleEventType(type);
+        return event;
+    }
+
+    private static List<String> ids(
+            final ResultCursor<? extends AuditEvent> cursor) {
+        final List<String> ids = new ArrayList<String>();
+        for (final Iterator<? extends AuditEvent> it = cursor; it.hasNext();) {
+            ids.add(it.next().getId());
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private static List<String> ids(
+            final List<SegmentStore.Hit<AuditEvent>> hits) {
+        Collections.sort(hits, SegmentStore.HIT_ORDER);
+        final List<String> ids = new ArrayList<String>();
+        for (final SegmentStore.Hit<AuditEvent> hit : hits) {
+            ids.add(hit._id);
+        }
+        return ids;
+    }
+}
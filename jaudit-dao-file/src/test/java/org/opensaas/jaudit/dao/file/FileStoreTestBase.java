@@ -0,0 +1,162 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.BusinessAuditEventVO;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionRecordVO;
+
+/**
+ * Gives each test a fresh directory for its segment files, deleted
+ * afterwards, and builds the records stored in it.
+ */
+public abstract class FileStoreTestBase {
+
+    private File _directory;
+
+    /**
+     * Create the directory.
+     * 
+     * @throws IOException
+     *             when it can not be created.
+     */
+    @Before
+    public void createDirectory() throws IOException {
+        _directory = File.createTempFile("jaudit", ".store");
+        if (!_directory.delete() || !_directory.mkdir()) {
+            throw new IOException("Cannot create " + _directory);
+        }
+    }
+
+    /**
+     * Delete the directory and its files.
+     */
+    @After
+    public void deleteDirectory() {
+        close();
+        final File[] files = _directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        _directory.delete();
+    }
+
+    /**
+     * Close whatever the test opened, before the directory is deleted.
+     */
+    protected abstract void close();
+
+    /**
+     * Returns the directory of the test.
+     * 
+     * @return the directory.
+     */
+    protected File getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * Returns a new session record.
+     * 
+     * @param id
+     *            the id.
+     * @param startedTs
+     *            the start time stamp.
+     * @return the record.
+     */
+    protected static SessionRecordVO newSessionRecord(final String id,
+            final long startedTs) {
+        final SessionRecordVO sr = new SessionRecordVO();
+        sr.setId(id);
+        sr.setSessionId("session " + id);
+        sr.setStartedTs(new Date(startedTs));
+        sr.setSystem(newSubject("system", "jaudit"));
+        sr.setSystemAddress("127.0.0.1");
+        return sr;
+    }
+
+    /**
+     * Returns a new transaction record.
+     * 
+     * @param id
+     *            the id.
+     * @param sr
+     *            the session record.
+     * @param startedTs
+     *            the start time stamp.
+     * @return the record.
+     */
+    protected static TransactionRecordVO newTransactionRecord(
+            final String id, final SessionRecordVO sr, final long startedTs) {
+        final TransactionRecordVO tr = new TransactionRecordVO();
+        tr.setId(id);
+        tr.setTransactionId("transaction " + id);
+        tr.setSessionRecord(sr);
+        tr.setStartedTs(new Date(startedTs));
+        return tr;
+    }
+
+    /**
+     * Returns a new business event.
+     * 
+     * @param id
+     *            the id.
+     * @param tr
+     *            the transaction record.
+     * @param target
+     *            the target.
+     * @param ts
+     *            the time stamp.
+     * @return the event.
+     */
+    protected static BusinessAuditEventVO newEvent(final String id,
+            final TransactionRecordVO tr, final AuditSubject target,
+            final long ts) {
+        final BusinessAuditEventVO event = new BusinessAuditEventVO();
+        event.setId(id);
+        event.setTs(new Date(ts));
+        event.setTransactionRecord(tr);
+        event.setSessionRecord(tr.getSessionRecord());
+        event.setTarget(target);
+        event.setDescription("event " + id);
+        event.setBusinessClass("Order");
+        event.setBusinessAction("approve");
+        return event;
+    }
+
+    /**
+     * Returns a new subject.
+     * 
+     * @param type
+     *            the subject type.
+     * @param id
+     *            the subject id.
+     * @return the subject.
+     */
+    protected static AuditSubject newSubject(final String type,
+            final String id) {
+        final AuditSubject subject = new AuditSubject();
+        subject.setSubjectType(type);
+        subject.setSubjectId(id);
+        return subject;
+    }
+}
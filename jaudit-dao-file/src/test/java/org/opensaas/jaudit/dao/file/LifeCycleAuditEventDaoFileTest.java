@@ -0,0 +1,81 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.PropertyValueChangeVO;
+
+/**
+ * Test class for {@link LifeCycleAuditEventDaoFile}.
+ */
+public class LifeCycleAuditEventDaoFileTest extends FileStoreTestBase {
+
+    private LifeCycleAuditEventDaoFile<LifeCycleAuditEventVO> _dao;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close() {
+        if (_dao != null) {
+            _dao.close();
+        }
+    }
+
+    /**
+     * The property value changes are stored with their event.
+     */
+    @Test
+    public void testCreateReadChanges() {
+        _dao = new LifeCycleAuditEventDaoFile<LifeCycleAuditEventVO>(
+                LifeCycleAuditEventVO.class);
+        _dao.setDirectory(getDirectory());
+
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setId("e1");
+        event.setTs(new Date(100L));
+        event.setTransactionRecord(newTransactionRecord("t1",
+                newSessionRecord("s1", 100L), 100L));
+        event.setSessionRecord(event.getTransactionRecord().getSessionRecord());
+        event.setTarget(newSubject("order", "o1"));
+        event.setLifeCycleEventType(LifeCycleType.UPDATE);
+        for (int i = 0; i < 3; i++) {
+            final PropertyValueChangeVO change = new PropertyValueChangeVO();
+            change.setId("c" + i);
+            change.setPropertyName("property" + i);
+            change.setPropertyType("java.lang.String");
+            change.setNewValue("value " + i);
+            change.setNewValueSpecified(true);
+            change.setLifeCycleAuditEvent(event);
+            event.getPropertyValueChanges().add(change);
+        }
+        _dao.create(event);
+
+        final LifeCycleAuditEventVO read = _dao.read("e1");
+        Assert.assertEquals(LifeCycleType.UPDATE, read.getLifeCycleEventType());
+        final List<PropertyValueChange> changes = new ArrayList<PropertyValueChange>(
+                read.getPropertyValueChanges());
+        Assert.assertEquals(3, changes.size());
+        Assert.assertEquals("value 2", changes.get(2).getNewValue());
+        Assert.assertSame(read, changes.get(2).getLifeCycleAuditEvent());
+        Assert.assertFalse(changes.get(2).isOldValueSpecified());
+    }
+}
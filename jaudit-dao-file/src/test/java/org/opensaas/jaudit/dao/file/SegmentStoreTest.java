@@ -0,0 +1,266 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * Test class for {@link SegmentStore}.
+ */
+public class SegmentStoreTest extends FileStoreTestBase {
+
+    private static final SegmentStore.RecordFilter<String> ALL = new SegmentStore.RecordFilter<String>() {
+        public String accept(final byte[] data) {
+            return SegmentStore.toString(data);
+        }
+    };
+
+    private SegmentStore _store;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close() {
+        if (_store != null) {
+            try {
+                _store.close();
+            } catch (final IOException e) {
+                throw new IllegalStateException(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Records are read back by id from the active and the sealed segments,
+     * and sealed segments get an index file.
+     * 
+     * @throws IOException
+     *             when an error occurs.
+     */
+    @Test
+    public void testAppendRead() throws IOException {
+        _store = open();
+        for (int i = 0; i < 100; i++) {
+            append("id" + i, i, "record " + i);
+        }
+        Assert.assertTrue(_store.getSegmentCount() > 1);
+        Assert.assertTrue(new File(getDirectory(), "test-0000000000.idx")
+                .exists());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("record " + i, read("id" + i));
+        }
+        Assert.assertNull(_store.read("id100"));
+    }
+
+    /**
+     * A record appended again supersedes the earlier version.
+     * 
+     * @throws IOException
+     *             when an error occurs.
+     */
+    @Test
+    public void testAppendVersions() throws IOException {
+        _store = open();
+        append("a", 1L, "first");
+        for (int i = 0; i < 50; i++) {
+            append("filler" + i, 2L, "filler");
+        }
+        append("a", 1L, "second");
+        Assert.assertEquals("second", read("a"));
+
+        final List<SegmentStore.Hit<String>> all = _store.page(0L, 2L, null,
+                10, false, ALL);
+        Assert.assertEquals(2, all.size());
+        final List<SegmentStore.Hit<String>> latest = _store.page(0L, 2L,
+                null, 10, true, ALL);
+        Assert.assertEquals(1, latest.size());
+        Assert.assertEquals("second", latest.get(0)._record);
+    }
+
+    /**
+     * Pages come back in time stamp then id order whatever the order the
+     * records were appended in, and continue after the key passed.
+     * 
+     * @throws IOException
+     *             when an error occurs.
+     */
+    @Test
+    public void testPage() throws IOException {
+        _store = open();
+        final Random random = new Random(42L);
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            final long ts = random.nextInt(100);
+            final String id = String.valueOf(1000 + i);
+            append(id, ts, id);
+            if (ts >= 10 && ts < 90) {
+                expected.add(String.format("%03d", Long.valueOf(ts)) + id);
+            }
+        }
+        Collections.sort(expected);
+
+        final List<String> found = new ArrayList<String>();
+        PageKey after = null;
+        List<SegmentStore.Hit<String>> page;
+        do {
+            page = _store.page(10L, 90L, after, 7, false, ALL);
+            for (final SegmentStore.Hit<String> hit : page) {
+                found.add(String.format("%03d", Long.valueOf(hit._ts))
+                        + hit._id);
+                after = hit.getPageKey();
+            }
+        } while (page.size() == 7);
+        Assert.assertEquals(expected, found);
+    }
+
+    /**
+     * Only the records the filter accepts are returned.
+     * 
+     * @throws IOException
+     *             when an error occurs.
+     */
+    @Test
+    public void testPageFilter() throws IOException {
+        _store = open();
+        for (int i = 0; i < 20; i++) {
+            append("id" + i, i, i % 2 == 0 ? "even" : "odd");
+        }
+        final List<SegmentStore.Hit<String>> page = _store.page(
+                Long.MIN_VALUE, Long.MAX_VALUE, new PageKey(new Date(3L),
+                        "id3"), 3, false,
+                new SegmentStore.RecordFilter<String>() {
+                    public String accept(final byte[] data) {
+                        final String s = SegmentStore.toString(data);
+                        return "even".equals(s) ? s : null;
+                    }
+                });
+        Assert.assertEquals(3, page.size());
+        Assert.assertEquals("id4", page.get(0)._id);
+        Assert.assertEquals("id6", page.get(1)._id);
+        Assert.assertEquals("id8", page.get(2)._id);
+    }
+
+    /**
+     * Reopening finds the records of the sealed and the active segments, and
+     * appending continues in the active one.
+     * 
+     * @throws IOException
+     *             when an error occurs.
+     */
+    @Test
+    public void testReopen() throws IOException {
+        _store = open();
+        for (int i = 0; i < 30; i++) {
+            append("id" + i, i, "record " + i);
+        }
+        final int segments = _store.getSegmentCount();
+        _store.close();
+
+        _store = open();
+        Assert.assertEquals(segments, _store.getSegmentCount());
+        append("id30", 30L, "record 30");
+        Assert.assertEquals(segments, _store.getSegmentCount());
+        for (int i = 0; i <= 30; i++) {
+            Assert.assertEquals("record " + i, read("id" + i));
+        }
+        Assert.assertEquals(31, _store.page(0L, 100L, null, 100, false, ALL)
+                .size());
+    }
+
+    /**
+     * A record torn by a crash is dropped on recovery and overwritten by the
+     * next append.
+     * 
+     * @throws IOException
+     *             when an error occurs.
+     */
+    @Test
+    public void testRecoverTornRecord() throws IOException {
+        _store = open();
+        append("a", 1L, "first");
+        append("b", 2L, "second");
+        _store.close();
+
+        final int second = Segment.HEADER_SIZE + 1 + 5;
+        final RandomAccessFile raf = new RandomAccessFile(new File(
+                getDirectory(), "test-0000000000.seg"), "rw");
+        try {
+            raf.seek(second + Segment.HEADER_SIZE + 1);
+            raf.write('X');
+        } finally {
+            raf.close();
+        }
+
+        _store = open();
+        Assert.assertEquals("first", read("a"));
+        Assert.assertNull(_store.read("b"));
+        append("c", 3L, "third");
+        Assert.assertEquals("third", read("c"));
+        _store.close();
+
+        _store = open();
+        Assert.assertEquals(2, _store.page(0L, 10L, null, 10, false, ALL)
+                .size());
+    }
+
+    /**
+     * A record that does not fit in a segment is rejected.
+     * 
+     * @throws IOException
+     *             when an error occurs.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendTooLarge() throws IOException {
+        _store = open();
+        append("a", 1L, new String(new char[1024]));
+    }
+
+    /**
+     * A closed store can not be read.
+     * 
+     * @throws IOException
+     *             when an error occurs.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testReadClosed() throws IOException {
+        _store = open();
+        _store.close();
+        _store.read("a");
+    }
+
+    private SegmentStore open() throws IOException {
+        return new SegmentStore(getDirectory(), "test", 1024, 4);
+    }
+
+    private void append(final String id, final long ts, final String data)
+            throws IOException {
+        _store.append(Collections.singletonList(new SegmentStore.Entry(id,
+                ts, SegmentStore.toBytes(data))));
+    }
+
+    private String read(final String id) {
+        return SegmentStore.toString(_store.read(id));
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Test class for {@link SessionRecordDaoFile}.
+ */
+public class SessionRecordDaoFileTest extends FileStoreTestBase {
+
+    private SessionRecordDaoFile<SessionRecordVO> _dao;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close() {
+        if (_dao != null) {
+            _dao.close();
+        }
+    }
+
+    /**
+     * An update appends a version that is read back, also after reopening,
+     * and the finders only return the latest version.
+     */
+    @Test
+    public void testUpdateEndedTs() {
+        _dao = newDao();
+        _dao.create(newSessionRecord("s1", 100L));
+        _dao.create(newSessionRecord("s2", 200L));
+
+        final SessionRecord updated = _dao.updateEndedTs(newSessionRecord(
+                "s1", 100L), new Date(300L));
+        Assert.assertEquals(new Date(300L), updated.getEndedTs());
+        Assert.assertEquals(new Date(300L), _dao.read("s1").getEndedTs());
+        _dao.close();
+
+        _dao = newDao();
+        Assert.assertEquals(new Date(300L), _dao.read("s1").getEndedTs());
+        final ResultCursor<SessionRecordVO> cursor = _dao.findByStartedTs(
+                null, null, null, 0);
+        Assert.assertEquals(new Date(300L), cursor.next().getEndedTs());
+        Assert.assertEquals("s2", cursor.next().getId());
+        Assert.assertFalse(cursor.hasNext());
+    }
+
+    /**
+     * Updating a missing record is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdateEndedTsMissing() {
+        _dao = newDao();
+        _dao.updateEndedTs(newSessionRecord("s1", 100L), new Date(300L));
+    }
+
+    /**
+     * The responsible of an open session can be changed, and is found by.
+     */
+    @Test
+    public void testUpdateResponsibleInformation() {
+        _dao = newDao();
+        _dao.create(newSessionRecord("s1", 100L));
+        _dao.create(newSessionRecord("s2", 200L));
+
+        final ResponsibleInformation ri = new ResponsibleInformation();
+        ri.setResponsible(newSubject("user", "alice"));
+        _dao.updateResponsibleInformation(newSessionRecord("s2", 200L), ri);
+
+        final ResultCursor<SessionRecordVO> cursor = _dao.findByResponsible(
+                newSubject(null, "alice"), new Date(0L), new Date(1000L),
+                null, 0);
+        Assert.assertEquals("s2", cursor.next().getId());
+        Assert.assertFalse(cursor.hasNext());
+        Assert.assertFalse(_dao.findByResponsible(newSubject("group",
+                "alice"), null, null, null, 0).hasNext());
+    }
+
+    /**
+     * The responsible of an ended session can not be changed.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdateResponsibleInformationEnded() {
+        _dao = newDao();
+        _dao.create(newSessionRecord("s1", 100L));
+        _dao.updateEndedTs(newSessionRecord("s1", 100L), new Date(300L));
+        _dao.updateResponsibleInformation(newSessionRecord("s1", 100L),
+                new ResponsibleInformation());
+    }
+
+    /**
+     * A null record is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdateEndedTsNull() {
+        _dao = newDao();
+        _dao.updateEndedTs(null, new Date(300L));
+    }
+
+    private SessionRecordDaoFile<SessionRecordVO> newDao() {
+        final SessionRecordDaoFile<SessionRecordVO> dao = new SessionRecordDaoFile<SessionRecordVO>(
+                SessionRecordVO.class);
+        dao.setDirectory(getDirectory());
+        dao.setSegmentSize(1024);
+        return dao;
+    }
+}
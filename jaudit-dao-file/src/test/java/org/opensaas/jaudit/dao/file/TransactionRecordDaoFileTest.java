@@ -0,0 +1,88 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.file;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Test class for {@link TransactionRecordDaoFile}.
+ */
+public class TransactionRecordDaoFileTest extends FileStoreTestBase {
+
+    private TransactionRecordDaoFile<TransactionRecordVO> _dao;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void close() {
+        if (_dao != null) {
+            _dao.close();
+        }
+    }
+
+    /**
+     * Ending a transaction appends a version that supersedes the first.
+     */
+    @Test
+    public void testTransactionEnded() {
+        _dao = newDao();
+        final SessionRecordVO sr = newSessionRecord("s1", 100L);
+        _dao.create(newTransactionRecord("t1", sr, 100L));
+        _dao.create(newTransactionRecord("t2", sr, 200L));
+        _dao.create(newTransactionRecord("t3", newSessionRecord("s2", 150L),
+                150L));
+
+        _dao.transactionEnded(newTransactionRecord("t1", sr, 100L),
+                TransactionCompletionStatus.STATUS_COMMITTED, new Date(300L));
+        final TransactionRecordVO read = _dao.read("t1");
+        Assert.assertEquals(new Date(300L), read.getEndedTs());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_COMMITTED, read
+                .getTransactionCompletionStatus());
+
+        final ResultCursor<TransactionRecordVO> cursor = _dao
+                .findBySessionRecord("s1", null, 0);
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_COMMITTED, cursor
+                .next().getTransactionCompletionStatus());
+        Assert.assertEquals("t2", cursor.next().getId());
+        Assert.assertFalse(cursor.hasNext());
+
+        Assert.assertEquals("t3", _dao.findByStartedTs(new Date(101L),
+                new Date(200L), null, 0).next().getId());
+    }
+
+    /**
+     * Ending a missing transaction is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransactionEndedMissing() {
+        _dao = newDao();
+        _dao.transactionEnded(newTransactionRecord("t1", newSessionRecord(
+                "s1", 100L), 100L), TransactionCompletionStatus.STATUS_COMMITTED,
+                new Date(300L));
+    }
+
+    private TransactionRecordDaoFile<TransactionRecordVO> newDao() {
+        final TransactionRecordDaoFile<TransactionRecordVO> dao = new TransactionRecordDaoFile<TransactionRecordVO>(
+                TransactionRecordVO.class);
+        dao.setDirectory(getDirectory());
+        return dao;
+    }
+}
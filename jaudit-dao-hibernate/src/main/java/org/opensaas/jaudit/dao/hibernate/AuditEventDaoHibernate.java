@@ -12,18 +12,34 @@
  */
 package org.opensaas.jaudit.dao.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Session;
 import org.opensaas.jaudit.AuditEvent;
 import org.opensaas.jaudit.AuditEventMutable;
-import org.opensaas.jaudit.dao.AuditEventDao;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.dao.AuditEventArchive;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.PurgeableAuditEventDao;
+import org.opensaas.jaudit.dao.ResultCursor;
 
 /**
- * Default hibernate implementation of {@link AuditEventDao}.
+ * Default hibernate implementation of {@link PurgeableAuditEventDao}. When an
+ * {@link AuditEventArchive} is set, {@link #read(String)} looks there for
+ * events no longer in the database; the find methods do not.
  * 
  * @param <T>
  *            the specific type of {@link AuditEvent} in use.
  */
 public class AuditEventDaoHibernate<T extends AuditEventMutable> extends
-        GenericDaoHibernate<T, String> implements AuditEventDao<T> {
+        GenericDaoHibernate<T, String> implements PurgeableAuditEventDao<T> {
+
+    private final String _deleteQuery;
+
+    private AuditEventArchive _archive;
 
     /**
      * Required constructor.
@@ -33,5 +49,142 @@ public class AuditEventDaoHibernate<T extends AuditEventMutable> extends
      */
     public AuditEventDaoHibernate(final Class<T> type) {
         super(type);
+        _deleteQuery = "delete from " + type.getName() + " where id in (:ids)";
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Falls back to the archive, if one is set, for ids not in the database.
+     */
+    @Override
+    public T read(final String id) {
+        final T event = super.read(id);
+        if (event != null || _archive == null) {
+            return event;
+        }
+        final AuditEvent archived = _archive.read(id);
+        return getType().isInstance(archived) ? getType().cast(archived)
+                : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Issues one HQL <tt>DELETE</tt> for the dependents, if any, and one for
+     * the events; neither touches the session, so events already loaded in
+     * it stay there.
+     */
+    public int deleteAll(final Collection<String> ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("Ids are required.");
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final Session session = getMySession();
+        deleteDependents(session, ids);
+        return session.createQuery(_deleteQuery).setParameterList("ids", ids)
+                .executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByTarget(final AuditSubject target,
+            final Date from, final Date to, final PageKey after,
+            final int limit) {
+        return scroll(newQuery().subject("target", target).range(from, to)
+                .after(after), limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findBySessionRecord(final String sessionRecordId,
+            final PageKey after, final int limit) {
+        return scroll(newQuery().equal("sessionRecord.id", "sessionRecordId",
+                sessionRecordId).after(after), limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByTransactionRecord(
+            final String transactionRecordId, final PageKey after,
+            final int limit) {
+        return scroll(newQuery().equal("transactionRecord.id",
+                "transactionRecordId", transactionRecordId).after(after),
+                limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByTs(final Date from, final Date to,
+            final PageKey after, final int limit) {
+        return scroll(newQuery().range(from, to).after(after), limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Date getPartitionTs(final T newInstance) {
+        return newInstance == null ? null : newInstance.getTs();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The session and transaction records are fetched eagerly with an event.
+     */
+    @Override
+    protected Collection<?> getReferences(final T instance) {
+        final List<Object> references = new ArrayList<Object>(2);
+        if (instance.getSessionRecord() != null) {
+            references.add(instance.getSessionRecord());
+        }
+        if (instance.getTransactionRecord() != null) {
+            references.add(instance.getTransactionRecord());
+        }
+        return references;
+    }
+
+    /**
+     * Delete the records that belong to the events about to be deleted. None
+     * by default.
+     * 
+     * @param session
+     *            the session to delete in.
+     * @param ids
+     *            the ids of the events.
+     */
+    protected void deleteDependents(final Session session,
+            final Collection<String> ids) {
+        // no dependents
+    }
+
+    /**
+     * Returns the archive read from for events no longer in the database.
+     * 
+     * @return the archive, or null.
+     */
+    public AuditEventArchive getArchive() {
+        return _archive;
+    }
+
+    /**
+     * Sets the archive read from for events no longer in the database.
+     * 
+     * @param archive
+     *            the archive, or null for none.
+     */
+    public void setArchive(final AuditEventArchive archive) {
+        _archive = archive;
+    }
+
+    private KeysetQuery newQuery() {
+        return new KeysetQuery(getType().getName(), "ts");
     }
 }
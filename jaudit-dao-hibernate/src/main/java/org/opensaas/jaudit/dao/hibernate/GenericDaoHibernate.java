@@ -13,9 +13,21 @@
 package org.opensaas.jaudit.dao.hibernate;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.SessionImplementor;
 import org.opensaas.jaudit.dao.GenericDao;
+import org.opensaas.jaudit.dao.Partition;
+import org.opensaas.jaudit.dao.PartitionDao;
+import org.opensaas.jaudit.dao.ResultCursor;
 import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
@@ -23,6 +35,32 @@ import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
  * This is a default Hibernate 3 based implementation of the {@link GenericDao}
  * interface.
  * 
+ * {@link #createAll(Collection)} relies on JDBC batching; configure
+ * <tt>hibernate.jdbc.batch_size</tt> to match {@link #setBatchSize(int)} and
+ * enable <tt>hibernate.order_inserts</tt> as done in the bundled
+ * <tt>hibernate.cfg.xml</tt>.
+ * 
+ * With {@link #setStatelessWrites(boolean)} enabled, {@link #create(Object)}
+ * and {@link #createAll(Collection)} insert through a
+ * {@link StatelessSession} instead: nothing is kept in the persistence context
+ * and nothing is dirty checked at flush time, which suits write-once audit
+ * records. The insert is executed immediately and associations are not
+ * cascaded, so any record referenced by the new instance must already be in
+ * the database.
+ * 
+ * Query results are scrolled forward only, {@link #getFetchSize()} rows per
+ * round trip and per chunk held in the session. Once the caller moves past a
+ * chunk its records, and the records they reference as returned by
+ * {@link #getReferences(Object)}, are evicted from the session, except those
+ * the session already held before the chunk was read.
+ * 
+ * When the table is partitioned by time, set a
+ * {@link #setPartitionDao(PartitionDao) partition dao} and the
+ * {@link #setPartitionTable(String) table name}: inserts then make sure the
+ * partition of each record's {@link #getPartitionTs(Object) time stamp}
+ * exists, asking the partition dao only when a record falls outside the
+ * partition of the previous one.
+ * 
  * @param <T>
  *            Type of the VO being managed.
  * @param <PK>
@@ -43,10 +81,40 @@ public class GenericDaoHibernate<T, PK extends Serializable> extends
 
     };
 
+    /**
+     * A factory that opens a stateless session on the connection of the dao's
+     * current {@link #getMySession() session}, so that stateless writes join
+     * the surrounding transaction.
+     */
+    private final static StatelessSessionFactory STATELESS_SESSION_FACTORY = new StatelessSessionFactory() {
+        public <T, PK extends Serializable> StatelessSession openStatelessSession(
+                GenericDaoHibernate<T, PK> dao) {
+            return dao.getSessionFactory().openStatelessSession(
+                    dao.getMySession().connection());
+        }
+
+    };
+
     private final Class<T> _type;
 
     private SessionFactory _sessionFactory = SESSION_FACTORY;
 
+    private StatelessSessionFactory _statelessSessionFactory = STATELESS_SESSION_FACTORY;
+
+    private boolean _statelessWrites = false;
+
+    private boolean _singleStatementUpdates = false;
+
+    private int _batchSize = 50;
+
+    private int _fetchSize = 100;
+
+    private PartitionDao _partitionDao;
+
+    private String _partitionTable;
+
+    private volatile Partition _partition;
+
     /**
      * Default constructor with required type passed in.
      * 
@@ -64,11 +132,137 @@ public class GenericDaoHibernate<T, PK extends Serializable> extends
      * {@inheritDoc}
      */
     public PK create(final T newInstance) {
+        route(newInstance);
+        if (_statelessWrites) {
+            final StatelessSession session = openMyStatelessSession();
+            try {
+                @SuppressWarnings("unchecked")
+                final PK insert = (PK) session.insert(newInstance);
+                for (final Object dependent : getDependents(newInstance)) {
+                    session.insert(dependent);
+                }
+                executeBatch(session);
+                return insert;
+            } finally {
+                session.close();
+            }
+        }
+
+        final Session session = getMySession();
         @SuppressWarnings("unchecked")
-        final PK save = (PK) getMySession().save(newInstance);
+        final PK save = (PK) session.save(newInstance);
+        for (final Object dependent : getDependents(newInstance)) {
+            session.save(dependent);
+        }
         return save;
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The session is flushed after every {@link #getBatchSize()} instances so
+     * that each group is sent as one JDBC batch, and the instances of a full
+     * group and their dependents are then evicted so that the first level
+     * cache stays bounded. Anything else the current session holds stays
+     * managed. With stateless writes there is nothing to evict and the driver
+     * batches are sent as they fill up.
+     * 
+     * The {@link #getDependents(Object) dependents} of a group are saved after
+     * all of its instances, so that inserts into the same table follow each
+     * other and share a batch.
+     */
+    public List<PK> createAll(final Collection<? extends T> newInstances) {
+        if (newInstances == null) {
+            throw new IllegalArgumentException("Instances are required.");
+        }
+
+        final List<PK> keys = new ArrayList<PK>(newInstances.size());
+        if (newInstances.isEmpty()) {
+            return keys;
+        }
+        for (final T newInstance : newInstances) {
+            route(newInstance);
+        }
+
+        if (_statelessWrites) {
+            final StatelessSession session = openMyStatelessSession();
+            try {
+                for (final T newInstance : newInstances) {
+                    @SuppressWarnings("unchecked")
+                    final PK insert = (PK) session.insert(newInstance);
+                    keys.add(insert);
+                }
+                for (final T newInstance : newInstances) {
+                    for (final Object dependent : getDependents(newInstance)) {
+                        session.insert(dependent);
+                    }
+                }
+                executeBatch(session);
+            } finally {
+                session.close();
+            }
+            return keys;
+        }
+
+        final Session session = getMySession();
+        final List<T> group = new ArrayList<T>(Math.min(_batchSize,
+                newInstances.size()));
+        for (final T newInstance : newInstances) {
+            @SuppressWarnings("unchecked")
+            final PK save = (PK) session.save(newInstance);
+            keys.add(save);
+            group.add(newInstance);
+            if (group.size() == _batchSize) {
+                saveDependents(session, group);
+                session.flush();
+                evict(session, group);
+                group.clear();
+            }
+        }
+        if (!group.isEmpty()) {
+            saveDependents(session, group);
+            session.flush();
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the records that are not cascaded from the passed instance but
+     * must be inserted along with it, after it. None by default.
+     * 
+     * @param newInstance
+     *            the instance being created.
+     * @return the records to insert with it.
+     */
+    protected Collection<?> getDependents(final T newInstance) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the records loaded along with the passed instance, such as its
+     * eagerly fetched many to one associations, that query cursors must evict
+     * with it. None by default.
+     * 
+     * @param instance
+     *            the instance read.
+     * @return the records it references.
+     */
+    protected Collection<?> getReferences(final T instance) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the time stamp the table of the passed instance is partitioned
+     * on. None by default.
+     * 
+     * @param newInstance
+     *            the instance being created.
+     * @return the time stamp, or null.
+     */
+    protected Date getPartitionTs(final T newInstance) {
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -87,6 +281,146 @@ public class GenericDaoHibernate<T, PK extends Serializable> extends
         return _type;
     }
 
+    /**
+     * Return the number of instances written per JDBC batch by
+     * {@link #createAll(Collection)}.
+     * 
+     * @return the batch size.
+     */
+    public final int getBatchSize() {
+        return _batchSize;
+    }
+
+    /**
+     * Set the number of instances written per JDBC batch by
+     * {@link #createAll(Collection)}. Should match
+     * <tt>hibernate.jdbc.batch_size</tt>. Default 50.
+     * 
+     * @param batchSize
+     *            the batch size; must be positive.
+     */
+    public final void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Return the number of rows fetched per round trip by query cursors.
+     * 
+     * @return the fetch size.
+     */
+    public final int getFetchSize() {
+        return _fetchSize;
+    }
+
+    /**
+     * Set the number of rows fetched per round trip by query cursors. Default
+     * 100.
+     * 
+     * @param fetchSize
+     *            the fetch size; must be positive.
+     */
+    public final void setFetchSize(final int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive.");
+        }
+        _fetchSize = fetchSize;
+    }
+
+    /**
+     * Return the dao that creates the partitions inserts go to.
+     * 
+     * @return the partition dao, or null if the table is not partitioned.
+     */
+    public final PartitionDao getPartitionDao() {
+        return _partitionDao;
+    }
+
+    /**
+     * Set the dao that creates the partitions inserts go to. Default none.
+     * 
+     * @param partitionDao
+     *            the partition dao, or null if the table is not partitioned.
+     */
+    public final void setPartitionDao(final PartitionDao partitionDao) {
+        _partitionDao = partitionDao;
+        _partition = null;
+    }
+
+    /**
+     * Return the name of the partitioned table.
+     * 
+     * @return the table name.
+     */
+    public final String getPartitionTable() {
+        return _partitionTable;
+    }
+
+    /**
+     * Set the name of the partitioned table, as known to the
+     * {@link #getPartitionDao() partition dao}.
+     * 
+     * @param partitionTable
+     *            the table name.
+     */
+    public final void setPartitionTable(final String partitionTable) {
+        _partitionTable = partitionTable;
+        _partition = null;
+    }
+
+    /**
+     * Return whether inserts go through a {@link StatelessSession}.
+     * 
+     * @return <tt>true</tt> if inserts are stateless.
+     */
+    public final boolean isStatelessWrites() {
+        return _statelessWrites;
+    }
+
+    /**
+     * Set whether {@link #create(Object)} and {@link #createAll(Collection)}
+     * insert through a {@link StatelessSession}. Default <tt>false</tt>.
+     * Reads and updates always use the regular session. Stateless inserts
+     * bypass the second level cache, so leave this off for cached types, and
+     * run before the regular session flushes, so leave it off too for types
+     * referencing records created through the regular session in the same
+     * transaction.
+     * 
+     * @param statelessWrites
+     *            <tt>true</tt> to insert without a persistence context.
+     */
+    public final void setStatelessWrites(final boolean statelessWrites) {
+        _statelessWrites = statelessWrites;
+    }
+
+    /**
+     * Return whether subclasses update records with one targeted HQL
+     * <tt>UPDATE</tt> instead of loading and saving them.
+     * 
+     * @return <tt>true</tt> if updates are issued as single statements.
+     */
+    public final boolean isSingleStatementUpdates() {
+        return _singleStatementUpdates;
+    }
+
+    /**
+     * Set whether subclasses update records with one targeted HQL
+     * <tt>UPDATE ... WHERE id = ?</tt> instead of a <tt>SELECT</tt> followed
+     * by a save. Missing rows are then detected from the update count.
+     * Default <tt>false</tt>. Hibernate evicts the whole second level cache
+     * region of the type on every bulk update, so leave this off for cached
+     * types: their load is then served from the cache.
+     * 
+     * @param singleStatementUpdates
+     *            <tt>true</tt> to update without loading.
+     */
+    public final void setSingleStatementUpdates(
+            final boolean singleStatementUpdates) {
+        _singleStatementUpdates = singleStatementUpdates;
+    }
+
     /**
      * Return the session factory currently in use.
      * 
@@ -117,6 +451,37 @@ public class GenericDaoHibernate<T, PK extends Serializable> extends
         _sessionFactory = SESSION_FACTORY;
     }
 
+    /**
+     * Return the stateless session factory currently in use.
+     * 
+     * @return the stateless session factory currently in use.
+     */
+    public final StatelessSessionFactory getStatelessSessionFactory() {
+        return _statelessSessionFactory;
+    }
+
+    /**
+     * Set the stateless session factory to the given value. Used for testing.
+     * 
+     * @param statelessSessionFactory
+     *            the stateless session factory to set
+     */
+    public final void setStatelessSessionFactory(
+            final StatelessSessionFactory statelessSessionFactory) {
+        if (statelessSessionFactory == null) {
+            throw new IllegalArgumentException("factory cannot be null");
+        }
+        _statelessSessionFactory = statelessSessionFactory;
+    }
+
+    /**
+     * Reset the stateless session factory to the initial value. Used for
+     * testing.
+     */
+    public final void resetStatelessSessionFactory() {
+        _statelessSessionFactory = STATELESS_SESSION_FACTORY;
+    }
+
     /**
      * Because {@link HibernateDaoSupport#getSession()} is declared
      * <tt>final</tt>, we supply a non-final version we can override for
@@ -128,4 +493,95 @@ public class GenericDaoHibernate<T, PK extends Serializable> extends
             throws DataAccessResourceFailureException, IllegalStateException {
         return getHibernateSessionFactory().getSession(this);
     }
+
+    /**
+     * Open the {@link StatelessSession} this instance should insert with. The
+     * caller must close it.
+     * 
+     * @return a new stateless session.
+     */
+    /* package */StatelessSession openMyStatelessSession() {
+        return getStatelessSessionFactory().openStatelessSession(this);
+    }
+
+    /**
+     * Run the passed query and return a cursor over its records.
+     * 
+     * @param query
+     *            the query to run.
+     * @param limit
+     *            the maximum number of records, or 0 for all.
+     * @return the cursor.
+     */
+    /* package */ResultCursor<T> scroll(final KeysetQuery query,
+            final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative.");
+        }
+        final Session session = getMySession();
+        final Query q = query.createQuery(session);
+        final int fetchSize = limit > 0 ? Math.min(limit, _fetchSize)
+                : _fetchSize;
+        q.setReadOnly(true);
+        q.setFetchSize(fetchSize);
+        if (limit > 0) {
+            q.setMaxResults(limit);
+        }
+        return new ScrollingResultCursor<T>(this, session, q
+                .scroll(ScrollMode.FORWARD_ONLY), fetchSize);
+    }
+
+    /**
+     * Make sure the partition of the passed instance exists.
+     * 
+     * @param newInstance
+     *            the instance being created.
+     */
+    private void route(final T newInstance) {
+        if (_partitionDao == null) {
+            return;
+        }
+        if (_partitionTable == null) {
+            throw new IllegalStateException("Partition table is required.");
+        }
+        final Date ts = getPartitionTs(newInstance);
+        if (ts == null) {
+            return;
+        }
+        final Partition partition = _partition;
+        if (partition == null || !partition.contains(ts)) {
+            _partition = _partitionDao.ensurePartition(_partitionTable, ts);
+        }
+    }
+
+    private void saveDependents(final Session session, final List<T> group) {
+        for (final T newInstance : group) {
+            for (final Object dependent : getDependents(newInstance)) {
+                session.save(dependent);
+            }
+        }
+    }
+
+    private void evict(final Session session, final List<T> group) {
+        for (final T newInstance : group) {
+            session.evict(newInstance);
+            for (final Object dependent : getDependents(newInstance)) {
+                session.evict(dependent);
+            }
+        }
+    }
+
+    /**
+     * A stateless session hands inserts to the JDBC batcher but, unlike a
+     * regular session, never flushes it on its own; send whatever is pending
+     * before the session is closed.
+     * 
+     * @param session
+     *            the session to flush.
+     */
+    private static void executeBatch(final StatelessSession session) {
+        if (session instanceof SessionImplementor) {
+            ((SessionImplementor) session).getBatcher().executeBatch();
+        }
+    }
 }
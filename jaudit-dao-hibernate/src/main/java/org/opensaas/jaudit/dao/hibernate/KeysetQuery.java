@@ -0,0 +1,166 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * Builds an HQL query selecting an entity with its time stamp and id,
+ * filtered by equality and a time range and ordered by time stamp then id,
+ * that starts after a {@link PageKey}. With an index on the filter columns
+ * followed by the time stamp and id the database seeks straight to the page.
+ */
+/* package */final class KeysetQuery {
+
+    private final String _entityName;
+
+    private final String _tsProperty;
+
+    private final StringBuilder _where = new StringBuilder();
+
+    private final Map<String, Object> _parameters = new LinkedHashMap<String, Object>();
+
+    /**
+     * Required constructor.
+     * 
+     * @param entityName
+     *            the entity to query.
+     * @param tsProperty
+     *            the time stamp property to order and page by.
+     */
+    KeysetQuery(final String entityName, final String tsProperty) {
+        _entityName = entityName;
+        _tsProperty = tsProperty;
+    }
+
+    /**
+     * Match a property to a value.
+     * 
+     * @param property
+     *            the property path.
+     * @param parameter
+     *            the parameter name.
+     * @param value
+     *            the required value.
+     * @return this query.
+     */
+    KeysetQuery equal(final String property, final String parameter,
+            final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException(parameter + " is required.");
+        }
+        return where("e." + property + " = :" + parameter, parameter, value);
+    }
+
+    /**
+     * Match an embedded subject by id and, when set, type and discriminator.
+     * 
+     * @param path
+     *            the property path of the subject.
+     * @param subject
+     *            the subject.
+     * @return this query.
+     */
+    KeysetQuery subject(final String path, final AuditSubject subject) {
+        if (subject == null) {
+            throw new IllegalArgumentException("Subject is required.");
+        }
+        equal(path + ".subjectId", "subjectId", subject.getSubjectId());
+        if (subject.getSubjectType() != null) {
+            equal(path + ".subjectType", "subjectType", subject
+                    .getSubjectType());
+        }
+        if (subject.getSubjectDiscriminator() != null) {
+            equal(path + ".subjectDiscriminator", "subjectDiscriminator",
+                    subject.getSubjectDiscriminator());
+        }
+        return this;
+    }
+
+    /**
+     * Limit the time stamp to a range.
+     * 
+     * @param from
+     *            the inclusive lower bound, or null.
+     * @param to
+     *            the exclusive upper bound, or null.
+     * @return this query.
+     */
+    KeysetQuery range(final Date from, final Date to) {
+        if (from != null) {
+            where("e." + _tsProperty + " >= :from", "from", from);
+        }
+        if (to != null) {
+            where("e." + _tsProperty + " < :to", "to", to);
+        }
+        return this;
+    }
+
+    /**
+     * Start after the passed key.
+     * 
+     * @param after
+     *            the key, or null to start at the beginning.
+     * @return this query.
+     */
+    KeysetQuery after(final PageKey after) {
+        if (after != null) {
+            where("(e." + _tsProperty + " > :afterTs or (e." + _tsProperty
+                    + " = :afterTs and e.id > :afterId))", "afterTs", after
+                    .getTs());
+            _parameters.put("afterId", after.getId());
+        }
+        return this;
+    }
+
+    /**
+     * Returns the HQL of the query.
+     * 
+     * @return the query string.
+     */
+    String getQueryString() {
+        return "select e, e." + _tsProperty + ", e.id from " + _entityName
+                + " e" + _where + " order by e." + _tsProperty + ", e.id";
+    }
+
+    /**
+     * Create the query in the passed session, with its parameters set.
+     * 
+     * @param session
+     *            the session.
+     * @return the query.
+     */
+    Query createQuery(final Session session) {
+        final Query query = session.createQuery(getQueryString());
+        for (final Map.Entry<String, Object> parameter : _parameters
+                .entrySet()) {
+            query.setParameter(parameter.getKey(), parameter.getValue());
+        }
+        return query;
+    }
+
+    private KeysetQuery where(final String condition, final String parameter,
+            final Object value) {
+        _where.append(_where.length() == 0 ? " where " : " and ").append(
+                condition);
+        _parameters.put(parameter, value);
+        return this;
+    }
+}
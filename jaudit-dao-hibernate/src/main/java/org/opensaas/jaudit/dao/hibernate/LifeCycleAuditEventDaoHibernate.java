@@ -12,12 +12,27 @@
  */
 package org.opensaas.jaudit.dao.hibernate;
 
+import java.util.Collection;
+import java.util.Collections;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
 import org.opensaas.jaudit.LifeCycleAuditEvent;
 import org.opensaas.jaudit.LifeCycleAuditEventMutable;
+import org.opensaas.jaudit.PropertyValueChange;
 import org.opensaas.jaudit.dao.LifeCycleAuditEventDao;
 
 /**
- * Default hibernate implementation of {@link LifeCycleAuditEventDao}.
+ * Default hibernate implementation of {@link LifeCycleAuditEventDao}. The
+ * {@link LifeCycleAuditEvent#getPropertyValueChanges() property value changes}
+ * of an event are not cascaded by the mapping; they are inserted right after
+ * the events they belong to, in the same batch, and deleted just before
+ * them. The changes are deleted as whatever entity the mapping of the
+ * event's changes refers to, through its <tt>lifeCycleAuditEvent</tt>
+ * property.
  * 
  * @param <T>
  *            the specific type of {@link LifeCycleAuditEvent} in use.
@@ -25,6 +40,10 @@ import org.opensaas.jaudit.dao.LifeCycleAuditEventDao;
 public class LifeCycleAuditEventDaoHibernate<T extends LifeCycleAuditEventMutable>
         extends AuditEventDaoHibernate<T> implements LifeCycleAuditEventDao<T> {
 
+    private static final String CHANGES_PROPERTY = "propertyValueChanges";
+
+    private volatile String _deleteChangesQuery;
+
     /**
      * Required constructor.
      * 
@@ -34,4 +53,45 @@ public class LifeCycleAuditEventDaoHibernate<T extends LifeCycleAuditEventMutabl
     public LifeCycleAuditEventDaoHibernate(final Class<T> type) {
         super(type);
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<?> getDependents(final T newInstance) {
+        final Collection<PropertyValueChange> changes = newInstance == null ? null
+                : newInstance.getPropertyValueChanges();
+        if (changes == null) {
+            return Collections.emptyList();
+        }
+        return changes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void deleteDependents(final Session session,
+            final Collection<String> ids) {
+        session.createQuery(getDeleteChangesQuery(session)).setParameterList(
+                "ids", ids).executeUpdate();
+    }
+
+    /**
+     * Build the delete of the changes of events, on first use, from the
+     * mapping of the event's changes.
+     */
+    private String getDeleteChangesQuery(final Session session) {
+        if (_deleteChangesQuery == null) {
+            final SessionFactory factory = session.getSessionFactory();
+            final Type changes = factory.getClassMetadata(getType())
+                    .getPropertyType(CHANGES_PROPERTY);
+            final Type change = factory.getCollectionMetadata(
+                    ((CollectionType) changes).getRole()).getElementType();
+            _deleteChangesQuery = "delete from "
+                    + ((EntityType) change).getAssociatedEntityName()
+                    + " where lifeCycleAuditEvent.id in (:ids)";
+        }
+        return _deleteChangesQuery;
+    }
 }
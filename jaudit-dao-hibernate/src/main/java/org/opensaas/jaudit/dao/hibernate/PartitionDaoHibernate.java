@@ -0,0 +1,385 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.opensaas.jaudit.dao.Partition;
+import org.opensaas.jaudit.dao.PartitionDao;
+import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+
+/**
+ * PostgreSQL implementation of {@link PartitionDao}, for tables declared
+ * <tt>PARTITION BY RANGE</tt> on their time stamp column; it needs PostgreSQL
+ * 10 or later and refuses to start with any other dialect. The database routes
+ * each insert to the partition of its time stamp, and leaves out the
+ * partitions outside the time range of a query; the daos only have to make
+ * sure the partition exists, which they do through
+ * {@link #ensurePartition(String, Date)} when given this dao as their
+ * {@link GenericDaoHibernate#setPartitionDao(PartitionDao) partition dao}.
+ * 
+ * A partition is named after its table and the first day it holds, such as
+ * <tt>life_cycle_audit_events_p202401</tt>, and its bounds are in
+ * {@link #getTimeZone()}, which must be the zone the time stamps are written
+ * in. Partitions already created are remembered, so routing an insert costs
+ * no statement once its partition has been ensured.
+ * 
+ * Partitions are created, detached and dropped in a transaction of their own,
+ * on a session of their own, and only remembered once it commits, so a
+ * rolled back insert never leaves a partition that does not exist behind.
+ * Creating a partition locks its parent table, which an open transaction that
+ * already inserted into it would hold up, so such waits give up after
+ * {@link #setLockTimeout(long) lock timeout}; create partitions ahead of time
+ * with {@link #ensurePartitions(Date, Date)} so inserts rarely need to.
+ * 
+ * The dependent table of a partitioned table, such as
+ * <tt>property_value_changes</tt>, has no time stamp of its own and is not
+ * partitioned: dropping a partition deletes its dependent rows with an
+ * ordinary delete through the index on the dependent column, which costs as
+ * much as the rows deleted.
+ * 
+ * Partitioned tables can not have unique keys without the partition column,
+ * so the primary key of such a table becomes <tt>(id, ts)</tt> or
+ * <tt>(id, started_ts)</tt>, and foreign keys that refer to it are dropped.
+ * A monthly partitioned event table would be created with:
+ * 
+ * <pre>
+ * create table life_cycle_audit_events (... , primary key (id, ts))
+ *     partition by range (ts);
+ * </pre>
+ */
+public class PartitionDaoHibernate extends HibernateDaoSupport implements
+        PartitionDao {
+
+    private static final String FIND_PARTITIONS_QUERY = "select c.relname from pg_inherits i"
+            + " join pg_class c on c.oid = i.inhrelid"
+            + " join pg_class p on p.oid = i.inhparent"
+            + " where p.relname = :table";
+
+    private final Map<String, PartitionedTable> _tables = new LinkedHashMap<String, PartitionedTable>();
+
+    private final Set<String> _created = Collections
+            .synchronizedSet(new HashSet<String>());
+
+    private TimeZone _timeZone = TimeZone.getDefault();
+
+    private long _lockTimeout = 5000L;
+
+    /**
+     * Check that the database is PostgreSQL.
+     */
+    @Override
+    protected void initDao() {
+        final Dialect dialect = getDialect();
+        if (!(dialect instanceof PostgreSQLDialect)) {
+            throw new IllegalStateException(
+                    "Partitioning needs PostgreSQL, not " + dialect);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Partition ensurePartition(final String table, final Date ts) {
+        if (ts == null) {
+            throw new IllegalArgumentException("Time stamp is required.");
+        }
+        final PartitionedTable pt = getPartitionedTable(table);
+        final Partition partition = newPartition(pt, pt.getInterval().floor(
+                ts.getTime(), _timeZone));
+        create(pt, partition);
+        return partition;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Partition> ensurePartitions(final Date from, final Date to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Time range is required.");
+        }
+        final List<Partition> partitions = new ArrayList<Partition>();
+        for (final PartitionedTable pt : _tables.values()) {
+            final PartitionInterval interval = pt.getInterval();
+            for (long start = interval.floor(from.getTime(), _timeZone); start < to
+                    .getTime(); start = interval.next(start, _timeZone)) {
+                final Partition partition = newPartition(pt, start);
+                create(pt, partition);
+                partitions.add(partition);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Attached tables not named the way this dao names partitions are left
+     * out.
+     */
+    public List<Partition> findPartitions(final String table) {
+        final PartitionedTable pt = getPartitionedTable(table);
+        final String prefix = pt.getTable() + "_p";
+        final List<?> names = getMySession().createSQLQuery(
+                FIND_PARTITIONS_QUERY).setString("table", pt.getTable())
+                .list();
+        final List<Partition> partitions = new ArrayList<Partition>(names
+                .size());
+        for (final Object name : names) {
+            final String s = String.valueOf(name);
+            if (!s.startsWith(prefix)) {
+                continue;
+            }
+            final long start = pt.getInterval().parse(
+                    s.substring(prefix.length()), _timeZone);
+            if (start >= 0L) {
+                partitions.add(newPartition(pt, start));
+            }
+        }
+        Collections.sort(partitions, new Comparator<Partition>() {
+            public int compare(final Partition a, final Partition b) {
+                return a.getFrom().compareTo(b.getFrom());
+            }
+        });
+        return partitions;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Detaching only changes the catalog, however many records the partition
+     * holds.
+     */
+    public List<Partition> detachPartitions(final String table,
+            final Date before) {
+        if (before == null) {
+            throw new IllegalArgumentException("Time stamp is required.");
+        }
+        final List<Partition> detached = new ArrayList<Partition>();
+        for (final Partition partition : findPartitions(table)) {
+            if (partition.getTo().after(before)) {
+                break;
+            }
+            executeDdl("alter table " + partition.getTable()
+                    + " detach partition " + partition.getName());
+            _created.remove(partition.getName());
+            detached.add(partition);
+        }
+        return detached;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The rows of the dependent table, if any, are deleted first, in the same
+     * transaction, with one statement limited to the ids of the partition.
+     * The dependent table is not partitioned, so this is an ordinary indexed
+     * delete.
+     */
+    public void dropPartition(final Partition partition) {
+        if (partition == null) {
+            throw new IllegalArgumentException("Partition is required.");
+        }
+        final PartitionedTable pt = getPartitionedTable(partition.getTable());
+        final Partition expected = newPartition(pt, partition.getFrom()
+                .getTime());
+        if (!expected.equals(partition)) {
+            throw new IllegalArgumentException("Not a partition of "
+                    + pt.getTable() + ": " + partition);
+        }
+        final String drop = "drop table if exists " + partition.getName();
+        if (pt.getDependentTable() != null && pt.getDependentColumn() != null) {
+            executeDdl("delete from " + pt.getDependentTable() + " where "
+                    + pt.getDependentColumn() + " in (select id from "
+                    + partition.getName() + ")", drop);
+        } else {
+            executeDdl(drop);
+        }
+        _created.remove(partition.getName());
+    }
+
+    /**
+     * Sets the partitioned tables.
+     * 
+     * @param tables
+     *            the tables.
+     */
+    public void setTables(final List<PartitionedTable> tables) {
+        if (tables == null) {
+            throw new IllegalArgumentException("Tables are required.");
+        }
+        _tables.clear();
+        for (final PartitionedTable table : tables) {
+            _tables.put(table.getTable(), table);
+        }
+    }
+
+    /**
+     * Returns the partitioned tables.
+     * 
+     * @return the tables.
+     */
+    public List<PartitionedTable> getTables() {
+        return new ArrayList<PartitionedTable>(_tables.values());
+    }
+
+    /**
+     * Returns the time zone of the partition bounds. Defaults to the zone of
+     * the JVM, which is the one JDBC drivers write time stamps in.
+     * 
+     * @return the time zone.
+     */
+    public TimeZone getTimeZone() {
+        return _timeZone;
+    }
+
+    /**
+     * Sets the time zone of the partition bounds.
+     * 
+     * @param timeZone
+     *            the time zone.
+     */
+    public void setTimeZone(final TimeZone timeZone) {
+        if (timeZone == null) {
+            throw new IllegalArgumentException("Time zone is required.");
+        }
+        _timeZone = timeZone;
+    }
+
+    /**
+     * Returns how long, in milliseconds, creating, detaching or dropping a
+     * partition waits for a lock on its table.
+     * 
+     * @return the lock timeout.
+     */
+    public long getLockTimeout() {
+        return _lockTimeout;
+    }
+
+    /**
+     * Sets how long, in milliseconds, creating, detaching or dropping a
+     * partition waits for a lock on its table. Default 5000.
+     * 
+     * @param lockTimeout
+     *            the lock timeout; must be positive.
+     */
+    public void setLockTimeout(final long lockTimeout) {
+        if (lockTimeout < 1L) {
+            throw new IllegalArgumentException(
+                    "Lock timeout must be positive.");
+        }
+        _lockTimeout = lockTimeout;
+    }
+
+    /**
+     * Because {@link HibernateDaoSupport#getSession()} is declared
+     * <tt>final</tt>, we supply a non-final version we can override for
+     * testing.
+     * 
+     * @return The {@link Session} this instance should use.
+     */
+    /* package */Session getMySession() {
+        return getSession();
+    }
+
+    /**
+     * Open a new session, outside of any transaction in progress, to change
+     * partitions in. The caller must close it.
+     * 
+     * @return a new session.
+     */
+    /* package */Session openDdlSession() {
+        return getSessionFactory().openSession();
+    }
+
+    /**
+     * Returns the dialect of the session factory.
+     * 
+     * @return the dialect.
+     */
+    /* package */Dialect getDialect() {
+        return ((SessionFactoryImplementor) getSessionFactory()).getDialect();
+    }
+
+    private PartitionedTable getPartitionedTable(final String table) {
+        final PartitionedTable pt = _tables.get(table);
+        if (pt == null) {
+            throw new IllegalArgumentException("Not a partitioned table: "
+                    + table);
+        }
+        return pt;
+    }
+
+    private Partition newPartition(final PartitionedTable pt, final long start) {
+        final PartitionInterval interval = pt.getInterval();
+        return new Partition(pt.getTable(), pt.getTable() + "_p"
+                + interval.suffix(start, _timeZone), new Date(start),
+                new Date(interval.next(start, _timeZone)));
+    }
+
+    private void create(final PartitionedTable pt, final Partition partition) {
+        if (_created.contains(partition.getName())) {
+            return;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat(
+                "yyyy-MM-dd HH:mm:ss");
+        format.setTimeZone(_timeZone);
+        executeDdl("create table if not exists " + partition.getName()
+                + " partition of " + pt.getTable() + " for values from ('"
+                + format.format(partition.getFrom()) + "') to ('"
+                + format.format(partition.getTo()) + "')");
+        _created.add(partition.getName());
+    }
+
+    /**
+     * Execute the passed statements in a transaction of their own.
+     */
+    private void executeDdl(final String... statements) {
+        final Session session = openDdlSession();
+        try {
+            final Transaction transaction = session.beginTransaction();
+            boolean committed = false;
+            try {
+                session.createSQLQuery(
+                        "set local lock_timeout = " + _lockTimeout)
+                        .executeUpdate();
+                for (final String sql : statements) {
+                    session.createSQLQuery(sql).executeUpdate();
+                }
+                transaction.commit();
+                committed = true;
+            } finally {
+                if (!committed) {
+                    transaction.rollback();
+                }
+            }
+        } finally {
+            session.close();
+        }
+    }
+}
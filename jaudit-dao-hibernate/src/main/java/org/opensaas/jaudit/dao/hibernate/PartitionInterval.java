@@ -0,0 +1,136 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * The length of the time partitions of a {@link PartitionedTable}. Partitions
+ * start at midnight, on the first of the month for monthly ones, in the time
+ * zone the time stamps are stored in, and are named after their first day.
+ */
+public enum PartitionInterval {
+
+    /**
+     * One partition per day, named <tt>yyyyMMdd</tt>.
+     */
+    DAILY(Calendar.DAY_OF_MONTH, 8),
+
+    /**
+     * One partition per month, named <tt>yyyyMM</tt>.
+     */
+    MONTHLY(Calendar.MONTH, 6);
+
+    private final int _field;
+
+    private final int _digits;
+
+    private PartitionInterval(final int field, final int digits) {
+        _field = field;
+        _digits = digits;
+    }
+
+    /**
+     * Returns the start of the partition holding a time stamp.
+     * 
+     * @param ts
+     *            the time stamp.
+     * @param timeZone
+     *            the time zone of the partition bounds.
+     * @return the start of the partition.
+     */
+    public long floor(final long ts, final TimeZone timeZone) {
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(ts);
+        if (_field == Calendar.MONTH) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the start of the partition after the one starting at the passed
+     * time.
+     * 
+     * @param start
+     *            the start of a partition.
+     * @param timeZone
+     *            the time zone of the partition bounds.
+     * @return the start of the next partition.
+     */
+    public long next(final long start, final TimeZone timeZone) {
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(start);
+        calendar.add(_field, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the name suffix of the partition starting at the passed time.
+     * 
+     * @param start
+     *            the start of a partition.
+     * @param timeZone
+     *            the time zone of the partition bounds.
+     * @return the suffix.
+     */
+    public String suffix(final long start, final TimeZone timeZone) {
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(start);
+        final String month = String.format("%04d%02d", Integer
+                .valueOf(calendar.get(Calendar.YEAR)), Integer
+                .valueOf(calendar.get(Calendar.MONTH) + 1));
+        return _field == Calendar.MONTH ? month : month
+                + String.format("%02d", Integer.valueOf(calendar
+                        .get(Calendar.DAY_OF_MONTH)));
+    }
+
+    /**
+     * Returns the start of the partition with the passed name suffix.
+     * 
+     * @param suffix
+     *            the suffix.
+     * @param timeZone
+     *            the time zone of the partition bounds.
+     * @return the start of the partition, or -1 if the suffix is not one of
+     *         this interval.
+     */
+    public long parse(final String suffix, final TimeZone timeZone) {
+        if (suffix.length() != _digits) {
+            return -1L;
+        }
+        for (int i = 0; i < _digits; i++) {
+            if (!Character.isDigit(suffix.charAt(i))) {
+                return -1L;
+            }
+        }
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.setLenient(false);
+        calendar.set(Calendar.YEAR, Integer.parseInt(suffix.substring(0, 4)));
+        calendar.set(Calendar.MONTH,
+                Integer.parseInt(suffix.substring(4, 6)) - 1);
+        calendar.set(Calendar.DAY_OF_MONTH, _field == Calendar.MONTH ? 1
+                : Integer.parseInt(suffix.substring(6, 8)));
+        try {
+            return calendar.getTimeInMillis();
+        } catch (final IllegalArgumentException e) {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.util.regex.Pattern;
+
+/**
+ * Describes a table partitioned by range on a time stamp column, for
+ * {@link PartitionDaoHibernate}. A table whose records are referenced by
+ * another, unpartitioned one, such as <tt>life_cycle_audit_events</tt> by
+ * <tt>property_value_changes</tt>, names the referencing table and column as
+ * its dependent, whose rows are deleted with the partition they refer to.
+ */
+public class PartitionedTable {
+
+    private static final Pattern IDENTIFIER = Pattern
+            .compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final String _table;
+
+    private final String _column;
+
+    private final PartitionInterval _interval;
+
+    private String _dependentTable;
+
+    private String _dependentColumn;
+
+    /**
+     * Required constructor.
+     * 
+     * @param table
+     *            the partitioned table.
+     * @param column
+     *            the time stamp column the table is partitioned on.
+     * @param interval
+     *            the length of a partition.
+     */
+    public PartitionedTable(final String table, final String column,
+            final PartitionInterval interval) {
+        if (interval == null) {
+            throw new IllegalArgumentException("Interval is required.");
+        }
+        _table = checkIdentifier(table);
+        _column = checkIdentifier(column);
+        _interval = interval;
+    }
+
+    /**
+     * Returns the partitioned table.
+     * 
+     * @return the table.
+     */
+    public String getTable() {
+        return _table;
+    }
+
+    /**
+     * Returns the time stamp column the table is partitioned on.
+     * 
+     * @return the column.
+     */
+    public String getColumn() {
+        return _column;
+    }
+
+    /**
+     * Returns the length of a partition.
+     * 
+     * @return the interval.
+     */
+    public PartitionInterval getInterval() {
+        return _interval;
+    }
+
+    /**
+     * Returns the table whose rows refer to the records of this one, if any.
+     * 
+     * @return the dependent table, or null.
+     */
+    public String getDependentTable() {
+        return _dependentTable;
+    }
+
+    /**
+     * Sets the table whose rows refer to the records of this one.
+     * 
+     * @param dependentTable
+     *            the dependent table.
+     */
+    public void setDependentTable(final String dependentTable) {
+        _dependentTable = checkIdentifier(dependentTable);
+    }
+
+    /**
+     * Returns the column of the dependent table holding the id of the record
+     * referred to.
+     * 
+     * @return the dependent column, or null.
+     */
+    public String getDependentColumn() {
+        return _dependentColumn;
+    }
+
+    /**
+     * Sets the column of the dependent table holding the id of the record
+     * referred to.
+     * 
+     * @param dependentColumn
+     *            the dependent column.
+     */
+    public void setDependentColumn(final String dependentColumn) {
+        _dependentColumn = checkIdentifier(dependentColumn);
+    }
+
+    /**
+     * Returns the passed name if it is a plain SQL identifier, which is all
+     * that is ever put into a statement.
+     * 
+     * @param name
+     *            the name.
+     * @return the name.
+     */
+    /* package */static String checkIdentifier(final String name) {
+        if (name == null || !IDENTIFIER.matcher(name).matches()) {
+            throw new IllegalArgumentException("Not a plain identifier: "
+                    + name);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.engine.EntityKey;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * A {@link ResultCursor} over the rows of a {@link KeysetQuery}: the entity,
+ * its time stamp and its id. Rows are read a chunk at a time, so lazy
+ * collections of the chunk can be batch fetched together. Once the cursor
+ * moves past a chunk, each of its records, and the
+ * {@link GenericDaoHibernate#getReferences(Object) references} loaded with
+ * it, is evicted from the session, so the session does not grow with the
+ * result. Instances the session already held before a chunk was read, such
+ * as the session record the caller is working with, are left alone.
+ * 
+ * @param <T>
+ *            the type of record returned.
+ */
+/* package */final class ScrollingResultCursor<T> implements ResultCursor<T> {
+
+    private final GenericDaoHibernate<T, ?> _dao;
+
+    private final Session _session;
+
+    private final ScrollableResults _results;
+
+    private final int _chunkSize;
+
+    private final List<Object[]> _rows;
+
+    private int _index = 0;
+
+    private final Set<Object> _loaded = new LinkedHashSet<Object>();
+
+    private boolean _exhausted = false;
+
+    private boolean _closed = false;
+
+    private PageKey _pageKey;
+
+    /**
+     * Required constructor.
+     * 
+     * @param dao
+     *            the dao whose records are returned.
+     * @param session
+     *            the session the results belong to.
+     * @param results
+     *            the results to return.
+     * @param chunkSize
+     *            the number of rows read, and kept in the session, at once.
+     */
+    ScrollingResultCursor(final GenericDaoHibernate<T, ?> dao,
+            final Session session, final ScrollableResults results,
+            final int chunkSize) {
+        _dao = dao;
+        _session = session;
+        _results = results;
+        _chunkSize = chunkSize;
+        _rows = new ArrayList<Object[]>(chunkSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (_index < _rows.size()) {
+            return true;
+        }
+        if (_closed) {
+            return false;
+        }
+        evictLoaded();
+        _rows.clear();
+        _index = 0;
+        final Set<List<Object>> held = _exhausted ? Collections
+                .<List<Object>> emptySet() : heldKeys();
+        while (!_exhausted && _rows.size() < _chunkSize) {
+            if (!_results.next()) {
+                _exhausted = true;
+                break;
+            }
+            final Object[] row = _results.get().clone();
+            @SuppressWarnings("unchecked")
+            final T record = (T) row[0];
+            loaded(record, held);
+            for (final Object reference : _dao.getReferences(record)) {
+                loaded(reference, held);
+            }
+            _rows.add(row);
+        }
+        if (_rows.isEmpty()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Object[] row = _rows.get(_index);
+        _rows.set(_index++, null);
+        @SuppressWarnings("unchecked")
+        final T record = (T) row[0];
+        _pageKey = new PageKey((Date) row[1], String.valueOf(row[2]));
+        return record;
+    }
+
+    /**
+     * Not supported.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("Cursors are read only.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public PageKey getPageKey() {
+        return _pageKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        if (!_closed) {
+            _closed = true;
+            _rows.clear();
+            _index = 0;
+            evictLoaded();
+            _results.close();
+        }
+    }
+
+    /**
+     * Returns the entity name and id of every instance the session holds.
+     * 
+     * @return the keys.
+     */
+    private Set<List<Object>> heldKeys() {
+        final Set<List<Object>> keys = new HashSet<List<Object>>();
+        for (final Object key : _session.getStatistics().getEntityKeys()) {
+            final EntityKey entityKey = (EntityKey) key;
+            keys.add(Arrays.<Object> asList(entityKey.getEntityName(),
+                    entityKey.getIdentifier()));
+        }
+        return keys;
+    }
+
+    private void loaded(final Object instance, final Set<List<Object>> held) {
+        if (held.isEmpty()
+                || !held.contains(Arrays.<Object> asList(_session
+                        .getEntityName(instance), _session
+                        .getIdentifier(instance)))) {
+            _loaded.add(instance);
+        }
+    }
+
+    private void evictLoaded() {
+        for (final Object loaded : _loaded) {
+            _session.evict(loaded);
+        }
+        _loaded.clear();
+    }
+}
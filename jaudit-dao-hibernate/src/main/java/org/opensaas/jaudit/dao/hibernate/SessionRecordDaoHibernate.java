@@ -14,20 +14,31 @@ package org.opensaas.jaudit.dao.hibernate;
 
 import java.util.Date;
 
+import org.opensaas.jaudit.AuditSubject;
 import org.opensaas.jaudit.ResponsibleInformation;
 import org.opensaas.jaudit.SessionRecord;
 import org.opensaas.jaudit.SessionRecordMutable;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
 import org.opensaas.jaudit.dao.SessionRecordDao;
 
 /**
  * Default hibernate implementation of {@link SessionRecordDao}.
  * 
+ * With {@link #setSingleStatementUpdates(boolean)} enabled the update methods
+ * issue one HQL <tt>UPDATE</tt> and apply the change to the passed record when
+ * it is a {@link SessionRecordMutable}, instead of loading and saving it.
+ * 
  * @param <T>
  *            the specific type of {@link SessionRecordMutable} in use.
  */
 public class SessionRecordDaoHibernate<T extends SessionRecordMutable> extends
         GenericDaoHibernate<T, String> implements SessionRecordDao<T> {
 
+    private final String _updateEndedTsQuery;
+
+    private final String _updateResponsibleInformationQuery;
+
     /**
      * Required constructor.
      * 
@@ -36,6 +47,17 @@ public class SessionRecordDaoHibernate<T extends SessionRecordMutable> extends
      */
     public SessionRecordDaoHibernate(final Class<T> type) {
         super(type);
+        _updateEndedTsQuery = "update " + type.getName()
+                + " set endedTs = :endedTs where id = :id";
+        _updateResponsibleInformationQuery = "update "
+                + type.getName()
+                + " set responsibleInformation.responsible.subjectType = :subjectType,"
+                + " responsibleInformation.responsible.subjectId = :subjectId,"
+                + " responsibleInformation.responsible.subjectDiscriminator = :subjectDiscriminator,"
+                + " responsibleInformation.responsibleAddress = :responsibleAddress,"
+                + " responsibleInformation.responsibleAgent = :responsibleAgent,"
+                + " responsibleInformation.credentialsType = :credentialsType"
+                + " where id = :id and endedTs is null";
     }
 
     /**
@@ -48,6 +70,20 @@ public class SessionRecordDaoHibernate<T extends SessionRecordMutable> extends
                     "Session record must not be null.");
         }
 
+        if (isSingleStatementUpdates()) {
+            final int updated = getMySession().createQuery(_updateEndedTsQuery)
+                    .setParameter("endedTs", endedTs).setParameter("id",
+                            sessionRecord.getId()).executeUpdate();
+            if (updated == 0) {
+                throw new IllegalArgumentException(
+                        "Session record does not exist in persistence.");
+            }
+            if (sessionRecord instanceof SessionRecordMutable) {
+                ((SessionRecordMutable) sessionRecord).setEndedTs(endedTs);
+            }
+            return sessionRecord;
+        }
+
         final SessionRecordMutable sr = read(sessionRecord.getId());
         if (sr == null) {
             throw new IllegalArgumentException(
@@ -71,6 +107,32 @@ public class SessionRecordDaoHibernate<T extends SessionRecordMutable> extends
                     "Session record must not be null.");
         }
 
+        if (isSingleStatementUpdates()) {
+            final ResponsibleInformation ri = responsibleInformation == null ? new ResponsibleInformation()
+                    : responsibleInformation;
+            final AuditSubject responsible = ri.getResponsible() == null ? new AuditSubject()
+                    : ri.getResponsible();
+            final int updated = getMySession().createQuery(
+                    _updateResponsibleInformationQuery).setParameter(
+                    "subjectType", responsible.getSubjectType()).setParameter(
+                    "subjectId", responsible.getSubjectId()).setParameter(
+                    "subjectDiscriminator",
+                    responsible.getSubjectDiscriminator()).setParameter(
+                    "responsibleAddress", ri.getResponsibleAddress())
+                    .setParameter("responsibleAgent", ri.getResponsibleAgent())
+                    .setParameter("credentialsType", ri.getCredentialsType())
+                    .setParameter("id", sessionRecord.getId()).executeUpdate();
+            if (updated == 0) {
+                throw new IllegalArgumentException(
+                        "Session record does not exist in persistence or has already been ended.");
+            }
+            if (sessionRecord instanceof SessionRecordMutable) {
+                ((SessionRecordMutable) sessionRecord)
+                        .setResponsibleInformation(responsibleInformation);
+            }
+            return sessionRecord;
+        }
+
         final SessionRecordMutable sr = read(sessionRecord.getId());
         if (sr == null) {
             throw new IllegalArgumentException(
@@ -88,4 +150,35 @@ public class SessionRecordDaoHibernate<T extends SessionRecordMutable> extends
         getMySession().save(sr);
         return sr;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByResponsible(final AuditSubject responsible,
+            final Date from, final Date to, final PageKey after,
+            final int limit) {
+        return scroll(newQuery().subject(
+                "responsibleInformation.responsible", responsible).range(
+                from, to).after(after), limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByStartedTs(final Date from, final Date to,
+            final PageKey after, final int limit) {
+        return scroll(newQuery().range(from, to).after(after), limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Date getPartitionTs(final T newInstance) {
+        return newInstance == null ? null : newInstance.getStartedTs();
+    }
+
+    private KeysetQuery newQuery() {
+        return new KeysetQuery(getType().getName(), "startedTs");
+    }
 }
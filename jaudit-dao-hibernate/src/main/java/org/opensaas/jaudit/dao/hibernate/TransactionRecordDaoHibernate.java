@@ -17,11 +17,19 @@ import java.util.Date;
 import org.opensaas.jaudit.TransactionRecord;
 import org.opensaas.jaudit.TransactionRecordMutable;
 import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
 import org.opensaas.jaudit.dao.TransactionRecordDao;
 
 /**
  * Default hibernate implementation of {@link TransactionRecordDao}.
  * 
+ * With {@link #setSingleStatementUpdates(boolean)} enabled
+ * {@link #transactionEnded(TransactionRecord, TransactionCompletionStatus, Date)}
+ * issues one HQL <tt>UPDATE</tt> and applies the change to the passed record
+ * when it is a {@link TransactionRecordMutable}, instead of loading and saving
+ * it.
+ * 
  * @param <T>
  *            the specific type of {@link TransactionRecordMutable} in use.
  */
@@ -29,6 +37,8 @@ public class TransactionRecordDaoHibernate<T extends TransactionRecordMutable>
         extends GenericDaoHibernate<T, String> implements
         TransactionRecordDao<T> {
 
+    private final String _transactionEndedQuery;
+
     /**
      * Required constructor.
      * 
@@ -37,6 +47,10 @@ public class TransactionRecordDaoHibernate<T extends TransactionRecordMutable>
      */
     public TransactionRecordDaoHibernate(final Class<T> type) {
         super(type);
+        _transactionEndedQuery = "update "
+                + type.getName()
+                + " set endedTs = :endedTs, transactionCompletionStatus = :status"
+                + " where id = :id";
     }
 
     /**
@@ -50,6 +64,23 @@ public class TransactionRecordDaoHibernate<T extends TransactionRecordMutable>
                     "Transaction record must not be null.");
         }
 
+        if (isSingleStatementUpdates()) {
+            final int updated = getMySession().createQuery(
+                    _transactionEndedQuery).setParameter("endedTs", endedTs)
+                    .setParameter("status", transactionStatus).setParameter(
+                            "id", transactionRecord.getId()).executeUpdate();
+            if (updated == 0) {
+                throw new IllegalArgumentException(
+                        "Transaction record does not exist in persistence.");
+            }
+            if (transactionRecord instanceof TransactionRecordMutable) {
+                final TransactionRecordMutable tr = (TransactionRecordMutable) transactionRecord;
+                tr.setEndedTs(endedTs);
+                tr.setTransactionCompletionStatus(transactionStatus);
+            }
+            return transactionRecord;
+        }
+
         final TransactionRecordMutable tr = read(transactionRecord.getId());
         if (tr == null) {
             throw new IllegalArgumentException(
@@ -63,4 +94,32 @@ public class TransactionRecordDaoHibernate<T extends TransactionRecordMutable>
         return tr;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findBySessionRecord(final String sessionRecordId,
+            final PageKey after, final int limit) {
+        return scroll(newQuery().equal("sessionRecord.id", "sessionRecordId",
+                sessionRecordId).after(after), limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResultCursor<T> findByStartedTs(final Date from, final Date to,
+            final PageKey after, final int limit) {
+        return scroll(newQuery().range(from, to).after(after), limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Date getPartitionTs(final T newInstance) {
+        return newInstance == null ? null : newInstance.getStartedTs();
+    }
+
+    private KeysetQuery newQuery() {
+        return new KeysetQuery(getType().getName(), "startedTs");
+    }
 }
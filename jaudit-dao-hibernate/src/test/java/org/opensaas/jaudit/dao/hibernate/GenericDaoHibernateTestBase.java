@@ -13,9 +13,20 @@
 package org.opensaas.jaudit.dao.hibernate;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 
 import org.easymock.EasyMock;
+import org.hibernate.EntityMode;
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.SessionStatistics;
 import org.junit.Assert;
 import org.junit.Test;
 import org.opensaas.jaudit.test.ObjectFactory;
@@ -43,6 +54,8 @@ public abstract class GenericDaoHibernateTestBase<VO, PK extends Serializable, D
     protected class MockedGenericDao<T extends GenericDaoHibernate<?, ?>> {
         private Session mockSession_;
 
+        private StatelessSession mockStatelessSession_;
+
         private final T dao_;
 
         MockedGenericDao(final T dao) {
@@ -54,6 +67,13 @@ public abstract class GenericDaoHibernateTestBase<VO, PK extends Serializable, D
                     return getMockSession();
                 }
             });
+            dao_.setStatelessSessionFactory(new StatelessSessionFactory() {
+
+                public <V, K extends Serializable> StatelessSession openStatelessSession(
+                        final GenericDaoHibernate<V, K> hibernateDao) {
+                    return getMockStatelessSession();
+                }
+            });
         }
 
         T getDao() {
@@ -67,25 +87,81 @@ public abstract class GenericDaoHibernateTestBase<VO, PK extends Serializable, D
             return mockSession_;
         }
 
+        StatelessSession getMockStatelessSession() {
+            if (mockStatelessSession_ == null) {
+                mockStatelessSession_ = EasyMock
+                        .createStrictMock(StatelessSession.class);
+            }
+            return mockStatelessSession_;
+        }
+
+        /**
+         * Expect a cursor to ask which instances the session holds before
+         * it reads a chunk.
+         * 
+         * @param keys
+         *            the keys of the instances held.
+         */
+        void expectHeldKeys(final EntityKey... keys) {
+            final SessionStatistics statistics = EasyMock
+                    .createMock(SessionStatistics.class);
+            EasyMock.expect(statistics.getEntityKeys()).andReturn(
+                    new HashSet<EntityKey>(Arrays.asList(keys)));
+            EasyMock.replay(statistics);
+            EasyMock.expect(getMockSession().getStatistics()).andReturn(
+                    statistics);
+        }
+
         void mockReplay() {
             if (mockSession_ != null) {
                 EasyMock.replay(mockSession_);
             }
+            if (mockStatelessSession_ != null) {
+                EasyMock.replay(mockStatelessSession_);
+            }
         }
 
         void mockReset() {
             if (mockSession_ != null) {
                 EasyMock.reset(mockSession_);
             }
+            if (mockStatelessSession_ != null) {
+                EasyMock.reset(mockStatelessSession_);
+            }
         }
 
         void mockVerify() {
             if (mockSession_ != null) {
                 EasyMock.verify(mockSession_);
             }
+            if (mockStatelessSession_ != null) {
+                EasyMock.verify(mockStatelessSession_);
+            }
         }
     }
 
+    /**
+     * Create the key a session holds an instance under.
+     * 
+     * @param entityName
+     *            the entity name.
+     * @param id
+     *            the id of the instance.
+     * @return the key.
+     */
+    protected static EntityKey newEntityKey(final String entityName,
+            final Serializable id) {
+        final EntityPersister persister = EasyMock
+                .createNiceMock(EntityPersister.class);
+        EasyMock.expect(persister.getRootEntityName()).andStubReturn(
+                entityName);
+        EasyMock.expect(persister.getEntityName()).andStubReturn(entityName);
+        EasyMock.expect(persister.getIdentifierType()).andStubReturn(
+                Hibernate.STRING);
+        EasyMock.replay(persister);
+        return new EntityKey(id, persister, EntityMode.POJO);
+    }
+
     /**
      * Return a factory for generating DAOs.
      * 
@@ -142,6 +218,182 @@ public abstract class GenericDaoHibernateTestBase<VO, PK extends Serializable, D
         mock.mockVerify();
     }
 
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#createAll(java.util.Collection)}.
+     */
+    @Test
+    public void testCreateAll() {
+        final DAO dao = getDAOFactory().createUnique();
+        dao.setBatchSize(2);
+        final MockedGenericDao<DAO> mock = new MockedGenericDao<DAO>(dao);
+
+        final List<VO> vos = new ArrayList<VO>();
+        final List<PK> keys = new ArrayList<PK>();
+        for (int i = 0; i < 3; ++i) {
+            vos.add(getVOFactory().createUnique());
+            keys.add(getPKFactory().createUnique());
+        }
+
+        // a full batch is flushed and evicted, the remainder only flushed
+        EasyMock.expect(mock.getMockSession().save(vos.get(0))).andReturn(
+                keys.get(0));
+        EasyMock.expect(mock.getMockSession().save(vos.get(1))).andReturn(
+                keys.get(1));
+        mock.getMockSession().flush();
+        mock.getMockSession().evict(vos.get(0));
+        mock.getMockSession().evict(vos.get(1));
+        EasyMock.expect(mock.getMockSession().save(vos.get(2))).andReturn(
+                keys.get(2));
+        mock.getMockSession().flush();
+        mock.mockReplay();
+
+        Assert.assertEquals(keys, dao.createAll(vos));
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#createAll(java.util.Collection)}:
+     * an instance the caller loaded before the call is neither evicted nor
+     * cleared from the session.
+     */
+    @Test
+    public void testCreateAllKeepsLoaded() {
+        final DAO dao = getDAOFactory().createUnique();
+        dao.setBatchSize(1);
+        final MockedGenericDao<DAO> mock = new MockedGenericDao<DAO>(dao);
+
+        final PK loadedKey = getPKFactory().createUnique();
+        final VO loaded = getVOFactory().createUnique();
+        final VO vo = getVOFactory().createUnique();
+        final PK key = getPKFactory().createUnique();
+        EasyMock.expect(mock.getMockSession().get(dao.getType(), loadedKey))
+                .andReturn(loaded);
+        EasyMock.expect(mock.getMockSession().save(vo)).andReturn(key);
+        mock.getMockSession().flush();
+        mock.getMockSession().evict(vo);
+        mock.mockReplay();
+
+        Assert.assertSame(loaded, dao.read(loadedKey));
+        Assert.assertEquals(Collections.singletonList(key), dao
+                .createAll(Collections.singletonList(vo)));
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#create(java.lang.Object)}
+     * with stateless writes.
+     */
+    @Test
+    public void testCreateStateless() {
+        final DAO dao = getDAOFactory().createUnique();
+        dao.setStatelessWrites(true);
+        Assert.assertTrue(dao.isStatelessWrites());
+        final MockedGenericDao<DAO> mock = new MockedGenericDao<DAO>(dao);
+        mock.getMockSession();
+
+        final PK key = getPKFactory().createUnique();
+        EasyMock.expect(
+                mock.getMockStatelessSession().insert(
+                        getVOFactory().createEquivalent())).andReturn(key);
+        mock.getMockStatelessSession().close();
+        mock.mockReplay();
+
+        Assert.assertEquals(key, dao.create(getVOFactory().createEquivalent()));
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#createAll(java.util.Collection)}
+     * with stateless writes.
+     */
+    @Test
+    public void testCreateAllStateless() {
+        final DAO dao = getDAOFactory().createUnique();
+        dao.setStatelessWrites(true);
+        dao.setBatchSize(2);
+        final MockedGenericDao<DAO> mock = new MockedGenericDao<DAO>(dao);
+        mock.getMockSession();
+
+        final List<VO> vos = new ArrayList<VO>();
+        final List<PK> keys = new ArrayList<PK>();
+        for (int i = 0; i < 3; ++i) {
+            vos.add(getVOFactory().createUnique());
+            keys.add(getPKFactory().createUnique());
+            EasyMock.expect(mock.getMockStatelessSession().insert(vos.get(i)))
+                    .andReturn(keys.get(i));
+        }
+        mock.getMockStatelessSession().close();
+        mock.mockReplay();
+
+        Assert.assertEquals(keys, dao.createAll(vos));
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#setStatelessSessionFactory(StatelessSessionFactory)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testStatelessSessionFactoryNull() {
+        getDAOFactory().createUnique().setStatelessSessionFactory(null);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#createAll(java.util.Collection)}.
+     */
+    @Test
+    public void testCreateAllEmpty() {
+        final DAO dao = getDAOFactory().createUnique();
+        final MockedGenericDao<DAO> mock = new MockedGenericDao<DAO>(dao);
+        mock.mockReplay();
+
+        Assert.assertTrue(dao.createAll(Collections.<VO> emptyList())
+                .isEmpty());
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#createAll(java.util.Collection)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateAllNull() {
+        getDAOFactory().createUnique().createAll(null);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#setBatchSize(int)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchSizeInvalid() {
+        getDAOFactory().createUnique().setBatchSize(0);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#setFetchSize(int)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testFetchSizeInvalid() {
+        getDAOFactory().createUnique().setFetchSize(0);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#scroll(KeysetQuery, int)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testScrollLimitInvalid() {
+        getDAOFactory().createUnique().scroll(
+                new KeysetQuery(getVOClass().getName(), "ts"), -1);
+    }
+
     /**
      * Test method for
      * {@link org.opensaas.jaudit.dao.hibernate.GenericDaoHibernate#read(java.io.Serializable)}.
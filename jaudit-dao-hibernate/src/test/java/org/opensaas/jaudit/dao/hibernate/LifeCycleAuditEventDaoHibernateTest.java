@@ -0,0 +1,597 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.metadata.CollectionMetadata;
+import org.hibernate.type.BagType;
+import org.hibernate.type.ManyToOneType;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaas.jaudit.BusinessAuditEventVO;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.PropertyValueChangeVO;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.dao.AuditEventArchive;
+import org.opensaas.jaudit.dao.Partition;
+import org.opensaas.jaudit.dao.PartitionDao;
+import org.opensaas.jaudit.dao.ResultCursor;
+import org.opensaas.jaudit.test.DefaultFactories;
+import org.opensaas.jaudit.test.ObjectFactory;
+import org.opensaas.jaudit.test.ObjectFactoryAssert;
+
+/**
+ * Test class for
+ * {@link org.opensaas.jaudit.dao.hibernate.LifeCycleAuditEventDaoHibernate}.
+ */
+public class LifeCycleAuditEventDaoHibernateTest
+        extends
+        GenericDaoHibernateTestBase<LifeCycleAuditEventVO, String, LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> {
+
+    private static final ObjectFactory<String> STRING_FACTORY = new DefaultFactories.StringFactory();
+
+    private static final ObjectFactory<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> DAO_FACTORY = new ObjectFactory<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>() {
+
+        /**
+         * {@inheritDoc}
+         */
+        public LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> createEquivalent() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> createUnique() {
+            return new LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>(
+                    LifeCycleAuditEventVO.class);
+        }
+    };
+
+    private static final ObjectFactory<LifeCycleAuditEventVO> VO_FACTORY = new ObjectFactory<LifeCycleAuditEventVO>() {
+
+        /**
+         * {@inheritDoc}
+         */
+        public LifeCycleAuditEventVO createEquivalent() {
+            return newEvent(STRING_FACTORY.createEquivalent());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public LifeCycleAuditEventVO createUnique() {
+            return newEvent(STRING_FACTORY.createUnique());
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ObjectFactory<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> getDAOFactory() {
+        return DAO_FACTORY;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ObjectFactory<String> getPKFactory() {
+        return STRING_FACTORY;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ObjectFactory<LifeCycleAuditEventVO> getVOFactory() {
+        return VO_FACTORY;
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.LifeCycleAuditEventDaoHibernate#create(Object)}
+     * with property value changes.
+     */
+    @Test
+    public void testCreateWithChanges() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+
+        final LifeCycleAuditEventVO event = withChanges(VO_FACTORY
+                .createUnique(), 2);
+        final List<PropertyValueChange> changes = new ArrayList<PropertyValueChange>(
+                event.getPropertyValueChanges());
+        EasyMock.expect(mock.getMockSession().save(event)).andReturn(
+                event.getId());
+        EasyMock.expect(mock.getMockSession().save(changes.get(0)))
+                .andReturn(changes.get(0).getId());
+        EasyMock.expect(mock.getMockSession().save(changes.get(1)))
+                .andReturn(changes.get(1).getId());
+        mock.mockReplay();
+
+        Assert.assertEquals(event.getId(), dao.create(event));
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.LifeCycleAuditEventDaoHibernate#createAll(Collection)}
+     * with property value changes: each group of events is saved before
+     * their changes.
+     */
+    @Test
+    public void testCreateAllWithChanges() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        dao.setBatchSize(2);
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+
+        final List<LifeCycleAuditEventVO> events = new ArrayList<LifeCycleAuditEventVO>();
+        for (int i = 0; i < 3; ++i) {
+            events.add(withChanges(VO_FACTORY.createUnique(), i));
+        }
+
+        EasyMock.expect(mock.getMockSession().save(events.get(0))).andReturn(
+                events.get(0).getId());
+        EasyMock.expect(mock.getMockSession().save(events.get(1))).andReturn(
+                events.get(1).getId());
+        expectSaves(mock, events.get(1).getPropertyValueChanges());
+        mock.getMockSession().flush();
+        mock.getMockSession().evict(events.get(0));
+        mock.getMockSession().evict(events.get(1));
+        for (final PropertyValueChange change : events.get(1)
+                .getPropertyValueChanges()) {
+            mock.getMockSession().evict(change);
+        }
+        EasyMock.expect(mock.getMockSession().save(events.get(2))).andReturn(
+                events.get(2).getId());
+        expectSaves(mock, events.get(2).getPropertyValueChanges());
+        mock.getMockSession().flush();
+        mock.mockReplay();
+
+        Assert.assertEquals(3, dao.createAll(events).size());
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.LifeCycleAuditEventDaoHibernate#createAll(Collection)}
+     * with property value changes and stateless writes: all events are
+     * inserted before all changes.
+     */
+    @Test
+    public void testCreateAllWithChangesStateless() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        dao.setStatelessWrites(true);
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+        mock.getMockSession();
+
+        final List<LifeCycleAuditEventVO> events = new ArrayList<LifeCycleAuditEventVO>();
+        for (int i = 0; i < 2; ++i) {
+            events.add(withChanges(VO_FACTORY.createUnique(), 2));
+            EasyMock.expect(
+                    mock.getMockStatelessSession().insert(events.get(i)))
+                    .andReturn(events.get(i).getId());
+        }
+        for (final LifeCycleAuditEventVO event : events) {
+            for (final PropertyValueChange change : event
+                    .getPropertyValueChanges()) {
+                EasyMock.expect(mock.getMockStatelessSession().insert(change))
+                        .andReturn(change.getId());
+            }
+        }
+        mock.getMockStatelessSession().close();
+        mock.mockReplay();
+
+        Assert.assertEquals(2, dao.createAll(events).size());
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.LifeCycleAuditEventDaoHibernate#createAll(Collection)}
+     * with a partitioned table: the partition dao is only asked when an event
+     * falls outside the partition of the one before.
+     */
+    @Test
+    public void testCreateAllRoutesPartitions() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        final PartitionDao partitionDao = EasyMock
+                .createStrictMock(PartitionDao.class);
+        dao.setPartitionDao(partitionDao);
+        dao.setPartitionTable("life_cycle_audit_events");
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+
+        final List<LifeCycleAuditEventVO> events = new ArrayList<LifeCycleAuditEventVO>();
+        for (final long ts : new long[] { 100L, 150L, 250L, 260L }) {
+            final LifeCycleAuditEventVO event = VO_FACTORY.createUnique();
+            event.setTs(new Date(ts));
+            events.add(event);
+        }
+
+        EasyMock.expect(
+                partitionDao.ensurePartition("life_cycle_audit_events",
+                        new Date(100L))).andReturn(
+                new Partition("life_cycle_audit_events", "p1",
+                        new Date(100L), new Date(200L)));
+        EasyMock.expect(
+                partitionDao.ensurePartition("life_cycle_audit_events",
+                        new Date(250L))).andReturn(
+                new Partition("life_cycle_audit_events", "p2",
+                        new Date(200L), new Date(300L)));
+        for (final LifeCycleAuditEventVO event : events) {
+            EasyMock.expect(mock.getMockSession().save(event)).andReturn(
+                    event.getId());
+        }
+        mock.getMockSession().flush();
+        EasyMock.replay(partitionDao);
+        mock.mockReplay();
+
+        Assert.assertEquals(4, dao.createAll(events).size());
+        mock.mockVerify();
+        EasyMock.verify(partitionDao);
+    }
+
+    /**
+     * A partition dao without a table name is rejected on insert.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testCreateNoPartitionTable() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        dao.setPartitionDao(EasyMock.createMock(PartitionDao.class));
+        dao.create(VO_FACTORY.createUnique());
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.LifeCycleAuditEventDaoHibernate#deleteAll(Collection)}:
+     * the property value changes are deleted before their events.
+     */
+    @Test
+    public void testDeleteAll() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+        final List<String> ids = Arrays.asList("e1", "e2");
+
+        // the changes are deleted as the entity the mapping refers to
+        final String role = LifeCycleAuditEventVO.class.getName()
+                + ".propertyValueChanges";
+        final SessionFactory factory = EasyMock
+                .createStrictMock(SessionFactory.class);
+        final ClassMetadata eventMetadata = EasyMock
+                .createStrictMock(ClassMetadata.class);
+        final CollectionMetadata changesMetadata = EasyMock
+                .createStrictMock(CollectionMetadata.class);
+        EasyMock.expect(mock.getMockSession().getSessionFactory()).andReturn(
+                factory);
+        EasyMock.expect(factory.getClassMetadata(LifeCycleAuditEventVO.class))
+                .andReturn(eventMetadata);
+        EasyMock.expect(eventMetadata.getPropertyType("propertyValueChanges"))
+                .andReturn(new BagType(role, null, false));
+        EasyMock.expect(factory.getCollectionMetadata(role)).andReturn(
+                changesMetadata);
+        EasyMock.expect(changesMetadata.getElementType()).andReturn(
+                new ManyToOneType("org.example.AuditChange"));
+
+        final Query changes = EasyMock.createStrictMock(Query.class);
+        final Query events = EasyMock.createStrictMock(Query.class);
+        for (int i = 0; i < 2; ++i) {
+            EasyMock.expect(
+                    mock.getMockSession().createQuery(
+                            "delete from org.example.AuditChange"
+                                    + " where lifeCycleAuditEvent.id in (:ids)"))
+                    .andReturn(changes);
+            EasyMock.expect(changes.setParameterList("ids", ids)).andReturn(
+                    changes);
+            EasyMock.expect(changes.executeUpdate()).andReturn(3);
+            EasyMock.expect(
+                    mock.getMockSession().createQuery(
+                            "delete from "
+                                    + LifeCycleAuditEventVO.class.getName()
+                                    + " where id in (:ids)")).andReturn(events);
+            EasyMock.expect(events.setParameterList("ids", ids)).andReturn(
+                    events);
+            EasyMock.expect(events.executeUpdate()).andReturn(2);
+        }
+        mock.mockReplay();
+        EasyMock.replay(factory, eventMetadata, changesMetadata, changes,
+                events);
+
+        Assert.assertEquals(2, dao.deleteAll(ids));
+        // the query is built once
+        Assert.assertEquals(2, dao.deleteAll(ids));
+        mock.mockVerify();
+        EasyMock.verify(factory, eventMetadata, changesMetadata, changes,
+                events);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.LifeCycleAuditEventDaoHibernate#deleteAll(Collection)}
+     * with no ids: nothing is issued.
+     */
+    @Test
+    public void testDeleteAllEmpty() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+        mock.mockReplay();
+
+        Assert.assertEquals(0, dao.deleteAll(Collections.<String> emptyList()));
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.AuditEventDaoHibernate#read(String)}
+     * with an archive: ids not in the database are looked up in the archive,
+     * and archived events of another type are ignored.
+     */
+    @Test
+    public void testReadFromArchive() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        final AuditEventArchive archive = EasyMock
+                .createStrictMock(AuditEventArchive.class);
+        dao.setArchive(archive);
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+
+        final LifeCycleAuditEventVO live = VO_FACTORY.createUnique();
+        final LifeCycleAuditEventVO archived = VO_FACTORY.createUnique();
+        EasyMock.expect(
+                mock.getMockSession().get(LifeCycleAuditEventVO.class,
+                        live.getId())).andReturn(live);
+        EasyMock.expect(
+                mock.getMockSession().get(LifeCycleAuditEventVO.class,
+                        archived.getId())).andReturn(null);
+        EasyMock.expect(archive.read(archived.getId())).andReturn(archived);
+        EasyMock.expect(
+                mock.getMockSession().get(LifeCycleAuditEventVO.class, "b1"))
+                .andReturn(null);
+        EasyMock.expect(archive.read("b1")).andReturn(
+                new BusinessAuditEventVO());
+        mock.mockReplay();
+        EasyMock.replay(archive);
+
+        Assert.assertSame(live, dao.read(live.getId()));
+        Assert.assertSame(archived, dao.read(archived.getId()));
+        Assert.assertNull(dao.read("b1"));
+        mock.mockVerify();
+        EasyMock.verify(archive);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.AuditEventDaoHibernate#findByTs(Date, Date, org.opensaas.jaudit.dao.PageKey, int)}:
+     * rows are read a fetch size at a time and each chunk is evicted, with the
+     * session and transaction records loaded along with it, before the next
+     * is read.
+     */
+    @Test
+    public void testFindByTsEvictsChunks() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        dao.setFetchSize(2);
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+
+        final SessionRecordVO session = new SessionRecordVO();
+        session.setId("s1");
+        final TransactionRecordVO transaction1 = new TransactionRecordVO();
+        transaction1.setId("t1");
+        final TransactionRecordVO transaction2 = new TransactionRecordVO();
+        transaction2.setId("t2");
+        final LifeCycleAuditEventVO event1 = newEvent("e1", session,
+                transaction1);
+        final LifeCycleAuditEventVO event2 = newEvent("e2", session,
+                transaction1);
+        final LifeCycleAuditEventVO event3 = newEvent("e3", session,
+                transaction2);
+
+        final Query query = EasyMock.createNiceMock(Query.class);
+        EasyMock.expect(query.setReadOnly(true)).andStubReturn(query);
+        EasyMock.expect(query.setFetchSize(2)).andStubReturn(query);
+        final ScrollableResults results = EasyMock
+                .createStrictMock(ScrollableResults.class);
+        EasyMock.expect(query.scroll(ScrollMode.FORWARD_ONLY)).andReturn(
+                results);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(EasyMock.isA(String.class)))
+                .andReturn(query);
+        mock.expectHeldKeys();
+        expectRow(results, event1);
+        expectRow(results, event2);
+        mock.getMockSession().evict(event1);
+        mock.getMockSession().evict(session);
+        mock.getMockSession().evict(transaction1);
+        mock.getMockSession().evict(event2);
+        mock.expectHeldKeys();
+        expectRow(results, event3);
+        EasyMock.expect(results.next()).andReturn(false);
+        mock.getMockSession().evict(event3);
+        mock.getMockSession().evict(session);
+        mock.getMockSession().evict(transaction2);
+        results.close();
+        mock.mockReplay();
+        EasyMock.replay(query, results);
+
+        final List<LifeCycleAuditEventVO> read = new ArrayList<LifeCycleAuditEventVO>();
+        final ResultCursor<LifeCycleAuditEventVO> cursor = dao.findByTs(null,
+                null, null, 0);
+        while (cursor.hasNext()) {
+            read.add(cursor.next());
+        }
+        cursor.close();
+        Assert.assertEquals(Arrays.asList(event1, event2, event3), read);
+        mock.mockVerify();
+        EasyMock.verify(results);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.AuditEventDaoHibernate#findByTs(Date, Date, org.opensaas.jaudit.dao.PageKey, int)}:
+     * a session record the session held before the chunk was read, such as
+     * the caller's own, is not evicted with the chunk.
+     */
+    @Test
+    public void testFindByTsKeepsHeldRecords() {
+        final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao = DAO_FACTORY
+                .createUnique();
+        final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock = new MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>>(
+                dao);
+
+        final SessionRecordVO session = new SessionRecordVO();
+        session.setId("s1");
+        final TransactionRecordVO transaction = new TransactionRecordVO();
+        transaction.setId("t1");
+        final LifeCycleAuditEventVO event = newEvent("e1", session,
+                transaction);
+
+        final Query query = EasyMock.createNiceMock(Query.class);
+        EasyMock.expect(query.setReadOnly(true)).andStubReturn(query);
+        EasyMock.expect(query.setFetchSize(dao.getFetchSize()))
+                .andStubReturn(query);
+        final ScrollableResults results = EasyMock
+                .createStrictMock(ScrollableResults.class);
+        EasyMock.expect(query.scroll(ScrollMode.FORWARD_ONLY)).andReturn(
+                results);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(EasyMock.isA(String.class)))
+                .andReturn(query);
+        mock.expectHeldKeys(newEntityKey(SessionRecordVO.class.getName(),
+                "s1"));
+        expectRow(results, event);
+        EasyMock.expect(results.next()).andReturn(false);
+        expectKey(mock, event, "e1");
+        expectKey(mock, session, "s1");
+        expectKey(mock, transaction, "t1");
+        mock.getMockSession().evict(event);
+        mock.getMockSession().evict(transaction);
+        results.close();
+        mock.mockReplay();
+        EasyMock.replay(query, results);
+
+        final ResultCursor<LifeCycleAuditEventVO> cursor = dao.findByTs(null,
+                null, null, 0);
+        Assert.assertSame(event, cursor.next());
+        Assert.assertFalse(cursor.hasNext());
+        mock.mockVerify();
+        EasyMock.verify(results);
+    }
+
+    /**
+     * The property value changes of the events a cursor holds are fetched
+     * together, one query per chunk rather than one per event.
+     */
+    @Test
+    public void testChangesBatchFetched() {
+        final Configuration configuration = new AnnotationConfiguration()
+                .configure();
+        configuration.buildMappings();
+        Assert.assertEquals(100, configuration.getCollectionMapping(
+                LifeCycleAuditEventVO.class.getName()
+                        + ".propertyValueChanges").getBatchSize());
+    }
+
+    /**
+     * Ensure factories are valid.
+     */
+    @Test
+    public void testFactory() {
+        ObjectFactoryAssert.assertObjectFactoryContract(VO_FACTORY);
+        ObjectFactoryAssert.assertObjectFactoryContract(DAO_FACTORY);
+    }
+
+    private static void expectSaves(
+            final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock,
+            final Collection<PropertyValueChange> changes) {
+        for (final PropertyValueChange change : changes) {
+            EasyMock.expect(mock.getMockSession().save(change)).andReturn(
+                    change.getId());
+        }
+    }
+
+    private static LifeCycleAuditEventVO withChanges(
+            final LifeCycleAuditEventVO event, final int count) {
+        final Collection<PropertyValueChange> changes = new ArrayList<PropertyValueChange>(
+                count);
+        for (int i = 0; i < count; ++i) {
+            final PropertyValueChangeVO change = new PropertyValueChangeVO();
+            change.setId(event.getId() + "-" + i);
+            change.setPropertyName("p" + i);
+            changes.add(change);
+        }
+        event.setPropertyValueChanges(changes);
+        return event;
+    }
+
+    private static void expectKey(
+            final MockedGenericDao<LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>> mock,
+            final Object instance, final String id) {
+        EasyMock.expect(mock.getMockSession().getEntityName(instance))
+                .andReturn(instance.getClass().getName());
+        EasyMock.expect(mock.getMockSession().getIdentifier(instance))
+                .andReturn(id);
+    }
+
+    private static void expectRow(final ScrollableResults results,
+            final LifeCycleAuditEventVO event) {
+        EasyMock.expect(results.next()).andReturn(true);
+        EasyMock.expect(results.get()).andReturn(
+                new Object[] { event, new Date(1000L), event.getId() });
+    }
+
+    private static LifeCycleAuditEventVO newEvent(final String id,
+            final SessionRecordVO session, final TransactionRecordVO transaction) {
+        final LifeCycleAuditEventVO event = newEvent(id);
+        event.setSessionRecord(session);
+        event.setTransactionRecord(transaction);
+        return event;
+    }
+
+    private static LifeCycleAuditEventVO newEvent(final String id) {
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setId(id);
+        return event;
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.easymock.EasyMock;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQL5Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.dao.Partition;
+
+/**
+ * Test class for
+ * {@link org.opensaas.jaudit.dao.hibernate.PartitionDaoHibernate}.
+ */
+public class PartitionDaoHibernateTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private Session _session;
+
+    private SQLQuery _query;
+
+    private Transaction _transaction;
+
+    private Dialect _dialect = new PostgreSQLDialect();
+
+    private PartitionDaoHibernate _dao;
+
+    /**
+     * Set up a dao for a monthly partitioned event table with dependent
+     * changes, and a daily partitioned session table.
+     */
+    @Before
+    public void setUp() {
+        _session = EasyMock.createStrictMock(Session.class);
+        _query = EasyMock.createStrictMock(SQLQuery.class);
+        _transaction = EasyMock.createStrictMock(Transaction.class);
+        _dao = new PartitionDaoHibernate() {
+            @Override
+            Session getMySession() {
+                return _session;
+            }
+
+            @Override
+            Session openDdlSession() {
+                return _session;
+            }
+
+            @Override
+            Dialect getDialect() {
+                return _dialect;
+            }
+        };
+        final PartitionedTable events = new PartitionedTable(
+                "life_cycle_audit_events", "ts", PartitionInterval.MONTHLY);
+        events.setDependentTable("property_value_changes");
+        events.setDependentColumn("life_cycle_audit_event");
+        _dao.setTables(Arrays.asList(events, new PartitionedTable(
+                "session_records", "started_ts", PartitionInterval.DAILY)));
+        _dao.setTimeZone(UTC);
+    }
+
+    /**
+     * PostgreSQL is accepted.
+     */
+    @Test
+    public void testInitDao() {
+        _dao.initDao();
+    }
+
+    /**
+     * Any other database is refused.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testInitDaoOtherDialect() {
+        _dialect = new MySQL5Dialect();
+        _dao.initDao();
+    }
+
+    /**
+     * A partition is created once, and remembered afterwards.
+     */
+    @Test
+    public void testEnsurePartition() {
+        expectUpdate("create table if not exists life_cycle_audit_events_p202401"
+                + " partition of life_cycle_audit_events for values"
+                + " from ('2024-01-01 00:00:00') to ('2024-02-01 00:00:00')");
+        replay();
+
+        final Partition partition = _dao.ensurePartition(
+                "life_cycle_audit_events", date(2024, 1, 15));
+        Assert.assertEquals("life_cycle_audit_events_p202401", partition
+                .getName());
+        Assert.assertEquals(date(2024, 2, 1), partition.getTo());
+        Assert.assertEquals(partition, _dao.ensurePartition(
+                "life_cycle_audit_events", date(2024, 1, 31)));
+        verify();
+    }
+
+    /**
+     * A partition whose creation is rolled back is not remembered.
+     */
+    @Test
+    public void testEnsurePartitionRolledBack() {
+        final String create = "create table if not exists"
+                + " session_records_p20240101 partition of session_records"
+                + " for values from ('2024-01-01 00:00:00')"
+                + " to ('2024-01-02 00:00:00')";
+        EasyMock.expect(_session.beginTransaction()).andReturn(_transaction);
+        expectStatement("set local lock_timeout = 5000");
+        EasyMock.expect(_session.createSQLQuery(create)).andReturn(_query);
+        EasyMock.expect(Integer.valueOf(_query.executeUpdate())).andThrow(
+                new IllegalStateException("lock timeout"));
+        _transaction.rollback();
+        EasyMock.expect(_session.close()).andReturn(null);
+        expectUpdate(create);
+        replay();
+
+        try {
+            _dao.ensurePartition("session_records", date(2024, 1, 1));
+            Assert.fail("Expected the failure to propagate.");
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals("lock timeout", e.getMessage());
+        }
+        _dao.ensurePartition("session_records", date(2024, 1, 1));
+        verify();
+    }
+
+    /**
+     * Partitions are created for every table over the range.
+     */
+    @Test
+    public void testEnsurePartitions() {
+        expectUpdate("create table if not exists life_cycle_audit_events_p202401"
+                + " partition of life_cycle_audit_events for values"
+                + " from ('2024-01-01 00:00:00') to ('2024-02-01 00:00:00')");
+        expectUpdate("create table if not exists life_cycle_audit_events_p202402"
+                + " partition of life_cycle_audit_events for values"
+                + " from ('2024-02-01 00:00:00') to ('2024-03-01 00:00:00')");
+        expectUpdate("create table if not exists session_records_p20240131"
+                + " partition of session_records for values"
+                + " from ('2024-01-31 00:00:00') to ('2024-02-01 00:00:00')");
+        expectUpdate("create table if not exists session_records_p20240201"
+                + " partition of session_records for values"
+                + " from ('2024-02-01 00:00:00') to ('2024-02-02 00:00:00')");
+        replay();
+
+        final List<Partition> partitions = _dao.ensurePartitions(date(2024,
+                1, 31), date(2024, 2, 2));
+        Assert.assertEquals(4, partitions.size());
+        verify();
+    }
+
+    /**
+     * Partitions are found by name, oldest first, skipping foreign tables.
+     */
+    @Test
+    public void testFindPartitions() {
+        expectFind("life_cycle_audit_events_p202402",
+                "life_cycle_audit_events_default",
+                "life_cycle_audit_events_p202401");
+        replay();
+
+        final List<Partition> partitions = _dao
+                .findPartitions("life_cycle_audit_events");
+        Assert.assertEquals(2, partitions.size());
+        Assert.assertEquals(date(2024, 1, 1), partitions.get(0).getFrom());
+        Assert.assertEquals(date(2024, 2, 1), partitions.get(1).getFrom());
+        verify();
+    }
+
+    /**
+     * Only the partitions that end at or before the time stamp are detached.
+     */
+    @Test
+    public void testDetachPartitions() {
+        expectFind("life_cycle_audit_events_p202403",
+                "life_cycle_audit_events_p202401",
+                "life_cycle_audit_events_p202402");
+        expectUpdate("alter table life_cycle_audit_events"
+                + " detach partition life_cycle_audit_events_p202401");
+        expectUpdate("alter table life_cycle_audit_events"
+                + " detach partition life_cycle_audit_events_p202402");
+        replay();
+
+        final List<Partition> detached = _dao.detachPartitions(
+                "life_cycle_audit_events", date(2024, 3, 15));
+        Assert.assertEquals(2, detached.size());
+        Assert.assertEquals("life_cycle_audit_events_p202402", detached.get(1)
+                .getName());
+        verify();
+    }
+
+    /**
+     * Dropping a partition deletes its dependent rows first, in the same
+     * transaction.
+     */
+    @Test
+    public void testDropPartition() {
+        expectUpdate("delete from property_value_changes"
+                + " where life_cycle_audit_event in"
+                + " (select id from life_cycle_audit_events_p202401)",
+                "drop table if exists life_cycle_audit_events_p202401");
+        expectUpdate("drop table if exists session_records_p20240101");
+        replay();
+
+        _dao.dropPartition(new Partition("life_cycle_audit_events",
+                "life_cycle_audit_events_p202401", date(2024, 1, 1), date(
+                        2024, 2, 1)));
+        _dao.dropPartition(new Partition("session_records",
+                "session_records_p20240101", date(2024, 1, 1), date(2024, 1,
+                        2)));
+        verify();
+    }
+
+    /**
+     * A partition not named by the dao is not dropped.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDropPartitionForeign() {
+        replay();
+        _dao.dropPartition(new Partition("session_records",
+                "session_records; drop table session_records", date(2024, 1,
+                        1), date(2024, 1, 2)));
+    }
+
+    /**
+     * Only configured tables are partitioned.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testEnsurePartitionUnknownTable() {
+        replay();
+        _dao.ensurePartition("business_audit_events", new Date());
+    }
+
+    /**
+     * Table and column names must be plain identifiers.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartitionedTableInvalidName() {
+        new PartitionedTable("audit events", "ts", PartitionInterval.DAILY);
+    }
+
+    private void expectUpdate(final String... statements) {
+        EasyMock.expect(_session.beginTransaction()).andReturn(_transaction);
+        expectStatement("set local lock_timeout = 5000");
+        for (final String sql : statements) {
+            expectStatement(sql);
+        }
+        _transaction.commit();
+        EasyMock.expect(_session.close()).andReturn(null);
+    }
+
+    private void expectStatement(final String sql) {
+        EasyMock.expect(_session.createSQLQuery(sql)).andReturn(_query);
+        EasyMock.expect(Integer.valueOf(_query.executeUpdate())).andReturn(
+                Integer.valueOf(0));
+    }
+
+    private void expectFind(final String... names) {
+        EasyMock.expect(_session.createSQLQuery(EasyMock.startsWith("select")))
+                .andReturn(_query);
+        EasyMock.expect(_query.setString("table", "life_cycle_audit_events"))
+                .andReturn(_query);
+        EasyMock.expect(_query.list()).andReturn(Arrays.asList(names));
+    }
+
+    private void replay() {
+        EasyMock.replay(_session, _query, _transaction);
+    }
+
+    private void verify() {
+        EasyMock.verify(_session, _query, _transaction);
+    }
+
+    private static Date date(final int year, final int month, final int day) {
+        final Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTime();
+    }
+}
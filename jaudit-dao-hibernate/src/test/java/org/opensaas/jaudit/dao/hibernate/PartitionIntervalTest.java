@@ -0,0 +1,94 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link org.opensaas.jaudit.dao.hibernate.PartitionInterval}.
+ */
+public class PartitionIntervalTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Daily partitions start at midnight and are named after the day.
+     */
+    @Test
+    public void testDaily() {
+        final long start = PartitionInterval.DAILY.floor(time(2023, 12, 31,
+                17), UTC);
+        Assert.assertEquals(time(2023, 12, 31, 0), start);
+        Assert.assertEquals(time(2024, 1, 1, 0), PartitionInterval.DAILY
+                .next(start, UTC));
+        Assert.assertEquals("20231231", PartitionInterval.DAILY.suffix(start,
+                UTC));
+        Assert.assertEquals(start, PartitionInterval.DAILY.parse("20231231",
+                UTC));
+    }
+
+    /**
+     * Monthly partitions start on the first of the month and are named after
+     * the month.
+     */
+    @Test
+    public void testMonthly() {
+        final long start = PartitionInterval.MONTHLY.floor(time(2024, 2, 29,
+                23), UTC);
+        Assert.assertEquals(time(2024, 2, 1, 0), start);
+        Assert.assertEquals(time(2024, 3, 1, 0), PartitionInterval.MONTHLY
+                .next(start, UTC));
+        Assert.assertEquals("202402", PartitionInterval.MONTHLY.suffix(start,
+                UTC));
+        Assert.assertEquals(start, PartitionInterval.MONTHLY.parse("202402",
+                UTC));
+    }
+
+    /**
+     * The bounds follow the time zone.
+     */
+    @Test
+    public void testTimeZone() {
+        final TimeZone zone = TimeZone.getTimeZone("GMT+02:00");
+        Assert.assertEquals(time(2024, 1, 31, 22), PartitionInterval.MONTHLY
+                .floor(time(2024, 1, 31, 23), zone));
+        Assert.assertEquals("202402", PartitionInterval.MONTHLY.suffix(time(
+                2024, 1, 31, 22), zone));
+    }
+
+    /**
+     * Suffixes of another interval or of no valid day are not parsed.
+     */
+    @Test
+    public void testParseInvalid() {
+        Assert.assertEquals(-1L, PartitionInterval.MONTHLY.parse("20240201",
+                UTC));
+        Assert.assertEquals(-1L, PartitionInterval.DAILY.parse("202402", UTC));
+        Assert.assertEquals(-1L, PartitionInterval.DAILY.parse("20240230",
+                UTC));
+        Assert.assertEquals(-1L, PartitionInterval.DAILY.parse("2024O201",
+                UTC));
+    }
+
+    private static long time(final int year, final int month, final int day,
+            final int hour) {
+        final Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, 0, 0);
+        return calendar.getTimeInMillis();
+    }
+}
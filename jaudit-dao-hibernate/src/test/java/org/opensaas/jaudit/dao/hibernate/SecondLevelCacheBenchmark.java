@@ -0,0 +1,258 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.PropertyValueChangeVO;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Counts the statements issued for a web request mix with and without the
+ * second level cache of session and transaction records. Each web session
+ * starts a session record, logs in, runs a number of requests that each
+ * write a transaction record and its life cycle events and end it once the
+ * business transaction completed, views the history of an object every
+ * fifth request and finally ends the session record.
+ * 
+ * There is no embedded database on the test class path, so the connection
+ * is read from the <tt>jdbc.driver</tt>, <tt>jdbc.url</tt>,
+ * <tt>jdbc.username</tt>, <tt>jdbc.password</tt> and
+ * <tt>hibernate.dialect</tt> system properties; the driver must be added to
+ * the class path. Run with
+ * <tt>java org.opensaas.jaudit.dao.hibernate.SecondLevelCacheBenchmark
+ * [sessions] [requests per session]</tt>. The schema is created and dropped
+ * for each run.
+ */
+public final class SecondLevelCacheBenchmark {
+
+    private static final int EVENTS_PER_REQUEST = 3;
+
+    private static final int TARGETS = 50;
+
+    private static final int PAGE_SIZE = 20;
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            optional number of web sessions and requests per session.
+     * @throws Exception
+     *             when an error occurs.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (System.getProperty("jdbc.url") == null) {
+            System.out.println("Set the jdbc.driver, jdbc.url, jdbc.username,"
+                    + " jdbc.password and hibernate.dialect system properties.");
+            return;
+        }
+        final int sessions = args.length > 0 ? Integer.parseInt(args[0])
+                : 200;
+        final int requests = args.length > 1 ? Integer.parseInt(args[1])
+                : 20;
+
+        for (int round = 0; round < 3; ++round) {
+            report("round " + round + " uncached", run(false, sessions,
+                    requests));
+            report("round " + round + " cached  ", run(true, sessions,
+                    requests));
+        }
+    }
+
+    private static Statistics run(final boolean cached, final int sessions,
+            final int requests) {
+        final Configuration configuration = new AnnotationConfiguration()
+                .configure();
+        configuration.setProperty("hibernate.connection.driver_class",
+                System.getProperty("jdbc.driver"));
+        configuration.setProperty("hibernate.connection.url", System
+                .getProperty("jdbc.url"));
+        configuration.setProperty("hibernate.connection.username", System
+                .getProperty("jdbc.username", ""));
+        configuration.setProperty("hibernate.connection.password", System
+                .getProperty("jdbc.password", ""));
+        configuration.setProperty("hibernate.dialect", System
+                .getProperty("hibernate.dialect"));
+        configuration.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        configuration.setProperty("hibernate.current_session_context_class",
+                "thread");
+        configuration.setProperty("hibernate.generate_statistics", "true");
+        configuration.setProperty("hibernate.cache.use_second_level_cache",
+                String.valueOf(cached));
+        if (!cached) {
+            configuration.setProperty("hibernate.cache.provider_class",
+                    "org.hibernate.cache.NoCacheProvider");
+        }
+
+        final org.hibernate.SessionFactory sf = configuration
+                .buildSessionFactory();
+        try {
+            final SessionFactory current = new SessionFactory() {
+                public <T, PK extends Serializable> Session getSession(
+                        final GenericDaoHibernate<T, PK> dao) {
+                    return sf.getCurrentSession();
+                }
+            };
+            final SessionRecordDaoHibernate<SessionRecordVO> srDao = new SessionRecordDaoHibernate<SessionRecordVO>(
+                    SessionRecordVO.class);
+            final TransactionRecordDaoHibernate<TransactionRecordVO> trDao = new TransactionRecordDaoHibernate<TransactionRecordVO>(
+                    TransactionRecordVO.class);
+            final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> eventDao = new LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO>(
+                    LifeCycleAuditEventVO.class);
+            for (final GenericDaoHibernate<?, ?> dao : new GenericDaoHibernate<?, ?>[] {
+                    srDao, trDao, eventDao }) {
+                dao.setSessionFactory(sf);
+                dao.setHibernateSessionFactory(current);
+            }
+
+            sf.getStatistics().clear();
+            int id = 0;
+            for (int s = 0; s < sessions; ++s) {
+                Transaction tx = sf.getCurrentSession().beginTransaction();
+                final SessionRecordVO sr = new SessionRecordVO();
+                sr.setId("s" + s);
+                sr.setSessionId("http-" + s);
+                sr.setStartedTs(new Date());
+                srDao.create(sr);
+                tx.commit();
+
+                tx = sf.getCurrentSession().beginTransaction();
+                final ResponsibleInformation ri = new ResponsibleInformation();
+                ri.setResponsible(newSubject("user", "u" + (s % 20)));
+                srDao.updateResponsibleInformation(sr, ri);
+                tx.commit();
+
+                for (int r = 0; r < requests; ++r) {
+                    final AuditSubject target = newSubject("order", "o"
+                            + ((s * requests + r) % TARGETS));
+                    tx = sf.getCurrentSession().beginTransaction();
+                    final TransactionRecordVO tr = new TransactionRecordVO();
+                    tr.setId("t" + s + "-" + r);
+                    tr.setTransactionId(tr.getId());
+                    tr.setSessionRecord(sr);
+                    tr.setStartedTs(new Date());
+                    trDao.create(tr);
+                    final List<LifeCycleAuditEventVO> events = new ArrayList<LifeCycleAuditEventVO>(
+                            EVENTS_PER_REQUEST);
+                    for (int e = 0; e < EVENTS_PER_REQUEST; ++e) {
+                        events.add(newEvent("e" + id++, sr, tr, target));
+                    }
+                    eventDao.createAll(events);
+                    tx.commit();
+
+                    tx = sf.getCurrentSession().beginTransaction();
+                    trDao.transactionEnded(tr,
+                            TransactionCompletionStatus.STATUS_COMMITTED,
+                            new Date());
+                    tx.commit();
+
+                    if (r % 5 == 4) {
+                        tx = sf.getCurrentSession().beginTransaction();
+                        view(eventDao, target);
+                        tx.commit();
+                    }
+                }
+
+                tx = sf.getCurrentSession().beginTransaction();
+                srDao.updateEndedTs(sr, new Date());
+                tx.commit();
+            }
+            return sf.getStatistics();
+        } finally {
+            sf.close();
+        }
+    }
+
+    private static void view(
+            final LifeCycleAuditEventDaoHibernate<LifeCycleAuditEventVO> dao,
+            final AuditSubject target) {
+        int check = 0;
+        final ResultCursor<LifeCycleAuditEventVO> cursor = dao.findByTarget(
+                target, null, null, null, PAGE_SIZE);
+        try {
+            while (cursor.hasNext()) {
+                final LifeCycleAuditEventVO event = cursor.next();
+                final TransactionRecord tr = event.getTransactionRecord();
+                final SessionRecord sr = event.getSessionRecord();
+                check += tr.getId().hashCode() + sr.getId().hashCode();
+            }
+        } finally {
+            cursor.close();
+        }
+        if (check == 42) {
+            System.out.println();
+        }
+    }
+
+    private static LifeCycleAuditEventVO newEvent(final String id,
+            final SessionRecordVO sr, final TransactionRecordVO tr,
+            final AuditSubject target) {
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setId(id);
+        event.setTs(new Date());
+        event.setTarget(target);
+        event.setSessionRecord(sr);
+        event.setTransactionRecord(tr);
+        event.setLifeCycleEventType(LifeCycleType.UPDATE);
+        final PropertyValueChangeVO change = new PropertyValueChangeVO();
+        change.setId(id + "-c");
+        change.setPropertyName("status");
+        change.setPropertyType(String.class.getName());
+        change.setOldValue("open");
+        change.setNewValue("closed");
+        final Collection<PropertyValueChange> changes = new ArrayList<PropertyValueChange>(
+                1);
+        changes.add(change);
+        event.setPropertyValueChanges(changes);
+        return event;
+    }
+
+    private static AuditSubject newSubject(final String type, final String id) {
+        final AuditSubject subject = new AuditSubject();
+        subject.setSubjectType(type);
+        subject.setSubjectId(id);
+        return subject;
+    }
+
+    private static void report(final String name, final Statistics statistics) {
+        System.out.println(name + ": " + statistics.getPrepareStatementCount()
+                + " statements, " + statistics.getEntityFetchCount()
+                + " selects by id, " + statistics.getQueryExecutionCount()
+                + " queries, " + statistics.getSecondLevelCacheHitCount()
+                + " cache hits");
+    }
+
+    private SecondLevelCacheBenchmark() {
+        throw new UnsupportedOperationException(
+                "Cannot construct benchmark class.");
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.cfg.Configuration;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaas.jaudit.BusinessAuditEventVO;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.PropertyValueChangeVO;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionRecordVO;
+
+/**
+ * Checks the second level cache setup of the bundled
+ * <tt>hibernate.cfg.xml</tt> and the mapped classes.
+ */
+public class SecondLevelCacheMappingTest {
+
+    private static Configuration _configuration;
+
+    /**
+     * Read the bundled configuration and build its mappings.
+     */
+    @BeforeClass
+    public static void configure() {
+        _configuration = new AnnotationConfiguration().configure();
+        _configuration.buildMappings();
+    }
+
+    /**
+     * The second level cache is on and the query cache is off.
+     */
+    @Test
+    public void testSettings() {
+        Assert.assertEquals("true", _configuration
+                .getProperty("hibernate.cache.use_second_level_cache"));
+        Assert.assertEquals("false", _configuration
+                .getProperty("hibernate.cache.use_query_cache"));
+        Assert.assertEquals("org.hibernate.cache.EhCacheProvider",
+                _configuration.getProperty("hibernate.cache.provider_class"));
+    }
+
+    /**
+     * Session and transaction records are cached read-write.
+     */
+    @Test
+    public void testRecordsCached() {
+        Assert.assertEquals("read-write", strategy(SessionRecordVO.class));
+        Assert.assertEquals("read-write", strategy(TransactionRecordVO.class));
+    }
+
+    /**
+     * Write-once events and their changes are not cached.
+     */
+    @Test
+    public void testEventsNotCached() {
+        Assert.assertNull(strategy(BusinessAuditEventVO.class));
+        Assert.assertNull(strategy(LifeCycleAuditEventVO.class));
+        Assert.assertNull(strategy(PropertyValueChangeVO.class));
+    }
+
+    private static String strategy(final Class<?> type) {
+        return _configuration.getClassMapping(type.getName())
+                .getCacheConcurrencyStrategy();
+    }
+}
@@ -16,10 +16,16 @@ import java.util.Date;
 import java.util.logging.Logger;
 
 import org.easymock.EasyMock;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.junit.Assert;
 import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
 import org.opensaas.jaudit.ResponsibleInformation;
 import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
 import org.opensaas.jaudit.test.DefaultFactories;
 import org.opensaas.jaudit.test.ObjectFactory;
 import org.opensaas.jaudit.test.ObjectFactoryAssert;
@@ -224,6 +230,229 @@ public class SessionRecordDaoHibernateTest
         dao.updateResponsibleInformation(record, new ResponsibleInformation());
     }
 
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.SessionRecordDaoHibernate#updateEndedTs(org.opensaas.jaudit.SessionRecord, java.util.Date)}
+     * with single statement updates.
+     */
+    @Test
+    public void testUpdateEndedTsSingleStatement() {
+        final SessionRecordDaoHibernate<SimpleSessionRecord> dao = DAO_FACTORY
+                .createUnique();
+        dao.setSingleStatementUpdates(true);
+        final MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>> mock = new MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>>(
+                dao);
+
+        final SimpleSessionRecord record = VO_FACTORY.createUnique();
+        final Date ts = new Date();
+        final Query query = EasyMock.createStrictMock(Query.class);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(
+                        "update " + SimpleSessionRecord.class.getName()
+                                + " set endedTs = :endedTs where id = :id"))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("endedTs", ts)).andReturn(query);
+        EasyMock.expect(query.setParameter("id", record.getId())).andReturn(
+                query);
+        EasyMock.expect(query.executeUpdate()).andReturn(1);
+        mock.mockReplay();
+        EasyMock.replay(query);
+
+        Assert.assertSame(record, dao.updateEndedTs(record, ts));
+        Assert.assertEquals(ts, record.getEndedTs());
+        mock.mockVerify();
+        EasyMock.verify(query);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.SessionRecordDaoHibernate#updateEndedTs(org.opensaas.jaudit.SessionRecord, java.util.Date)}
+     * with single statement updates.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdateEndedTsSingleStatementMissing() {
+        final SessionRecordDaoHibernate<SimpleSessionRecord> dao = DAO_FACTORY
+                .createUnique();
+        dao.setSingleStatementUpdates(true);
+        final MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>> mock = new MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>>(
+                dao);
+
+        final Query query = EasyMock.createNiceMock(Query.class);
+        EasyMock.expect(
+                query.setParameter(EasyMock.isA(String.class), EasyMock
+                        .anyObject())).andStubReturn(query);
+        EasyMock.expect(query.executeUpdate()).andReturn(0);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(
+                        EasyMock.isA(String.class))).andReturn(query);
+        mock.mockReplay();
+        EasyMock.replay(query);
+
+        dao.updateEndedTs(VO_FACTORY.createUnique(), new Date());
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.SessionRecordDaoHibernate#updateResponsibleInformation(org.opensaas.jaudit.SessionRecord, org.opensaas.jaudit.ResponsibleInformation)}
+     * with single statement updates.
+     */
+    @Test
+    public void testUpdateResponsibleInformationSingleStatement() {
+        final SessionRecordDaoHibernate<SimpleSessionRecord> dao = DAO_FACTORY
+                .createUnique();
+        dao.setSingleStatementUpdates(true);
+        final MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>> mock = new MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>>(
+                dao);
+
+        final SimpleSessionRecord record = VO_FACTORY.createUnique();
+        final ResponsibleInformation info = new ResponsibleInformation();
+        final AuditSubject responsible = new AuditSubject();
+        responsible.setSubjectType("user");
+        responsible.setSubjectId("42");
+        info.setResponsible(responsible);
+        info.setResponsibleAddress("127.0.0.1");
+
+        final Query query = EasyMock.createStrictMock(Query.class);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(EasyMock.isA(String.class)))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("subjectType", "user")).andReturn(
+                query);
+        EasyMock.expect(query.setParameter("subjectId", "42"))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("subjectDiscriminator", null))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("responsibleAddress", "127.0.0.1"))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("responsibleAgent", null))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("credentialsType", null))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("id", record.getId())).andReturn(
+                query);
+        EasyMock.expect(query.executeUpdate()).andReturn(1);
+        mock.mockReplay();
+        EasyMock.replay(query);
+
+        Assert.assertSame(record, dao.updateResponsibleInformation(record,
+                info));
+        Assert.assertSame(info, record.getResponsibleInformation());
+        mock.mockVerify();
+        EasyMock.verify(query);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.SessionRecordDaoHibernate#updateResponsibleInformation(org.opensaas.jaudit.SessionRecord, org.opensaas.jaudit.ResponsibleInformation)}
+     * with single statement updates.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdateResponsibleInformationSingleStatementMissing() {
+        final SessionRecordDaoHibernate<SimpleSessionRecord> dao = DAO_FACTORY
+                .createUnique();
+        dao.setSingleStatementUpdates(true);
+        final MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>> mock = new MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>>(
+                dao);
+
+        final Query query = EasyMock.createNiceMock(Query.class);
+        EasyMock.expect(
+                query.setParameter(EasyMock.isA(String.class), EasyMock
+                        .anyObject())).andStubReturn(query);
+        EasyMock.expect(query.executeUpdate()).andReturn(0);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(
+                        EasyMock.isA(String.class))).andReturn(query);
+        mock.mockReplay();
+        EasyMock.replay(query);
+
+        dao.updateResponsibleInformation(VO_FACTORY.createUnique(), null);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.SessionRecordDaoHibernate#findByResponsible(AuditSubject, Date, Date, PageKey, int)}.
+     */
+    @Test
+    public void testFindByResponsible() {
+        final SessionRecordDaoHibernate<SimpleSessionRecord> dao = DAO_FACTORY
+                .createUnique();
+        final MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>> mock = new MockedGenericDao<SessionRecordDaoHibernate<SimpleSessionRecord>>(
+                dao);
+
+        final AuditSubject responsible = new AuditSubject();
+        responsible.setSubjectType("user");
+        responsible.setSubjectId("42");
+        final Date from = new Date(1000L);
+        final Date to = new Date(5000L);
+        final SimpleSessionRecord record1 = VO_FACTORY.createUnique();
+        final SimpleSessionRecord record2 = VO_FACTORY.createUnique();
+
+        final Query query = EasyMock.createStrictMock(Query.class);
+        final ScrollableResults results = EasyMock
+                .createStrictMock(ScrollableResults.class);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(
+                        "select e, e.startedTs, e.id from "
+                                + SimpleSessionRecord.class.getName()
+                                + " e where e.responsibleInformation"
+                                + ".responsible.subjectId = :subjectId"
+                                + " and e.responsibleInformation"
+                                + ".responsible.subjectType = :subjectType"
+                                + " and e.startedTs >= :from"
+                                + " and e.startedTs < :to"
+                                + " order by e.startedTs, e.id")).andReturn(
+                query);
+        EasyMock.expect(query.setParameter("subjectId", "42")).andReturn(
+                query);
+        EasyMock.expect(query.setParameter("subjectType", "user")).andReturn(
+                query);
+        EasyMock.expect(query.setParameter("from", from)).andReturn(query);
+        EasyMock.expect(query.setParameter("to", to)).andReturn(query);
+        EasyMock.expect(query.setReadOnly(true)).andReturn(query);
+        EasyMock.expect(query.setFetchSize(dao.getFetchSize())).andReturn(
+                query);
+        EasyMock.expect(query.scroll(ScrollMode.FORWARD_ONLY)).andReturn(
+                results);
+        mock.expectHeldKeys();
+        EasyMock.expect(results.next()).andReturn(true);
+        EasyMock.expect(results.get()).andReturn(
+                new Object[] { record1, new Date(2000L), record1.getId() });
+        EasyMock.expect(results.next()).andReturn(true);
+        EasyMock.expect(results.get()).andReturn(
+                new Object[] { record2, new Date(3000L), record2.getId() });
+        EasyMock.expect(results.next()).andReturn(false);
+        mock.getMockSession().evict(record1);
+        mock.getMockSession().evict(record2);
+        results.close();
+        mock.mockReplay();
+        EasyMock.replay(query, results);
+
+        final ResultCursor<SimpleSessionRecord> cursor = dao
+                .findByResponsible(responsible, from, to, null, 0);
+        Assert.assertNull(cursor.getPageKey());
+        Assert.assertTrue(cursor.hasNext());
+        Assert.assertSame(record1, cursor.next());
+        Assert.assertEquals(new PageKey(new Date(2000L), record1.getId()),
+                cursor.getPageKey());
+        Assert.assertSame(record2, cursor.next());
+        Assert.assertFalse(cursor.hasNext());
+        Assert.assertEquals(new PageKey(new Date(3000L), record2.getId()),
+                cursor.getPageKey());
+        cursor.close();
+        mock.mockVerify();
+        EasyMock.verify(query, results);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.SessionRecordDaoHibernate#findByResponsible(AuditSubject, Date, Date, PageKey, int)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindByResponsibleNoId() {
+        DAO_FACTORY.createUnique().findByResponsible(new AuditSubject(), null,
+                null, null, 0);
+    }
+
     /**
      * Ensure factories are valid.
      */
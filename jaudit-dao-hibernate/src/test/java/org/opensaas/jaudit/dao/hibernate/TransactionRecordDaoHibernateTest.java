@@ -0,0 +1,280 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao.hibernate;
+
+import java.util.Date;
+
+import org.easymock.EasyMock;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+import org.opensaas.jaudit.test.DefaultFactories;
+import org.opensaas.jaudit.test.ObjectFactory;
+import org.opensaas.jaudit.test.ObjectFactoryAssert;
+
+/**
+ * Test class for
+ * {@link org.opensaas.jaudit.dao.hibernate.TransactionRecordDaoHibernate}.
+ */
+public class TransactionRecordDaoHibernateTest
+        extends
+        GenericDaoHibernateTestBase<TransactionRecordVO, String, TransactionRecordDaoHibernate<TransactionRecordVO>> {
+
+    private static final ObjectFactory<String> STRING_FACTORY = new DefaultFactories.StringFactory();
+
+    private static final ObjectFactory<TransactionRecordDaoHibernate<TransactionRecordVO>> DAO_FACTORY = new ObjectFactory<TransactionRecordDaoHibernate<TransactionRecordVO>>() {
+
+        /**
+         * {@inheritDoc}
+         */
+        public TransactionRecordDaoHibernate<TransactionRecordVO> createEquivalent() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public TransactionRecordDaoHibernate<TransactionRecordVO> createUnique() {
+            return new TransactionRecordDaoHibernate<TransactionRecordVO>(
+                    TransactionRecordVO.class);
+        }
+    };
+
+    private static final ObjectFactory<TransactionRecordVO> VO_FACTORY = new ObjectFactory<TransactionRecordVO>() {
+
+        /**
+         * {@inheritDoc}
+         */
+        public TransactionRecordVO createEquivalent() {
+            return newRecord(STRING_FACTORY.createEquivalent());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public TransactionRecordVO createUnique() {
+            return newRecord(STRING_FACTORY.createUnique());
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ObjectFactory<TransactionRecordDaoHibernate<TransactionRecordVO>> getDAOFactory() {
+        return DAO_FACTORY;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ObjectFactory<String> getPKFactory() {
+        return STRING_FACTORY;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ObjectFactory<TransactionRecordVO> getVOFactory() {
+        return VO_FACTORY;
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.TransactionRecordDaoHibernate#transactionEnded(org.opensaas.jaudit.TransactionRecord, TransactionCompletionStatus, Date)}.
+     */
+    @Test
+    public void testTransactionEnded() {
+        final TransactionRecordDaoHibernate<TransactionRecordVO> dao = DAO_FACTORY
+                .createUnique();
+        final MockedGenericDao<TransactionRecordDaoHibernate<TransactionRecordVO>> mock = new MockedGenericDao<TransactionRecordDaoHibernate<TransactionRecordVO>>(
+                dao);
+
+        final TransactionRecordVO record = VO_FACTORY.createUnique();
+        final Date ts = new Date();
+        EasyMock.expect(
+                mock.getMockSession().get(TransactionRecordVO.class,
+                        record.getId())).andReturn(record);
+        EasyMock.expect(mock.getMockSession().save(record)).andReturn(
+                record.getId());
+        mock.mockReplay();
+
+        Assert.assertSame(record, dao.transactionEnded(record,
+                TransactionCompletionStatus.STATUS_COMMITTED, ts));
+        Assert.assertEquals(ts, record.getEndedTs());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_COMMITTED,
+                record.getTransactionCompletionStatus());
+        mock.mockVerify();
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.TransactionRecordDaoHibernate#transactionEnded(org.opensaas.jaudit.TransactionRecord, TransactionCompletionStatus, Date)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransactionEndedNull() {
+        DAO_FACTORY.createUnique().transactionEnded(null,
+                TransactionCompletionStatus.STATUS_COMMITTED, new Date());
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.TransactionRecordDaoHibernate#transactionEnded(org.opensaas.jaudit.TransactionRecord, TransactionCompletionStatus, Date)}
+     * with single statement updates.
+     */
+    @Test
+    public void testTransactionEndedSingleStatement() {
+        final TransactionRecordDaoHibernate<TransactionRecordVO> dao = DAO_FACTORY
+                .createUnique();
+        dao.setSingleStatementUpdates(true);
+        final MockedGenericDao<TransactionRecordDaoHibernate<TransactionRecordVO>> mock = new MockedGenericDao<TransactionRecordDaoHibernate<TransactionRecordVO>>(
+                dao);
+
+        final TransactionRecordVO record = VO_FACTORY.createUnique();
+        final Date ts = new Date();
+        final Query query = EasyMock.createStrictMock(Query.class);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(
+                        "update " + TransactionRecordVO.class.getName()
+                                + " set endedTs = :endedTs,"
+                                + " transactionCompletionStatus = :status"
+                                + " where id = :id")).andReturn(query);
+        EasyMock.expect(query.setParameter("endedTs", ts)).andReturn(query);
+        EasyMock.expect(
+                query.setParameter("status",
+                        TransactionCompletionStatus.STATUS_ROLLED_BACK))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("id", record.getId())).andReturn(
+                query);
+        EasyMock.expect(query.executeUpdate()).andReturn(1);
+        mock.mockReplay();
+        EasyMock.replay(query);
+
+        Assert.assertSame(record, dao.transactionEnded(record,
+                TransactionCompletionStatus.STATUS_ROLLED_BACK, ts));
+        Assert.assertEquals(ts, record.getEndedTs());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_ROLLED_BACK,
+                record.getTransactionCompletionStatus());
+        mock.mockVerify();
+        EasyMock.verify(query);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.TransactionRecordDaoHibernate#transactionEnded(org.opensaas.jaudit.TransactionRecord, TransactionCompletionStatus, Date)}
+     * with single statement updates.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransactionEndedSingleStatementMissing() {
+        final TransactionRecordDaoHibernate<TransactionRecordVO> dao = DAO_FACTORY
+                .createUnique();
+        dao.setSingleStatementUpdates(true);
+        final MockedGenericDao<TransactionRecordDaoHibernate<TransactionRecordVO>> mock = new MockedGenericDao<TransactionRecordDaoHibernate<TransactionRecordVO>>(
+                dao);
+
+        final Query query = EasyMock.createNiceMock(Query.class);
+        EasyMock.expect(
+                query.setParameter(EasyMock.isA(String.class), EasyMock
+                        .anyObject())).andStubReturn(query);
+        EasyMock.expect(query.executeUpdate()).andReturn(0);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(EasyMock.isA(String.class)))
+                .andReturn(query);
+        mock.mockReplay();
+        EasyMock.replay(query);
+
+        dao.transactionEnded(VO_FACTORY.createUnique(),
+                TransactionCompletionStatus.STATUS_COMMITTED, new Date());
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.dao.hibernate.TransactionRecordDaoHibernate#findBySessionRecord(String, PageKey, int)}.
+     */
+    @Test
+    public void testFindBySessionRecordAfter() {
+        final TransactionRecordDaoHibernate<TransactionRecordVO> dao = DAO_FACTORY
+                .createUnique();
+        dao.setFetchSize(500);
+        final MockedGenericDao<TransactionRecordDaoHibernate<TransactionRecordVO>> mock = new MockedGenericDao<TransactionRecordDaoHibernate<TransactionRecordVO>>(
+                dao);
+
+        final PageKey after = new PageKey(new Date(1000L), "a");
+        final TransactionRecordVO record = VO_FACTORY.createUnique();
+
+        final Query query = EasyMock.createStrictMock(Query.class);
+        final ScrollableResults results = EasyMock
+                .createStrictMock(ScrollableResults.class);
+        EasyMock.expect(
+                mock.getMockSession().createQuery(
+                        "select e, e.startedTs, e.id from "
+                                + TransactionRecordVO.class.getName()
+                                + " e where e.sessionRecord.id = :sessionRecordId"
+                                + " and (e.startedTs > :afterTs"
+                                + " or (e.startedTs = :afterTs"
+                                + " and e.id > :afterId))"
+                                + " order by e.startedTs, e.id")).andReturn(
+                query);
+        EasyMock.expect(query.setParameter("sessionRecordId", "s1"))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("afterTs", after.getTs()))
+                .andReturn(query);
+        EasyMock.expect(query.setParameter("afterId", "a")).andReturn(query);
+        EasyMock.expect(query.setReadOnly(true)).andReturn(query);
+        EasyMock.expect(query.setFetchSize(10)).andReturn(query);
+        EasyMock.expect(query.setMaxResults(10)).andReturn(query);
+        EasyMock.expect(query.scroll(ScrollMode.FORWARD_ONLY)).andReturn(
+                results);
+        mock.expectHeldKeys();
+        EasyMock.expect(results.next()).andReturn(true);
+        EasyMock.expect(results.get()).andReturn(
+                new Object[] { record, new Date(1000L), record.getId() });
+        EasyMock.expect(results.next()).andReturn(false);
+        mock.getMockSession().evict(record);
+        results.close();
+        mock.mockReplay();
+        EasyMock.replay(query, results);
+
+        final ResultCursor<TransactionRecordVO> cursor = dao
+                .findBySessionRecord("s1", after, 10);
+        Assert.assertSame(record, cursor.next());
+        cursor.close();
+        cursor.close();
+        mock.mockVerify();
+        EasyMock.verify(query, results);
+    }
+
+    /**
+     * Ensure factories are valid.
+     */
+    @Test
+    public void testFactory() {
+        ObjectFactoryAssert.assertObjectFactoryContract(VO_FACTORY);
+        ObjectFactoryAssert.assertObjectFactoryContract(DAO_FACTORY);
+    }
+
+    private static TransactionRecordVO newRecord(final String id) {
+        final TransactionRecordVO record = new TransactionRecordVO();
+        record.setId(id);
+        record.setTransactionId(id);
+        return record;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao;
+
+import java.util.Date;
+
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.AuditSubject;
+
+/**
+ * Cold storage for audit events that have been moved out of their dao. Events
+ * are appended one at a time and become readable, and durable, once
+ * {@link #flush()} has written them; archived events are never changed.
+ * 
+ * Set on a dao to have {@link GenericDao#read(java.io.Serializable)} fall
+ * back to the archive for ids no longer in the dao.
+ */
+public interface AuditEventArchive {
+
+    /**
+     * Add an event to the archive. The event is copied, so lazy associations
+     * must be readable while this is called. An event whose id is already
+     * archived is skipped, as a batch is archived again when the delete that
+     * followed it rolls back.
+     * 
+     * @param event
+     *            the event.
+     */
+    void append(AuditEvent event);
+
+    /**
+     * Write the events appended since the last flush.
+     */
+    void flush();
+
+    /**
+     * Read an archived event.
+     * 
+     * @param id
+     *            the id of the event.
+     * @return the event, or null if it is not archived.
+     */
+    AuditEvent read(String id);
+
+    /**
+     * Find archived events, in time stamp then id order, as the find methods
+     * of {@link AuditEventDao} do.
+     * 
+     * @param target
+     *            the target, with at least its subject id, or null for all.
+     * @param from
+     *            the earliest time stamp, or null.
+     * @param to
+     *            the time stamp to stop before, or null.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of events, or 0 for all.
+     * @return the events.
+     */
+    ResultCursor<AuditEvent> find(AuditSubject target, Date from, Date to,
+            PageKey after, int limit);
+
+}
@@ -12,16 +12,87 @@
  */
 package org.opensaas.jaudit.dao;
 
+import java.util.Date;
+
 import org.opensaas.jaudit.AuditEvent;
 import org.opensaas.jaudit.AuditEventMutable;
+import org.opensaas.jaudit.AuditSubject;
 
 /**
  * Dao interface for working with {@link AuditEvent}s.
  * 
+ * The find methods return events ordered by {@link AuditEvent#getTs()} then
+ * id, at most <tt>limit</tt> of them, or all when <tt>limit</tt> is 0. Pass
+ * the {@link ResultCursor#getPageKey()} of a page as <tt>after</tt> to get
+ * the next one, or null to start at the beginning. Time ranges include
+ * <tt>from</tt> and exclude <tt>to</tt>; a null bound is open.
+ * 
  * @param <T>
  *            the specific type of {@link AuditEventMutable} in use.
  */
 public interface AuditEventDao<T extends AuditEventMutable> extends
         GenericDao<T, String> {
-    // no added behavior
+
+    /**
+     * Find the events about a target subject. The subject's type and
+     * discriminator narrow the match when set.
+     * 
+     * @param target
+     *            the target, with at least its subject id.
+     * @param from
+     *            the earliest time stamp, or null.
+     * @param to
+     *            the time stamp to stop before, or null.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of events, or 0 for all.
+     * @return the events.
+     */
+    ResultCursor<T> findByTarget(AuditSubject target, Date from, Date to,
+            PageKey after, int limit);
+
+    /**
+     * Find the events recorded in a session.
+     * 
+     * @param sessionRecordId
+     *            the id of the session record.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of events, or 0 for all.
+     * @return the events.
+     */
+    ResultCursor<T> findBySessionRecord(String sessionRecordId,
+            PageKey after, int limit);
+
+    /**
+     * Find the events recorded in a transaction.
+     * 
+     * @param transactionRecordId
+     *            the id of the transaction record.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of events, or 0 for all.
+     * @return the events.
+     */
+    ResultCursor<T> findByTransactionRecord(String transactionRecordId,
+            PageKey after, int limit);
+
+    /**
+     * Find the events in a time range.
+     * 
+     * @param from
+     *            the earliest time stamp, or null.
+     * @param to
+     *            the time stamp to stop before, or null.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of events, or 0 for all.
+     * @return the events.
+     */
+    ResultCursor<T> findByTs(Date from, Date to, PageKey after, int limit);
+
 }
@@ -13,6 +13,8 @@
 package org.opensaas.jaudit.dao;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * A generic interface for a create/read dao.
@@ -32,6 +34,17 @@ public interface GenericDao<T, PK extends Serializable> {
      */
     PK create(T newInstance);
 
+    /**
+     * Save many unsaved instances of the type managed by this dao at once.
+     * Implementations should write the instances in as few round trips as
+     * possible.
+     * 
+     * @param newInstances
+     *            new instances to create.
+     * @return the new primary keys, in the iteration order of newInstances.
+     */
+    List<PK> createAll(Collection<? extends T> newInstances);
+
     /**
      * Read the instance by the passed primary key.
      * 
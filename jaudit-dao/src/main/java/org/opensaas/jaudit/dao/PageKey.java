@@ -0,0 +1,102 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * The position of a record in a time ordered query result: its time stamp
+ * and, to break ties, its id. Passing the key of the last record of one page
+ * to the next query continues right after it (keyset pagination), so a page
+ * costs the same however deep into the result it is.
+ */
+public final class PageKey implements Serializable {
+
+    /**
+     * Generated serial id.
+     */
+    private static final long serialVersionUID = -2711493036018841297L;
+
+    private final long _ts;
+
+    private final String _id;
+
+    /**
+     * Required constructor.
+     * 
+     * @param ts
+     *            the time stamp of the record.
+     * @param id
+     *            the id of the record.
+     */
+    public PageKey(final Date ts, final String id) {
+        if (ts == null) {
+            throw new IllegalArgumentException("Time stamp is required.");
+        }
+        if (id == null) {
+            throw new IllegalArgumentException("Id is required.");
+        }
+        _ts = ts.getTime();
+        _id = id;
+    }
+
+    /**
+     * Returns the time stamp of the record.
+     * 
+     * @return the time stamp.
+     */
+    public Date getTs() {
+        return new Date(_ts);
+    }
+
+    /**
+     * Returns the id of the record.
+     * 
+     * @return the id.
+     */
+    public String getId() {
+        return _id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return (int) (_ts ^ (_ts >>> 32)) * 31 + _id.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PageKey)) {
+            return false;
+        }
+        final PageKey other = (PageKey) o;
+        return _ts == other._ts && _id.equals(other._id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "PageKey[ts=" + _ts + ", id=" + _id + "]";
+    }
+}
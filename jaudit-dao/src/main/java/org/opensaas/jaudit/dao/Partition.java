@@ -0,0 +1,148 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * One time partition of a partitioned audit table: the physical table that
+ * holds the records whose time stamp is from {@link #getFrom()}, inclusive,
+ * to {@link #getTo()}, exclusive.
+ */
+public final class Partition implements Serializable {
+
+    /**
+     * Generated serial id.
+     */
+    private static final long serialVersionUID = 4403961519262740375L;
+
+    private final String _table;
+
+    private final String _name;
+
+    private final long _from;
+
+    private final long _to;
+
+    /**
+     * Required constructor.
+     * 
+     * @param table
+     *            the partitioned table.
+     * @param name
+     *            the name of the partition.
+     * @param from
+     *            the earliest time stamp of the partition.
+     * @param to
+     *            the time stamp the partition stops before.
+     */
+    public Partition(final String table, final String name, final Date from,
+            final Date to) {
+        if (table == null) {
+            throw new IllegalArgumentException("Table is required.");
+        }
+        if (name == null) {
+            throw new IllegalArgumentException("Name is required.");
+        }
+        if (from == null || to == null || !from.before(to)) {
+            throw new IllegalArgumentException(
+                    "A range from before to is required.");
+        }
+        _table = table;
+        _name = name;
+        _from = from.getTime();
+        _to = to.getTime();
+    }
+
+    /**
+     * Returns the partitioned table.
+     * 
+     * @return the table.
+     */
+    public String getTable() {
+        return _table;
+    }
+
+    /**
+     * Returns the name of the partition.
+     * 
+     * @return the name.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Returns the earliest time stamp of the partition.
+     * 
+     * @return the inclusive lower bound.
+     */
+    public Date getFrom() {
+        return new Date(_from);
+    }
+
+    /**
+     * Returns the time stamp the partition stops before.
+     * 
+     * @return the exclusive upper bound.
+     */
+    public Date getTo() {
+        return new Date(_to);
+    }
+
+    /**
+     * Returns whether a time stamp falls in the partition.
+     * 
+     * @param ts
+     *            the time stamp.
+     * @return true if it does.
+     */
+    public boolean contains(final Date ts) {
+        final long time = ts.getTime();
+        return time >= _from && time < _to;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return _table.hashCode() * 31 + _name.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Partition)) {
+            return false;
+        }
+        final Partition other = (Partition) o;
+        return _table.equals(other._table) && _name.equals(other._name)
+                && _from == other._from && _to == other._to;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "Partition[table=" + _table + ", name=" + _name + ", from="
+                + new Date(_from) + ", to=" + new Date(_to) + "]";
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Dao interface for administering time partitioned audit tables. Each
+ * partitioned table is split into {@link Partition}s of a fixed interval on
+ * its time stamp column, so expired records are removed by detaching and
+ * dropping whole partitions rather than by deleting rows.
+ */
+public interface PartitionDao {
+
+    /**
+     * Returns the partition of a table that holds a time stamp, creating it
+     * if it does not exist yet.
+     * 
+     * @param table
+     *            the partitioned table.
+     * @param ts
+     *            the time stamp.
+     * @return the partition.
+     */
+    Partition ensurePartition(String table, Date ts);
+
+    /**
+     * Create the missing partitions of every partitioned table for a time
+     * range, typically ahead of the records that will be written to them.
+     * 
+     * @param from
+     *            the earliest time stamp.
+     * @param to
+     *            the time stamp to stop before.
+     * @return the partitions of the range, created or already there.
+     */
+    List<Partition> ensurePartitions(Date from, Date to);
+
+    /**
+     * Find the partitions attached to a table.
+     * 
+     * @param table
+     *            the partitioned table.
+     * @return the partitions, oldest first.
+     */
+    List<Partition> findPartitions(String table);
+
+    /**
+     * Detach the partitions of a table that end at or before a time stamp.
+     * Their records are no longer visible through the table, but stay in the
+     * detached partitions until those are dropped.
+     * 
+     * @param table
+     *            the partitioned table.
+     * @param before
+     *            the time stamp.
+     * @return the partitions detached, oldest first.
+     */
+    List<Partition> detachPartitions(String table, Date before);
+
+    /**
+     * Drop a partition with its records, and the records that depend on
+     * them.
+     * 
+     * @param partition
+     *            the partition, usually detached.
+     */
+    void dropPartition(Partition partition);
+
+}
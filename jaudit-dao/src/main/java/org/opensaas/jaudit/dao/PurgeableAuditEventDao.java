@@ -0,0 +1,40 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao;
+
+import java.util.Collection;
+
+import org.opensaas.jaudit.AuditEventMutable;
+
+/**
+ * An {@link AuditEventDao} whose store can delete events, as needed to purge
+ * expired ones. Append only stores do not implement it.
+ * 
+ * @param <T>
+ *            the specific type of {@link AuditEventMutable} in use.
+ */
+public interface PurgeableAuditEventDao<T extends AuditEventMutable> extends
+        AuditEventDao<T> {
+
+    /**
+     * Delete events by id, along with the records that belong to them, such
+     * as the property value changes of a life cycle event. Meant for small
+     * batches; the ids are passed to the store in one statement.
+     * 
+     * @param ids
+     *            the ids of the events.
+     * @return the number of events deleted.
+     */
+    int deleteAll(Collection<String> ids);
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.dao;
+
+import java.util.Iterator;
+
+/**
+ * Streams the results of a dao query, one record at a time, in time stamp
+ * then id order. Records are fetched from the store as the cursor advances
+ * rather than all at once; a cursor must be closed, and is closed by itself
+ * once exhausted.
+ * 
+ * @param <T>
+ *            the type of record returned.
+ */
+public interface ResultCursor<T> extends Iterator<T> {
+
+    /**
+     * Returns the key of the last record returned by {@link #next()}; pass it
+     * to the same query to fetch the next page.
+     * 
+     * @return the key, or null if no record has been returned.
+     */
+    PageKey getPageKey();
+
+    /**
+     * Release the resources held by the cursor. Closing twice has no effect.
+     */
+    void close();
+
+}
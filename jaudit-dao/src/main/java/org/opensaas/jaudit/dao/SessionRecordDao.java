@@ -14,6 +14,7 @@ package org.opensaas.jaudit.dao;
 
 import java.util.Date;
 
+import org.opensaas.jaudit.AuditSubject;
 import org.opensaas.jaudit.ResponsibleInformation;
 import org.opensaas.jaudit.SessionRecord;
 import org.opensaas.jaudit.SessionRecordMutable;
@@ -21,6 +22,10 @@ import org.opensaas.jaudit.SessionRecordMutable;
 /**
  * Dao interface for working with {@link SessionRecord}s.
  * 
+ * The find methods page through records ordered by
+ * {@link SessionRecord#getStartedTs()} then id, in the way described on
+ * {@link AuditEventDao}.
+ * 
  * @param <T>
  *            the specific type of {@link SessionRecordMutable} in use.
  */
@@ -51,4 +56,39 @@ public interface SessionRecordDao<T extends SessionRecordMutable> extends
     SessionRecord updateResponsibleInformation(SessionRecord sessionRecord,
             ResponsibleInformation responsibleInformation);
 
+    /**
+     * Find the sessions of a responsible subject. The subject's type and
+     * discriminator narrow the match when set.
+     * 
+     * @param responsible
+     *            the responsible subject, with at least its subject id.
+     * @param from
+     *            the earliest start time stamp, or null.
+     * @param to
+     *            the start time stamp to stop before, or null.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of records, or 0 for all.
+     * @return the session records.
+     */
+    ResultCursor<T> findByResponsible(AuditSubject responsible, Date from,
+            Date to, PageKey after, int limit);
+
+    /**
+     * Find the sessions started in a time range.
+     * 
+     * @param from
+     *            the earliest start time stamp, or null.
+     * @param to
+     *            the start time stamp to stop before, or null.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of records, or 0 for all.
+     * @return the session records.
+     */
+    ResultCursor<T> findByStartedTs(Date from, Date to, PageKey after,
+            int limit);
+
 }
@@ -20,6 +20,10 @@ import org.opensaas.jaudit.TransactionCompletionStatus;
 
 /**
  * Dao interface for working with {@link TransactionRecord}s.
+ * 
+ * The find methods page through records ordered by
+ * {@link TransactionRecord#getStartedTs()} then id, in the way described on
+ * {@link AuditEventDao}.
  */
 public interface TransactionRecordDao<T extends TransactionRecordMutable>
         extends GenericDao<T, String> {
@@ -36,4 +40,34 @@ public interface TransactionRecordDao<T extends TransactionRecordMutable>
     TransactionRecord transactionEnded(TransactionRecord transactionRecord,
             TransactionCompletionStatus transactionStatus, Date endedTs);
 
+    /**
+     * Find the transactions of a session.
+     * 
+     * @param sessionRecordId
+     *            the id of the session record.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of records, or 0 for all.
+     * @return the transaction records.
+     */
+    ResultCursor<T> findBySessionRecord(String sessionRecordId,
+            PageKey after, int limit);
+
+    /**
+     * Find the transactions started in a time range.
+     * 
+     * @param from
+     *            the earliest start time stamp, or null.
+     * @param to
+     *            the start time stamp to stop before, or null.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of records, or 0 for all.
+     * @return the transaction records.
+     */
+    ResultCursor<T> findByStartedTs(Date from, Date to, PageKey after,
+            int limit);
+
 }
@@ -0,0 +1,515 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues {@link AuditOperation}s in a bounded in-memory queue and writes them
+ * in batches to an {@link AuditBatchWriter} from a single background thread.
+ * Operations are written in submission order.
+ *
+ * Set on {@link AuditServiceImpl#setAsyncWriter(AsyncAuditWriter)} to take
+ * audit persistence off the caller's thread. The writer must be started with
+ * {@link #start()} and should be stopped with {@link #shutdown()}, which
+ * flushes everything still queued.
+ */
+public class AsyncAuditWriter implements AuditOperationWriter {
+
+    static private final Logger LOGGER = Logger
+            .getLogger(AsyncAuditWriter.class.getName());
+
+    /**
+     * What to do with an operation when the queue is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Block the caller until there is room in the queue.
+         */
+        BLOCK,
+
+        /**
+         * Discard the operation and count it.
+         */
+        DROP,
+
+        /**
+         * Append the operation to the configured {@link AuditSpillStore}.
+         */
+        SPILL
+    }
+
+    private AuditBatchWriter _target;
+
+    private int _queueCapacity = 10000;
+
+    private int _batchSize = 100;
+
+    private long _flushInterval = 1000L;
+
+    private long _shutdownTimeout = 30000L;
+
+    private OverflowPolicy _overflowPolicy = OverflowPolicy.BLOCK;
+
+    private AuditSpillStore _spillStore;
+
+    private BlockingQueue<AuditOperation> _queue;
+
+    private Thread _worker;
+
+    private volatile boolean _running = false;
+
+    /**
+     * Guards the running and spilling states. Submitters check them and queue
+     * under the read lock; stopping, spilling and reading the spill store
+     * back take the write lock. So nothing is queued once shutdown has
+     * stopped the writer, and while anything is spilled all new operations
+     * are spilled too, keeping their order.
+     */
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+    private volatile boolean _spilling = false;
+
+    /**
+     * The number of operations in the spill store, guarded by the write lock.
+     */
+    private long _spillBacklog = 0L;
+
+    private final AtomicLong _pending = new AtomicLong();
+
+    private final AtomicLong _droppedCount = new AtomicLong();
+
+    private final AtomicLong _spilledCount = new AtomicLong();
+
+    private final AtomicLong _failedCount = new AtomicLong();
+
+    /**
+     * Default constructor.
+     */
+    public AsyncAuditWriter() {
+        super();
+    }
+
+    /**
+     * Start the background writer thread.
+     */
+    public synchronized void start() {
+        if (_running) {
+            throw new IllegalStateException("Writer is already started.");
+        }
+        if (_target == null) {
+            throw new IllegalStateException("Target writer is required.");
+        }
+        if (_overflowPolicy == OverflowPolicy.SPILL && _spillStore == null) {
+            throw new IllegalStateException(
+                    "A spill store is required for the SPILL policy.");
+        }
+
+        _queue = new ArrayBlockingQueue<AuditOperation>(_queueCapacity);
+        _running = true;
+        _worker = new Thread(new Runnable() {
+            public void run() {
+                drainLoop();
+            }
+        }, "jaudit-async-writer");
+        _worker.setDaemon(true);
+        _worker.start();
+    }
+
+    /**
+     * Stop accepting new work, write everything already queued or spilled and
+     * stop the background thread. Waits at most the configured shutdown
+     * timeout.
+     *
+     * @throws InterruptedException
+     *             when interrupted while waiting for the flush.
+     */
+    public void shutdown() throws InterruptedException {
+        final Thread worker;
+        synchronized (this) {
+            if (!_running) {
+                return;
+            }
+            _lock.writeLock().lock();
+            try {
+                _running = false;
+            } finally {
+                _lock.writeLock().unlock();
+            }
+            worker = _worker;
+        }
+        worker.join(_shutdownTimeout);
+        if (worker.isAlive()) {
+            LOGGER.log(Level.WARNING,
+                    "Audit writer did not finish within {0}ms; {1} pending.",
+                    new Object[] { _shutdownTimeout, _pending.get() });
+            return;
+        }
+
+        // pick up anything submitted while the worker was exiting
+        final List<AuditOperation> remaining = new ArrayList<AuditOperation>();
+        _queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            write(remaining);
+        }
+    }
+
+    /**
+     * Queue an operation for writing. If the writer is not running the
+     * operation is written on the caller's thread.
+     *
+     * @param operation
+     *            the operation to write.
+     */
+    public void submit(final AuditOperation operation) {
+        if (operation == null) {
+            throw new IllegalArgumentException("Operation is required.");
+        }
+        if (!enqueue(operation)) {
+            _target.writeBatch(Collections.singletonList(operation));
+        }
+    }
+
+    /**
+     * Queue, spill or drop an operation as the overflow policy says.
+     *
+     * @param operation
+     *            the operation.
+     * @return false if the writer is not running.
+     */
+    private boolean enqueue(final AuditOperation operation) {
+        _lock.readLock().lock();
+        try {
+            if (!_running) {
+                return false;
+            }
+            _pending.incrementAndGet();
+            if (!_spilling && _queue.offer(operation)) {
+                return true;
+            }
+
+            switch (_overflowPolicy) {
+            case BLOCK:
+                try {
+                    _queue.put(operation);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped(operation);
+                }
+                return true;
+            case SPILL:
+                break;
+            default:
+                dropped(operation);
+                return true;
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+        return spill(operation);
+    }
+
+    /**
+     * Wait until all operations submitted so far have been written.
+     *
+     * @param timeoutMillis
+     *            the maximum time to wait.
+     * @return true if everything was written before the timeout.
+     * @throws InterruptedException
+     *             when interrupted while waiting.
+     */
+    public boolean flush(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (_pending.get() > 0L) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10L);
+        }
+        return true;
+    }
+
+    private boolean spill(final AuditOperation operation) {
+        _lock.writeLock().lock();
+        try {
+            if (!_running) {
+                // stopped since the operation was counted
+                _pending.decrementAndGet();
+                return false;
+            }
+            if (!_spilling && _queue.offer(operation)) {
+                return true;
+            }
+            try {
+                _spillStore.append(operation);
+                _spilling = true;
+                _spillBacklog++;
+                _spilledCount.incrementAndGet();
+            } catch (final IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot spill audit operation.", e);
+                dropped(operation);
+            }
+            return true;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    private void dropped(final AuditOperation operation) {
+        _pending.decrementAndGet();
+        _droppedCount.incrementAndGet();
+        LOGGER.log(Level.FINE, "Dropped audit operation {0}.", operation);
+    }
+
+    private void drainLoop() {
+        final List<AuditOperation> batch = new ArrayList<AuditOperation>(
+                _batchSize);
+        while (_running || !_queue.isEmpty() || _spilling) {
+            try {
+                if (_spilling) {
+                    // new operations go to the spill store, so whatever is
+                    // still queued is older than anything spilled
+                    _queue.drainTo(batch, _batchSize);
+                    if (batch.isEmpty()) {
+                        unspill(batch);
+                    }
+                    if (batch.isEmpty()) {
+                        // the spill store cannot be read right now
+                        Thread.sleep(_flushInterval);
+                    }
+                } else {
+                    final AuditOperation first = _queue.poll(_flushInterval,
+                            TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        _queue.drainTo(batch, _batchSize - 1);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                LOGGER.log(Level.FINE, "Audit writer interrupted.", e);
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void unspill(final List<AuditOperation> batch) {
+        _lock.writeLock().lock();
+        try {
+            try {
+                final List<AuditOperation> operations = _spillStore
+                        .remove(_batchSize);
+                _spillBacklog -= operations.size();
+                batch.addAll(operations);
+            } catch (final IOException e) {
+                LOGGER.log(Level.SEVERE,
+                        "Cannot read spilled audit operations.", e);
+            }
+            if (_spillStore.isEmpty()) {
+                _spilling = false;
+                if (_spillBacklog > 0L) {
+                    // removed by the store as unreadable
+                    LOGGER.log(Level.SEVERE,
+                            "Lost {0} unreadable spilled audit operations.",
+                            _spillBacklog);
+                    _failedCount.addAndGet(_spillBacklog);
+                    _pending.addAndGet(-_spillBacklog);
+                }
+                _spillBacklog = 0L;
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    private void write(final List<AuditOperation> batch) {
+        try {
+            _target.writeBatch(batch);
+        } catch (final RuntimeException e) {
+            if (batch.size() == 1) {
+                failed(batch.get(0), e);
+            } else {
+                LOGGER.log(Level.WARNING, "Cannot write batch of "
+                        + batch.size()
+                        + " audit operations; writing them one by one.", e);
+                writeEach(batch);
+            }
+        } finally {
+            _pending.addAndGet(-batch.size());
+        }
+    }
+
+    /**
+     * Write the operations of a failed batch one at a time so that only the
+     * operations that fail on their own are lost.
+     */
+    private void writeEach(final List<AuditOperation> batch) {
+        for (final AuditOperation operation : batch) {
+            try {
+                _target.writeBatch(Collections.singletonList(operation));
+            } catch (final RuntimeException e) {
+                failed(operation, e);
+            }
+        }
+    }
+
+    private void failed(final AuditOperation operation,
+            final RuntimeException e) {
+        _failedCount.incrementAndGet();
+        LOGGER.log(Level.SEVERE, "Cannot write audit operation " + operation
+                + ".", e);
+    }
+
+    /**
+     * Returns the number of operations submitted but not yet written.
+     *
+     * @return the pending count.
+     */
+    public long getPendingCount() {
+        return _pending.get();
+    }
+
+    /**
+     * Returns the number of operations discarded because the queue was full.
+     *
+     * @return the dropped count.
+     */
+    public long getDroppedCount() {
+        return _droppedCount.get();
+    }
+
+    /**
+     * Returns the number of operations written to the spill store.
+     *
+     * @return the spilled count.
+     */
+    public long getSpilledCount() {
+        return _spilledCount.get();
+    }
+
+    /**
+     * Returns the number of operations that failed to write, even on their
+     * own, or could not be read back from the spill store.
+     *
+     * @return the failed count.
+     */
+    public long getFailedCount() {
+        return _failedCount.get();
+    }
+
+    /**
+     * Sets the required writer that batches are handed to. To write each
+     * batch in its own transaction pass the transactional proxy of the
+     * {@link AuditServiceImpl}.
+     *
+     * @param target
+     *            the batch writer.
+     */
+    public void setTarget(final AuditBatchWriter target) {
+        _target = target;
+    }
+
+    /**
+     * Sets the maximum number of queued operations. Default 10000.
+     *
+     * @param queueCapacity
+     *            the capacity of the queue.
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "Queue capacity must be positive.");
+        }
+        _queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of operations handed to the target at once.
+     * Default 100.
+     *
+     * @param batchSize
+     *            the batch size.
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the writer waits for an operation before
+     * checking for shutdown. Spilled work is written back without waiting.
+     * Default 1000.
+     *
+     * @param flushInterval
+     *            the interval in milliseconds.
+     */
+    public void setFlushInterval(final long flushInterval) {
+        if (flushInterval < 1L) {
+            throw new IllegalArgumentException(
+                    "Flush interval must be positive.");
+        }
+        _flushInterval = flushInterval;
+    }
+
+    /**
+     * Sets how long, in milliseconds, {@link #shutdown()} waits for queued
+     * work to be written. Default 30000.
+     *
+     * @param shutdownTimeout
+     *            the timeout in milliseconds.
+     */
+    public void setShutdownTimeout(final long shutdownTimeout) {
+        _shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Sets what happens when the queue is full. Default
+     * {@link OverflowPolicy#BLOCK}.
+     *
+     * @param overflowPolicy
+     *            the policy.
+     */
+    public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy is required.");
+        }
+        _overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets the spill store used by {@link OverflowPolicy#SPILL}.
+     *
+     * @param spillStore
+     *            the spill store.
+     */
+    public void setSpillStore(final AuditSpillStore spillStore) {
+        _spillStore = spillStore;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.IOException;
+
+import org.opensaas.jaudit.AuditEvent;
+
+/**
+ * Keeps a copy of expired events before {@link AuditRetentionEngine} deletes
+ * them.
+ */
+public interface AuditArchiver {
+
+    /**
+     * Archive one event. Called while the event is still attached to the
+     * store, so lazy associations such as property value changes can be read.
+     *
+     * @param policy
+     *            the policy the event expired under.
+     * @param event
+     *            the event.
+     * @throws IOException
+     *             when the event can not be archived.
+     */
+    void archive(RetentionPolicy policy, AuditEvent event) throws IOException;
+
+    /**
+     * Make everything archived so far durable. Called before the archived
+     * events are deleted.
+     *
+     * @throws IOException
+     *             when the archive can not be written.
+     */
+    void flush() throws IOException;
+
+}
@@ -0,0 +1,32 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.util.List;
+
+/**
+ * Applies a batch of {@link AuditOperation}s to the persistence layer.
+ * {@link AuditServiceImpl} is the default implementation; when it is wrapped in
+ * a transactional proxy each batch is written in a single transaction.
+ */
+public interface AuditBatchWriter {
+
+    /**
+     * Write all of the passed operations in order.
+     *
+     * @param operations
+     *            the operations to write. Never null.
+     */
+    void writeBatch(List<AuditOperation> operations);
+
+}
@@ -0,0 +1,54 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.dao.AuditEventArchive;
+
+/**
+ * An {@link AuditArchiver} that moves expired events into an
+ * {@link AuditEventArchive}. With an archiving {@link RetentionPolicy}, every
+ * batch purged by {@link AuditRetentionEngine} becomes one flush of the
+ * archive, so the engine should be given a large batch size.
+ */
+public class AuditEventArchiveArchiver implements AuditArchiver {
+
+    private final AuditEventArchive _archive;
+
+    /**
+     * Required constructor.
+     *
+     * @param archive
+     *            the archive to append to.
+     */
+    public AuditEventArchiveArchiver(final AuditEventArchive archive) {
+        if (archive == null) {
+            throw new IllegalArgumentException("Archive is required.");
+        }
+        _archive = archive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void archive(final RetentionPolicy policy, final AuditEvent event) {
+        _archive.append(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void flush() {
+        _archive.flush();
+    }
+}
@@ -0,0 +1,384 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEvent;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.dao.AuditEventDao;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Streams audit events matching a time range, and optionally a target, to an
+ * {@link OutputStream} as newline delimited JSON or CSV.
+ *
+ * Events are read through the {@link ResultCursor}s of an
+ * {@link AuditEventDao}, {@link #getPageSize()} at a time, each page starting
+ * after the {@link PageKey} of the last; every event is written before the
+ * cursor moves on and lets it go, so memory use does not grow with the
+ * number of events exported. The Hibernate daos hold a chunk of events at a
+ * time, evicting it with the session and transaction records it loaded
+ * before reading the next, and fetch the property value changes of a chunk together.
+ * Callers must provide whatever transaction the dao needs.
+ *
+ * In NDJSON each event is one object, with the property value changes of a
+ * {@link LifeCycleAuditEvent} nested in it. In CSV each property value change
+ * is one row, repeating the columns of its event; an event without changes
+ * is a single row. Time stamps are written in ISO 8601, in UTC.
+ */
+public class AuditEventExporter {
+
+    /**
+     * The supported export formats.
+     */
+    public enum Format {
+        /**
+         * One JSON object per line.
+         */
+        NDJSON,
+
+        /**
+         * Comma separated values, as in RFC 4180, with a header row.
+         */
+        CSV
+    }
+
+    private static final String[] CSV_COLUMNS = { "id", "ts",
+            "targetSubjectType", "targetSubjectId",
+            "targetSubjectDiscriminator", "description", "sessionRecordId",
+            "transactionRecordId", "lifeCycleEventType", "propertyName",
+            "propertyType", "oldValue", "newValue" };
+
+    private static final String LINE_END = "\r\n";
+
+    private final AuditEventDao<? extends AuditEvent> _dao;
+
+    private int _pageSize = 10000;
+
+    /**
+     * Required constructor.
+     *
+     * @param dao
+     *            the dao to read events from.
+     */
+    public AuditEventExporter(final AuditEventDao<? extends AuditEvent> dao) {
+        if (dao == null) {
+            throw new IllegalArgumentException("Dao is required.");
+        }
+        _dao = dao;
+    }
+
+    /**
+     * Write the events in the passed range to the stream. The stream is
+     * flushed but not closed.
+     *
+     * @param out
+     *            the stream to write to.
+     * @param format
+     *            the format to write.
+     * @param target
+     *            the target to export the events of, or null for all.
+     * @param from
+     *            the inclusive lower time stamp bound, or null.
+     * @param to
+     *            the exclusive upper time stamp bound, or null.
+     * @return the number of events written.
+     * @throws IOException
+     *             when the stream can not be written.
+     */
+    public long export(final OutputStream out, final Format format,
+            final AuditSubject target, final Date from, final Date to)
+            throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("Stream is required.");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("Format is required.");
+        }
+
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+                "UTF-8"));
+        final DateFormat dateFormat = new SimpleDateFormat(
+                "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        if (format == Format.CSV) {
+            for (int i = 0; i < CSV_COLUMNS.length; i++) {
+                writeCsvValue(writer, i, CSV_COLUMNS[i]);
+            }
+            writer.write(LINE_END);
+        }
+
+        long count = 0L;
+        PageKey after = null;
+        int read;
+        do {
+            final ResultCursor<? extends AuditEvent> cursor = target == null ? _dao
+                    .findByTs(from, to, after, _pageSize)
+                    : _dao.findByTarget(target, from, to, after, _pageSize);
+            read = 0;
+            try {
+                while (cursor.hasNext()) {
+                    final AuditEvent event = cursor.next();
+                    if (format == Format.CSV) {
+                        writeCsv(writer, dateFormat, event);
+                    } else {
+                        writeJson(writer, dateFormat, event);
+                    }
+                    read++;
+                }
+                after = cursor.getPageKey();
+            } finally {
+                cursor.close();
+            }
+            count += read;
+        } while (read == _pageSize);
+
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Returns the number of events read per query.
+     *
+     * @return the page size.
+     */
+    public int getPageSize() {
+        return _pageSize;
+    }
+
+    /**
+     * Sets the number of events read per query. Default 10000.
+     *
+     * @param pageSize
+     *            the page size; must be positive.
+     */
+    public void setPageSize(final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        _pageSize = pageSize;
+    }
+
+    private static void writeJson(final Writer writer,
+            final DateFormat dateFormat, final AuditEvent event)
+            throws IOException {
+        writer.write('{');
+        writeJsonField(writer, "id", event.getId());
+        writer.write(',');
+        writeJsonField(writer, "ts", format(dateFormat, event.getTs()));
+        final AuditSubject target = event.getTarget();
+        if (target != null) {
+            writer.write(",\"target\":{");
+            writeJsonField(writer, "subjectType", target.getSubjectType());
+            writer.write(',');
+            writeJsonField(writer, "subjectId", target.getSubjectId());
+            writer.write(',');
+            writeJsonField(writer, "subjectDiscriminator", target
+                    .getSubjectDiscriminator());
+            writer.write('}');
+        }
+        writer.write(',');
+        writeJsonField(writer, "description", event.getDescription());
+        writer.write(',');
+        writeJsonField(writer, "sessionRecordId", sessionRecordId(event));
+        writer.write(',');
+        writeJsonField(writer, "transactionRecordId",
+                transactionRecordId(event));
+
+        if (event instanceof LifeCycleAuditEvent) {
+            final LifeCycleAuditEvent lifeCycle = (LifeCycleAuditEvent) event;
+            writer.write(',');
+            writeJsonField(writer, "lifeCycleEventType", lifeCycle
+                    .getLifeCycleEventType() == null ? null : lifeCycle
+                    .getLifeCycleEventType().name());
+            writer.write(",\"propertyValueChanges\":[");
+            boolean first = true;
+            for (final PropertyValueChange change : changes(lifeCycle)) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write('{');
+                writeJsonField(writer, "propertyName", change
+                        .getPropertyName());
+                writer.write(',');
+                writeJsonField(writer, "propertyType", change
+                        .getPropertyType());
+                if (change.isOldValueSpecified()) {
+                    writer.write(',');
+                    writeJsonField(writer, "oldValue", change.getOldValue());
+                }
+                if (change.isNewValueSpecified()) {
+                    writer.write(',');
+                    writeJsonField(writer, "newValue", change.getNewValue());
+                }
+                writer.write('}');
+            }
+            writer.write(']');
+        }
+        writer.write('}');
+        writer.write('\n');
+    }
+
+    private static void writeJsonField(final Writer writer,
+            final String name, final String value) throws IOException {
+        writeJsonString(writer, name);
+        writer.write(':');
+        if (value == null) {
+            writer.write("null");
+        } else {
+            writeJsonString(writer, value);
+        }
+    }
+
+    private static void writeJsonString(final Writer writer,
+            final String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                writer.write("\\\"");
+                break;
+            case '\\':
+                writer.write("\\\\");
+                break;
+            case '\n':
+                writer.write("\\n");
+                break;
+            case '\r':
+                writer.write("\\r");
+                break;
+            case '\t':
+                writer.write("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    writer.write("\\u00");
+                    writer.write(Character.forDigit(c >> 4, 16));
+                    writer.write(Character.forDigit(c & 0xF, 16));
+                } else {
+                    writer.write(c);
+                }
+            }
+        }
+        writer.write('"');
+    }
+
+    private static void writeCsv(final Writer writer,
+            final DateFormat dateFormat, final AuditEvent event)
+            throws IOException {
+        final String[] row = new String[CSV_COLUMNS.length];
+        row[0] = event.getId();
+        row[1] = format(dateFormat, event.getTs());
+        final AuditSubject target = event.getTarget();
+        if (target != null) {
+            row[2] = target.getSubjectType();
+            row[3] = target.getSubjectId();
+            row[4] = target.getSubjectDiscriminator();
+        }
+        row[5] = event.getDescription();
+        row[6] = sessionRecordId(event);
+        row[7] = transactionRecordId(event);
+
+        Collection<PropertyValueChange> changes = Collections.emptyList();
+        if (event instanceof LifeCycleAuditEvent) {
+            final LifeCycleAuditEvent lifeCycle = (LifeCycleAuditEvent) event;
+            if (lifeCycle.getLifeCycleEventType() != null) {
+                row[8] = lifeCycle.getLifeCycleEventType().name();
+            }
+            changes = changes(lifeCycle);
+        }
+
+        if (changes.isEmpty()) {
+            writeCsvRow(writer, row);
+            return;
+        }
+        for (final PropertyValueChange change : changes) {
+            row[9] = change.getPropertyName();
+            row[10] = change.getPropertyType();
+            row[11] = change.getOldValue();
+            row[12] = change.getNewValue();
+            writeCsvRow(writer, row);
+        }
+    }
+
+    private static void writeCsvRow(final Writer writer, final String[] row)
+            throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            writeCsvValue(writer, i, row[i]);
+        }
+        writer.write(LINE_END);
+    }
+
+    private static void writeCsvValue(final Writer writer, final int column,
+            final String value) throws IOException {
+        if (column > 0) {
+            writer.write(',');
+        }
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            final char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static Collection<PropertyValueChange> changes(
+            final LifeCycleAuditEvent event) {
+        final Collection<PropertyValueChange> changes = event
+                .getPropertyValueChanges();
+        if (changes == null) {
+            return Collections.emptyList();
+        }
+        return changes;
+    }
+
+    private static String format(final DateFormat dateFormat, final Date date) {
+        return date == null ? null : dateFormat.format(date);
+    }
+
+    private static String sessionRecordId(final AuditEvent event) {
+        return event.getSessionRecord() == null ? null : event
+                .getSessionRecord().getId();
+    }
+
+    private static String transactionRecordId(final AuditEvent event) {
+        return event.getTransactionRecord() == null ? null : event
+                .getTransactionRecord().getId();
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.opensaas.jaudit.LifeCycleAuditEventMutable;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordMutable;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.TransactionRecordMutable;
+
+/**
+ * A single write against the audit persistence layer which has been captured
+ * so that it can be applied later, usually by an {@link AsyncAuditWriter}.
+ * Operations are applied in the order they were submitted so that updates
+ * always follow the creation of the record they update.
+ */
+public final class AuditOperation implements Serializable {
+
+    /**
+     * Generated Serial Id.
+     */
+    private static final long serialVersionUID = -3046587155284734107L;
+
+    /**
+     * The kinds of writes that may be deferred.
+     */
+    public enum Type {
+
+        /**
+         * Insert a new {@link SessionRecordMutable}.
+         */
+        CREATE_SESSION_RECORD,
+
+        /**
+         * Insert a new {@link TransactionRecordMutable}.
+         */
+        CREATE_TRANSACTION_RECORD,
+
+        /**
+         * Insert a new {@link LifeCycleAuditEventMutable}.
+         */
+        CREATE_LIFE_CYCLE_AUDIT_EVENT,
+
+        /**
+         * Update the ended time stamp of a {@link SessionRecord}.
+         */
+        SESSION_ENDED,
+
+        /**
+         * Update who is responsible for a {@link SessionRecord}.
+         */
+        RESPONSIBLE_UPDATED,
+
+        /**
+         * Update the ended time stamp and status of a
+         * {@link TransactionRecord}.
+         */
+        TRANSACTION_ENDED
+    }
+
+    private final Type _type;
+
+    private final Object _record;
+
+    private final Date _ts;
+
+    private final TransactionCompletionStatus _transactionStatus;
+
+    private final ResponsibleInformation _responsibleInformation;
+
+    private AuditOperation(final Type type, final Object record,
+            final Date ts,
+            final TransactionCompletionStatus transactionStatus,
+            final ResponsibleInformation responsibleInformation) {
+        if (record == null) {
+            throw new IllegalArgumentException("Record is required.");
+        }
+        _type = type;
+        _record = record;
+        _ts = ts;
+        _transactionStatus = transactionStatus;
+        _responsibleInformation = responsibleInformation;
+    }
+
+    /**
+     * Returns an operation that inserts the passed session record.
+     *
+     * @param sessionRecord
+     *            the required record to insert.
+     * @return the operation.
+     */
+    public static AuditOperation createSessionRecord(
+            final SessionRecordMutable sessionRecord) {
+        return new AuditOperation(Type.CREATE_SESSION_RECORD, sessionRecord,
+                null, null, null);
+    }
+
+    /**
+     * Returns an operation that inserts the passed transaction record.
+     *
+     * @param transactionRecord
+     *            the required record to insert.
+     * @return the operation.
+     */
+    public static AuditOperation createTransactionRecord(
+            final TransactionRecordMutable transactionRecord) {
+        return new AuditOperation(Type.CREATE_TRANSACTION_RECORD,
+                transactionRecord, null, null, null);
+    }
+
+    /**
+     * Returns an operation that inserts the passed life cycle audit event.
+     *
+     * @param event
+     *            the required event to insert.
+     * @return the operation.
+     */
+    public static AuditOperation createLifeCycleAuditEvent(
+            final LifeCycleAuditEventMutable event) {
+        return new AuditOperation(Type.CREATE_LIFE_CYCLE_AUDIT_EVENT, event,
+                null, null, null);
+    }
+
+    /**
+     * Returns an operation that marks the passed session record as ended.
+     *
+     * @param sessionRecord
+     *            the required record to update.
+     * @param endedTs
+     *            the time the session ended.
+     * @return the operation.
+     */
+    public static AuditOperation sessionEnded(
+            final SessionRecord sessionRecord, final Date endedTs) {
+        return new AuditOperation(Type.SESSION_ENDED, sessionRecord, endedTs,
+                null, null);
+    }
+
+    /**
+     * Returns an operation that updates who is responsible for the passed
+     * session record.
+     *
+     * @param sessionRecord
+     *            the required record to update.
+     * @param responsibleInformation
+     *            the new responsible information.
+     * @return the operation.
+     */
+    public static AuditOperation responsibleUpdated(
+            final SessionRecord sessionRecord,
+            final ResponsibleInformation responsibleInformation) {
+        return new AuditOperation(Type.RESPONSIBLE_UPDATED, sessionRecord,
+                null, null, responsibleInformation);
+    }
+
+    /**
+     * Returns an operation that marks the passed transaction record as ended.
+     *
+     * @param transactionRecord
+     *            the required record to update.
+     * @param transactionStatus
+     *            the completion status.
+     * @param endedTs
+     *            the time the transaction ended.
+     * @return the operation.
+     */
+    public static AuditOperation transactionEnded(
+            final TransactionRecord transactionRecord,
+            final TransactionCompletionStatus transactionStatus,
+            final Date endedTs) {
+        return new AuditOperation(Type.TRANSACTION_ENDED, transactionRecord,
+                endedTs, transactionStatus, null);
+    }
+
+    /**
+     * Returns the kind of write.
+     *
+     * @return the type of this operation.
+     */
+    public Type getType() {
+        return _type;
+    }
+
+    /**
+     * Returns the record being inserted or updated. Never null.
+     *
+     * @return the record.
+     */
+    public Object getRecord() {
+        return _record;
+    }
+
+    /**
+     * Returns the ended time stamp for {@link Type#SESSION_ENDED} and
+     * {@link Type#TRANSACTION_ENDED} operations.
+     *
+     * @return the time stamp or null.
+     */
+    public Date getTs() {
+        return _ts;
+    }
+
+    /**
+     * Returns the completion status for {@link Type#TRANSACTION_ENDED}
+     * operations.
+     *
+     * @return the status or null.
+     */
+    public TransactionCompletionStatus getTransactionStatus() {
+        return _transactionStatus;
+    }
+
+    /**
+     * Returns the new responsible information for
+     * {@link Type#RESPONSIBLE_UPDATED} operations.
+     *
+     * @return the responsible information or null.
+     */
+    public ResponsibleInformation getResponsibleInformation() {
+        return _responsibleInformation;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(255);
+        sb.append("AuditOperation[");
+        sb.append("type=");
+        sb.append(_type);
+        sb.append(", record=");
+        sb.append(_record);
+        sb.append("]");
+        return sb.toString();
+    }
+}
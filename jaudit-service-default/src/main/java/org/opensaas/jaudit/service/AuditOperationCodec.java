@@ -0,0 +1,110 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.opensaas.jaudit.AuditRecordCodec;
+import org.opensaas.jaudit.AuditRecordDecoder;
+import org.opensaas.jaudit.AuditRecordEncoder;
+import org.opensaas.jaudit.LifeCycleAuditEventMutable;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordMutable;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.TransactionRecordMutable;
+
+/**
+ * Writes {@link AuditOperation}s in the binary format of
+ * {@link AuditRecordCodec}: the operation type, its record and its update
+ * values in one message. Used by the write ahead log and the spill store in
+ * place of Java serialization. Records are read back as value objects.
+ */
+/* package */final class AuditOperationCodec {
+
+    /**
+     * Encode an operation as a message.
+     *
+     * @param operation
+     *            the operation.
+     * @return the message.
+     */
+    static byte[] encode(final AuditOperation operation) {
+        final AuditRecordEncoder encoder = new AuditRecordEncoder(512);
+        encoder.begin();
+        encoder.writeEnum(operation.getType());
+        encoder.writeRecord(operation.getRecord());
+        encoder.writeDate(operation.getTs());
+        encoder.writeEnum(operation.getTransactionStatus());
+        encoder.writeResponsibleInformation(operation
+                .getResponsibleInformation());
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Decode an operation from the position of the passed buffer.
+     *
+     * @param buffer
+     *            the buffer holding the message.
+     * @return the operation.
+     */
+    static AuditOperation decode(final ByteBuffer buffer) {
+        final AuditRecordDecoder decoder = new AuditRecordDecoder();
+        decoder.begin(buffer);
+        final AuditOperation.Type type = decoder
+                .readEnum(AuditOperation.Type.class);
+        final Object record = decoder.readRecord();
+        final Date ts = decoder.readDate();
+        final TransactionCompletionStatus status = decoder
+                .readEnum(TransactionCompletionStatus.class);
+        final ResponsibleInformation responsibleInformation = decoder
+                .readResponsibleInformation();
+        if (type == null || record == null) {
+            throw new IllegalArgumentException("Operation is incomplete.");
+        }
+
+        try {
+            switch (type) {
+            case CREATE_SESSION_RECORD:
+                return AuditOperation
+                        .createSessionRecord((SessionRecordMutable) record);
+            case CREATE_TRANSACTION_RECORD:
+                return AuditOperation
+                        .createTransactionRecord((TransactionRecordMutable) record);
+            case CREATE_LIFE_CYCLE_AUDIT_EVENT:
+                return AuditOperation
+                        .createLifeCycleAuditEvent((LifeCycleAuditEventMutable) record);
+            case SESSION_ENDED:
+                return AuditOperation.sessionEnded((SessionRecord) record, ts);
+            case RESPONSIBLE_UPDATED:
+                return AuditOperation.responsibleUpdated(
+                        (SessionRecord) record, responsibleInformation);
+            case TRANSACTION_ENDED:
+                return AuditOperation.transactionEnded(
+                        (TransactionRecord) record, status, ts);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + type);
+            }
+        } catch (final ClassCastException e) {
+            throw new IllegalArgumentException("Wrong record for " + type
+                    + ": " + record.getClass().getName());
+        }
+    }
+
+    private AuditOperationCodec() {
+        throw new UnsupportedOperationException(
+                "Cannot construct utility class.");
+    }
+}
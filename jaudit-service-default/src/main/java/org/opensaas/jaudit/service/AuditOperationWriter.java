@@ -0,0 +1,32 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+/**
+ * Takes {@link AuditOperation}s from {@link AuditServiceImpl} and sees that
+ * they are written, now or later, by an {@link AuditBatchWriter}.
+ *
+ * @see AsyncAuditWriter
+ * @see AuditWriteAheadLog
+ */
+public interface AuditOperationWriter {
+
+    /**
+     * Accept an operation for writing.
+     *
+     * @param operation
+     *            the operation to write. Never null.
+     */
+    void submit(AuditOperation operation);
+
+}
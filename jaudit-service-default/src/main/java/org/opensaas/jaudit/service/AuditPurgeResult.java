@@ -0,0 +1,56 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * The outcome of one {@link AuditPurger#purgeBatch} call.
+ */
+public final class AuditPurgeResult {
+
+    private final int _count;
+
+    private final PageKey _pageKey;
+
+    /**
+     * Required constructor.
+     *
+     * @param count
+     *            the number of events purged.
+     * @param pageKey
+     *            the key of the last event purged, or null if none were.
+     */
+    public AuditPurgeResult(final int count, final PageKey pageKey) {
+        _count = count;
+        _pageKey = pageKey;
+    }
+
+    /**
+     * Returns the number of events purged.
+     *
+     * @return the count.
+     */
+    public int getCount() {
+        return _count;
+    }
+
+    /**
+     * Returns the key of the last event purged.
+     *
+     * @return the key, or null if none were.
+     */
+    public PageKey getPageKey() {
+        return _pageKey;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.util.Date;
+
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * Purges one batch of expired events. {@link AuditRetentionEngine} is the
+ * default implementation; when it is wrapped in a transactional proxy each
+ * batch is purged in a single, short transaction.
+ */
+public interface AuditPurger {
+
+    /**
+     * Archive, when the policy asks for it, and delete the first events of
+     * the policy's dao, in time stamp then id order, that are older than
+     * <tt>before</tt> and come after <tt>after</tt>.
+     *
+     * @param policy
+     *            the policy.
+     * @param before
+     *            the cutoff.
+     * @param after
+     *            the key to continue after, or null.
+     * @param limit
+     *            the maximum number of events.
+     * @return what was purged.
+     */
+    AuditPurgeResult purgeBatch(RetentionPolicy policy, Date before,
+            PageKey after, int limit);
+
+}
@@ -0,0 +1,34 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.util.List;
+
+/**
+ * An {@link AuditBatchWriter} that can also write a batch some of which may
+ * already have been written, as happens when a log is replayed after a crash
+ * or a failed batch is retried. Inserts of records that already exist are
+ * skipped; updates are simply applied again.
+ */
+public interface AuditReplayWriter extends AuditBatchWriter {
+
+    /**
+     * Write all of the passed operations in order, skipping inserts of
+     * records that already exist.
+     *
+     * @param operations
+     *            the operations to write. Never null.
+     */
+    void replayBatch(List<AuditOperation> operations);
+
+}
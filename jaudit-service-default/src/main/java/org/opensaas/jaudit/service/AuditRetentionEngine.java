@@ -0,0 +1,362 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Deletes audit events that have outlived their {@link RetentionPolicy}.
+ *
+ * Each policy is purged in batches of at most {@link #setBatchSize(int)}
+ * events, oldest first, each batch starting after the {@link PageKey} of the
+ * last so that no batch scans rows already handled. A batch reads the
+ * expired events, archives them when the policy asks for it, and deletes
+ * them by id together with the records that belong to them, such as the
+ * property value changes of life cycle events. Set a transactional proxy of
+ * the engine on {@link #setPurger(AuditPurger)} to run every batch in its
+ * own short transaction, so that locks are held briefly and the database log
+ * grows by one batch at a time.
+ *
+ * {@link #setMaxEventsPerSecond(int)} throttles the purge by pausing between
+ * batches. After every batch the key of its last event is saved to the
+ * {@link RetentionCheckpointStore}, when one is set, and an interrupted purge
+ * resumes from there; the checkpoint is cleared once a policy has nothing
+ * left to purge.
+ *
+ * The engine is {@link Runnable} so that it can be scheduled, for example
+ * nightly. Session and transaction records are not purged.
+ */
+public class AuditRetentionEngine implements AuditPurger, Runnable {
+
+    static private final Logger LOGGER = Logger
+            .getLogger(AuditRetentionEngine.class.getName());
+
+    private List<RetentionPolicy> _policies = Collections.emptyList();
+
+    private AuditPurger _purger = this;
+
+    private AuditArchiver _archiver;
+
+    private RetentionCheckpointStore _checkpointStore;
+
+    private int _batchSize = 500;
+
+    private int _maxEventsPerSecond = 0;
+
+    private volatile boolean _stopped = false;
+
+    private final AtomicLong _purgedCount = new AtomicLong();
+
+    private final AtomicLong _failedCount = new AtomicLong();
+
+    /**
+     * Default constructor.
+     */
+    public AuditRetentionEngine() {
+        super();
+    }
+
+    /**
+     * Purge all policies, logging rather than throwing failures.
+     */
+    public void run() {
+        try {
+            purge();
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Cannot purge audit events.", e);
+        }
+    }
+
+    /**
+     * Purge the expired events of every policy in turn. A policy that fails
+     * is logged and skipped; its checkpoint is kept so that the next purge
+     * resumes it.
+     *
+     * @return the number of events purged, including those of failed
+     *         policies.
+     */
+    public long purge() {
+        validate();
+        _stopped = false;
+
+        final Date now = new Date();
+        final long purged = _purgedCount.get();
+        for (final RetentionPolicy policy : _policies) {
+            if (_stopped) {
+                break;
+            }
+            try {
+                purge(policy, policy.getCutoff(now));
+            } catch (final IOException e) {
+                _failedCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Cannot purge policy "
+                        + policy.getName() + ".", e);
+            } catch (final RuntimeException e) {
+                _failedCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Cannot purge policy "
+                        + policy.getName() + ".", e);
+            }
+        }
+        return _purgedCount.get() - purged;
+    }
+
+    /**
+     * Stop a running purge after its current batch.
+     */
+    public void stop() {
+        _stopped = true;
+    }
+
+    private void purge(final RetentionPolicy policy, final Date before)
+            throws IOException {
+        final String name = policy.getName();
+        PageKey after = _checkpointStore == null ? null : _checkpointStore
+                .load(name);
+
+        long purged = 0L;
+        while (!_stopped) {
+            final long started = System.currentTimeMillis();
+            final AuditPurgeResult result = _purger.purgeBatch(policy,
+                    before, after, _batchSize);
+            if (result.getPageKey() == null) {
+                if (_checkpointStore != null) {
+                    _checkpointStore.clear(name);
+                }
+                break;
+            }
+
+            purged += result.getCount();
+            _purgedCount.addAndGet(result.getCount());
+            after = result.getPageKey();
+            if (_checkpointStore != null) {
+                _checkpointStore.save(name, after);
+            }
+            throttle(result.getCount(), System.currentTimeMillis() - started);
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Purged " + purged + " events of policy " + name
+                    + " before " + before + ".");
+        }
+    }
+
+    private void throttle(final int count, final long elapsed) {
+        if (_maxEventsPerSecond < 1) {
+            return;
+        }
+        final long pause = count * 1000L / _maxEventsPerSecond - elapsed;
+        if (pause > 0L) {
+            try {
+                sleep(pause);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                _stopped = true;
+            }
+        }
+    }
+
+    /**
+     * Pause between batches.
+     *
+     * @param millis
+     *            how long to pause.
+     * @throws InterruptedException
+     *             when interrupted.
+     */
+    protected void sleep(final long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public AuditPurgeResult purgeBatch(final RetentionPolicy policy,
+            final Date before, final PageKey after, final int limit) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy is required.");
+        }
+        if (before == null) {
+            throw new IllegalArgumentException("Cutoff is required.");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive.");
+        }
+        final boolean archive = policy.isArchive();
+        if (archive && _archiver == null) {
+            throw new IllegalStateException(
+                    "An archiver is required for policy " + policy.getName()
+                            + ".");
+        }
+
+        final List<String> ids = new ArrayList<String>(limit);
+        final PageKey last;
+        final ResultCursor<? extends AuditEvent> cursor = policy.getDao()
+                .findByTs(null, before, after, limit);
+        try {
+            while (cursor.hasNext()) {
+                final AuditEvent event = cursor.next();
+                if (archive) {
+                    try {
+                        _archiver.archive(policy, event);
+                    } catch (final IOException e) {
+                        throw new IllegalStateException(
+                                "Cannot archive event " + event.getId() + ".",
+                                e);
+                    }
+                }
+                ids.add(event.getId());
+            }
+            last = cursor.getPageKey();
+        } finally {
+            cursor.close();
+        }
+
+        if (ids.isEmpty()) {
+            return new AuditPurgeResult(0, null);
+        }
+        if (archive) {
+            try {
+                _archiver.flush();
+            } catch (final IOException e) {
+                throw new IllegalStateException("Cannot flush the archive.", e);
+            }
+        }
+        return new AuditPurgeResult(policy.getDao().deleteAll(ids), last);
+    }
+
+    private void validate() {
+        final Set<String> names = new HashSet<String>();
+        for (final RetentionPolicy policy : _policies) {
+            policy.validate();
+            if (!names.add(policy.getName())) {
+                throw new IllegalStateException("Duplicate policy name "
+                        + policy.getName() + ".");
+            }
+            if (policy.isArchive() && _archiver == null) {
+                throw new IllegalStateException(
+                        "An archiver is required for policy "
+                                + policy.getName() + ".");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events purged since the engine was created.
+     *
+     * @return the purged count.
+     */
+    public long getPurgedCount() {
+        return _purgedCount.get();
+    }
+
+    /**
+     * Returns the number of policies whose purge failed since the engine was
+     * created.
+     *
+     * @return the failed count.
+     */
+    public long getFailedCount() {
+        return _failedCount.get();
+    }
+
+    /**
+     * Sets the policies to purge, in order.
+     *
+     * @param policies
+     *            the policies.
+     */
+    public void setPolicies(final List<RetentionPolicy> policies) {
+        if (policies == null) {
+            throw new IllegalArgumentException("Policies are required.");
+        }
+        _policies = new ArrayList<RetentionPolicy>(policies);
+    }
+
+    /**
+     * Sets the purger that batches are handed to. Defaults to the engine
+     * itself; to purge each batch in its own transaction pass the
+     * transactional proxy of the engine.
+     *
+     * @param purger
+     *            the purger.
+     */
+    public void setPurger(final AuditPurger purger) {
+        if (purger == null) {
+            throw new IllegalArgumentException("Purger is required.");
+        }
+        _purger = purger;
+    }
+
+    /**
+     * Sets the archiver, required by policies that archive.
+     *
+     * @param archiver
+     *            the archiver.
+     */
+    public void setArchiver(final AuditArchiver archiver) {
+        _archiver = archiver;
+    }
+
+    /**
+     * Sets the store that purge checkpoints are kept in. Without one an
+     * interrupted purge starts again from the oldest event.
+     *
+     * @param checkpointStore
+     *            the checkpoint store.
+     */
+    public void setCheckpointStore(
+            final RetentionCheckpointStore checkpointStore) {
+        _checkpointStore = checkpointStore;
+    }
+
+    /**
+     * Sets the maximum number of events purged per batch. Default 500.
+     *
+     * @param batchSize
+     *            the batch size.
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Sets the maximum number of events purged per second, or 0 for no limit.
+     * Default 0.
+     *
+     * @param maxEventsPerSecond
+     *            the rate limit.
+     */
+    public void setMaxEventsPerSecond(final int maxEventsPerSecond) {
+        if (maxEventsPerSecond < 0) {
+            throw new IllegalArgumentException(
+                    "Maximum events per second must not be negative.");
+        }
+        _maxEventsPerSecond = maxEventsPerSecond;
+    }
+}
@@ -12,7 +12,14 @@
  */
 package org.opensaas.jaudit.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +28,8 @@ import org.opensaas.jaudit.AuditSubject;
 import org.opensaas.jaudit.LifeCycleAuditEvent;
 import org.opensaas.jaudit.LifeCycleAuditEventMutable;
 import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.PropertyValueChangeMutable;
 import org.opensaas.jaudit.ResponsibleInformation;
 import org.opensaas.jaudit.SessionRecord;
 import org.opensaas.jaudit.SessionRecordMutable;
@@ -36,12 +45,35 @@ import org.opensaas.jaudit.session.AuditSession;
 
 /**
  * The default implementation of {@link AuditService}.
+ * 
+ * By default every record is written on the caller's thread. When an
+ * {@link AsyncAuditWriter} is set, writes are queued and applied in batches by
+ * the writer through {@link #writeBatch(List)}; the populated records are still
+ * returned to the caller immediately.
+ * 
+ * Life cycle events raised outside any {@link AuditSession} are given the
+ * system session record of the default worker type, so background work is
+ * audited without a session record per job. A system session record is
+ * cached for the life of the service, so it should be created in a
+ * transaction of its own; see {@link #setTransactionalProxy(ObjectFactory)}.
  */
-public class AuditServiceImpl implements AuditService {
+public class AuditServiceImpl implements AuditService, AuditReplayWriter {
 
     static private final Logger LOGGER = Logger
             .getLogger(AuditServiceImpl.class.getName());
 
+    /**
+     * The worker type used for events raised outside any audit session unless
+     * {@link #setDefaultWorkerType(String)} says otherwise.
+     */
+    public static final String DEFAULT_WORKER_TYPE = "background";
+
+    /**
+     * Subject type of the responsible party of system session records, and
+     * prefix of their session ids.
+     */
+    public static final String SYSTEM_SUBJECT_TYPE = "system";
+
     /**
      * For interacting with the persistence layer.
      */
@@ -97,7 +129,33 @@ public class AuditServiceImpl implements AuditService {
      * The audit system address that will be filled in on new session records.
      */
     private String _auditSystemAddress;
-    
+
+    /**
+     * Optional writer that takes persistence off the caller's thread.
+     */
+    private AuditOperationWriter _asyncWriter;
+
+    /**
+     * Session records for background work, by worker type.
+     */
+    private final ConcurrentMap<String, SessionRecord> _systemSessionRecords = new ConcurrentHashMap<String, SessionRecord>();
+
+    /**
+     * The worker type whose system session record is used for events raised
+     * outside any audit session.
+     */
+    private String _defaultWorkerType = DEFAULT_WORKER_TYPE;
+
+    /**
+     * Optional lazy reference to the transactional proxy of this service.
+     */
+    private ObjectFactory<AuditService> _transactionalProxy;
+
+    /**
+     * Optional source of the record of the transaction events are raised in.
+     */
+    private ObjectFactory<TransactionRecord> _transactionRecordSource;
+
     public AuditServiceImpl() {
         super();
     }
@@ -124,6 +182,18 @@ public class AuditServiceImpl implements AuditService {
      */
     public TransactionRecord createTransactionRecord(
             final String transactionId, final SessionRecord sessionRecord) {
+        final TransactionRecordMutable trm = newTransactionRecord(
+                transactionId, sessionRecord);
+
+        write(AuditOperation.createTransactionRecord(trm));
+        return trm;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecordMutable newTransactionRecord(
+            final String transactionId, final SessionRecord sessionRecord) {
         if (transactionId == null) {
             throw new IllegalArgumentException("Transaction id is required.");
         }
@@ -133,12 +203,40 @@ public class AuditServiceImpl implements AuditService {
         trm.setStartedTs(new Date());
         trm.setTransactionId(transactionId);
         trm.setSessionRecord(sessionRecord);
+        return trm;
+    }
 
-        final String id = _transactionRecordDao.create(trm);
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecord createCompletedTransactionRecord(
+            final TransactionRecord transactionRecord,
+            final TransactionCompletionStatus transactionStatus,
+            final Date endedTs) {
+        if (!(transactionRecord instanceof TransactionRecordMutable)) {
+            throw new IllegalArgumentException(
+                    "Transaction record must come from newTransactionRecord.");
+        }
+        final TransactionRecordMutable trm = (TransactionRecordMutable) transactionRecord;
+        trm.setEndedTs(endedTs);
+        trm.setTransactionCompletionStatus(transactionStatus);
 
-        LOGGER.log(Level.FINE, "Created new transaction record with id {0}.",
-                id);
+        write(AuditOperation.createTransactionRecord(trm));
+        return trm;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecord createStartedTransactionRecord(
+            final TransactionRecord transactionRecord) {
+        if (!(transactionRecord instanceof TransactionRecordMutable)) {
+            throw new IllegalArgumentException(
+                    "Transaction record must come from newTransactionRecord.");
+        }
+        final TransactionRecordMutable trm = (TransactionRecordMutable) transactionRecord;
 
+        write(AuditOperation.createTransactionRecord(trm));
         return trm;
     }
 
@@ -157,8 +255,7 @@ public class AuditServiceImpl implements AuditService {
         sessionRecord.setSystem(_auditSystem);
         sessionRecord.setSystemAddress(_auditSystemAddress);
 
-        final String id = _sessionRecordDao.create(sessionRecord);
-        LOGGER.log(Level.FINE, "Created new session record with id {0}.", id);
+        write(AuditOperation.createSessionRecord(sessionRecord));
         return sessionRecord;
     }
 
@@ -169,13 +266,55 @@ public class AuditServiceImpl implements AuditService {
         return createSessionRecord(null, null);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public SessionRecord getSystemSessionRecord(final String workerType) {
+        if (workerType == null) {
+            throw new IllegalArgumentException("Worker type is required.");
+        }
+        SessionRecord sessionRecord = _systemSessionRecords.get(workerType);
+        if (sessionRecord == null) {
+            synchronized (_systemSessionRecords) {
+                sessionRecord = _systemSessionRecords.get(workerType);
+                if (sessionRecord == null) {
+                    final ResponsibleInformation ri = newResponsibleInformation();
+                    final AuditSubject responsible = new AuditSubject();
+                    responsible.setSubjectType(SYSTEM_SUBJECT_TYPE);
+                    responsible.setSubjectId(workerType);
+                    ri.setResponsible(responsible);
+                    final AuditService creator = _transactionalProxy != null ? _transactionalProxy
+                            .getObject()
+                            : this;
+                    sessionRecord = creator.createSessionRecord(
+                            SYSTEM_SUBJECT_TYPE + ':' + workerType + ':'
+                                    + _guidFactory.getObject(), ri);
+                    _systemSessionRecords.put(workerType, sessionRecord);
+                    LOGGER.log(Level.FINE,
+                            "Created system session record {0} for {1}.",
+                            new Object[] { sessionRecord, workerType });
+                }
+            }
+        }
+        return sessionRecord;
+    }
+
     /**
      * {@inheritDoc}
      */
     public SessionRecord updateSessionEnded(final SessionRecord sessionRecord) {
+        final Date endedTs = new Date();
+        if (_asyncWriter != null) {
+            if (sessionRecord instanceof SessionRecordMutable) {
+                ((SessionRecordMutable) sessionRecord).setEndedTs(endedTs);
+            }
+            _asyncWriter.submit(AuditOperation.sessionEnded(sessionRecord,
+                    endedTs));
+            return sessionRecord;
+        }
 
         final SessionRecord sr = _sessionRecordDao.updateEndedTs(sessionRecord,
-                new Date());
+                endedTs);
         return sr;
 
     }
@@ -186,6 +325,16 @@ public class AuditServiceImpl implements AuditService {
     public TransactionRecord updateTransactionEnded(
             final TransactionRecord transactionRecord,
             final TransactionCompletionStatus transactionStatus, final Date endedTs) {
+        if (_asyncWriter != null) {
+            if (transactionRecord instanceof TransactionRecordMutable) {
+                final TransactionRecordMutable trm = (TransactionRecordMutable) transactionRecord;
+                trm.setEndedTs(endedTs);
+                trm.setTransactionCompletionStatus(transactionStatus);
+            }
+            _asyncWriter.submit(AuditOperation.transactionEnded(
+                    transactionRecord, transactionStatus, endedTs));
+            return transactionRecord;
+        }
 
         final TransactionRecord tr = _transactionRecordDao.transactionEnded(
                 transactionRecord, transactionStatus, endedTs);
@@ -208,6 +357,15 @@ public class AuditServiceImpl implements AuditService {
      */
     public SessionRecord updateResponsible(final SessionRecord sessionRecord,
             final ResponsibleInformation responsibleInformation) {
+        if (_asyncWriter != null) {
+            if (sessionRecord instanceof SessionRecordMutable) {
+                ((SessionRecordMutable) sessionRecord)
+                        .setResponsibleInformation(responsibleInformation);
+            }
+            _asyncWriter.submit(AuditOperation.responsibleUpdated(
+                    sessionRecord, responsibleInformation));
+            return sessionRecord;
+        }
 
         final SessionRecord sr = _sessionRecordDao
                 .updateResponsibleInformation(sessionRecord,
@@ -223,6 +381,21 @@ public class AuditServiceImpl implements AuditService {
     public LifeCycleAuditEvent createLifeCycleAuditEvent(
             final LifeCycleType type, final AuditSubject target,
             final String description) {
+        return createLifeCycleAuditEvent(type, target, description, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The changes are copied into a list sized to fit them exactly and
+     * written with the event as one operation, so the DAO can insert them
+     * in a single batch.
+     */
+    public LifeCycleAuditEvent createLifeCycleAuditEvent(
+            final LifeCycleType type,
+            final AuditSubject target,
+            final String description,
+            final Collection<? extends PropertyValueChangeMutable> propertyValueChanges) {
         final LifeCycleAuditEventMutable event = (LifeCycleAuditEventMutable) _lifeCycleAuditEventFactory
                 .getObject();
 
@@ -231,15 +404,244 @@ public class AuditServiceImpl implements AuditService {
         event.setLifeCycleEventType(type);
         event.setTarget(target);
         event.setTs(new Date());
-        event.setSessionRecord(AuditSession.getAuditSession()
-                .getSessionRecord());
+        final AuditSession auditSession = AuditSession.getAuditSession();
+        if (auditSession != null) {
+            event.setSessionRecord(auditSession.getSessionRecord());
+        } else if (_defaultWorkerType != null) {
+            event.setSessionRecord(getSystemSessionRecord(_defaultWorkerType));
+        }
+        if (_transactionRecordSource != null) {
+            event.setTransactionRecord(_transactionRecordSource.getObject());
+        }
+
+        if (propertyValueChanges != null && !propertyValueChanges.isEmpty()) {
+            final List<PropertyValueChange> changes = new ArrayList<PropertyValueChange>(
+                    propertyValueChanges.size());
+            for (final PropertyValueChangeMutable change : propertyValueChanges) {
+                change.setId((String) _guidFactory.getObject());
+                change.setLifeCycleAuditEvent(event);
+                changes.add(change);
+            }
+            event.setPropertyValueChanges(changes);
+        }
 
-        final String id = _lifeCycleAuditEventDao.create(event);
-        LOGGER.log(Level.FINE,
-                "Created new life cycle audit event with id {0}.", id);
+        write(AuditOperation.createLifeCycleAuditEvent(event));
         return event;
     }
 
+    /**
+     * Applies the passed operations, in order, directly to the DAOs. This is
+     * the target used by an {@link AsyncAuditWriter}. Consecutive inserts of
+     * the same kind are handed to the DAO's <tt>createAll</tt> together, and
+     * of several responsible updates to one session record only the last is
+     * written.
+     * 
+     * @param batch
+     *            the operations to write.
+     */
+    public void writeBatch(final List<AuditOperation> batch) {
+        final List<AuditOperation> operations = coalesceResponsibleUpdates(batch);
+        int start = 0;
+        while (start < operations.size()) {
+            final AuditOperation.Type type = operations.get(start).getType();
+            int end = start + 1;
+            if (isCreate(type)) {
+                while (end < operations.size()
+                        && operations.get(end).getType() == type) {
+                    ++end;
+                }
+            }
+
+            if (end - start > 1) {
+                createAll(type, operations.subList(start, end));
+            } else {
+                apply(operations.get(start));
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Applies the passed operations like {@link #writeBatch(List)}, except
+     * that inserts of records whose id is already stored are skipped. This is
+     * the target used by an {@link AuditWriteAheadLog} when it ships
+     * operations that may have been written before a crash.
+     * 
+     * @param batch
+     *            the operations to write.
+     */
+    public void replayBatch(final List<AuditOperation> batch) {
+        final List<AuditOperation> missing = new ArrayList<AuditOperation>(
+                batch.size());
+        for (final AuditOperation operation : batch) {
+            if (!isCreate(operation.getType()) || !exists(operation)) {
+                missing.add(operation);
+            }
+        }
+        if (missing.size() < batch.size()) {
+            LOGGER.log(Level.INFO,
+                    "Skipped {0} replayed inserts that were already written.",
+                    batch.size() - missing.size());
+        }
+        writeBatch(missing);
+    }
+
+    private boolean exists(final AuditOperation operation) {
+        switch (operation.getType()) {
+        case CREATE_SESSION_RECORD:
+            return _sessionRecordDao.read(((SessionRecord) operation
+                    .getRecord()).getId()) != null;
+        case CREATE_TRANSACTION_RECORD:
+            return _transactionRecordDao.read(((TransactionRecord) operation
+                    .getRecord()).getId()) != null;
+        case CREATE_LIFE_CYCLE_AUDIT_EVENT:
+            return _lifeCycleAuditEventDao.read(((LifeCycleAuditEvent) operation
+                    .getRecord()).getId()) != null;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Drop responsible updates that a later update to the same session record
+     * in the batch supersedes; each replaces the whole responsible
+     * information, so only the last one matters. An update is never
+     * superseded across the end of its session, since updates to an ended
+     * session are rejected.
+     * 
+     * @param operations
+     *            the batch.
+     * @return the batch, or a copy without the superseded updates.
+     */
+    /* package */static List<AuditOperation> coalesceResponsibleUpdates(
+            final List<AuditOperation> operations) {
+        // walk backwards, remembering the sessions updated later on
+        Set<String> updatedLater = null;
+        boolean[] dropped = null;
+        int superseded = 0;
+        for (int i = operations.size() - 1; i >= 0; --i) {
+            final AuditOperation operation = operations.get(i);
+            if (operation.getType() == AuditOperation.Type.SESSION_ENDED) {
+                if (updatedLater != null) {
+                    updatedLater.remove(((SessionRecord) operation
+                            .getRecord()).getId());
+                }
+            } else if (operation.getType() == AuditOperation.Type.RESPONSIBLE_UPDATED) {
+                if (updatedLater == null) {
+                    updatedLater = new HashSet<String>();
+                }
+                if (!updatedLater.add(((SessionRecord) operation.getRecord())
+                        .getId())) {
+                    if (dropped == null) {
+                        dropped = new boolean[operations.size()];
+                    }
+                    dropped[i] = true;
+                    ++superseded;
+                }
+            }
+        }
+        if (superseded == 0) {
+            return operations;
+        }
+
+        final List<AuditOperation> coalesced = new ArrayList<AuditOperation>(
+                operations.size() - superseded);
+        for (int i = 0; i < operations.size(); ++i) {
+            if (!dropped[i]) {
+                coalesced.add(operations.get(i));
+            }
+        }
+        LOGGER.log(Level.FINE, "Dropped {0} superseded responsible updates.",
+                superseded);
+        return coalesced;
+    }
+
+    private static boolean isCreate(final AuditOperation.Type type) {
+        return type == AuditOperation.Type.CREATE_SESSION_RECORD
+                || type == AuditOperation.Type.CREATE_TRANSACTION_RECORD
+                || type == AuditOperation.Type.CREATE_LIFE_CYCLE_AUDIT_EVENT;
+    }
+
+    private void createAll(final AuditOperation.Type type,
+            final List<AuditOperation> operations) {
+        switch (type) {
+        case CREATE_SESSION_RECORD:
+            _sessionRecordDao.createAll(AuditServiceImpl
+                    .<SessionRecordMutable> records(operations));
+            break;
+        case CREATE_TRANSACTION_RECORD:
+            _transactionRecordDao.createAll(AuditServiceImpl
+                    .<TransactionRecordMutable> records(operations));
+            break;
+        case CREATE_LIFE_CYCLE_AUDIT_EVENT:
+            _lifeCycleAuditEventDao.createAll(AuditServiceImpl
+                    .<LifeCycleAuditEventMutable> records(operations));
+            break;
+        default:
+            throw new IllegalArgumentException("Not an insert: " + type);
+        }
+        LOGGER.log(Level.FINE, "Created {0} records of type {1}.",
+                new Object[] { operations.size(), type });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> List<R> records(final List<AuditOperation> operations) {
+        final List<R> records = new ArrayList<R>(operations.size());
+        for (final AuditOperation operation : operations) {
+            records.add((R) operation.getRecord());
+        }
+        return records;
+    }
+
+    private void write(final AuditOperation operation) {
+        if (_asyncWriter != null) {
+            _asyncWriter.submit(operation);
+        } else {
+            apply(operation);
+        }
+    }
+
+    private void apply(final AuditOperation operation) {
+        final String id;
+        switch (operation.getType()) {
+        case CREATE_SESSION_RECORD:
+            id = _sessionRecordDao.create((SessionRecordMutable) operation
+                    .getRecord());
+            LOGGER.log(Level.FINE, "Created new session record with id {0}.",
+                    id);
+            break;
+        case CREATE_TRANSACTION_RECORD:
+            id = _transactionRecordDao
+                    .create((TransactionRecordMutable) operation.getRecord());
+            LOGGER.log(Level.FINE,
+                    "Created new transaction record with id {0}.", id);
+            break;
+        case CREATE_LIFE_CYCLE_AUDIT_EVENT:
+            id = _lifeCycleAuditEventDao
+                    .create((LifeCycleAuditEventMutable) operation.getRecord());
+            LOGGER.log(Level.FINE,
+                    "Created new life cycle audit event with id {0}.", id);
+            break;
+        case SESSION_ENDED:
+            _sessionRecordDao.updateEndedTs((SessionRecord) operation
+                    .getRecord(), operation.getTs());
+            break;
+        case RESPONSIBLE_UPDATED:
+            _sessionRecordDao.updateResponsibleInformation(
+                    (SessionRecord) operation.getRecord(), operation
+                            .getResponsibleInformation());
+            break;
+        case TRANSACTION_ENDED:
+            _transactionRecordDao.transactionEnded(
+                    (TransactionRecord) operation.getRecord(), operation
+                            .getTransactionStatus(), operation.getTs());
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown operation: "
+                    + operation);
+        }
+    }
+
     /**
      * Sets the required responsible information factory.
      * 
@@ -327,6 +729,54 @@ public class AuditServiceImpl implements AuditService {
         _auditSystemAddress = auditSystemAddress;
     }
 
+    /**
+     * Sets the worker type whose system session record is given to events
+     * raised outside any audit session, {@link #DEFAULT_WORKER_TYPE} by
+     * default. Set to <tt>null</tt> to leave such events without a session
+     * record.
+     * 
+     * @param defaultWorkerType
+     *            the worker type, or <tt>null</tt>.
+     * @see #getSystemSessionRecord(String)
+     */
+    public void setDefaultWorkerType(final String defaultWorkerType) {
+        _defaultWorkerType = defaultWorkerType;
+    }
+
+    /**
+     * Sets the optional lazy reference to the transactional proxy of this
+     * service. System session records are then created through the proxy
+     * rather than inside the caller's transaction. With
+     * <tt>PROPAGATION_REQUIRES_NEW</tt> on <tt>createSessionRecord*</tt> each
+     * is committed before it is cached, so a rolled back background
+     * transaction cannot leave every later background event pointing at a
+     * record that was never stored.
+     * 
+     * @param transactionalProxy
+     *            the proxy factory, or <tt>null</tt> to create system session
+     *            records directly.
+     * @see #getSystemSessionRecord(String)
+     */
+    public void setTransactionalProxy(
+            final ObjectFactory<AuditService> transactionalProxy) {
+        _transactionalProxy = transactionalProxy;
+    }
+
+    /**
+     * Sets the optional source of the record of the current transaction.
+     * Each life cycle event is given the record it returns, which may be
+     * <tt>null</tt>, so the source must return a record that is saved, or
+     * will be saved, before the event is.
+     * 
+     * @param transactionRecordSource
+     *            the source, or <tt>null</tt> to leave the transaction record
+     *            of events unset.
+     */
+    public void setTransactionRecordSource(
+            final ObjectFactory<TransactionRecord> transactionRecordSource) {
+        _transactionRecordSource = transactionRecordSource;
+    }
+
     /**
      * Sets the required transaction record factory that will create
      * {@link TransactionRecordMutable}.
@@ -338,6 +788,29 @@ public class AuditServiceImpl implements AuditService {
         _transactionRecordFactory = transactionRecordFactory;
     }
 
+    /**
+     * Sets the optional asynchronous writer. When set, records are queued on
+     * the writer instead of being written on the caller's thread.
+     * 
+     * @param asyncWriter
+     *            the writer to use, or null to write synchronously.
+     */
+    public void setAsyncWriter(final AsyncAuditWriter asyncWriter) {
+        _asyncWriter = asyncWriter;
+    }
+
+    /**
+     * Sets the optional write ahead log. When set, records are appended to
+     * the log, which ships them to the DAOs in the background. Replaces any
+     * asynchronous writer.
+     * 
+     * @param writeAheadLog
+     *            the log to use, or null to write synchronously.
+     */
+    public void setWriteAheadLog(final AuditWriteAheadLog writeAheadLog) {
+        _asyncWriter = writeAheadLog;
+    }
+
     /**
      * Sets the required transaction record dao.
      * 
@@ -0,0 +1,55 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Overflow storage used by {@link AsyncAuditWriter} when its in-memory queue
+ * is full and the {@link AsyncAuditWriter.OverflowPolicy#SPILL} policy is in
+ * effect. Operations must be returned in the order they were appended.
+ */
+public interface AuditSpillStore {
+
+    /**
+     * Append an operation to the end of the store.
+     *
+     * @param operation
+     *            the operation to store.
+     * @throws IOException
+     *             when the operation can not be stored.
+     */
+    void append(AuditOperation operation) throws IOException;
+
+    /**
+     * Remove and return up to max operations from the head of the store. An
+     * operation that can not be read is removed and reported on the call
+     * after the operations before it have been returned.
+     *
+     * @param max
+     *            the maximum number of operations to return.
+     * @return the operations read, empty if none.
+     * @throws IOException
+     *             when the store can not be read.
+     */
+    List<AuditOperation> remove(int max) throws IOException;
+
+    /**
+     * Is there anything left in the store?
+     *
+     * @return true if no operations are stored.
+     */
+    boolean isEmpty();
+
+}
@@ -0,0 +1,1115 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A durable, append only log of {@link AuditOperation}s kept in memory mapped
+ * segment files in a local directory, shipped to an {@link AuditBatchWriter}
+ * by a background replayer thread.
+ *
+ * Set on {@link AuditServiceImpl#setWriteAheadLog(AuditWriteAheadLog)} so a
+ * caller only waits for a local append, never for the database, and a
+ * database failure never reaches the caller. Appends are made durable by a
+ * syncer thread that forces the current segment to disk once for every
+ * append that arrived since the last force, so concurrent callers share one
+ * fsync (group commit). With <tt>syncAppends</tt> off callers do not wait for
+ * the force at all.
+ *
+ * The replayer ships durable operations in batches, in order, and records
+ * how far it got in a checkpoint file after every batch; segments behind the
+ * checkpoint are deleted. A batch that fails with a transient error, see
+ * {@link #isTransient(RuntimeException)}, is retried until it succeeds, so a
+ * database outage only grows the log. Any other failure is retried
+ * <tt>maxAttempts</tt> times, then the operations of the batch are shipped
+ * one at a time and those that still fail are moved to the dead letter file
+ * <tt>audit.deadletter</tt> in the log directory, so one bad operation never
+ * holds up the rest. After a restart everything after the checkpoint is
+ * shipped again. Batches that may already have been written, those after a
+ * restart and retries, go through {@link AuditReplayWriter#replayBatch(List)}
+ * when the target supports it, which skips records whose id already exists.
+ *
+ * Each record is a length, a CRC32 of the data and the operation in the
+ * binary format of {@link org.opensaas.jaudit.AuditRecordCodec}; a torn
+ * record at the end of the log is discarded on start. A record that can not
+ * be read during replay is moved to the dead letter file as is. The dead
+ * letter file uses the same framing. Records are shipped as value objects.
+ */
+public class AuditWriteAheadLog implements AuditOperationWriter {
+
+    static private final Logger LOGGER = Logger
+            .getLogger(AuditWriteAheadLog.class.getName());
+
+    private static final String SEGMENT_PREFIX = "audit-";
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final String CHECKPOINT_NAME = "audit.checkpoint";
+
+    private static final String DEAD_LETTER_NAME = "audit.deadletter";
+
+    /**
+     * Written in place of a length when the rest of a segment is unused.
+     */
+    private static final int END_OF_SEGMENT = -1;
+
+    /**
+     * Length and CRC.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    private static final long CHECKPOINT_MAGIC = 0x6a61756469745741L;
+
+    /**
+     * SQLState classes of connection, transaction rollback, resource and
+     * operator intervention errors.
+     */
+    private static final Set<String> TRANSIENT_SQL_STATES = new HashSet<String>(
+            Arrays.asList("08", "40", "53", "57"));
+
+    /**
+     * Exceptions, by name so none of them is required on the class path, that
+     * mean the database could not be reached or the transaction lost a race.
+     */
+    private static final Set<String> TRANSIENT_EXCEPTIONS = new HashSet<String>(
+            Arrays.asList(
+                    "org.springframework.dao.TransientDataAccessException",
+                    "org.springframework.dao.DataAccessResourceFailureException",
+                    "org.springframework.dao.RecoverableDataAccessException",
+                    "org.springframework.transaction.CannotCreateTransactionException",
+                    "org.hibernate.exception.JDBCConnectionException",
+                    "org.hibernate.exception.LockAcquisitionException",
+                    "java.sql.SQLTransientException",
+                    "java.sql.SQLRecoverableException"));
+
+    private AuditBatchWriter _target;
+
+    private File _directory;
+
+    private int _segmentSize = 64 * 1024 * 1024;
+
+    private boolean _syncAppends = true;
+
+    private long _groupCommitDelay = 0L;
+
+    private int _batchSize = 100;
+
+    private long _replayInterval = 1000L;
+
+    private long _shutdownTimeout = 30000L;
+
+    private int _maxAttempts = 3;
+
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /**
+     * Signalled when something is appended; the syncer waits on it.
+     */
+    private final Condition _appended = _lock.newCondition();
+
+    /**
+     * Signalled when appends become durable; callers and the replayer wait on
+     * it.
+     */
+    private final Condition _synced = _lock.newCondition();
+
+    // guarded by _lock
+    private MappedByteBuffer _writeBuffer;
+
+    private FileChannel _writeChannel;
+
+    private long _writePosition;
+
+    private long _syncedPosition;
+
+    // written by the replayer thread once started
+    private volatile long _replayPosition;
+
+    private long _replayedSegment = -1L;
+
+    private MappedByteBuffer _replayBuffer;
+
+    private FileChannel _replayChannel;
+
+    /**
+     * Everything before this was logged before the last start.
+     */
+    private long _recoveredPosition;
+
+    private RandomAccessFile _checkpointFile;
+
+    // opened by the replayer thread on first use
+    private RandomAccessFile _deadLetterFile;
+
+    private Thread _syncer;
+
+    private Thread _replayer;
+
+    private volatile boolean _running = false;
+
+    private final AtomicLong _appendedCount = new AtomicLong();
+
+    private final AtomicLong _syncCount = new AtomicLong();
+
+    private final AtomicLong _replayedCount = new AtomicLong();
+
+    private final AtomicLong _failedCount = new AtomicLong();
+
+    private final AtomicLong _deadLetterCount = new AtomicLong();
+
+    /**
+     * Default constructor.
+     */
+    public AuditWriteAheadLog() {
+        super();
+    }
+
+    /**
+     * Open the log, recovering whatever a previous run left in the directory,
+     * and start the syncer and replayer threads.
+     *
+     * @throws IOException
+     *             when the log can not be opened.
+     */
+    public synchronized void start() throws IOException {
+        if (_running) {
+            throw new IllegalStateException("Log is already started.");
+        }
+        if (_target == null) {
+            throw new IllegalStateException("Target writer is required.");
+        }
+        if (_directory == null) {
+            throw new IllegalStateException("Directory is required.");
+        }
+        if (!_directory.isDirectory() && !_directory.mkdirs()) {
+            throw new IOException("Cannot create log directory " + _directory);
+        }
+
+        _checkpointFile = new RandomAccessFile(new File(_directory,
+                CHECKPOINT_NAME), "rw");
+        final long[] segments = listSegments();
+        long checkpoint = readCheckpoint();
+        if (segments.length > 0 && segmentOf(checkpoint) < segments[0]) {
+            checkpoint = position(segments[0], 0);
+        }
+        final long lastSegment = segments.length > 0 ? segments[segments.length - 1]
+                : segmentOf(checkpoint);
+
+        openWriteSegment(lastSegment);
+        final int start = segmentOf(checkpoint) == lastSegment ? offsetOf(checkpoint)
+                : 0;
+        final int end = findEnd(_writeBuffer, start);
+        if (end < 0) {
+            // the last segment was closed before its successor was created
+            openWriteSegment(lastSegment + 1);
+            _writePosition = position(lastSegment + 1, 0);
+        } else {
+            clear(_writeBuffer, end);
+            _writePosition = position(lastSegment, end);
+        }
+        _syncedPosition = _writePosition;
+        _recoveredPosition = _writePosition;
+        _replayPosition = checkpoint;
+        if (_recoveredPosition > _replayPosition) {
+            LOGGER.log(Level.INFO,
+                    "Recovering audit log in {0} from {1} to {2}.",
+                    new Object[] { _directory, describe(_replayPosition),
+                            describe(_recoveredPosition) });
+        }
+
+        _running = true;
+        _syncer = new Thread(new Runnable() {
+            public void run() {
+                syncLoop();
+            }
+        }, "jaudit-wal-syncer");
+        _syncer.setDaemon(true);
+        _syncer.start();
+        _replayer = new Thread(new Runnable() {
+            public void run() {
+                replayLoop();
+            }
+        }, "jaudit-wal-replayer");
+        _replayer.setDaemon(true);
+        _replayer.start();
+    }
+
+    /**
+     * Stop accepting new work, make everything appended durable and give the
+     * replayer up to the shutdown timeout to ship it. Whatever is not shipped
+     * stays in the log for the next start.
+     *
+     * @throws InterruptedException
+     *             when interrupted while waiting.
+     */
+    public void shutdown() throws InterruptedException {
+        synchronized (this) {
+            if (!_running) {
+                return;
+            }
+            _running = false;
+        }
+        signal(_appended);
+        _syncer.join();
+        signal(_synced);
+        _replayer.join(_shutdownTimeout);
+        if (_replayer.isAlive()) {
+            LOGGER.log(Level.WARNING,
+                    "Audit log replay did not finish within {0}ms.",
+                    _shutdownTimeout);
+            _replayer.interrupt();
+            _replayer.join();
+        }
+        close(_writeChannel);
+        close(_replayChannel);
+        try {
+            _checkpointFile.close();
+        } catch (final IOException e) {
+            LOGGER.log(Level.FINE, "Cannot close checkpoint.", e);
+        }
+        if (_deadLetterFile != null) {
+            try {
+                _deadLetterFile.close();
+            } catch (final IOException e) {
+                LOGGER.log(Level.FINE, "Cannot close dead letter file.", e);
+            }
+            _deadLetterFile = null;
+        }
+    }
+
+    /**
+     * Append an operation to the log and, unless <tt>syncAppends</tt> is off,
+     * wait until it is durable. If the log is not running, or the log can
+     * not be written, the operation is written on the caller's thread.
+     *
+     * @param operation
+     *            the operation to log.
+     * @throws IllegalArgumentException
+     *             when the operation holds a record that can not be encoded.
+     */
+    public void submit(final AuditOperation operation) {
+        if (operation == null) {
+            throw new IllegalArgumentException("Operation is required.");
+        }
+        if (!_running) {
+            _target.writeBatch(Collections.singletonList(operation));
+            return;
+        }
+
+        // an operation that can not be encoded fails here, not in the log
+        final byte[] data = AuditOperationCodec.encode(operation);
+        final long end;
+        try {
+            end = append(data);
+        } catch (final IOException e) {
+            LOGGER.log(Level.SEVERE,
+                    "Cannot log audit operation; writing it directly.", e);
+            _target.writeBatch(Collections.singletonList(operation));
+            return;
+        }
+        if (_syncAppends) {
+            awaitSync(end);
+        }
+    }
+
+    /**
+     * Copy a record into the current segment, moving to a new segment if it
+     * does not fit.
+     *
+     * @return the position just after the record.
+     */
+    private long append(final byte[] data) throws IOException {
+        if (HEADER_SIZE + data.length > _segmentSize) {
+            throw new IOException("Operation of " + data.length
+                    + " bytes does not fit in a segment.");
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+
+        _lock.lock();
+        try {
+            if (!_running) {
+                throw new IOException("Log is closed.");
+            }
+            long segment = segmentOf(_writePosition);
+            int offset = offsetOf(_writePosition);
+            if (offset + HEADER_SIZE + data.length > _segmentSize) {
+                if (offset + 4 <= _segmentSize) {
+                    _writeBuffer.putInt(offset, END_OF_SEGMENT);
+                }
+                // the old segment must be complete on disk before the new
+                // one is used
+                _writeBuffer.force();
+                ++segment;
+                offset = 0;
+                openWriteSegment(segment);
+            }
+
+            final ByteBuffer buffer = _writeBuffer.duplicate();
+            buffer.position(offset + 4);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(data);
+            _writeBuffer.putInt(offset, data.length);
+
+            _writePosition = position(segment, offset + HEADER_SIZE
+                    + data.length);
+            _appendedCount.incrementAndGet();
+            _appended.signal();
+            return _writePosition;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void awaitSync(final long position) {
+        _lock.lock();
+        try {
+            while (_syncedPosition < position) {
+                _synced.await();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            final long position;
+            final MappedByteBuffer buffer;
+            _lock.lock();
+            try {
+                while (_running && _writePosition == _syncedPosition) {
+                    _appended.await(_replayInterval, TimeUnit.MILLISECONDS);
+                }
+                if (_writePosition == _syncedPosition) {
+                    return;
+                }
+            } catch (final InterruptedException e) {
+                LOGGER.log(Level.FINE, "Audit log syncer interrupted.", e);
+            } finally {
+                _lock.unlock();
+            }
+
+            if (_groupCommitDelay > 0L && _running) {
+                try {
+                    Thread.sleep(_groupCommitDelay);
+                } catch (final InterruptedException e) {
+                    LOGGER.log(Level.FINE, "Audit log syncer interrupted.", e);
+                }
+            }
+
+            _lock.lock();
+            try {
+                position = _writePosition;
+                buffer = _writeBuffer;
+            } finally {
+                _lock.unlock();
+            }
+
+            // appends carry on while the segment is forced
+            buffer.force();
+            _syncCount.incrementAndGet();
+
+            _lock.lock();
+            try {
+                if (position > _syncedPosition) {
+                    _syncedPosition = position;
+                }
+                _synced.signalAll();
+            } finally {
+                _lock.unlock();
+            }
+        }
+    }
+
+    private void replayLoop() {
+        final List<AuditOperation> batch = new ArrayList<AuditOperation>(
+                _batchSize);
+        final long[] ends = new long[_batchSize];
+        boolean retry = false;
+        int attempts = 0;
+        while (true) {
+            final long synced = getSyncedPosition();
+            long next = _replayPosition;
+            try {
+                next = read(batch, ends, next, synced);
+            } catch (final IOException e) {
+                LOGGER.log(Level.SEVERE, "Cannot read audit log at "
+                        + describe(next) + "; will retry.", e);
+                batch.clear();
+                if (!pause()) {
+                    return;
+                }
+                continue;
+            }
+
+            if (batch.isEmpty()) {
+                if (!_running && _replayPosition >= getSyncedPosition()) {
+                    return;
+                }
+                awaitSynced(synced);
+                continue;
+            }
+
+            try {
+                ship(batch, retry);
+            } catch (final RuntimeException e) {
+                _failedCount.addAndGet(batch.size());
+                retry = true;
+                if (isTransient(e)) {
+                    attempts = 0;
+                } else {
+                    ++attempts;
+                }
+                if (attempts < _maxAttempts) {
+                    LOGGER.log(Level.SEVERE, "Cannot ship batch of "
+                            + batch.size() + " audit operations; will retry.",
+                            e);
+                } else {
+                    LOGGER.log(Level.SEVERE, "Cannot ship batch of "
+                            + batch.size() + " audit operations after "
+                            + attempts + " attempts; shipping them one by one.",
+                            e);
+                    attempts = 0;
+                    if (isolate(batch, ends)) {
+                        batch.clear();
+                        continue;
+                    }
+                }
+                batch.clear();
+                if (!pause()) {
+                    return;
+                }
+                continue;
+            }
+
+            retry = false;
+            attempts = 0;
+            _replayedCount.addAndGet(batch.size());
+            batch.clear();
+            checkpoint(next);
+        }
+    }
+
+    private void ship(final List<AuditOperation> batch, final boolean retry) {
+        if ((retry || _replayPosition < _recoveredPosition)
+                && _target instanceof AuditReplayWriter) {
+            ((AuditReplayWriter) _target).replayBatch(batch);
+        } else {
+            _target.writeBatch(batch);
+        }
+    }
+
+    /**
+     * Ship the operations of a failing batch one at a time, moving those that
+     * fail with other than a transient error to the dead letter file, and
+     * checkpoint past each.
+     *
+     * @return <tt>false</tt> if a transient error stopped it.
+     */
+    private boolean isolate(final List<AuditOperation> batch,
+            final long[] ends) {
+        for (int i = 0; i < batch.size(); ++i) {
+            final AuditOperation operation = batch.get(i);
+            try {
+                ship(Collections.singletonList(operation), true);
+                _replayedCount.incrementAndGet();
+            } catch (final RuntimeException e) {
+                if (isTransient(e)) {
+                    LOGGER.log(Level.SEVERE,
+                            "Cannot ship audit operation; will retry.", e);
+                    return false;
+                }
+                deadLetter(AuditOperationCodec.encode(operation),
+                        "Cannot ship audit operation " + operation.getType()
+                                + " of " + operation.getRecord(), e);
+            }
+            checkpoint(ends[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Decide whether a failure of the target is worth retrying as is: a
+     * connection, lock or resource error, identified by SQLState class or
+     * exception type anywhere in the cause chain. Anything else, such as a
+     * constraint violation or a mapping error, is taken to fail the same way
+     * every time.
+     *
+     * @param e
+     *            the failure.
+     * @return <tt>true</tt> if the failure is transient.
+     */
+    protected boolean isTransient(final RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                final String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.length() >= 2
+                        && TRANSIENT_SQL_STATES.contains(state.substring(0, 2))) {
+                    return true;
+                }
+            }
+            for (Class<?> type = cause.getClass(); type != null; type = type
+                    .getSuperclass()) {
+                if (TRANSIENT_EXCEPTIONS.contains(type.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sleep for the replay interval.
+     *
+     * @return <tt>false</tt> if the replayer should stop.
+     */
+    private boolean pause() {
+        if (!_running) {
+            return false;
+        }
+        try {
+            Thread.sleep(_replayInterval);
+            return true;
+        } catch (final InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read up to a batch of operations from the passed position, stopping at
+     * the limit, and note the position after each in <tt>ends</tt>. A record
+     * that can not be read ends the batch; if it is the first, it is moved to
+     * the dead letter file and skipped.
+     *
+     * @return the position after the last operation read.
+     */
+    private long read(final List<AuditOperation> batch, final long[] ends,
+            final long from, final long limit) throws IOException {
+        long position = from;
+        while (batch.size() < _batchSize && position < limit) {
+            final long segment = segmentOf(position);
+            final int offset = offsetOf(position);
+            final MappedByteBuffer buffer = getReplayBuffer(segment);
+            final int length = offset + 4 <= _segmentSize ? buffer
+                    .getInt(offset) : END_OF_SEGMENT;
+            if (length == END_OF_SEGMENT) {
+                position = position(segment + 1, 0);
+                continue;
+            }
+            final byte[] data = readRecord(buffer, offset, length);
+            AuditOperation operation = null;
+            Exception problem = null;
+            if (data == null) {
+                problem = new IOException("Corrupt record of length " + length);
+            } else {
+                try {
+                    operation = AuditOperationCodec.decode(ByteBuffer
+                            .wrap(data));
+                } catch (final RuntimeException e) {
+                    problem = e;
+                }
+            }
+            if (operation == null) {
+                if (!batch.isEmpty()) {
+                    break;
+                }
+                position = skip(buffer, position, length, limit, problem);
+                continue;
+            }
+            batch.add(operation);
+            position = position(segment, offset + HEADER_SIZE + length);
+            ends[batch.size() - 1] = position;
+        }
+        return position;
+    }
+
+    /**
+     * Move an unreadable record to the dead letter file and checkpoint past
+     * it. When its length can not be trusted the rest of its segment, up to
+     * the limit, goes with it.
+     *
+     * @return the position after what was skipped.
+     */
+    private long skip(final MappedByteBuffer buffer, final long position,
+            final int length, final long limit, final Exception problem) {
+        final long segment = segmentOf(position);
+        final int offset = offsetOf(position);
+        final int end;
+        if (length > 0 && offset + HEADER_SIZE + length <= _segmentSize) {
+            end = offset + HEADER_SIZE + length;
+        } else if (segmentOf(limit) > segment) {
+            end = _segmentSize;
+        } else {
+            end = offsetOf(limit);
+        }
+        final byte[] data = new byte[end - offset];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(data);
+        deadLetter(data, "Cannot read audit log at " + describe(position),
+                problem);
+
+        final long next = end < _segmentSize ? position(segment, end)
+                : position(segment + 1, 0);
+        checkpoint(Math.min(next, limit));
+        return Math.min(next, limit);
+    }
+
+    /**
+     * Append data to the dead letter file and force it to disk. Losing it
+     * only loses what would otherwise be lost anyway.
+     */
+    private void deadLetter(final byte[] data, final String reason,
+            final Throwable cause) {
+        final File file = new File(_directory, DEAD_LETTER_NAME);
+        LOGGER.log(Level.SEVERE, reason + "; moved to " + file + ".", cause);
+        _deadLetterCount.incrementAndGet();
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        try {
+            if (_deadLetterFile == null) {
+                _deadLetterFile = new RandomAccessFile(file, "rw");
+            }
+            _deadLetterFile.seek(_deadLetterFile.length());
+            _deadLetterFile.writeInt(data.length);
+            _deadLetterFile.writeInt((int) crc.getValue());
+            _deadLetterFile.write(data);
+            _deadLetterFile.getChannel().force(false);
+        } catch (final IOException e) {
+            LOGGER.log(Level.SEVERE, "Cannot write audit dead letter file "
+                    + file + "; the record is lost.", e);
+        }
+    }
+
+    /**
+     * Record the replay position durably and delete segments behind it.
+     */
+    private void checkpoint(final long position) {
+        final long previous = _replayPosition;
+        _replayPosition = position;
+        try {
+            _checkpointFile.seek(0L);
+            _checkpointFile.writeLong(position);
+            _checkpointFile.writeLong(position ^ CHECKPOINT_MAGIC);
+            _checkpointFile.getChannel().force(false);
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot write audit log checkpoint.", e);
+            return;
+        }
+
+        for (long segment = segmentOf(previous); segment < segmentOf(position); ++segment) {
+            if (segment == _replayedSegment) {
+                close(_replayChannel);
+                _replayChannel = null;
+                _replayBuffer = null;
+                _replayedSegment = -1L;
+            }
+            final File file = segmentFile(segment);
+            if (file.exists() && !file.delete()) {
+                LOGGER.log(Level.WARNING, "Cannot delete audit log segment {0}",
+                        file);
+            }
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (_checkpointFile.length() < 16L) {
+            return position(0L, 0);
+        }
+        _checkpointFile.seek(0L);
+        final long position = _checkpointFile.readLong();
+        if ((position ^ CHECKPOINT_MAGIC) != _checkpointFile.readLong()) {
+            LOGGER.log(Level.WARNING,
+                    "Ignoring damaged audit log checkpoint in {0}.",
+                    _directory);
+            return position(0L, 0);
+        }
+        return position;
+    }
+
+    /**
+     * Find where valid records stop in the passed segment.
+     *
+     * @return the offset of the end, or -1 if the segment was closed.
+     */
+    private int findEnd(final MappedByteBuffer buffer, final int from) {
+        int offset = from;
+        while (offset + HEADER_SIZE <= _segmentSize) {
+            final int length = buffer.getInt(offset);
+            if (length == END_OF_SEGMENT) {
+                return -1;
+            }
+            if (length <= 0 || readRecord(buffer, offset, length) == null) {
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Return the data of the record at the offset, or <tt>null</tt> if it is
+     * incomplete or fails its check.
+     */
+    private byte[] readRecord(final MappedByteBuffer buffer,
+            final int offset, final int length) {
+        if (length <= 0 || offset + HEADER_SIZE + length > _segmentSize) {
+            return null;
+        }
+        final int expected = buffer.getInt(offset + 4);
+        final byte[] data = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset + HEADER_SIZE);
+        source.get(data);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue() == expected ? data : null;
+    }
+
+    private static void clear(final MappedByteBuffer buffer, final int from) {
+        final byte[] zeros = new byte[8192];
+        final ByteBuffer target = buffer.duplicate();
+        target.position(from);
+        while (target.hasRemaining()) {
+            target.put(zeros, 0, Math.min(zeros.length, target.remaining()));
+        }
+    }
+
+    private void openWriteSegment(final long segment) throws IOException {
+        close(_writeChannel);
+        final RandomAccessFile file = new RandomAccessFile(
+                segmentFile(segment), "rw");
+        file.setLength(_segmentSize);
+        _writeChannel = file.getChannel();
+        _writeBuffer = _writeChannel.map(FileChannel.MapMode.READ_WRITE, 0L,
+                _segmentSize);
+    }
+
+    private MappedByteBuffer getReplayBuffer(final long segment)
+            throws IOException {
+        if (segment != _replayedSegment) {
+            close(_replayChannel);
+            final RandomAccessFile file = new RandomAccessFile(
+                    segmentFile(segment), "r");
+            _replayChannel = file.getChannel();
+            _replayBuffer = _replayChannel.map(FileChannel.MapMode.READ_ONLY,
+                    0L, _segmentSize);
+            _replayedSegment = segment;
+        }
+        return _replayBuffer;
+    }
+
+    private long[] listSegments() {
+        final File[] files = _directory.listFiles(new FileFilter() {
+            public boolean accept(final File file) {
+                final String name = file.getName();
+                return name.startsWith(SEGMENT_PREFIX)
+                        && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        final long[] segments = new long[files == null ? 0 : files.length];
+        for (int i = 0; i < segments.length; ++i) {
+            final String name = files[i].getName();
+            segments[i] = Long.parseLong(name.substring(SEGMENT_PREFIX
+                    .length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(final long segment) {
+        return new File(_directory, SEGMENT_PREFIX
+                + String.format("%010d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private long getSyncedPosition() {
+        _lock.lock();
+        try {
+            return _syncedPosition;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void awaitSynced(final long position) {
+        _lock.lock();
+        try {
+            if (_running && _syncedPosition <= position) {
+                _synced.await(_replayInterval, TimeUnit.MILLISECONDS);
+            }
+        } catch (final InterruptedException e) {
+            LOGGER.log(Level.FINE, "Audit log replayer interrupted.", e);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private void signal(final Condition condition) {
+        _lock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    private static void close(final FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOGGER.log(Level.FINE, "Cannot close audit log segment.", e);
+            }
+        }
+    }
+
+    /* package */static long position(final long segment, final int offset) {
+        return segment << 32 | offset;
+    }
+
+    /* package */static long segmentOf(final long position) {
+        return position >>> 32;
+    }
+
+    /* package */static int offsetOf(final long position) {
+        return (int) position;
+    }
+
+    private static String describe(final long position) {
+        return segmentOf(position) + ":" + offsetOf(position);
+    }
+
+    /**
+     * Returns the number of operations appended since start.
+     *
+     * @return the appended count.
+     */
+    public long getAppendedCount() {
+        return _appendedCount.get();
+    }
+
+    /**
+     * Returns the number of times the log was forced to disk since start.
+     * Lower than the appended count when appends share a force.
+     *
+     * @return the sync count.
+     */
+    public long getSyncCount() {
+        return _syncCount.get();
+    }
+
+    /**
+     * Returns the number of operations shipped to the target since start.
+     *
+     * @return the replayed count.
+     */
+    public long getReplayedCount() {
+        return _replayedCount.get();
+    }
+
+    /**
+     * Returns the number of operations in batches the target failed to
+     * write. Each failed batch is retried.
+     *
+     * @return the failed count.
+     */
+    public long getFailedCount() {
+        return _failedCount.get();
+    }
+
+    /**
+     * Returns the number of operations, and unreadable records, moved to the
+     * dead letter file since start.
+     *
+     * @return the dead letter count.
+     */
+    public long getDeadLetterCount() {
+        return _deadLetterCount.get();
+    }
+
+    /**
+     * Wait until everything appended so far has been shipped.
+     *
+     * @param timeoutMillis
+     *            the maximum time to wait.
+     * @return true if everything was shipped before the timeout.
+     * @throws InterruptedException
+     *             when interrupted while waiting.
+     */
+    public boolean flush(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        final long position;
+        _lock.lock();
+        try {
+            position = _writePosition;
+        } finally {
+            _lock.unlock();
+        }
+        while (_replayPosition < position) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10L);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the required writer that logged operations are shipped to. Give it
+     * an {@link AuditReplayWriter}, such as the transactional proxy of the
+     * {@link AuditServiceImpl}, so replays after a restart are idempotent.
+     *
+     * @param target
+     *            the batch writer.
+     */
+    public void setTarget(final AuditBatchWriter target) {
+        _target = target;
+    }
+
+    /**
+     * Sets the required directory holding the log. It should be on a local
+     * disk and used by one log only.
+     *
+     * @param directory
+     *            the log directory.
+     */
+    public void setDirectory(final File directory) {
+        _directory = directory;
+    }
+
+    /**
+     * Sets the size in bytes of each segment file. Default 64MB. Must not
+     * change while a log is left in the directory.
+     *
+     * @param segmentSize
+     *            the segment size.
+     */
+    public void setSegmentSize(final int segmentSize) {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException(
+                    "Segment size must be at least 1024 bytes.");
+        }
+        _segmentSize = segmentSize;
+    }
+
+    /**
+     * Sets whether callers wait until their operation is on disk. Default
+     * <tt>true</tt>; with <tt>false</tt> a crash can lose the operations of
+     * the last few milliseconds.
+     *
+     * @param syncAppends
+     *            <tt>true</tt> to wait for durability.
+     */
+    public void setSyncAppends(final boolean syncAppends) {
+        _syncAppends = syncAppends;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the syncer waits after the first append
+     * before forcing, to gather more appends into one force. Default 0,
+     * which still groups every append made while the previous force ran.
+     *
+     * @param groupCommitDelay
+     *            the delay in milliseconds.
+     */
+    public void setGroupCommitDelay(final long groupCommitDelay) {
+        if (groupCommitDelay < 0L) {
+            throw new IllegalArgumentException(
+                    "Group commit delay must not be negative.");
+        }
+        _groupCommitDelay = groupCommitDelay;
+    }
+
+    /**
+     * Sets the maximum number of operations shipped to the target at once.
+     * Default 100.
+     *
+     * @param batchSize
+     *            the batch size.
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the replayer waits before retrying a
+     * failed batch or checking for new work. Default 1000.
+     *
+     * @param replayInterval
+     *            the interval in milliseconds.
+     */
+    public void setReplayInterval(final long replayInterval) {
+        if (replayInterval < 1L) {
+            throw new IllegalArgumentException(
+                    "Replay interval must be positive.");
+        }
+        _replayInterval = replayInterval;
+    }
+
+    /**
+     * Sets how long, in milliseconds, {@link #shutdown()} waits for the log to
+     * be shipped. Default 30000.
+     *
+     * @param shutdownTimeout
+     *            the timeout in milliseconds.
+     */
+    public void setShutdownTimeout(final long shutdownTimeout) {
+        _shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Sets how many times a batch that fails with other than a transient
+     * error is tried before its operations are shipped one at a time. Default
+     * 3.
+     *
+     * @param maxAttempts
+     *            the number of attempts.
+     */
+    public void setMaxAttempts(final int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException(
+                    "Max attempts must be positive.");
+        }
+        _maxAttempts = maxAttempts;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link AuditSpillStore} that keeps overflow operations in a local file
+ * in the binary format of {@link org.opensaas.jaudit.AuditRecordCodec}.
+ * Each operation is written as a length prefixed record; the file is
+ * truncated whenever all records have been read back.
+ *
+ * Records are read back as value objects. Operations on records the codec
+ * does not know fail with an {@link IOException}. A record that can not be
+ * decoded is skipped once the records before it have been returned; one
+ * whose length is damaged takes the rest of the file with it, since the next
+ * record can no longer be found.
+ */
+public class FileAuditSpillStore implements AuditSpillStore {
+
+    private final RandomAccessFile _file;
+
+    private long _readPosition = 0L;
+
+    private long _writePosition = 0L;
+
+    /**
+     * Required constructor. Any existing content in the file is discarded.
+     *
+     * @param file
+     *            the file to spill to.
+     * @throws IOException
+     *             when the file can not be opened.
+     */
+    public FileAuditSpillStore(final File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File is required.");
+        }
+        _file = new RandomAccessFile(file, "rw");
+        _file.setLength(0L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void append(final AuditOperation operation)
+            throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = AuditOperationCodec.encode(operation);
+        } catch (final IllegalArgumentException e) {
+            final IOException ioe = new IOException(
+                    "Cannot encode operation.");
+            ioe.initCause(e);
+            throw ioe;
+        }
+
+        _file.seek(_writePosition);
+        _file.writeInt(bytes.length);
+        _file.write(bytes);
+        _writePosition = _file.getFilePointer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized List<AuditOperation> remove(final int max)
+            throws IOException {
+        final List<AuditOperation> operations = new ArrayList<AuditOperation>();
+        while (operations.size() < max && _readPosition < _writePosition) {
+            _file.seek(_readPosition);
+            final int length = _file.readInt();
+            AuditOperation operation = null;
+            RuntimeException problem = null;
+            if (length >= 0 && length <= _writePosition - _readPosition - 4L) {
+                final byte[] buffer = new byte[length];
+                _file.readFully(buffer);
+                try {
+                    operation = AuditOperationCodec.decode(ByteBuffer
+                            .wrap(buffer));
+                } catch (final RuntimeException e) {
+                    problem = e;
+                }
+            }
+
+            if (operation == null) {
+                if (!operations.isEmpty()) {
+                    // hand out what was read before reporting the bad record
+                    break;
+                }
+                final IOException ioe;
+                if (problem == null) {
+                    ioe = new IOException("Bad length " + length
+                            + " of spilled operation at " + _readPosition
+                            + "; discarding the rest of the file.");
+                    _readPosition = _writePosition;
+                } else {
+                    ioe = new IOException(
+                            "Cannot read spilled operation at "
+                                    + _readPosition + "; skipping it.");
+                    ioe.initCause(problem);
+                    _readPosition += 4L + length;
+                }
+                truncateIfRead();
+                throw ioe;
+            }
+            operations.add(operation);
+            _readPosition += 4L + length;
+        }
+
+        truncateIfRead();
+        return operations;
+    }
+
+    private void truncateIfRead() throws IOException {
+        if (_readPosition >= _writePosition) {
+            _readPosition = 0L;
+            _writePosition = 0L;
+            _file.setLength(0L);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized boolean isEmpty() {
+        return _readPosition >= _writePosition;
+    }
+
+    /**
+     * Close the underlying file.
+     *
+     * @throws IOException
+     *             when the file can not be closed.
+     */
+    public synchronized void close() throws IOException {
+        _file.close();
+    }
+}
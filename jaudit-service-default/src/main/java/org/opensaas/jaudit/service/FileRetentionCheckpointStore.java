@@ -0,0 +1,131 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Properties;
+
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * A {@link RetentionCheckpointStore} that keeps the checkpoints of all
+ * policies in a properties file, one <tt>name=ts,id</tt> entry per policy
+ * with the time stamp in milliseconds. The file is rewritten on every change,
+ * through a temporary file that is then renamed, so a crash leaves either the
+ * old or the new checkpoints.
+ */
+public class FileRetentionCheckpointStore implements RetentionCheckpointStore {
+
+    private final File _file;
+
+    private final File _tmpFile;
+
+    private Properties _checkpoints;
+
+    /**
+     * Required constructor.
+     *
+     * @param file
+     *            the file to keep the checkpoints in; created on the first
+     *            save.
+     */
+    public FileRetentionCheckpointStore(final File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("File is required.");
+        }
+        _file = file;
+        _tmpFile = new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized PageKey load(final String name) throws IOException {
+        final String value = checkpoints().getProperty(name);
+        if (value == null) {
+            return null;
+        }
+        final int comma = value.indexOf(',');
+        if (comma < 0) {
+            throw new IOException("Invalid checkpoint for " + name + ": "
+                    + value);
+        }
+        try {
+            return new PageKey(new Date(Long.parseLong(value.substring(0,
+                    comma))), value.substring(comma + 1));
+        } catch (final NumberFormatException e) {
+            final IOException ioe = new IOException("Invalid checkpoint for "
+                    + name + ": " + value);
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void save(final String name, final PageKey key)
+            throws IOException {
+        if (key == null) {
+            throw new IllegalArgumentException("Key is required.");
+        }
+        checkpoints().setProperty(name,
+                key.getTs().getTime() + "," + key.getId());
+        write();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear(final String name) throws IOException {
+        if (checkpoints().remove(name) != null) {
+            write();
+        }
+    }
+
+    private Properties checkpoints() throws IOException {
+        if (_checkpoints == null) {
+            final Properties checkpoints = new Properties();
+            if (_file.exists()) {
+                final InputStream in = new FileInputStream(_file);
+                try {
+                    checkpoints.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+            _checkpoints = checkpoints;
+        }
+        return _checkpoints;
+    }
+
+    private void write() throws IOException {
+        final FileOutputStream out = new FileOutputStream(_tmpFile);
+        try {
+            _checkpoints.store(out, "jaudit retention checkpoints");
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!_tmpFile.renameTo(_file)) {
+            if (!_file.delete() || !_tmpFile.renameTo(_file)) {
+                throw new IOException("Cannot replace " + _file + ".");
+            }
+        }
+    }
+}
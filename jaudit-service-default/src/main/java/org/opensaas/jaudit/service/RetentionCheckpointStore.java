@@ -0,0 +1,58 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.IOException;
+
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * Remembers how far {@link AuditRetentionEngine} got with each policy so that
+ * an interrupted purge resumes where it stopped.
+ */
+public interface RetentionCheckpointStore {
+
+    /**
+     * Returns the checkpoint of a policy.
+     *
+     * @param name
+     *            the name of the policy.
+     * @return the key of the last purged event, or null.
+     * @throws IOException
+     *             when the checkpoint can not be read.
+     */
+    PageKey load(String name) throws IOException;
+
+    /**
+     * Save the checkpoint of a policy.
+     *
+     * @param name
+     *            the name of the policy.
+     * @param key
+     *            the key of the last purged event.
+     * @throws IOException
+     *             when the checkpoint can not be written.
+     */
+    void save(String name, PageKey key) throws IOException;
+
+    /**
+     * Remove the checkpoint of a policy once its purge is complete.
+     *
+     * @param name
+     *            the name of the policy.
+     * @throws IOException
+     *             when the checkpoint can not be written.
+     */
+    void clear(String name) throws IOException;
+
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import org.opensaas.jaudit.AuditEventMutable;
+import org.opensaas.jaudit.dao.PurgeableAuditEventDao;
+
+/**
+ * How long the events of one type are kept, as used by
+ * {@link AuditRetentionEngine}. Events older than the retention period are
+ * deleted, or archived through the engine's {@link AuditArchiver} and then
+ * deleted when {@link #isArchive()} is set.
+ *
+ * The period is the sum of its years, months and days, counted back from the
+ * current time in the default time zone; for example 7 years for life cycle
+ * events or 13 months for consumption events.
+ */
+public class RetentionPolicy {
+
+    private String _name;
+
+    private PurgeableAuditEventDao<? extends AuditEventMutable> _dao;
+
+    private int _years = 0;
+
+    private int _months = 0;
+
+    private int _days = 0;
+
+    private boolean _archive = false;
+
+    /**
+     * Default constructor.
+     */
+    public RetentionPolicy() {
+        super();
+    }
+
+    /**
+     * Returns the time stamp before which events have expired.
+     *
+     * @param now
+     *            the current time.
+     * @return the cutoff.
+     */
+    public Date getCutoff(final Date now) {
+        if (now == null) {
+            throw new IllegalArgumentException("Current time is required.");
+        }
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(now);
+        calendar.add(Calendar.YEAR, -_years);
+        calendar.add(Calendar.MONTH, -_months);
+        calendar.add(Calendar.DAY_OF_MONTH, -_days);
+        return calendar.getTime();
+    }
+
+    /**
+     * Check that the policy is complete.
+     */
+    /* package */void validate() {
+        if (_name == null) {
+            throw new IllegalStateException("Policy name is required.");
+        }
+        if (_dao == null) {
+            throw new IllegalStateException("Dao is required for policy "
+                    + _name + ".");
+        }
+        if (_years == 0 && _months == 0 && _days == 0) {
+            throw new IllegalStateException(
+                    "Retention period is required for policy " + _name + ".");
+        }
+    }
+
+    /**
+     * Returns the name of the policy.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * Sets the required name of the policy, unique among the policies of an
+     * engine. The purge checkpoint is kept under this name.
+     *
+     * @param name
+     *            the name.
+     */
+    public void setName(final String name) {
+        _name = name;
+    }
+
+    /**
+     * Returns the dao of the events the policy applies to.
+     *
+     * @return the dao.
+     */
+    public PurgeableAuditEventDao<? extends AuditEventMutable> getDao() {
+        return _dao;
+    }
+
+    /**
+     * Sets the required dao of the events the policy applies to.
+     *
+     * @param dao
+     *            the dao.
+     */
+    public void setDao(
+            final PurgeableAuditEventDao<? extends AuditEventMutable> dao) {
+        _dao = dao;
+    }
+
+    /**
+     * Returns the number of years events are kept.
+     *
+     * @return the years.
+     */
+    public int getYears() {
+        return _years;
+    }
+
+    /**
+     * Sets the number of years events are kept. Default 0.
+     *
+     * @param years
+     *            the years.
+     */
+    public void setYears(final int years) {
+        if (years < 0) {
+            throw new IllegalArgumentException("Years must not be negative.");
+        }
+        _years = years;
+    }
+
+    /**
+     * Returns the number of months events are kept.
+     *
+     * @return the months.
+     */
+    public int getMonths() {
+        return _months;
+    }
+
+    /**
+     * Sets the number of months events are kept. Default 0.
+     *
+     * @param months
+     *            the months.
+     */
+    public void setMonths(final int months) {
+        if (months < 0) {
+            throw new IllegalArgumentException("Months must not be negative.");
+        }
+        _months = months;
+    }
+
+    /**
+     * Returns the number of days events are kept.
+     *
+     * @return the days.
+     */
+    public int getDays() {
+        return _days;
+    }
+
+    /**
+     * Sets the number of days events are kept. Default 0.
+     *
+     * @param days
+     *            the days.
+     */
+    public void setDays(final int days) {
+        if (days < 0) {
+            throw new IllegalArgumentException("Days must not be negative.");
+        }
+        _days = days;
+    }
+
+    /**
+     * Returns whether expired events are archived before they are deleted.
+     *
+     * @return true to archive.
+     */
+    public boolean isArchive() {
+        return _archive;
+    }
+
+    /**
+     * Sets whether expired events are archived before they are deleted.
+     * Default false.
+     *
+     * @param archive
+     *            true to archive.
+     */
+    public void setArchive(final boolean archive) {
+        _archive = archive;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.security.SecureRandom;
+
+/**
+ * An {@link ObjectFactory} returning time ordered, 26 character identifiers in
+ * the ULID format suitable to be used by
+ * {@link AuditServiceImpl#setGuidFactory(ObjectFactory)}.
+ * 
+ * Each identifier is a 48 bit millisecond timestamp followed by 80 random
+ * bits, written in Crockford base 32 so that string order is time order. New
+ * rows therefore land at the end of the <tt>id</tt> indexes instead of at
+ * random positions.
+ * 
+ * Every thread keeps its own state: a xorshift128+ generator seeded once
+ * from a shared {@link SecureRandom}, and the last timestamp and random part
+ * it handed out. The random part is drawn from the generator once per
+ * millisecond and thread, which costs a few shifts and adds; the secure
+ * generator is only used when a thread makes its first identifier. Within
+ * the same millisecond a thread increments the random part, so the
+ * identifiers of one thread are strictly increasing. Identifiers of
+ * different threads created within the same millisecond are unordered among
+ * themselves but collide only if 80 drawn bits do: the generator holds 128
+ * bits of securely seeded state, where a {@link java.util.Random} would hold
+ * 48 and bound the distinct random parts well below 80 bits.
+ */
+public class TimeOrderedStringFactory implements ObjectFactory<String> {
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ"
+            .toCharArray();
+
+    private static final int LENGTH = 26;
+
+    private static final int TIMESTAMP_LENGTH = 10;
+
+    private static final int HIGH_MASK = 0xFFFF;
+
+    private static final SecureRandom SEEDS = new SecureRandom();
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            synchronized (SEEDS) {
+                return new State(SEEDS.nextLong(), SEEDS.nextLong());
+            }
+        }
+    };
+
+    /**
+     * The last value handed out by one thread.
+     */
+    private static final class State {
+
+        /* the xorshift128+ state, never all zero */
+        private long _s0;
+
+        private long _s1;
+
+        private long _timestamp = -1L;
+
+        /* the top 16 of the 80 random bits */
+        private int _high;
+
+        /* the low 64 of the 80 random bits */
+        private long _low;
+
+        State(final long seed0, final long seed1) {
+            _s0 = seed0;
+            _s1 = seed0 == 0L && seed1 == 0L ? 1L : seed1;
+        }
+
+        String next(final long now) {
+            if (now > _timestamp) {
+                _timestamp = now;
+                _high = (int) (nextLong() >>> 48);
+                _low = nextLong();
+            } else if (++_low == 0L) {
+                // carry into the high bits; on overflow borrow the next
+                // millisecond rather than repeat or go backwards
+                _high = (_high + 1) & HIGH_MASK;
+                if (_high == 0) {
+                    ++_timestamp;
+                }
+            }
+            return encode(_timestamp, _high, _low);
+        }
+
+        private long nextLong() {
+            long s1 = _s0;
+            final long s0 = _s1;
+            final long result = s0 + s1;
+            _s0 = s0;
+            s1 ^= s1 << 23;
+            _s1 = s1 ^ s0 ^ (s1 >>> 18) ^ (s0 >>> 5);
+            return result;
+        }
+    }
+
+    /**
+     * Default required constructor.
+     */
+    public TimeOrderedStringFactory() {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getObject() {
+        return STATE.get().next(System.currentTimeMillis());
+    }
+
+    /**
+     * Return the millisecond timestamp encoded in an identifier created by
+     * this factory.
+     * 
+     * @param id
+     *            an identifier created by this factory.
+     * @return the time the identifier was created, in milliseconds since the
+     *         epoch.
+     */
+    public static long getTimestamp(final String id) {
+        if (id == null || id.length() != LENGTH) {
+            throw new IllegalArgumentException("Not a time ordered id: " + id);
+        }
+        long timestamp = 0L;
+        for (int i = 0; i < TIMESTAMP_LENGTH; ++i) {
+            final int value = decode(id.charAt(i));
+            if (value < 0) {
+                throw new IllegalArgumentException("Not a time ordered id: "
+                        + id);
+            }
+            timestamp = (timestamp << 5) | value;
+        }
+        return timestamp;
+    }
+
+    /* package */static String encode(final long timestamp, final int high,
+            final long low) {
+        final char[] chars = new char[LENGTH];
+
+        long ts = timestamp;
+        for (int i = TIMESTAMP_LENGTH - 1; i >= 0; --i) {
+            chars[i] = ALPHABET[(int) (ts & 31L)];
+            ts >>>= 5;
+        }
+
+        int h = high;
+        long l = low;
+        for (int i = LENGTH - 1; i >= TIMESTAMP_LENGTH; --i) {
+            chars[i] = ALPHABET[(int) (l & 31L)];
+            l = (l >>> 5) | ((long) (h & 31) << 59);
+            h >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    private static int decode(final char c) {
+        for (int i = 0; i < ALPHABET.length; ++i) {
+            if (ALPHABET[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,425 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordMutable;
+
+/**
+ * Test class for {@link AsyncAuditWriter}.
+ */
+public class AsyncAuditWriterTest {
+
+    /**
+     * Records every operation written and can hold the writer thread inside
+     * the first batch.
+     */
+    private static class RecordingWriter implements AuditBatchWriter {
+
+        final List<AuditOperation> written = Collections
+                .synchronizedList(new ArrayList<AuditOperation>());
+
+        final List<Integer> batchSizes = Collections
+                .synchronizedList(new ArrayList<Integer>());
+
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        final CountDownLatch release;
+
+        RecordingWriter(final boolean hold) {
+            release = new CountDownLatch(hold ? 1 : 0);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeBatch(final List<AuditOperation> operations) {
+            entered.countDown();
+            try {
+                release.await(10L, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batchSizes.add(operations.size());
+            written.addAll(operations);
+        }
+    }
+
+    private AsyncAuditWriter _writer;
+
+    /**
+     * Make sure no writer thread outlives its test.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @After
+    public void stopWriter() throws Exception {
+        if (_writer != null) {
+            _writer.shutdown();
+        }
+    }
+
+    /**
+     * Operations are written in submission order and in bounded batches.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testOrderAndBatching() throws Exception {
+        final RecordingWriter target = new RecordingWriter(true);
+        _writer = newWriter(target, 100, 10, AsyncAuditWriter.OverflowPolicy.BLOCK);
+
+        final List<AuditOperation> submitted = new ArrayList<AuditOperation>();
+        for (int i = 0; i < 50; ++i) {
+            final AuditOperation op = newOperation(i);
+            submitted.add(op);
+            _writer.submit(op);
+        }
+        target.release.countDown();
+
+        Assert.assertTrue(_writer.flush(10000L));
+        Assert.assertEquals(submitted, target.written);
+        for (final Integer size : target.batchSizes) {
+            Assert.assertTrue(size <= 10);
+        }
+        Assert.assertEquals(0L, _writer.getPendingCount());
+    }
+
+    /**
+     * The drop policy discards and counts operations when the queue is full.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testDropPolicy() throws Exception {
+        final RecordingWriter target = new RecordingWriter(true);
+        _writer = newWriter(target, 1, 1, AsyncAuditWriter.OverflowPolicy.DROP);
+
+        _writer.submit(newOperation(0));
+        Assert.assertTrue(target.entered.await(10L, TimeUnit.SECONDS));
+        _writer.submit(newOperation(1));
+        _writer.submit(newOperation(2));
+        _writer.submit(newOperation(3));
+        target.release.countDown();
+
+        Assert.assertTrue(_writer.flush(10000L));
+        Assert.assertEquals(2L, _writer.getDroppedCount());
+        Assert.assertEquals(2, target.written.size());
+    }
+
+    /**
+     * The spill policy keeps overflow on disk and writes it back in order,
+     * without waiting a flush interval per batch.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testSpillPolicy() throws Exception {
+        final File file = File.createTempFile("jaudit-spill", ".dat");
+        file.deleteOnExit();
+        final FileAuditSpillStore store = new FileAuditSpillStore(file);
+
+        final RecordingWriter target = new RecordingWriter(true);
+        _writer = new AsyncAuditWriter();
+        _writer.setTarget(target);
+        _writer.setQueueCapacity(1);
+        _writer.setBatchSize(1);
+        _writer.setFlushInterval(2000L);
+        _writer.setOverflowPolicy(AsyncAuditWriter.OverflowPolicy.SPILL);
+        _writer.setSpillStore(store);
+        _writer.start();
+
+        final List<String> submitted = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i) {
+            final AuditOperation op = newOperation(i);
+            submitted.add(((SessionRecord) op.getRecord()).getId());
+            _writer.submit(op);
+            if (i == 0) {
+                Assert.assertTrue(target.entered.await(10L, TimeUnit.SECONDS));
+            }
+        }
+        target.release.countDown();
+
+        Assert.assertTrue(_writer.flush(10000L));
+        Assert.assertTrue(_writer.getSpilledCount() > 0L);
+        Assert.assertEquals(0L, _writer.getDroppedCount());
+
+        final List<String> written = new ArrayList<String>();
+        for (final AuditOperation op : target.written) {
+            written.add(((SessionRecord) op.getRecord()).getId());
+        }
+        Assert.assertEquals(submitted, written);
+        Assert.assertTrue(store.isEmpty());
+        store.close();
+    }
+
+    /**
+     * An operation the spill store can not read back is counted as failed and
+     * no longer pending.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testUnreadableSpill() throws Exception {
+        final File file = File.createTempFile("jaudit-spill", ".dat");
+        file.deleteOnExit();
+        final FileAuditSpillStore store = new FileAuditSpillStore(file);
+        final AuditSpillStore lossy = new AuditSpillStore() {
+            private boolean _lost = false;
+
+            /** {@inheritDoc} */
+            public void append(final AuditOperation operation)
+                    throws IOException {
+                store.append(operation);
+            }
+
+            /** {@inheritDoc} */
+            public List<AuditOperation> remove(final int max)
+                    throws IOException {
+                if (!_lost) {
+                    _lost = true;
+                    store.remove(1);
+                    throw new IOException("unreadable");
+                }
+                return store.remove(max);
+            }
+
+            /** {@inheritDoc} */
+            public boolean isEmpty() {
+                return store.isEmpty();
+            }
+        };
+
+        final RecordingWriter target = new RecordingWriter(true);
+        _writer = new AsyncAuditWriter();
+        _writer.setTarget(target);
+        _writer.setQueueCapacity(1);
+        _writer.setBatchSize(1);
+        _writer.setFlushInterval(10L);
+        _writer.setOverflowPolicy(AsyncAuditWriter.OverflowPolicy.SPILL);
+        _writer.setSpillStore(lossy);
+        _writer.start();
+
+        for (int i = 0; i < 5; ++i) {
+            _writer.submit(newOperation(i));
+            if (i == 0) {
+                Assert.assertTrue(target.entered.await(10L, TimeUnit.SECONDS));
+            }
+        }
+        target.release.countDown();
+
+        Assert.assertTrue(_writer.flush(10000L));
+        Assert.assertEquals(1L, _writer.getFailedCount());
+        Assert.assertEquals(4, target.written.size());
+        store.close();
+    }
+
+    /**
+     * Shutting down writes everything still queued.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testShutdownFlushes() throws Exception {
+        final RecordingWriter target = new RecordingWriter(false);
+        _writer = newWriter(target, 1000, 7, AsyncAuditWriter.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 500; ++i) {
+            _writer.submit(newOperation(i));
+        }
+        _writer.shutdown();
+        Assert.assertEquals(500, target.written.size());
+
+        // once stopped, writes happen on the caller's thread
+        _writer.submit(newOperation(500));
+        Assert.assertEquals(501, target.written.size());
+    }
+
+    /**
+     * Operations submitted while the writer shuts down are all written, by
+     * the writer thread or on the caller's thread, never left in the queue.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testShutdownRace() throws Exception {
+        for (final AsyncAuditWriter.OverflowPolicy policy : new AsyncAuditWriter.OverflowPolicy[] {
+                AsyncAuditWriter.OverflowPolicy.BLOCK,
+                AsyncAuditWriter.OverflowPolicy.SPILL }) {
+            final File file = File.createTempFile("jaudit-spill", ".dat");
+            file.deleteOnExit();
+            final FileAuditSpillStore store = new FileAuditSpillStore(file);
+            final RecordingWriter target = new RecordingWriter(false);
+            _writer = new AsyncAuditWriter();
+            _writer.setTarget(target);
+            _writer.setQueueCapacity(16);
+            _writer.setBatchSize(8);
+            _writer.setFlushInterval(1L);
+            _writer.setOverflowPolicy(policy);
+            _writer.setSpillStore(store);
+            _writer.start();
+
+            final CountDownLatch started = new CountDownLatch(4);
+            final Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; ++t) {
+                final int base = t * 2000;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        for (int i = 0; i < 2000; ++i) {
+                            _writer.submit(newOperation(base + i));
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            started.await();
+            Thread.sleep(5L);
+            _writer.shutdown();
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+
+            Assert.assertEquals(policy.toString(), 8000, target.written
+                    .size());
+            Assert.assertEquals(0L, _writer.getPendingCount());
+            Assert.assertEquals(0L, _writer.getDroppedCount());
+            store.close();
+        }
+    }
+
+    /**
+     * A failed batch is counted and does not stop the writer.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testFailedBatch() throws Exception {
+        final RecordingWriter target = new RecordingWriter(false) {
+            @Override
+            public void writeBatch(final List<AuditOperation> operations) {
+                if (written.isEmpty() && batchSizes.isEmpty()) {
+                    batchSizes.add(-1);
+                    throw new IllegalStateException("database is down");
+                }
+                super.writeBatch(operations);
+            }
+        };
+        _writer = newWriter(target, 10, 1, AsyncAuditWriter.OverflowPolicy.BLOCK);
+        _writer.submit(newOperation(0));
+        _writer.submit(newOperation(1));
+
+        Assert.assertTrue(_writer.flush(10000L));
+        Assert.assertEquals(1L, _writer.getFailedCount());
+        Assert.assertEquals(1, target.written.size());
+    }
+
+    /**
+     * When a batch fails its operations are written one by one, so only the
+     * failing operation is lost.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testFailedOperationInBatch() throws Exception {
+        final RecordingWriter target = new RecordingWriter(true) {
+            @Override
+            public void writeBatch(final List<AuditOperation> operations) {
+                for (final AuditOperation op : operations) {
+                    if ("session-2".equals(((SessionRecord) op.getRecord())
+                            .getId())) {
+                        entered.countDown();
+                        throw new IllegalArgumentException("bad operation");
+                    }
+                }
+                super.writeBatch(operations);
+            }
+        };
+        _writer = newWriter(target, 10, 5, AsyncAuditWriter.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 5; ++i) {
+            _writer.submit(newOperation(i));
+        }
+        target.release.countDown();
+
+        Assert.assertTrue(_writer.flush(10000L));
+        Assert.assertEquals(1L, _writer.getFailedCount());
+        final List<String> written = new ArrayList<String>();
+        for (final AuditOperation op : target.written) {
+            written.add(((SessionRecord) op.getRecord()).getId());
+        }
+        Assert.assertEquals("[session-0, session-1, session-3, session-4]",
+                written.toString());
+    }
+
+    /**
+     * The writer can not start without a target.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testStartWithoutTarget() {
+        new AsyncAuditWriter().start();
+    }
+
+    /**
+     * The spill policy requires a spill store.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testSpillWithoutStore() {
+        final AsyncAuditWriter writer = new AsyncAuditWriter();
+        writer.setTarget(new RecordingWriter(false));
+        writer.setOverflowPolicy(AsyncAuditWriter.OverflowPolicy.SPILL);
+        writer.start();
+    }
+
+    private static AsyncAuditWriter newWriter(final AuditBatchWriter target,
+            final int capacity, final int batchSize,
+            final AsyncAuditWriter.OverflowPolicy policy) {
+        final AsyncAuditWriter writer = new AsyncAuditWriter();
+        writer.setTarget(target);
+        writer.setQueueCapacity(capacity);
+        writer.setBatchSize(batchSize);
+        writer.setFlushInterval(10L);
+        writer.setOverflowPolicy(policy);
+        writer.start();
+        return writer;
+    }
+
+    private static AuditOperation newOperation(final int i) {
+        final SessionRecordMutable sr = new TestSessionRecord();
+        sr.setId("session-" + i);
+        sr.setSessionId("http-" + i);
+        sr.setStartedTs(new Date());
+        return AuditOperation.createSessionRecord(sr);
+    }
+}
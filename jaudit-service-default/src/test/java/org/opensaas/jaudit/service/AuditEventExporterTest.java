@@ -0,0 +1,210 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.PropertyValueChangeVO;
+import org.opensaas.jaudit.SessionRecordVO;
+
+/**
+ * Test class for {@link AuditEventExporter}.
+ */
+public class AuditEventExporterTest {
+
+    private InMemoryDaos.LifeCycleAuditEvents _dao;
+
+    private AuditEventExporter _exporter;
+
+    /**
+     * Set up an exporter over an empty dao.
+     */
+    @Before
+    public void setUp() {
+        _dao = new InMemoryDaos.LifeCycleAuditEvents();
+        _exporter = new AuditEventExporter(_dao);
+    }
+
+    /**
+     * Events are written as one JSON object per line, with their changes and
+     * with strings escaped.
+     */
+    @Test
+    public void testExportNdjson() throws Exception {
+        final LifeCycleAuditEventVO event = newEvent("e1", 0L, "42");
+        event.setDescription("say \"hi\"\n");
+        final SessionRecordVO sr = new SessionRecordVO();
+        sr.setId("s1");
+        event.setSessionRecord(sr);
+        final Collection<PropertyValueChange> changes = new ArrayList<PropertyValueChange>();
+        changes.add(newChange("name", "a", "b"));
+        final PropertyValueChangeVO created = newChange("size", null, "1");
+        created.setOldValueSpecified(false);
+        changes.add(created);
+        event.setPropertyValueChanges(changes);
+        _dao.create(event);
+        _dao.create(newEvent("e2", 1000L, "43"));
+
+        Assert.assertEquals(2L, export(AuditEventExporter.Format.NDJSON,
+                null, null));
+        Assert.assertEquals("{\"id\":\"e1\",\"ts\":\"1970-01-01T00:00:00.000Z\","
+                + "\"target\":{\"subjectType\":\"user\",\"subjectId\":\"42\","
+                + "\"subjectDiscriminator\":null},"
+                + "\"description\":\"say \\\"hi\\\"\\n\","
+                + "\"sessionRecordId\":\"s1\",\"transactionRecordId\":null,"
+                + "\"lifeCycleEventType\":\"UPDATE\",\"propertyValueChanges\":["
+                + "{\"propertyName\":\"name\",\"propertyType\":\"string\","
+                + "\"oldValue\":\"a\",\"newValue\":\"b\"},"
+                + "{\"propertyName\":\"size\",\"propertyType\":\"string\","
+                + "\"newValue\":\"1\"}]}\n"
+                + "{\"id\":\"e2\",\"ts\":\"1970-01-01T00:00:01.000Z\","
+                + "\"target\":{\"subjectType\":\"user\",\"subjectId\":\"43\","
+                + "\"subjectDiscriminator\":null},\"description\":null,"
+                + "\"sessionRecordId\":null,\"transactionRecordId\":null,"
+                + "\"lifeCycleEventType\":\"UPDATE\","
+                + "\"propertyValueChanges\":[]}\n", _output);
+    }
+
+    /**
+     * Each change is a CSV row repeating its event, values are quoted when
+     * needed and events without changes are one row.
+     */
+    @Test
+    public void testExportCsv() throws Exception {
+        final LifeCycleAuditEventVO event = newEvent("e1", 0L, "42");
+        event.setDescription("a, \"b\"");
+        final Collection<PropertyValueChange> changes = new ArrayList<PropertyValueChange>();
+        changes.add(newChange("name", "a", "b"));
+        changes.add(newChange("size", "1", "2"));
+        event.setPropertyValueChanges(changes);
+        _dao.create(event);
+        _dao.create(newEvent("e2", 1000L, "43"));
+
+        Assert.assertEquals(2L, export(AuditEventExporter.Format.CSV, null,
+                null));
+        Assert.assertEquals("id,ts,targetSubjectType,targetSubjectId,"
+                + "targetSubjectDiscriminator,description,sessionRecordId,"
+                + "transactionRecordId,lifeCycleEventType,propertyName,"
+                + "propertyType,oldValue,newValue\r\n"
+                + "e1,1970-01-01T00:00:00.000Z,user,42,,\"a, \"\"b\"\"\",,,"
+                + "UPDATE,name,string,a,b\r\n"
+                + "e1,1970-01-01T00:00:00.000Z,user,42,,\"a, \"\"b\"\"\",,,"
+                + "UPDATE,size,string,1,2\r\n"
+                + "e2,1970-01-01T00:00:01.000Z,user,43,,,,,UPDATE,,,,\r\n",
+                _output);
+    }
+
+    /**
+     * Events are read a page at a time, in time stamp order, until a short
+     * page.
+     */
+    @Test
+    public void testExportPages() throws Exception {
+        for (int i = 4; i >= 0; i--) {
+            _dao.create(newEvent("e" + i, i * 1000L, "42"));
+        }
+        _exporter.setPageSize(2);
+
+        Assert.assertEquals(5L, export(AuditEventExporter.Format.NDJSON,
+                null, null));
+        final String[] lines = _output.split("\n");
+        Assert.assertEquals(5, lines.length);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(lines[i].startsWith("{\"id\":\"e" + i + "\""));
+        }
+        Assert.assertEquals(3, Collections.frequency(_dao.calls, "findByTs"));
+    }
+
+    /**
+     * The target and time range limit the events written.
+     */
+    @Test
+    public void testExportFiltered() throws Exception {
+        _dao.create(newEvent("e1", 1000L, "42"));
+        _dao.create(newEvent("e2", 2000L, "42"));
+        _dao.create(newEvent("e3", 3000L, "42"));
+        _dao.create(newEvent("e4", 2000L, "43"));
+        final AuditSubject target = new AuditSubject();
+        target.setSubjectType("user");
+        target.setSubjectId("42");
+
+        Assert.assertEquals(1L, export(AuditEventExporter.Format.CSV,
+                target, new Date(2000L)));
+        Assert.assertTrue(_output.contains("\r\ne2,"));
+        Assert.assertTrue(_dao.calls.contains("findByTarget"));
+    }
+
+    /**
+     * Test method for {@link AuditEventExporter#setPageSize(int)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageSizeInvalid() {
+        _exporter.setPageSize(0);
+    }
+
+    /**
+     * A format is required.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testExportNoFormat() throws Exception {
+        _exporter.export(new ByteArrayOutputStream(), null, null, null, null);
+    }
+
+    private String _output;
+
+    private long export(final AuditEventExporter.Format format,
+            final AuditSubject target, final Date from) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long count = _exporter.export(out, format, target, from,
+                from == null ? null : new Date(from.getTime() + 1000L));
+        _output = out.toString("UTF-8");
+        return count;
+    }
+
+    private static LifeCycleAuditEventVO newEvent(final String id,
+            final long ts, final String targetId) {
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setId(id);
+        event.setTs(new Date(ts));
+        event.setLifeCycleEventType(LifeCycleType.UPDATE);
+        final AuditSubject target = new AuditSubject();
+        target.setSubjectType("user");
+        target.setSubjectId(targetId);
+        event.setTarget(target);
+        return event;
+    }
+
+    private static PropertyValueChangeVO newChange(final String name,
+            final String oldValue, final String newValue) {
+        final PropertyValueChangeVO change = new PropertyValueChangeVO();
+        change.setPropertyName(name);
+        change.setPropertyType("string");
+        change.setOldValue(oldValue);
+        change.setOldValueSpecified(true);
+        change.setNewValue(newValue);
+        change.setNewValueSpecified(true);
+        return change;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEvent;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.TransactionRecordVO;
+
+/**
+ * Test class for {@link AuditOperationCodec}.
+ */
+public class AuditOperationCodecTest {
+
+    /**
+     * Every kind of operation keeps its type, record and values.
+     */
+    @Test
+    public void testRoundTrip() {
+        final SessionRecordVO sr = new SessionRecordVO();
+        sr.setId("s1");
+        sr.setSessionId("http-1");
+        sr.setStartedTs(new Date());
+        final TransactionRecordVO tr = new TransactionRecordVO();
+        tr.setId("t1");
+        tr.setTransactionId("tx-1");
+        tr.setSessionRecord(sr);
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setId("e1");
+        event.setTs(new Date());
+        event.setLifeCycleEventType(LifeCycleType.DELETE);
+        event.setTarget(new AuditSubject());
+        event.setSessionRecord(sr);
+        event.setTransactionRecord(tr);
+        final Date ts = new Date();
+        final ResponsibleInformation ri = new ResponsibleInformation();
+        ri.setResponsibleAddress("10.0.0.1");
+
+        Assert.assertEquals("s1", ((SessionRecord) roundTrip(
+                AuditOperation.createSessionRecord(sr)).getRecord()).getId());
+        Assert.assertEquals("t1", ((TransactionRecord) roundTrip(
+                AuditOperation.createTransactionRecord(tr)).getRecord())
+                .getId());
+
+        final LifeCycleAuditEvent eventCopy = (LifeCycleAuditEvent) roundTrip(
+                AuditOperation.createLifeCycleAuditEvent(event)).getRecord();
+        Assert.assertEquals(LifeCycleType.DELETE, eventCopy
+                .getLifeCycleEventType());
+        Assert.assertSame(eventCopy.getSessionRecord(), eventCopy
+                .getTransactionRecord().getSessionRecord());
+
+        final AuditOperation ended = roundTrip(AuditOperation.sessionEnded(sr,
+                ts));
+        Assert.assertEquals(AuditOperation.Type.SESSION_ENDED, ended.getType());
+        Assert.assertEquals(ts, ended.getTs());
+
+        final AuditOperation responsible = roundTrip(AuditOperation
+                .responsibleUpdated(sr, ri));
+        Assert.assertEquals(ri, responsible.getResponsibleInformation());
+
+        final AuditOperation transactionEnded = roundTrip(AuditOperation
+                .transactionEnded(tr,
+                        TransactionCompletionStatus.STATUS_ROLLED_BACK, ts));
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_ROLLED_BACK,
+                transactionEnded.getTransactionStatus());
+        Assert.assertEquals(ts, transactionEnded.getTs());
+    }
+
+    /**
+     * An operation whose record does not fit its type is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongRecord() {
+        final SessionRecordVO sr = new SessionRecordVO();
+        final byte[] message = AuditOperationCodec.encode(AuditOperation
+                .sessionEnded(sr, new Date()));
+        // turn SESSION_ENDED into CREATE_LIFE_CYCLE_AUDIT_EVENT
+        message[1] = (byte) (AuditOperation.Type.CREATE_LIFE_CYCLE_AUDIT_EVENT
+                .ordinal() + 1);
+        AuditOperationCodec.decode(ByteBuffer.wrap(message));
+    }
+
+    private static AuditOperation roundTrip(final AuditOperation operation) {
+        return AuditOperationCodec.decode(ByteBuffer.wrap(AuditOperationCodec
+                .encode(operation)));
+    }
+}
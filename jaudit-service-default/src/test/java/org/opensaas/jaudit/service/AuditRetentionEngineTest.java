@@ -0,0 +1,294 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.AuditEvent;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.dao.AuditEventArchive;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.ResultCursor;
+
+/**
+ * Test class for {@link AuditRetentionEngine}.
+ */
+public class AuditRetentionEngineTest {
+
+    private InMemoryDaos.LifeCycleAuditEvents _dao;
+
+    private RetentionPolicy _policy;
+
+    private AuditRetentionEngine _engine;
+
+    private final List<String> _archived = new ArrayList<String>();
+
+    private final Map<String, PageKey> _checkpoints = new HashMap<String, PageKey>();
+
+    private final List<Long> _sleeps = new ArrayList<Long>();
+
+    /**
+     * Set up an engine with a one day policy over five expired and two
+     * current events.
+     */
+    @Before
+    public void setUp() {
+        _dao = new InMemoryDaos.LifeCycleAuditEvents();
+        for (int i = 1; i <= 5; i++) {
+            _dao.create(newEvent("e" + i, i * 1000L));
+        }
+        final long now = System.currentTimeMillis();
+        _dao.create(newEvent("c1", now));
+        _dao.create(newEvent("c2", now));
+        _dao.calls.clear();
+
+        _policy = new RetentionPolicy();
+        _policy.setName("lifeCycle");
+        _policy.setDao(_dao);
+        _policy.setDays(1);
+
+        _engine = new AuditRetentionEngine() {
+            @Override
+            protected void sleep(final long millis) {
+                _sleeps.add(millis);
+            }
+        };
+        _engine.setPolicies(Collections.singletonList(_policy));
+        _engine.setBatchSize(2);
+    }
+
+    /**
+     * Expired events are deleted in keyset ordered batches and current ones
+     * are kept.
+     */
+    @Test
+    public void testPurgeInBatches() {
+        Assert.assertEquals(5L, _engine.purge());
+        Assert.assertEquals(5L, _engine.getPurgedCount());
+        Assert.assertEquals(2, _dao.records.size());
+        Assert.assertTrue(_dao.records.containsKey("c1"));
+        Assert.assertTrue(_dao.records.containsKey("c2"));
+        Assert.assertEquals("[findByTs, deleteAll:2, findByTs, deleteAll:2, "
+                + "findByTs, deleteAll:1, findByTs]", _dao.calls.toString());
+        Assert.assertTrue(_sleeps.isEmpty());
+    }
+
+    /**
+     * Archiving policies archive each event of a batch, then flush, then
+     * delete.
+     */
+    @Test
+    public void testArchiveBeforeDelete() {
+        _policy.setArchive(true);
+        _engine.setArchiver(new TestArchiver(null));
+
+        Assert.assertEquals(5L, _engine.purge());
+        Assert.assertEquals("[e1, e2, flush, e3, e4, flush, e5, flush]",
+                _archived.toString());
+        Assert.assertEquals(2, _dao.records.size());
+    }
+
+    /**
+     * {@link AuditEventArchiveArchiver} appends each event to the archive and
+     * flushes it once per batch.
+     */
+    @Test
+    public void testArchiveToEventArchive() {
+        _policy.setArchive(true);
+        _engine.setArchiver(new AuditEventArchiveArchiver(
+                new AuditEventArchive() {
+                    public void append(final AuditEvent event) {
+                        _archived.add(event.getId());
+                    }
+
+                    public void flush() {
+                        _archived.add("flush");
+                    }
+
+                    public AuditEvent read(final String id) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    public ResultCursor<AuditEvent> find(
+                            final AuditSubject target, final Date from,
+                            final Date to, final PageKey after,
+                            final int limit) {
+                        throw new UnsupportedOperationException();
+                    }
+                }));
+        _engine.setBatchSize(5);
+
+        Assert.assertEquals(5L, _engine.purge());
+        Assert.assertEquals("[e1, e2, e3, e4, e5, flush]", _archived
+                .toString());
+    }
+
+    /**
+     * A failed archive leaves the batch in place and the checkpoint at the
+     * last purged batch, and the next purge resumes from there.
+     */
+    @Test
+    public void testResumeFromCheckpoint() {
+        _policy.setArchive(true);
+        _engine.setArchiver(new TestArchiver("e3"));
+        _engine.setCheckpointStore(new TestCheckpointStore());
+
+        Assert.assertEquals(2L, _engine.purge());
+        Assert.assertEquals(1L, _engine.getFailedCount());
+        Assert.assertEquals(5, _dao.records.size());
+        Assert.assertEquals(new PageKey(new Date(2000L), "e2"), _checkpoints
+                .get("lifeCycle"));
+
+        _engine.setArchiver(new TestArchiver(null));
+        _dao.calls.clear();
+        Assert.assertEquals(3L, _engine.purge());
+        Assert.assertEquals(2, _dao.records.size());
+        Assert.assertEquals("[findByTs, deleteAll:2, findByTs, deleteAll:1, "
+                + "findByTs]", _dao.calls.toString());
+        Assert.assertFalse(_checkpoints.containsKey("lifeCycle"));
+    }
+
+    /**
+     * A saved checkpoint is continued after, not restarted.
+     */
+    @Test
+    public void testStartAfterCheckpoint() {
+        _engine.setCheckpointStore(new TestCheckpointStore());
+        _checkpoints.put("lifeCycle", new PageKey(new Date(3000L), "e3"));
+
+        Assert.assertEquals(2L, _engine.purge());
+        Assert.assertTrue(_dao.records.containsKey("e1"));
+        Assert.assertFalse(_dao.records.containsKey("e4"));
+        Assert.assertTrue(_checkpoints.isEmpty());
+    }
+
+    /**
+     * The rate limit pauses between batches.
+     */
+    @Test
+    public void testRateLimit() {
+        _engine.setMaxEventsPerSecond(2);
+
+        Assert.assertEquals(5L, _engine.purge());
+        Assert.assertEquals(3, _sleeps.size());
+        for (final Long sleep : _sleeps) {
+            Assert.assertTrue(sleep.longValue() > 0L);
+        }
+        Assert.assertTrue(_sleeps.get(0).longValue() <= 1000L);
+        Assert.assertTrue(_sleeps.get(2).longValue() <= 500L);
+    }
+
+    /**
+     * Policies are checked before anything is purged.
+     */
+    @Test
+    public void testValidate() {
+        _policy.setArchive(true);
+        try {
+            _engine.purge();
+            Assert.fail("Expected an exception.");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+
+        _policy.setArchive(false);
+        _policy.setDays(0);
+        try {
+            _engine.purge();
+            Assert.fail("Expected an exception.");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        Assert.assertTrue(_dao.calls.isEmpty());
+    }
+
+    /**
+     * The cutoff counts the retention period back from the current time.
+     */
+    @Test
+    public void testCutoff() {
+        final RetentionPolicy policy = new RetentionPolicy();
+        policy.setYears(7);
+        policy.setMonths(1);
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2020, Calendar.MARCH, 15);
+        final Calendar expected = Calendar.getInstance();
+        expected.clear();
+        expected.set(2013, Calendar.FEBRUARY, 15);
+        Assert.assertEquals(expected.getTime(), policy.getCutoff(calendar
+                .getTime()));
+    }
+
+    private static LifeCycleAuditEventVO newEvent(final String id,
+            final long ts) {
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setId(id);
+        event.setTs(new Date(ts));
+        event.setLifeCycleEventType(LifeCycleType.DELETE);
+        final AuditSubject target = new AuditSubject();
+        target.setSubjectType("user");
+        target.setSubjectId(id);
+        event.setTarget(target);
+        return event;
+    }
+
+    private class TestArchiver implements AuditArchiver {
+
+        private final String _failOn;
+
+        TestArchiver(final String failOn) {
+            _failOn = failOn;
+        }
+
+        public void archive(final RetentionPolicy policy,
+                final AuditEvent event) throws IOException {
+            if (event.getId().equals(_failOn)) {
+                throw new IOException("Archive is full.");
+            }
+            _archived.add(event.getId());
+        }
+
+        public void flush() {
+            _archived.add("flush");
+        }
+    }
+
+    private class TestCheckpointStore implements RetentionCheckpointStore {
+
+        public PageKey load(final String name) {
+            return _checkpoints.get(name);
+        }
+
+        public void save(final String name, final PageKey key) {
+            _checkpoints.put(name, key);
+        }
+
+        public void clear(final String name) {
+            _checkpoints.remove(name);
+        }
+    }
+}
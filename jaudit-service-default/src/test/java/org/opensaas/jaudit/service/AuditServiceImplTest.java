@@ -0,0 +1,442 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEvent;
+import org.opensaas.jaudit.LifeCycleAuditEventMutable;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.PropertyValueChange;
+import org.opensaas.jaudit.PropertyValueChangeVO;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.TransactionRecordMutable;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.session.AuditSession;
+
+/**
+ * Test class for {@link AuditServiceImpl}.
+ */
+public class AuditServiceImplTest {
+
+    private InMemoryDaos.SessionRecords _sessionRecordDao;
+
+    private InMemoryDaos.TransactionRecords _transactionRecordDao;
+
+    private InMemoryDaos.LifeCycleAuditEvents _lifeCycleAuditEventDao;
+
+    private AuditServiceImpl _service;
+
+    private AsyncAuditWriter _writer;
+
+    /**
+     * Build a service backed by in memory DAOs.
+     */
+    @Before
+    public void createService() {
+        _sessionRecordDao = new InMemoryDaos.SessionRecords();
+        _transactionRecordDao = new InMemoryDaos.TransactionRecords();
+        _lifeCycleAuditEventDao = new InMemoryDaos.LifeCycleAuditEvents();
+        _service = newService(_sessionRecordDao, _transactionRecordDao,
+                _lifeCycleAuditEventDao);
+    }
+
+    /**
+     * Clean up threads and thread locals.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @After
+    public void cleanUp() throws Exception {
+        AuditSession.removeAuditSession();
+        if (_writer != null) {
+            _writer.shutdown();
+        }
+    }
+
+    /**
+     * Without a writer, records are written on the caller's thread.
+     */
+    @Test
+    public void testSynchronousWrites() {
+        final SessionRecord sr = _service.createSessionRecord("http-1", null);
+        Assert.assertSame(sr, _sessionRecordDao.records.get(sr.getId()));
+
+        final TransactionRecord tr = _service.createTransactionRecord("tx-1",
+                sr);
+        Assert.assertSame(tr, _transactionRecordDao.records.get(tr.getId()));
+
+        AuditSession.createAuditSession(sr);
+        final LifeCycleAuditEvent event = _service.createLifeCycleAuditEvent(
+                LifeCycleType.CREATE, new AuditSubject(), "created");
+        Assert.assertSame(sr, event.getSessionRecord());
+        Assert.assertSame(event, _lifeCycleAuditEventDao.records.get(event
+                .getId()));
+    }
+
+    /**
+     * Property value changes are given ids, attached to their event and
+     * written with it in one call.
+     */
+    @Test
+    public void testLifeCycleAuditEventWithChanges() {
+        final List<PropertyValueChangeVO> changes = new ArrayList<PropertyValueChangeVO>();
+        for (int i = 0; i < 3; ++i) {
+            final PropertyValueChangeVO change = new PropertyValueChangeVO();
+            change.setPropertyName("p" + i);
+            changes.add(change);
+        }
+
+        final LifeCycleAuditEvent event = _service.createLifeCycleAuditEvent(
+                LifeCycleType.UPDATE, new AuditSubject(), "updated", changes);
+        Assert.assertEquals(Arrays.asList("create"),
+                _lifeCycleAuditEventDao.calls);
+        Assert.assertEquals(changes, new ArrayList<PropertyValueChange>(
+                event.getPropertyValueChanges()));
+        final Set<String> ids = new HashSet<String>();
+        for (final PropertyValueChangeVO change : changes) {
+            Assert.assertSame(event, change.getLifeCycleAuditEvent());
+            Assert.assertTrue(ids.add(change.getId()));
+        }
+        Assert.assertFalse(ids.contains(event.getId()));
+    }
+
+    /**
+     * With a transactional proxy set, system session records are created
+     * through it, in a transaction of their own, rather than directly.
+     */
+    @Test
+    public void testSystemSessionRecordThroughProxy() {
+        final List<String> calls = new ArrayList<String>();
+        final AuditService proxy = (AuditService) Proxy.newProxyInstance(
+                AuditService.class.getClassLoader(),
+                new Class<?>[] { AuditService.class }, new InvocationHandler() {
+                    public Object invoke(final Object target,
+                            final Method method, final Object[] args)
+                            throws Throwable {
+                        calls.add(method.getName());
+                        return method.invoke(_service, args);
+                    }
+                });
+        _service.setTransactionalProxy(new ObjectFactory<AuditService>() {
+            public AuditService getObject() {
+                return proxy;
+            }
+        });
+
+        final SessionRecord background = _service
+                .getSystemSessionRecord(AuditServiceImpl.DEFAULT_WORKER_TYPE);
+        Assert.assertSame(background, _service
+                .getSystemSessionRecord(AuditServiceImpl.DEFAULT_WORKER_TYPE));
+        Assert.assertEquals(Arrays.asList("createSessionRecord"), calls);
+        Assert.assertSame(background, _sessionRecordDao.records.get(background
+                .getId()));
+    }
+
+    /**
+     * Events raised outside any audit session share one system session record
+     * per worker type.
+     */
+    @Test
+    public void testSystemSessionRecord() {
+        final LifeCycleAuditEvent first = _service.createLifeCycleAuditEvent(
+                LifeCycleType.CREATE, new AuditSubject(), "created");
+        final LifeCycleAuditEvent second = _service.createLifeCycleAuditEvent(
+                LifeCycleType.DELETE, new AuditSubject(), "deleted");
+        final SessionRecord background = _service
+                .getSystemSessionRecord(AuditServiceImpl.DEFAULT_WORKER_TYPE);
+        Assert.assertSame(background, first.getSessionRecord());
+        Assert.assertSame(background, second.getSessionRecord());
+        Assert.assertEquals(AuditServiceImpl.DEFAULT_WORKER_TYPE, background
+                .getResponsibleInformation().getResponsible().getSubjectId());
+        Assert.assertEquals(1, _sessionRecordDao.records.size());
+
+        final SessionRecord importer = _service
+                .getSystemSessionRecord("importer");
+        Assert.assertNotSame(background, importer);
+        Assert.assertSame(importer, _service.getSystemSessionRecord("importer"));
+        Assert.assertFalse(background.getSessionId().equals(
+                importer.getSessionId()));
+        Assert.assertEquals(2, _sessionRecordDao.records.size());
+
+        _service.setDefaultWorkerType(null);
+        Assert.assertNull(_service.createLifeCycleAuditEvent(
+                LifeCycleType.CREATE, new AuditSubject(), "created")
+                .getSessionRecord());
+    }
+
+    /**
+     * A record from newTransactionRecord is only written, once, when it is
+     * completed.
+     */
+    @Test
+    public void testCompletedTransactionRecord() {
+        final TransactionRecord tr = _service.newTransactionRecord("tx-1",
+                null);
+        Assert.assertNotNull(tr.getId());
+        Assert.assertNotNull(tr.getStartedTs());
+        Assert.assertTrue(_transactionRecordDao.calls.isEmpty());
+
+        final Date endedTs = new Date();
+        Assert.assertSame(tr, _service.createCompletedTransactionRecord(tr,
+                TransactionCompletionStatus.STATUS_ROLLED_BACK, endedTs));
+        Assert.assertEquals(Arrays.asList("create"),
+                _transactionRecordDao.calls);
+        Assert.assertEquals(endedTs, tr.getEndedTs());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_ROLLED_BACK, tr
+                .getTransactionCompletionStatus());
+    }
+
+    /**
+     * Events are given the record from the transaction record source; a
+     * record saved while its transaction runs is written ahead of them.
+     */
+    @Test
+    public void testTransactionRecordSource() {
+        final TransactionRecord tr = _service.newTransactionRecord("tx-1",
+                null);
+        _service.setTransactionRecordSource(new ObjectFactory<TransactionRecord>() {
+            public TransactionRecord getObject() {
+                return tr;
+            }
+        });
+
+        Assert.assertSame(tr, _service.createStartedTransactionRecord(tr));
+        Assert.assertSame(tr, _transactionRecordDao.records.get(tr.getId()));
+        Assert.assertNull(tr.getEndedTs());
+
+        final LifeCycleAuditEvent event = _service.createLifeCycleAuditEvent(
+                LifeCycleType.CREATE, new AuditSubject(), "created");
+        Assert.assertSame(tr, event.getTransactionRecord());
+    }
+
+    /**
+     * Consecutive inserts of one kind are grouped into one createAll call.
+     */
+    @Test
+    public void testWriteBatchGroupsInserts() {
+        final List<AuditOperation> batch = new ArrayList<AuditOperation>();
+        final SessionRecordVO first = newSessionRecord("a");
+        batch.add(AuditOperation.createSessionRecord(first));
+        batch.add(AuditOperation.createSessionRecord(newSessionRecord("b")));
+        batch.add(AuditOperation.createSessionRecord(newSessionRecord("c")));
+        batch.add(AuditOperation.sessionEnded(first, new Date()));
+        batch.add(AuditOperation.createLifeCycleAuditEvent(newEvent("e1")));
+        batch.add(AuditOperation.createLifeCycleAuditEvent(newEvent("e2")));
+        batch.add(AuditOperation.createSessionRecord(newSessionRecord("d")));
+
+        _service.writeBatch(batch);
+
+        Assert.assertEquals(Arrays.asList("createAll:3", "updateEndedTs",
+                "create"), _sessionRecordDao.calls);
+        Assert.assertEquals(Arrays.asList("createAll:2"),
+                _lifeCycleAuditEventDao.calls);
+        Assert.assertEquals(4, _sessionRecordDao.records.size());
+        Assert.assertNotNull(first.getEndedTs());
+    }
+
+    /**
+     * Only the last responsible update to a session record in a batch is
+     * written.
+     */
+    @Test
+    public void testWriteBatchCoalescesResponsibleUpdates() {
+        final SessionRecordVO a = newSessionRecord("a");
+        final SessionRecordVO b = newSessionRecord("b");
+        final ResponsibleInformation first = new ResponsibleInformation();
+        final ResponsibleInformation last = new ResponsibleInformation();
+        final List<AuditOperation> batch = new ArrayList<AuditOperation>();
+        batch.add(AuditOperation.createSessionRecord(a));
+        batch.add(AuditOperation.createSessionRecord(b));
+        batch.add(AuditOperation.responsibleUpdated(a, first));
+        batch.add(AuditOperation.responsibleUpdated(b, first));
+        batch.add(AuditOperation.responsibleUpdated(a, last));
+        batch.add(AuditOperation.sessionEnded(a, new Date()));
+
+        _service.writeBatch(batch);
+
+        Assert.assertEquals(Arrays.asList("createAll:2",
+                "updateResponsibleInformation", "updateResponsibleInformation",
+                "updateEndedTs"), _sessionRecordDao.calls);
+        Assert.assertSame(last, a.getResponsibleInformation());
+        Assert.assertSame(first, b.getResponsibleInformation());
+
+        // nothing superseded, nothing copied
+        final List<AuditOperation> distinct = batch.subList(0, 4);
+        Assert.assertSame(distinct, AuditServiceImpl
+                .coalesceResponsibleUpdates(distinct));
+    }
+
+    /**
+     * Responsible updates are not coalesced across the end of their session:
+     * the update before the end is kept, and the one after it is left for the
+     * DAO to reject.
+     */
+    @Test
+    public void testCoalesceStopsAtSessionEnded() {
+        final SessionRecordVO a = newSessionRecord("a");
+        final AuditOperation before = AuditOperation.responsibleUpdated(a,
+                new ResponsibleInformation());
+        final AuditOperation ended = AuditOperation.sessionEnded(a, new Date());
+        final AuditOperation after = AuditOperation.responsibleUpdated(a,
+                new ResponsibleInformation());
+        final List<AuditOperation> batch = Arrays.asList(before, ended, after);
+        Assert.assertSame(batch, AuditServiceImpl
+                .coalesceResponsibleUpdates(batch));
+
+        final AuditOperation superseded = AuditOperation.responsibleUpdated(a,
+                new ResponsibleInformation());
+        Assert.assertEquals(Arrays.asList(before, ended, after),
+                AuditServiceImpl.coalesceResponsibleUpdates(Arrays.asList(
+                        superseded, before, ended, after)));
+    }
+
+    /**
+     * A replayed batch skips inserts of records that are already stored.
+     */
+    @Test
+    public void testReplayBatchSkipsExistingRecords() {
+        final SessionRecordVO a = newSessionRecord("a");
+        _sessionRecordDao.records.put(a.getId(), a);
+        final List<AuditOperation> batch = new ArrayList<AuditOperation>();
+        batch.add(AuditOperation.createSessionRecord(a));
+        batch.add(AuditOperation.createSessionRecord(newSessionRecord("b")));
+        batch.add(AuditOperation.sessionEnded(a, new Date()));
+        batch.add(AuditOperation.createLifeCycleAuditEvent(newEvent("e1")));
+
+        _service.replayBatch(batch);
+
+        Assert.assertEquals(Arrays.asList("read", "read", "create",
+                "updateEndedTs"), _sessionRecordDao.calls);
+        Assert.assertEquals(Arrays.asList("read", "create"),
+                _lifeCycleAuditEventDao.calls);
+        Assert.assertEquals(2, _sessionRecordDao.records.size());
+        Assert.assertNotNull(a.getEndedTs());
+    }
+
+    /**
+     * With a writer, callers get populated records back immediately and the
+     * writes arrive later, in order.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testAsynchronousWrites() throws Exception {
+        _writer = new AsyncAuditWriter();
+        _writer.setTarget(_service);
+        _writer.setFlushInterval(10L);
+        _writer.start();
+        _service.setAsyncWriter(_writer);
+
+        final SessionRecord sr = _service.createSessionRecord("http-1",
+                new ResponsibleInformation());
+        Assert.assertNotNull(sr.getId());
+        Assert.assertNotNull(sr.getStartedTs());
+
+        final TransactionRecord tr = _service.createTransactionRecord("tx-1",
+                sr);
+        final TransactionRecord ended = _service.updateTransactionEnded(tr,
+                TransactionCompletionStatus.STATUS_COMMITTED, new Date());
+        Assert.assertSame(tr, ended);
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_COMMITTED, tr
+                .getTransactionCompletionStatus());
+
+        _service.updateSessionEnded(sr);
+        Assert.assertNotNull(sr.getEndedTs());
+
+        Assert.assertTrue(_writer.flush(10000L));
+        Assert.assertSame(sr, _sessionRecordDao.records.get(sr.getId()));
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_COMMITTED,
+                _transactionRecordDao.records.get(tr.getId())
+                        .getTransactionCompletionStatus());
+        Assert.assertTrue(_sessionRecordDao.calls.contains("updateEndedTs"));
+    }
+
+    /**
+     * Build a service around the passed DAOs.
+     *
+     * @param sessionRecordDao
+     *            session record dao.
+     * @param transactionRecordDao
+     *            transaction record dao.
+     * @param lifeCycleAuditEventDao
+     *            life cycle event dao.
+     * @return the service.
+     */
+    static AuditServiceImpl newService(
+            final InMemoryDaos.SessionRecords sessionRecordDao,
+            final InMemoryDaos.TransactionRecords transactionRecordDao,
+            final InMemoryDaos.LifeCycleAuditEvents lifeCycleAuditEventDao) {
+        final AuditServiceImpl service = new AuditServiceImpl();
+        service.setSessionRecordDao(sessionRecordDao);
+        service.setTransactionRecordDao(transactionRecordDao);
+        service.setLifeCycleAuditEventDao(lifeCycleAuditEventDao);
+        service.setGuidFactory(new UUIDStringFactory());
+        service.setResponsibleInformationFactory(new ObjectFactory<ResponsibleInformation>() {
+            public ResponsibleInformation getObject() {
+                return new ResponsibleInformation();
+            }
+        });
+        service.setSessionRecordFactory(new ObjectFactory<SessionRecord>() {
+            public SessionRecord getObject() {
+                return new SessionRecordVO();
+            }
+        });
+        service.setTransactionRecordFactory(new ObjectFactory<TransactionRecordMutable>() {
+            public TransactionRecordMutable getObject() {
+                return new TransactionRecordVO();
+            }
+        });
+        service.setLifeCycleAuditEventFactory(new ObjectFactory<LifeCycleAuditEventMutable>() {
+            public LifeCycleAuditEventMutable getObject() {
+                return new LifeCycleAuditEventVO();
+            }
+        });
+        return service;
+    }
+
+    private static SessionRecordVO newSessionRecord(final String id) {
+        final SessionRecordVO sr = new SessionRecordVO();
+        sr.setId(id);
+        sr.setSessionId("http-" + id);
+        return sr;
+    }
+
+    private static LifeCycleAuditEventMutable newEvent(final String id) {
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setId(id);
+        event.setLifeCycleEventType(LifeCycleType.UPDATE);
+        return event;
+    }
+}
@@ -0,0 +1,368 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordMutable;
+
+/**
+ * Test class for {@link AuditWriteAheadLog}.
+ */
+public class AuditWriteAheadLogTest {
+
+    /**
+     * Records the ids of every operation written, noting which came through
+     * a replay, and can be made to fail, either as a database outage or on
+     * particular ids every time.
+     */
+    private static class RecordingWriter implements AuditReplayWriter {
+
+        final List<String> written = Collections
+                .synchronizedList(new ArrayList<String>());
+
+        final List<String> replayed = Collections
+                .synchronizedList(new ArrayList<String>());
+
+        volatile int failures;
+
+        final Set<String> rejected = Collections
+                .synchronizedSet(new HashSet<String>());
+
+        private void check(final List<AuditOperation> operations) {
+            if (failures > 0) {
+                --failures;
+                throw new IllegalStateException("database is down",
+                        new SQLException("Connection refused", "08001"));
+            }
+            for (final AuditOperation op : operations) {
+                if (rejected.contains(((SessionRecord) op.getRecord())
+                        .getId())) {
+                    throw new IllegalArgumentException("constraint violated");
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeBatch(final List<AuditOperation> operations) {
+            check(operations);
+            for (final AuditOperation op : operations) {
+                written.add(((SessionRecord) op.getRecord()).getId());
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void replayBatch(final List<AuditOperation> operations) {
+            check(operations);
+            for (final AuditOperation op : operations) {
+                final String id = ((SessionRecord) op.getRecord()).getId();
+                replayed.add(id);
+                if (!written.contains(id)) {
+                    written.add(id);
+                }
+            }
+        }
+    }
+
+    private File _directory;
+
+    private AuditWriteAheadLog _log;
+
+    /**
+     * Create an empty log directory.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Before
+    public void createDirectory() throws Exception {
+        _directory = File.createTempFile("jaudit-wal", "");
+        Assert.assertTrue(_directory.delete());
+        Assert.assertTrue(_directory.mkdirs());
+    }
+
+    /**
+     * Stop the log and remove its files.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @After
+    public void cleanUp() throws Exception {
+        if (_log != null) {
+            _log.shutdown();
+        }
+        final File[] files = _directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        _directory.delete();
+    }
+
+    /**
+     * Operations are shipped in order and segments behind the checkpoint are
+     * deleted.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testOrderAndSegments() throws Exception {
+        final RecordingWriter target = new RecordingWriter();
+        _log = newLog(target, 1024);
+
+        final List<String> submitted = submit(_log, 0, 200);
+
+        Assert.assertTrue(_log.flush(10000L));
+        Assert.assertEquals(submitted, target.written);
+        Assert.assertTrue(target.replayed.isEmpty());
+        Assert.assertEquals(200L, _log.getAppendedCount());
+        Assert.assertEquals(200L, _log.getReplayedCount());
+        Assert.assertEquals(1, segments().length);
+    }
+
+    /**
+     * What was logged but not shipped before a stop is replayed by the next
+     * log on the same directory, and new operations follow it.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testRecovery() throws Exception {
+        final RecordingWriter down = new RecordingWriter();
+        down.failures = Integer.MAX_VALUE;
+        _log = newLog(down, 1024);
+        _log.setShutdownTimeout(100L);
+        final List<String> submitted = submit(_log, 0, 50);
+        _log.shutdown();
+        Assert.assertTrue(down.written.isEmpty());
+        Assert.assertTrue(segments().length > 1);
+
+        final RecordingWriter target = new RecordingWriter();
+        _log = newLog(target, 1024);
+        submitted.addAll(submit(_log, 50, 10));
+
+        Assert.assertTrue(_log.flush(10000L));
+        Assert.assertEquals(submitted, target.written);
+        // a batch reaching into the recovered part is replayed whole
+        Assert.assertEquals(submitted.subList(0, 50), target.replayed
+                .subList(0, 50));
+        Assert.assertEquals(1, segments().length);
+    }
+
+    /**
+     * A failed batch is retried, as a replay, until it succeeds.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testRetry() throws Exception {
+        final RecordingWriter target = new RecordingWriter();
+        target.failures = 2;
+        _log = newLog(target, 1024);
+
+        final List<String> submitted = submit(_log, 0, 20);
+
+        Assert.assertTrue(_log.flush(10000L));
+        Assert.assertEquals(submitted, target.written);
+        Assert.assertFalse(target.replayed.isEmpty());
+        Assert.assertTrue(_log.getFailedCount() > 0L);
+    }
+
+    /**
+     * An operation that keeps failing is isolated from its batch and moved to
+     * the dead letter file; the rest are shipped.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testDeadLetter() throws Exception {
+        final RecordingWriter target = new RecordingWriter();
+        target.rejected.add("session-3");
+        _log = newLog(target, 1024);
+
+        final List<String> submitted = submit(_log, 0, 20);
+
+        Assert.assertTrue(_log.flush(10000L));
+        submitted.remove("session-3");
+        Assert.assertEquals(submitted, target.written);
+        Assert.assertEquals(1L, _log.getDeadLetterCount());
+        Assert.assertTrue(new File(_directory, "audit.deadletter").length() > 0L);
+    }
+
+    /**
+     * A logged record that can not be read is moved to the dead letter file
+     * and replay carries on after it.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testUnreadableRecord() throws Exception {
+        final RecordingWriter down = new RecordingWriter();
+        down.failures = Integer.MAX_VALUE;
+        _log = newLog(down, 1024 * 1024);
+        _log.setShutdownTimeout(100L);
+        final List<String> submitted = submit(_log, 0, 5);
+        _log.shutdown();
+
+        // give the third record a version the codec does not know
+        final RandomAccessFile file = new RandomAccessFile(segments()[0], "rw");
+        try {
+            long offset = 0L;
+            for (int i = 0; i < 2; ++i) {
+                file.seek(offset);
+                offset += 8 + file.readInt();
+            }
+            file.seek(offset);
+            final byte[] data = new byte[file.readInt()];
+            file.readInt();
+            file.readFully(data);
+            data[0] = (byte) 0x7f;
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            file.seek(offset + 4);
+            file.writeInt((int) crc.getValue());
+            file.write(data);
+        } finally {
+            file.close();
+        }
+
+        final RecordingWriter target = new RecordingWriter();
+        _log = newLog(target, 1024 * 1024);
+        submitted.remove("session-2");
+        submitted.addAll(submit(_log, 5, 5));
+
+        Assert.assertTrue(_log.flush(10000L));
+        Assert.assertEquals(submitted, target.written);
+        Assert.assertEquals(1L, _log.getDeadLetterCount());
+    }
+
+    /**
+     * Concurrent appends share forces.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        final RecordingWriter target = new RecordingWriter();
+        _log = newLog(target, 1024 * 1024);
+        _log.setGroupCommitDelay(1L);
+
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            final int base = i * 1000;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    submit(_log, base, 100);
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(_log.flush(10000L));
+        Assert.assertEquals(800, target.written.size());
+        Assert.assertTrue(_log.getSyncCount() < _log.getAppendedCount());
+    }
+
+    /**
+     * Once stopped, operations are written on the caller's thread.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testWriteAfterShutdown() throws Exception {
+        final RecordingWriter target = new RecordingWriter();
+        _log = newLog(target, 1024);
+        _log.shutdown();
+        submit(_log, 0, 1);
+        Assert.assertEquals(1, target.written.size());
+    }
+
+    /**
+     * The log can not start without a directory.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testStartWithoutDirectory() throws Exception {
+        final AuditWriteAheadLog log = new AuditWriteAheadLog();
+        log.setTarget(new RecordingWriter());
+        log.start();
+    }
+
+    private AuditWriteAheadLog newLog(final AuditBatchWriter target,
+            final int segmentSize) throws Exception {
+        final AuditWriteAheadLog log = new AuditWriteAheadLog();
+        log.setTarget(target);
+        log.setDirectory(_directory);
+        log.setSegmentSize(segmentSize);
+        log.setBatchSize(7);
+        log.setReplayInterval(10L);
+        log.start();
+        return log;
+    }
+
+    private File[] segments() {
+        return _directory.listFiles(new java.io.FileFilter() {
+            public boolean accept(final File file) {
+                return file.getName().endsWith(".wal");
+            }
+        });
+    }
+
+    private static List<String> submit(final AuditWriteAheadLog log,
+            final int from, final int count) {
+        final List<String> ids = new ArrayList<String>();
+        for (int i = from; i < from + count; ++i) {
+            final SessionRecordMutable sr = new TestSessionRecord();
+            sr.setId("session-" + i);
+            sr.setSessionId("http-" + i);
+            sr.setStartedTs(new Date());
+            log.submit(AuditOperation.createSessionRecord(sr));
+            ids.add(sr.getId());
+        }
+        return ids;
+    }
+}
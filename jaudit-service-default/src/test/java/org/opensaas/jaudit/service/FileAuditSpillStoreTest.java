@@ -0,0 +1,171 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordMutable;
+
+/**
+ * Test class for {@link FileAuditSpillStore}.
+ */
+public class FileAuditSpillStoreTest {
+
+    private File _file;
+
+    private FileAuditSpillStore _store;
+
+    /**
+     * Open a store on a new file.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Before
+    public void openStore() throws Exception {
+        _file = File.createTempFile("jaudit-spill", ".dat");
+        _file.deleteOnExit();
+        _store = new FileAuditSpillStore(_file);
+    }
+
+    /**
+     * Close the store.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @After
+    public void closeStore() throws Exception {
+        _store.close();
+    }
+
+    /**
+     * Operations come back in order and the file is truncated once read.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testAppendRemove() throws Exception {
+        append(0, 5);
+        Assert.assertEquals("[session-0, session-1, session-2]", ids(
+                _store.remove(3)).toString());
+        Assert.assertFalse(_store.isEmpty());
+        Assert.assertEquals("[session-3, session-4]", ids(_store.remove(3))
+                .toString());
+        Assert.assertTrue(_store.isEmpty());
+        Assert.assertEquals(0L, _file.length());
+    }
+
+    /**
+     * A record that can not be decoded is reported after the operations
+     * before it are returned, and the operations after it are still read.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testCorruptRecord() throws Exception {
+        append(0, 4);
+        final RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        try {
+            final long offset = recordOffset(raf, 2);
+            // give the third record a version the codec does not know
+            raf.seek(offset + 4L);
+            raf.write(0x7f);
+        } finally {
+            raf.close();
+        }
+
+        Assert.assertEquals("[session-0, session-1]", ids(_store.remove(10))
+                .toString());
+        try {
+            _store.remove(10);
+            Assert.fail("Expected an exception.");
+        } catch (final IOException e) {
+            // expected
+        }
+        Assert.assertEquals("[session-3]", ids(_store.remove(10)).toString());
+        Assert.assertTrue(_store.isEmpty());
+    }
+
+    /**
+     * A record with a damaged length takes the rest of the store with it.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testCorruptLength() throws Exception {
+        append(0, 4);
+        final RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        try {
+            raf.seek(recordOffset(raf, 1));
+            raf.writeInt(Integer.MAX_VALUE);
+        } finally {
+            raf.close();
+        }
+
+        Assert.assertEquals("[session-0]", ids(_store.remove(10)).toString());
+        try {
+            _store.remove(10);
+            Assert.fail("Expected an exception.");
+        } catch (final IOException e) {
+            // expected
+        }
+        Assert.assertTrue(_store.isEmpty());
+        Assert.assertTrue(_store.remove(10).isEmpty());
+
+        append(4, 1);
+        Assert.assertEquals("[session-4]", ids(_store.remove(10)).toString());
+    }
+
+    private void append(final int from, final int count) throws IOException {
+        for (int i = from; i < from + count; ++i) {
+            final SessionRecordMutable sr = new TestSessionRecord();
+            sr.setId("session-" + i);
+            sr.setSessionId("http-" + i);
+            sr.setStartedTs(new Date());
+            _store.append(AuditOperation.createSessionRecord(sr));
+        }
+    }
+
+    private static long recordOffset(final RandomAccessFile raf,
+            final int index) throws IOException {
+        long offset = 0L;
+        for (int i = 0; i < index; ++i) {
+            raf.seek(offset);
+            offset += 4L + raf.readInt();
+        }
+        return offset;
+    }
+
+    private static List<String> ids(final List<AuditOperation> operations) {
+        final List<String> ids = new ArrayList<String>();
+        for (final AuditOperation operation : operations) {
+            ids.add(((SessionRecord) operation.getRecord()).getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.dao.PageKey;
+
+/**
+ * Test class for {@link FileRetentionCheckpointStore}.
+ */
+public class FileRetentionCheckpointStoreTest {
+
+    private File _file;
+
+    /**
+     * Pick a file that does not exist yet.
+     */
+    @Before
+    public void setUp() throws Exception {
+        _file = File.createTempFile("jaudit-retention", ".properties");
+        Assert.assertTrue(_file.delete());
+    }
+
+    /**
+     * Remove the file.
+     */
+    @After
+    public void tearDown() {
+        _file.delete();
+        new File(_file.getPath() + ".tmp").delete();
+    }
+
+    /**
+     * Checkpoints survive a new store and are removed by clear.
+     */
+    @Test
+    public void testSaveLoadClear() throws Exception {
+        final FileRetentionCheckpointStore store = new FileRetentionCheckpointStore(
+                _file);
+        Assert.assertNull(store.load("a"));
+        store.save("a", new PageKey(new Date(1000L), "e1"));
+        store.save("b", new PageKey(new Date(2000L), "e2"));
+        store.save("a", new PageKey(new Date(3000L), "e3"));
+
+        final FileRetentionCheckpointStore reopened = new FileRetentionCheckpointStore(
+                _file);
+        Assert.assertEquals(new PageKey(new Date(3000L), "e3"), reopened
+                .load("a"));
+        Assert.assertEquals(new PageKey(new Date(2000L), "e2"), reopened
+                .load("b"));
+
+        reopened.clear("a");
+        Assert.assertNull(new FileRetentionCheckpointStore(_file).load("a"));
+        Assert.assertNotNull(new FileRetentionCheckpointStore(_file).load("b"));
+    }
+
+    /**
+     * Ids containing commas are kept whole.
+     */
+    @Test
+    public void testIdWithComma() throws Exception {
+        new FileRetentionCheckpointStore(_file).save("a", new PageKey(
+                new Date(1000L), "e,1"));
+        Assert.assertEquals(new PageKey(new Date(1000L), "e,1"),
+                new FileRetentionCheckpointStore(_file).load("a"));
+    }
+
+    /**
+     * A corrupt checkpoint fails to load.
+     */
+    @Test(expected = IOException.class)
+    public void testInvalidCheckpoint() throws Exception {
+        final FileOutputStream out = new FileOutputStream(_file);
+        try {
+            out.write("a=yesterday,e1\n".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        new FileRetentionCheckpointStore(_file).load("a");
+    }
+}
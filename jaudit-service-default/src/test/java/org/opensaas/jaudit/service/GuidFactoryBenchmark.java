@@ -0,0 +1,106 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the throughput of the guid factories usable with
+ * {@link AuditServiceImpl#setGuidFactory(ObjectFactory)}. Not run as part of
+ * the build; start it with
+ * <tt>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opensaas.jaudit.service.GuidFactoryBenchmark</tt> or
+ * from an IDE.
+ * 
+ * Each measurement runs the factory from 1 up to 2 x the available
+ * processors threads after a warm up round and prints nanoseconds per
+ * identifier.
+ */
+public final class GuidFactoryBenchmark {
+
+    private static final int WARM_UP = 200000;
+
+    private static final int ITERATIONS = 1000000;
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            ignored.
+     * @throws Exception
+     *             when an error occurs.
+     */
+    public static void main(final String[] args) throws Exception {
+        final int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+        final ObjectFactory<?>[] factories = new ObjectFactory<?>[] {
+                new UUIDStringFactory(), new TimeOrderedStringFactory() };
+
+        for (final ObjectFactory<?> factory : factories) {
+            run(factory, 1, WARM_UP);
+        }
+
+        System.out.println("threads\tfactory\tns/id");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (final ObjectFactory<?> factory : factories) {
+                final double nanos = run(factory, threads, ITERATIONS);
+                System.out.println(threads + "\t"
+                        + factory.getClass().getSimpleName() + "\t"
+                        + String.format("%.1f", nanos));
+            }
+        }
+    }
+
+    /**
+     * Return the wall clock nanoseconds per identifier when the passed number
+     * of threads share the work.
+     */
+    private static double run(final ObjectFactory<?> factory,
+            final int threads, final int iterations) throws Exception {
+        final int perThread = iterations / threads;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final Object[] sink = new Object[threads];
+
+        for (int t = 0; t < threads; ++t) {
+            final int slot = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        Object last = null;
+                        for (int i = 0; i < perThread; ++i) {
+                            last = factory.getObject();
+                        }
+                        sink[slot] = last;
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long elapsed = System.nanoTime() - begin;
+        return (double) elapsed / (perThread * threads);
+    }
+
+    private GuidFactoryBenchmark() {
+        throw new UnsupportedOperationException(
+                "Cannot construct utility class.");
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEventMutable;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordMutable;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.TransactionRecordMutable;
+import org.opensaas.jaudit.dao.GenericDao;
+import org.opensaas.jaudit.dao.LifeCycleAuditEventDao;
+import org.opensaas.jaudit.dao.PageKey;
+import org.opensaas.jaudit.dao.PurgeableAuditEventDao;
+import org.opensaas.jaudit.dao.ResultCursor;
+import org.opensaas.jaudit.dao.SessionRecordDao;
+import org.opensaas.jaudit.dao.TransactionRecordDao;
+
+/**
+ * Map backed DAOs that record every call made to them, for service tests.
+ */
+/* package */final class InMemoryDaos {
+
+    /**
+     * Base class keeping records by id and a log of calls.
+     *
+     * @param <T>
+     *            the type stored.
+     */
+    abstract static class InMemoryDao<T> implements GenericDao<T, String> {
+
+        final Map<String, T> records = Collections
+                .synchronizedMap(new LinkedHashMap<String, T>());
+
+        final List<String> calls = Collections
+                .synchronizedList(new ArrayList<String>());
+
+        abstract String idOf(T record);
+
+        /**
+         * {@inheritDoc}
+         */
+        public String create(final T newInstance) {
+            calls.add("create");
+            records.put(idOf(newInstance), newInstance);
+            return idOf(newInstance);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public List<String> createAll(final Collection<? extends T> newInstances) {
+            calls.add("createAll:" + newInstances.size());
+            final List<String> ids = new ArrayList<String>();
+            for (final T t : newInstances) {
+                records.put(idOf(t), t);
+                ids.add(idOf(t));
+            }
+            return ids;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public T read(final String id) {
+            calls.add("read");
+            return records.get(id);
+        }
+
+        /**
+         * The services never query, so the finders are not supported.
+         *
+         * @return never.
+         */
+        ResultCursor<T> find() {
+            throw new UnsupportedOperationException("Queries not supported.");
+        }
+    }
+
+    /**
+     * In memory {@link SessionRecordDao}.
+     */
+    static class SessionRecords extends InMemoryDao<SessionRecordMutable>
+            implements SessionRecordDao<SessionRecordMutable> {
+
+        @Override
+        String idOf(final SessionRecordMutable record) {
+            return record.getId();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public SessionRecord updateEndedTs(final SessionRecord sessionRecord,
+                final Date endedTs) {
+            calls.add("updateEndedTs");
+            final SessionRecordMutable sr = records.get(sessionRecord.getId());
+            sr.setEndedTs(endedTs);
+            return sr;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public SessionRecord updateResponsibleInformation(
+                final SessionRecord sessionRecord,
+                final ResponsibleInformation responsibleInformation) {
+            calls.add("updateResponsibleInformation");
+            final SessionRecordMutable sr = records.get(sessionRecord.getId());
+            sr.setResponsibleInformation(responsibleInformation);
+            return sr;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResultCursor<SessionRecordMutable> findByResponsible(
+                final AuditSubject responsible, final Date from,
+                final Date to, final PageKey after, final int limit) {
+            return find();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResultCursor<SessionRecordMutable> findByStartedTs(
+                final Date from, final Date to, final PageKey after,
+                final int limit) {
+            return find();
+        }
+    }
+
+    /**
+     * In memory {@link TransactionRecordDao}.
+     */
+    static class TransactionRecords extends
+            InMemoryDao<TransactionRecordMutable> implements
+            TransactionRecordDao<TransactionRecordMutable> {
+
+        @Override
+        String idOf(final TransactionRecordMutable record) {
+            return record.getId();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public TransactionRecord transactionEnded(
+                final TransactionRecord transactionRecord,
+                final TransactionCompletionStatus transactionStatus,
+                final Date endedTs) {
+            calls.add("transactionEnded");
+            final TransactionRecordMutable tr = records.get(transactionRecord
+                    .getId());
+            tr.setEndedTs(endedTs);
+            tr.setTransactionCompletionStatus(transactionStatus);
+            return tr;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResultCursor<TransactionRecordMutable> findBySessionRecord(
+                final String sessionRecordId, final PageKey after,
+                final int limit) {
+            return find();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResultCursor<TransactionRecordMutable> findByStartedTs(
+                final Date from, final Date to, final PageKey after,
+                final int limit) {
+            return find();
+        }
+    }
+
+    /**
+     * In memory {@link LifeCycleAuditEventDao}.
+     */
+    static class LifeCycleAuditEvents extends
+            InMemoryDao<LifeCycleAuditEventMutable> implements
+            LifeCycleAuditEventDao<LifeCycleAuditEventMutable>,
+            PurgeableAuditEventDao<LifeCycleAuditEventMutable> {
+
+        @Override
+        String idOf(final LifeCycleAuditEventMutable record) {
+            return record.getId();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResultCursor<LifeCycleAuditEventMutable> findByTarget(
+                final AuditSubject target, final Date from, final Date to,
+                final PageKey after, final int limit) {
+            calls.add("findByTarget");
+            return page(target, from, to, after, limit);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResultCursor<LifeCycleAuditEventMutable> findBySessionRecord(
+                final String sessionRecordId, final PageKey after,
+                final int limit) {
+            return find();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResultCursor<LifeCycleAuditEventMutable> findByTransactionRecord(
+                final String transactionRecordId, final PageKey after,
+                final int limit) {
+            return find();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResultCursor<LifeCycleAuditEventMutable> findByTs(
+                final Date from, final Date to, final PageKey after,
+                final int limit) {
+            calls.add("findByTs");
+            return page(null, from, to, after, limit);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int deleteAll(final Collection<String> ids) {
+            calls.add("deleteAll:" + ids.size());
+            int deleted = 0;
+            for (final String id : ids) {
+                if (records.remove(id) != null) {
+                    deleted++;
+                }
+            }
+            return deleted;
+        }
+
+        private ResultCursor<LifeCycleAuditEventMutable> page(
+                final AuditSubject target, final Date from, final Date to,
+                final PageKey after, final int limit) {
+            final List<LifeCycleAuditEventMutable> matches = new ArrayList<LifeCycleAuditEventMutable>();
+            synchronized (records) {
+                for (final LifeCycleAuditEventMutable e : records.values()) {
+                    if ((target == null || target.equals(e.getTarget()))
+                            && (from == null || !e.getTs().before(from))
+                            && (to == null || e.getTs().before(to))
+                            && (after == null || compare(e, after) > 0)) {
+                        matches.add(e);
+                    }
+                }
+            }
+            Collections.sort(matches,
+                    new Comparator<LifeCycleAuditEventMutable>() {
+                        public int compare(final LifeCycleAuditEventMutable a,
+                                final LifeCycleAuditEventMutable b) {
+                            return LifeCycleAuditEvents.compare(a,
+                                    new PageKey(b.getTs(), b.getId()));
+                        }
+                    });
+            final Iterator<LifeCycleAuditEventMutable> it = (limit > 0
+                    && matches.size() > limit ? matches.subList(0, limit)
+                    : matches).iterator();
+            return new ResultCursor<LifeCycleAuditEventMutable>() {
+                private PageKey _pageKey;
+
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public LifeCycleAuditEventMutable next() {
+                    final LifeCycleAuditEventMutable e = it.next();
+                    _pageKey = new PageKey(e.getTs(), e.getId());
+                    return e;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                public PageKey getPageKey() {
+                    return _pageKey;
+                }
+
+                public void close() {
+                    // nothing to release
+                }
+            };
+        }
+
+        private static int compare(final LifeCycleAuditEventMutable e,
+                final PageKey key) {
+            final int c = e.getTs().compareTo(key.getTs());
+            return c != 0 ? c : e.getId().compareTo(key.getId());
+        }
+    }
+
+    private InMemoryDaos() {
+        throw new UnsupportedOperationException(
+                "Cannot construct utility class.");
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.util.Date;
+
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecordMutable;
+
+/**
+ * A minimal {@link SessionRecordMutable} for service tests.
+ */
+@SuppressWarnings("serial")
+/* package */class TestSessionRecord implements SessionRecordMutable {
+
+    private String _id;
+
+    private String _sessionId;
+
+    private Date _startedTs;
+
+    private Date _endedTs;
+
+    private AuditSubject _system;
+
+    private String _systemAddress;
+
+    private ResponsibleInformation _responsibleInformation;
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getId() {
+        return _id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setId(final String id) {
+        _id = id;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSessionId() {
+        return _sessionId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSessionId(final String sessionId) {
+        _sessionId = sessionId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Date getStartedTs() {
+        return _startedTs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setStartedTs(final Date startedTs) {
+        _startedTs = startedTs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Date getEndedTs() {
+        return _endedTs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setEndedTs(final Date endedTs) {
+        _endedTs = endedTs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public AuditSubject getSystem() {
+        return _system;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSystem(final AuditSubject system) {
+        _system = system;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSystemAddress() {
+        return _systemAddress;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSystemAddress(final String systemAddress) {
+        _systemAddress = systemAddress;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResponsibleInformation getResponsibleInformation() {
+        return _responsibleInformation;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setResponsibleInformation(
+            final ResponsibleInformation responsibleInformation) {
+        _responsibleInformation = responsibleInformation;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "TestSessionRecord[id=" + _id + "]";
+    }
+}
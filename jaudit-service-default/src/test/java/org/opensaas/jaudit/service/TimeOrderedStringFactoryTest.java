@@ -0,0 +1,128 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.opensaas.jaudit.test.LoopingTester;
+
+/**
+ * Test class for {@link TimeOrderedStringFactory}.
+ */
+public class TimeOrderedStringFactoryTest extends LoopingTester {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(TimeOrderedStringFactoryTest.class.getName());
+
+    private static final int IDS_PER_TASK = 100;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+
+    /**
+     * Identifiers are 26 Crockford base 32 characters.
+     */
+    @Test
+    public void testFormat() {
+        final String id = new TimeOrderedStringFactory().getObject();
+        Assert.assertEquals(26, id.length());
+        Assert.assertTrue(id, id.matches("[0-9A-HJKMNP-TV-Z]{26}"));
+    }
+
+    /**
+     * The identifiers of one thread are strictly increasing.
+     */
+    @Test
+    public void testMonotonic() {
+        final TimeOrderedStringFactory factory = new TimeOrderedStringFactory();
+        String previous = factory.getObject();
+        for (int i = 0; i < LOOPS; ++i) {
+            final String id = factory.getObject();
+            Assert.assertTrue(previous + " < " + id, previous.compareTo(id) < 0);
+            previous = id;
+        }
+    }
+
+    /**
+     * The creation time can be read back.
+     */
+    @Test
+    public void testGetTimestamp() {
+        final long before = System.currentTimeMillis();
+        final String id = new TimeOrderedStringFactory().getObject();
+        final long after = System.currentTimeMillis();
+
+        final long ts = TimeOrderedStringFactory.getTimestamp(id);
+        Assert.assertTrue(before <= ts);
+        Assert.assertTrue(ts <= after + 1L);
+    }
+
+    /**
+     * Anything else is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetTimestampInvalid() {
+        TimeOrderedStringFactory.getTimestamp("6ba7b810-9dad-11d1-80b4");
+    }
+
+    /**
+     * String order follows timestamp, then the random part as an unsigned
+     * number.
+     */
+    @Test
+    public void testEncodeOrder() {
+        final String[] ordered = new String[] {
+                TimeOrderedStringFactory.encode(1L, 0xFFFF, -1L),
+                TimeOrderedStringFactory.encode(2L, 0, 0L),
+                TimeOrderedStringFactory.encode(2L, 0, Long.MAX_VALUE),
+                TimeOrderedStringFactory.encode(2L, 0, Long.MIN_VALUE),
+                TimeOrderedStringFactory.encode(2L, 1, 0L),
+                TimeOrderedStringFactory.encode(0xFFFFFFFFFFFFL, 0, 0L) };
+        for (int i = 1; i < ordered.length; ++i) {
+            Assert.assertTrue(ordered[i - 1] + " < " + ordered[i],
+                    ordered[i - 1].compareTo(ordered[i]) < 0);
+        }
+        Assert.assertEquals("00000000020000000000000000", ordered[1]);
+        Assert.assertEquals("7ZZZZZZZZZ0000000000000000", ordered[5]);
+    }
+
+    /**
+     * Many threads never produce the same identifier.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        final TimeOrderedStringFactory factory = new TimeOrderedStringFactory();
+        final Map<String, Boolean> ids = new ConcurrentHashMap<String, Boolean>();
+        runInThreads(new Runnable() {
+            public void run() {
+                for (int i = 0; i < IDS_PER_TASK; ++i) {
+                    ids.put(factory.getObject(), Boolean.TRUE);
+                }
+            }
+        }, 60L, 8);
+        Assert.assertEquals(LOOPS * IDS_PER_TASK, ids.size());
+    }
+}
@@ -14,19 +14,26 @@ package org.opensaas.jaudit.service.spring;
 
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.persistence.Id;
-
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.AuditTarget;
+import org.opensaas.jaudit.AuditTargetId;
 import org.opensaas.jaudit.LifeCycleAudit;
 import org.opensaas.jaudit.service.AuditService;
 
 /**
  * AuditExecutor is used...
+ * 
+ * The audit target is the argument annotated with {@link AuditTarget}, or the
+ * id passed in the argument annotated with {@link AuditTargetId}, or else the
+ * first argument. Where to look is worked out once per method and class.
  */
 public class AuditExecutor {
 
@@ -35,6 +42,10 @@ public class AuditExecutor {
 
     private AuditService auditService;
 
+    private final ConcurrentMap<Class<?>, IdAccessor> _idAccessors = new ConcurrentHashMap<Class<?>, IdAccessor>();
+
+    private final ConcurrentMap<Method, ConcurrentMap<Class<?>, TargetExtractor>> _targetExtractors = new ConcurrentHashMap<Method, ConcurrentMap<Class<?>, TargetExtractor>>();
+
     /**
      * Create an audit record detailing that a particular operation has taken
      * place.
@@ -80,9 +91,39 @@ public class AuditExecutor {
 
     private AuditSubject getAuditSubject(final JoinPoint jp,
             final LifeCycleAudit lcAuditAnnotation, final Object returnValue) {
+        final TargetExtractor extractor;
+        if (jp.getSignature() instanceof MethodSignature) {
+            final Object target = jp.getTarget();
+            extractor = getTargetExtractor(((MethodSignature) jp
+                    .getSignature()).getMethod(), target == null ? null
+                    : target.getClass());
+        } else {
+            extractor = TargetExtractor.FIRST_ARGUMENT;
+        }
+        return getAuditSubject(extractor, jp.getArgs(), lcAuditAnnotation,
+                returnValue, jp);
+    }
 
-        final Object[] args = jp.getArgs();
-        if (args == null || args.length < 1) {
+    /**
+     * Build the audit subject from the arguments of an audited call.
+     * 
+     * @param extractor
+     *            where the target is among the arguments.
+     * @param args
+     *            the arguments of the audited call.
+     * @param lcAuditAnnotation
+     *            the annotation on the audited method.
+     * @param returnValue
+     *            what the audited call returned.
+     * @param jp
+     *            the join point, for logging.
+     * @return the audit subject, <tt>null</tt> if there is no target.
+     */
+    /* package */AuditSubject getAuditSubject(
+            final TargetExtractor extractor, final Object[] args,
+            final LifeCycleAudit lcAuditAnnotation, final Object returnValue,
+            final Object jp) {
+        if (args == null || args.length <= extractor.getIndex()) {
             LOGGER
                     .log(
                             Level.WARNING,
@@ -91,7 +132,7 @@ public class AuditExecutor {
             return null;
         }
 
-        final Object subject = args[0];
+        final Object subject = args[extractor.getIndex()];
         if (subject == null) {
             LOGGER
                     .log(
@@ -101,64 +142,58 @@ public class AuditExecutor {
             return null;
         }
 
+        if (extractor.isIdOnly()) {
+            final AuditSubject auditSubject = new AuditSubject();
+            if (extractor.getTargetType() != null) {
+                auditSubject.setSubjectType(extractor.getTargetType());
+            } else if (lcAuditAnnotation.subjectType() != null
+                    && !lcAuditAnnotation.subjectType().equals(Void.class)) {
+                auditSubject.setSubjectType(lcAuditAnnotation.subjectType()
+                        .getName());
+            }
+            auditSubject.setSubjectId(subject.toString());
+            return auditSubject;
+        }
+
+        return getAuditSubject(subject, lcAuditAnnotation, returnValue);
+    }
+
+    /**
+     * Build the audit subject for a non null subject.
+     * 
+     * @param subject
+     *            the first argument of the audited call.
+     * @param lcAuditAnnotation
+     *            the annotation on the audited method.
+     * @param returnValue
+     *            what the audited call returned.
+     * @return the audit subject.
+     */
+    /* package */AuditSubject getAuditSubject(final Object subject,
+            final LifeCycleAudit lcAuditAnnotation, final Object returnValue) {
         final AuditSubject auditSubject = new AuditSubject();
 
         if (lcAuditAnnotation.subjectType() != null
                 && !lcAuditAnnotation.subjectType().equals(Void.class)) {
             auditSubject.setSubjectType(lcAuditAnnotation.subjectType()
-                    .toString());
+                    .getName());
         } else {
             auditSubject.setSubjectType(subject.getClass().getName());
         }
 
-        final Method[] methods = subject.getClass().getMethods();
-
-        // First, try JPA annotations. In the future, we might try something
-        // else.
-
-        Method idMethod = null;
-
-        for (final Method m : methods) {
-            final Id annotation = m.getAnnotation(Id.class);
-            if (annotation != null) {
-                idMethod = m;
-                break;
-            }
-        }
-        if (idMethod == null) {
-            // try getId() next
-            for (final Method m : methods) {
-                if ("getId".equalsIgnoreCase(m.getName())
-                        && m.getParameterTypes().length == 0
-                        && !m.getReturnType().equals(Void.TYPE)) {
-                    idMethod = m;
-                }
-            }
-        }
-
-        if (idMethod == null || idMethod.getParameterTypes().length > 0
-                || idMethod.getReturnType().equals(Void.TYPE)) {
-            LOGGER
-                    .log(
-                            Level.WARNING,
-                            "Cannot determine an ID method for subject class of type {0}. Will default to hashcode id.",
-                            subject.getClass());
+        final IdAccessor idAccessor = getIdAccessor(subject.getClass());
+        if (!idAccessor.isResolved()) {
             auditSubject.setSubjectId(Integer.toHexString(subject.hashCode()));
             return auditSubject;
         }
 
-        final boolean isAccessible = idMethod.isAccessible();
-        if (!isAccessible) {
-            idMethod.setAccessible(true);
-        }
-
         try {
-            Object id = idMethod.invoke(subject);
+            Object id = idAccessor.getId(subject);
             if (id == null
                     && returnValue != null
                     && returnValue.getClass().isAssignableFrom(
                             subject.getClass())) {
-                id = idMethod.invoke(returnValue);
+                id = idAccessor.getId(returnValue);
             }
             if (id != null) {
                 auditSubject.setSubjectId(id.toString());
@@ -167,7 +202,7 @@ public class AuditExecutor {
                         .log(
                                 Level.WARNING,
                                 "Cannot uniquely identify subject {0} as the id returned by method {1} is null.  Will default to hashcode id.",
-                                new Object[] { subject, idMethod });
+                                new Object[] { subject, idAccessor.getMethod() });
                 auditSubject.setSubjectId(Integer.toHexString(subject
                         .hashCode()));
             }
@@ -176,17 +211,90 @@ public class AuditExecutor {
                     .log(
                             Level.WARNING,
                             "Cannot execute ID method {0} on subject {1}.  Message={2}  Will default to hashcode id.",
-                            new Object[] { idMethod, subject, e.getMessage() });
+                            new Object[] { idAccessor.getMethod(), subject,
+                                    e.getMessage() });
             LOGGER
                     .log(Level.WARNING, "Cannot execute id method (CONTINUED)",
                             e);
             auditSubject.setSubjectId(Integer.toHexString(subject.hashCode()));
-        } finally {
-            if (!isAccessible) {
-                idMethod.setAccessible(false);
-            }
         }
 
         return auditSubject;
     }
+
+    /**
+     * Return the target extractor for the passed method as implemented by the
+     * passed class, compiling and caching it on first use. Annotations on the
+     * implementation win over those on the interface method.
+     * 
+     * @param method
+     *            the method being audited, as seen by the join point.
+     * @param targetClass
+     *            the class of the object being called, if known.
+     * @return the extractor.
+     */
+    /* package */TargetExtractor getTargetExtractor(final Method method,
+            final Class<?> targetClass) {
+        ConcurrentMap<Class<?>, TargetExtractor> byClass = _targetExtractors
+                .get(method);
+        if (byClass == null) {
+            byClass = new ConcurrentHashMap<Class<?>, TargetExtractor>();
+            final ConcurrentMap<Class<?>, TargetExtractor> existing = _targetExtractors
+                    .putIfAbsent(method, byClass);
+            if (existing != null) {
+                byClass = existing;
+            }
+        }
+
+        final Class<?> key = targetClass == null ? method.getDeclaringClass()
+                : targetClass;
+        TargetExtractor extractor = byClass.get(key);
+        if (extractor == null) {
+            Method specific = method;
+            if (!key.equals(method.getDeclaringClass())) {
+                try {
+                    specific = key.getMethod(method.getName(), method
+                            .getParameterTypes());
+                } catch (final NoSuchMethodException e) {
+                    specific = method;
+                }
+            }
+            extractor = TargetExtractor.compile(specific, method);
+            final TargetExtractor existing = byClass.putIfAbsent(key,
+                    extractor);
+            if (existing != null) {
+                extractor = existing;
+            }
+        }
+        return extractor;
+    }
+
+    /**
+     * Return the id accessor for the passed class, resolving and caching it on
+     * first use. Classes without an id method are cached as well so the
+     * hashcode fallback costs no scan either.
+     * 
+     * @param type
+     *            the subject's class.
+     * @return the accessor.
+     */
+    /* package */IdAccessor getIdAccessor(final Class<?> type) {
+        IdAccessor idAccessor = _idAccessors.get(type);
+        if (idAccessor == null) {
+            idAccessor = IdAccessor.resolve(type);
+            if (!idAccessor.isResolved()) {
+                LOGGER
+                        .log(
+                                Level.WARNING,
+                                "Cannot determine an ID method for subject class of type {0}. Will default to hashcode id.",
+                                type);
+            }
+            final IdAccessor existing = _idAccessors.putIfAbsent(type,
+                    idAccessor);
+            if (existing != null) {
+                idAccessor = existing;
+            }
+        }
+        return idAccessor;
+    }
 }
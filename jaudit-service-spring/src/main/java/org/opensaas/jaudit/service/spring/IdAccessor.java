@@ -0,0 +1,120 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javax.persistence.Id;
+
+/**
+ * The resolved way of reading the id of instances of one class. Resolution
+ * scans the public methods once; the result, including "no id method", is
+ * meant to be cached per class.
+ */
+/* package */final class IdAccessor {
+
+    /**
+     * The accessor for classes without an id method; callers fall back to the
+     * hash code.
+     */
+    static final IdAccessor NONE = new IdAccessor(null);
+
+    private final Method _method;
+
+    private IdAccessor(final Method method) {
+        _method = method;
+    }
+
+    /**
+     * Find the id method of the passed class: first a public method annotated
+     * with {@link Id}, then a public no argument <tt>getId</tt> method.
+     * 
+     * @param type
+     *            the class to inspect.
+     * @return the accessor, {@link #NONE} if there is no usable method.
+     */
+    static IdAccessor resolve(final Class<?> type) {
+        final Method[] methods = type.getMethods();
+
+        // First, try JPA annotations. In the future, we might try something
+        // else.
+
+        Method idMethod = null;
+
+        for (final Method m : methods) {
+            final Id annotation = m.getAnnotation(Id.class);
+            if (annotation != null) {
+                idMethod = m;
+                break;
+            }
+        }
+        if (idMethod == null) {
+            // try getId() next
+            for (final Method m : methods) {
+                if ("getId".equalsIgnoreCase(m.getName())
+                        && m.getParameterTypes().length == 0
+                        && !m.getReturnType().equals(Void.TYPE)) {
+                    idMethod = m;
+                }
+            }
+        }
+
+        if (idMethod == null || idMethod.getParameterTypes().length > 0
+                || idMethod.getReturnType().equals(Void.TYPE)) {
+            return NONE;
+        }
+
+        // public methods of non public classes still need this; done once
+        // here instead of around every call
+        idMethod.setAccessible(true);
+        return new IdAccessor(idMethod);
+    }
+
+    /**
+     * Return whether an id method was found.
+     * 
+     * @return <tt>false</tt> for {@link #NONE}.
+     */
+    boolean isResolved() {
+        return _method != null;
+    }
+
+    /**
+     * Return the id method.
+     * 
+     * @return the id method, <tt>null</tt> for {@link #NONE}.
+     */
+    Method getMethod() {
+        return _method;
+    }
+
+    /**
+     * Read the id of the passed instance.
+     * 
+     * @param subject
+     *            an instance of the resolved class.
+     * @return the id, possibly <tt>null</tt>.
+     * @throws IllegalAccessException
+     *             when the method can not be called.
+     * @throws InvocationTargetException
+     *             when the method throws.
+     */
+    Object getId(final Object subject) throws IllegalAccessException,
+            InvocationTargetException {
+        if (_method == null) {
+            throw new IllegalStateException("No id method to call.");
+        }
+        return _method.invoke(subject);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+import org.opensaas.jaudit.AuditTarget;
+import org.opensaas.jaudit.AuditTargetId;
+
+/**
+ * Where the audit target of one audited method is found among its arguments.
+ * Built once per method from its {@link AuditTarget} and
+ * {@link AuditTargetId} parameter annotations; without either the first
+ * argument is the target.
+ */
+/* package */final class TargetExtractor {
+
+    /**
+     * The extractor for methods without target annotations.
+     */
+    static final TargetExtractor FIRST_ARGUMENT = new TargetExtractor(0,
+            false, null);
+
+    private final int _index;
+
+    private final boolean _idOnly;
+
+    private final String _targetType;
+
+    private TargetExtractor(final int index, final boolean idOnly,
+            final String targetType) {
+        _index = index;
+        _idOnly = idOnly;
+        _targetType = targetType;
+    }
+
+    /**
+     * Scan the parameter annotations of the passed method, then of the
+     * passed fallback (usually the interface method it implements) if the
+     * first has none.
+     * 
+     * @param method
+     *            the method being audited.
+     * @param fallback
+     *            an optional method to scan when the first has no target
+     *            annotations.
+     * @return the extractor, {@link #FIRST_ARGUMENT} when neither method is
+     *         annotated.
+     */
+    static TargetExtractor compile(final Method method, final Method fallback) {
+        final TargetExtractor extractor = compile(method);
+        if (extractor == null && fallback != null && fallback != method) {
+            final TargetExtractor fromFallback = compile(fallback);
+            if (fromFallback != null) {
+                return fromFallback;
+            }
+        }
+        return extractor == null ? FIRST_ARGUMENT : extractor;
+    }
+
+    private static TargetExtractor compile(final Method method) {
+        final Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < annotations.length; ++i) {
+            for (final Annotation a : annotations[i]) {
+                if (a instanceof AuditTarget) {
+                    return new TargetExtractor(i, false, null);
+                }
+                if (a instanceof AuditTargetId) {
+                    final AuditTargetId targetId = (AuditTargetId) a;
+                    String targetType = targetId.targetType();
+                    if (targetType == null || targetType.length() < 1) {
+                        targetType = Object.class.equals(targetId
+                                .targetTypeClass()) ? null : targetId
+                                .targetTypeClass().getName();
+                    }
+                    return new TargetExtractor(i, true, targetType);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the index of the argument holding the target.
+     * 
+     * @return the argument index.
+     */
+    int getIndex() {
+        return _index;
+    }
+
+    /**
+     * Return whether the argument is the target's id rather than the target.
+     * 
+     * @return <tt>true</tt> for {@link AuditTargetId} parameters.
+     */
+    boolean isIdOnly() {
+        return _idOnly;
+    }
+
+    /**
+     * Return the target type named by an {@link AuditTargetId} parameter.
+     * 
+     * @return the target type, <tt>null</tt> if not given.
+     */
+    String getTargetType() {
+        return _targetType;
+    }
+}
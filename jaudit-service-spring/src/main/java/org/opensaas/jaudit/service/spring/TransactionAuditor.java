@@ -15,14 +15,23 @@ package org.opensaas.jaudit.service.spring;
 import java.util.Date;
 import java.util.logging.Logger;
 
+import org.opensaas.jaudit.SessionRecord;
 import org.opensaas.jaudit.TransactionRecord;
 import org.opensaas.jaudit.service.AuditService;
+import org.opensaas.jaudit.service.ObjectFactory;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+/**
+ * Records the start and completion of each new transaction.
+ * 
+ * The record of the transaction the calling thread runs in is available
+ * through a {@link TransactionRecordFactory}, for an {@link AuditService} to
+ * put on the events it creates.
+ */
 public class TransactionAuditor implements ApplicationListener {
 
     static private final Logger LOGGER = Logger
@@ -34,55 +43,149 @@ public class TransactionAuditor implements ApplicationListener {
 
     private AuditService _auditService;
 
+    private ObjectFactory<String> _transactionIdFactory = new TransactionIdFactory();
+
+    private boolean _writeBehind = false;
+
     /**
      * {@inheritDoc}
      */
     public void onApplicationEvent(final ApplicationEvent event) {
-        if (NewTransactionEvent.class.isAssignableFrom(event.getClass())) {
+        if (event instanceof NewTransactionEvent) {
             final NewTransactionEvent te = (NewTransactionEvent) event;
+            transactionStarted(te.getTransactionStatus(), te.getSessionRecord());
+        }
 
-            final TransactionStatus ts = te.getTransactionStatus();
-
-            if (ts != null && ts.isNewTransaction()) {
-                final TransactionRecord tr = _auditService
-                        .createTransactionRecord(Integer.toHexString(ts
-                                .hashCode()), te.getSessionRecord());
+    }
 
-                final TransactionStatusSynchronization tss = new TransactionStatusSynchronization(
-                        tr);
-                TransactionSynchronizationManager.registerSynchronization(tss);
+    /**
+     * Record a new transaction and register the synchronization that records
+     * its completion. {@link TransactionEventBridge} calls this directly when
+     * it is given this auditor, which avoids publishing a
+     * {@link NewTransactionEvent} to every listener in the context.
+     * 
+     * @param ts
+     *            the status of the transaction; ignored unless it is a new
+     *            transaction.
+     * @param sessionRecord
+     *            the session the transaction runs in, may be <tt>null</tt>.
+     */
+    public void transactionStarted(final TransactionStatus ts,
+            final SessionRecord sessionRecord) {
+        if (ts != null && ts.isNewTransaction()) {
+            final String transactionId = _transactionIdFactory.getObject();
+            final TransactionRecord tr = _writeBehind ? _auditService
+                    .newTransactionRecord(transactionId, sessionRecord)
+                    : _auditService.createTransactionRecord(transactionId,
+                            sessionRecord);
+
+            final TransactionStatusSynchronization tss = new TransactionStatusSynchronization(
+                    tr, _writeBehind);
+            TransactionSynchronizationManager.registerSynchronization(tss);
+        }
+    }
 
+    /**
+     * Return the record of the transaction the calling thread runs in. In
+     * write behind mode the record is saved first, inside the transaction, the
+     * first time it is asked for, so whatever refers to it is flushed after
+     * it; the record is then updated rather than inserted on completion.
+     * 
+     * @return the transaction record, or <tt>null</tt> if the current
+     *         transaction is not audited.
+     */
+    static /* package */TransactionRecord getCurrentTransactionRecord() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        for (final Object synchronization : TransactionSynchronizationManager
+                .getSynchronizations()) {
+            if (synchronization instanceof TransactionStatusSynchronization) {
+                return ((TransactionStatusSynchronization) synchronization)
+                        .getSavedTransactionRecord();
             }
-
         }
-
+        return null;
     }
 
     public void setAuditService(AuditService auditService) {
         _auditService = auditService;
     }
 
+    /**
+     * Set the source of the ids stored in
+     * {@link TransactionRecord#getTransactionId()}. The ids must be unique;
+     * the default is a {@link TransactionIdFactory}.
+     * 
+     * @param transactionIdFactory
+     *            the transaction id factory.
+     */
+    public void setTransactionIdFactory(
+            final ObjectFactory<String> transactionIdFactory) {
+        if (transactionIdFactory == null) {
+            throw new IllegalArgumentException(
+                    "Transaction id factory is required.");
+        }
+        _transactionIdFactory = transactionIdFactory;
+    }
+
+    /**
+     * When set, the transaction record is kept in memory while the transaction
+     * runs and written once, with its end timestamp and status, when the
+     * transaction completes. This replaces an insert plus an update with a
+     * single insert. A transaction whose record is asked for through a
+     * {@link TransactionRecordFactory} still takes an insert plus an update, since events
+     * referring to the record are written before it completes. Default
+     * <tt>false</tt>.
+     * 
+     * @param writeBehind
+     *            <tt>true</tt> to write the transaction record on completion
+     *            only.
+     */
+    public void setWriteBehind(final boolean writeBehind) {
+        _writeBehind = writeBehind;
+    }
+
     private class TransactionStatusSynchronization implements
             TransactionSynchronization {
 
         private final TransactionRecord _transactionRecord;
 
+        private boolean _unsaved;
+
         /**
          * Default required constructor.
          * 
          * @param transactionRecord
+         * @param unsaved
+         *            <tt>true</tt> if the record has not been written yet.
          */
         public TransactionStatusSynchronization(
-                final TransactionRecord transactionRecord) {
+                final TransactionRecord transactionRecord,
+                final boolean unsaved) {
 
             if (transactionRecord == null) {
                 throw new IllegalArgumentException(
                         "Transaction must not be null.");
             }
             _transactionRecord = transactionRecord;
+            _unsaved = unsaved;
 
         }
 
+        /**
+         * Return the record, saving it first if it has not been.
+         * 
+         * @return the saved record.
+         */
+        /* package */TransactionRecord getSavedTransactionRecord() {
+            if (_unsaved) {
+                _auditService.createStartedTransactionRecord(_transactionRecord);
+                _unsaved = false;
+            }
+            return _transactionRecord;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -114,12 +217,17 @@ public class TransactionAuditor implements ApplicationListener {
                     tsCode = org.opensaas.jaudit.TransactionCompletionStatus.STATUS_COMMITTED;
                 break;
                 case STATUS_ROLLED_BACK:
-                    tsCode = org.opensaas.jaudit.TransactionCompletionStatus.STATUS_COMMITTED;
+                    tsCode = org.opensaas.jaudit.TransactionCompletionStatus.STATUS_ROLLED_BACK;
                 break;
                 }
 
-                _auditService.updateTransactionEnded(_transactionRecord,
-                        tsCode, new Date());
+                if (_unsaved) {
+                    _auditService.createCompletedTransactionRecord(
+                            _transactionRecord, tsCode, new Date());
+                } else {
+                    _auditService.updateTransactionEnded(_transactionRecord,
+                            tsCode, new Date());
+                }
             } finally {
                 AUDITING_LOCK.remove();
             }
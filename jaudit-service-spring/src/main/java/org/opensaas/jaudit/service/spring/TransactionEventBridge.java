@@ -28,6 +28,15 @@ import org.springframework.transaction.TransactionStatus;
 
 /**
  * A bridge to conver transaction life cycle events into application events.
+ * 
+ * When a {@link TransactionAuditor} is set, new transactions are handed to it
+ * directly and no event is published; otherwise a {@link NewTransactionEvent}
+ * is published to the application context.
+ * 
+ * A lazy {@link AuditSession} is not resolved for a transaction: its record is
+ * passed only once something else has created it. Resolving it here would
+ * create a session record for every transaction, and would recurse when the
+ * record is created in a transaction of its own.
  */
 public class TransactionEventBridge implements ApplicationContextAware {
 
@@ -36,6 +45,8 @@ public class TransactionEventBridge implements ApplicationContextAware {
 
     private ApplicationContext _applicationContext;
 
+    private TransactionAuditor _transactionAuditor;
+
     /**
      * Create an audit record detailing that a particular operation has taken
      * place.
@@ -59,23 +70,28 @@ public class TransactionEventBridge implements ApplicationContextAware {
         // make the call
         final Object retval = jp.proceed();
 
-        if (PlatformTransactionManager.class.isAssignableFrom(jp.getTarget()
-                .getClass())) {
-
-            final SessionRecord sr = AuditSession.getAuditSession() != null ? AuditSession
-                    .getAuditSession().getSessionRecord()
-                    : null;
+        if (jp.getTarget() instanceof PlatformTransactionManager) {
 
             final String methodName = jp.getSignature().getName();
 
             if ("getTransaction".equals(methodName)) {
                 final TransactionStatus ts = (TransactionStatus) retval;
 
-                if (ts.isNewTransaction()) {
-                    _applicationContext
-                            .publishEvent(new NewTransactionEvent(
-                                    (PlatformTransactionManager) jp.getTarget(),
-                                    ts, sr));
+                if (ts != null && ts.isNewTransaction()) {
+                    final AuditSession session = AuditSession
+                            .getAuditSession();
+                    final SessionRecord sr = session != null
+                            && session.isResolved() ? session
+                            .getSessionRecord() : null;
+
+                    if (_transactionAuditor != null) {
+                        _transactionAuditor.transactionStarted(ts, sr);
+                    } else {
+                        _applicationContext
+                                .publishEvent(new NewTransactionEvent(
+                                        (PlatformTransactionManager) jp
+                                                .getTarget(), ts, sr));
+                    }
                 }
             }
         }
@@ -93,4 +109,17 @@ public class TransactionEventBridge implements ApplicationContextAware {
 
     }
 
+    /**
+     * Hand new transactions straight to the passed auditor instead of
+     * publishing a {@link NewTransactionEvent}. Set to <tt>null</tt>, the
+     * default, to publish events.
+     * 
+     * @param transactionAuditor
+     *            the auditor, or <tt>null</tt>.
+     */
+    public void setTransactionAuditor(
+            final TransactionAuditor transactionAuditor) {
+        _transactionAuditor = transactionAuditor;
+    }
+
 }
\ No newline at end of file
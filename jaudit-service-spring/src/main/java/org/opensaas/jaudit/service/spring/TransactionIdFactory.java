@@ -0,0 +1,64 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opensaas.jaudit.service.ObjectFactory;
+
+/**
+ * The default source of transaction ids for {@link TransactionAuditor}.
+ * 
+ * An id is <tt>instance-thread-sequence</tt>: a prefix drawn once per factory
+ * from the clock and {@link SecureRandom}, a number handed to each thread the
+ * first time it asks, and a per thread counter, all in base 36. Threads never
+ * share state after their first id, and because thread numbers are never
+ * reused (unlike {@link Thread#getId()}) ids are unique for the life of the
+ * factory; the prefix keeps them apart across restarts and nodes.
+ */
+public class TransactionIdFactory implements ObjectFactory<String> {
+
+    private final String _prefix;
+
+    private final AtomicLong _threads = new AtomicLong();
+
+    private final ThreadLocal<long[]> _state = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { _threads.incrementAndGet(), 0L };
+        }
+    };
+
+    /**
+     * Default required constructor.
+     */
+    public TransactionIdFactory() {
+        final long random = new SecureRandom().nextLong() & Long.MAX_VALUE;
+        _prefix = Long.toString(System.currentTimeMillis(), 36)
+                + Long.toString(random, 36) + '-';
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getObject() {
+        final long[] state = _state.get();
+        final StringBuilder sb = new StringBuilder(48);
+        sb.append(_prefix);
+        sb.append(Long.toString(state[0], 36));
+        sb.append('-');
+        sb.append(Long.toString(++state[1], 36));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.service.ObjectFactory;
+
+/**
+ * Returns the record {@link TransactionAuditor} keeps for the transaction the
+ * calling thread runs in, or <tt>null</tt> if it is not audited. Set it as the
+ * transaction record source of the audit service so events refer to their
+ * transaction. It holds no state, so it can be wired into the audit service
+ * without a reference back to the auditor.
+ */
+public class TransactionRecordFactory implements
+        ObjectFactory<TransactionRecord> {
+
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecord getObject() {
+        return TransactionAuditor.getCurrentTransactionRecord();
+    }
+}
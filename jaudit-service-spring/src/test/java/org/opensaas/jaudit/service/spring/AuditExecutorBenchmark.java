@@ -0,0 +1,91 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import org.opensaas.jaudit.LifeCycleAudit;
+
+/**
+ * Measures the per call cost of building an audit subject with the id
+ * accessor resolved on every call, as {@link AuditExecutor} used to, against
+ * the cached accessor. Not run as part of the build; start it from an IDE or
+ * with the test classpath.
+ */
+public final class AuditExecutorBenchmark {
+
+    private static final int ITERATIONS = 2000000;
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            ignored.
+     * @throws Exception
+     *             when an error occurs.
+     */
+    public static void main(final String[] args) throws Exception {
+        final LifeCycleAudit annotation = AuditExecutorTest.getAnnotation();
+        final AuditExecutor executor = new AuditExecutor();
+        final Object[] subjects = new Object[] {
+                new AuditExecutorTest.AnnotatedSubject(42L),
+                new AuditExecutorTest.PlainSubject("abc"),
+                new AuditExecutorTest.Anonymous() };
+
+        for (int round = 0; round < 3; ++round) {
+            System.out.println("round " + round);
+            for (final Object subject : subjects) {
+                final String name = subject.getClass().getSimpleName();
+                System.out.println("  " + name + "\tresolve per call\t"
+                        + String.format("%.1f", perCall(subject)) + " ns");
+                System.out.println("  " + name + "\tcached\t\t"
+                        + String.format("%.1f", cached(executor, subject,
+                                annotation)) + " ns");
+            }
+        }
+    }
+
+    private static double perCall(final Object subject) throws Exception {
+        Object sink = null;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            final IdAccessor accessor = IdAccessor.resolve(subject.getClass());
+            sink = accessor.isResolved() ? accessor.getId(subject) : Integer
+                    .toHexString(subject.hashCode());
+        }
+        final long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return (double) elapsed / ITERATIONS;
+    }
+
+    private static double cached(final AuditExecutor executor,
+            final Object subject, final LifeCycleAudit annotation) {
+        Object sink = null;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            sink = executor.getAuditSubject(subject, annotation, null);
+        }
+        final long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return (double) elapsed / ITERATIONS;
+    }
+
+    private static void consume(final Object sink) {
+        if (sink == null) {
+            System.out.println();
+        }
+    }
+
+    private AuditExecutorBenchmark() {
+        throw new UnsupportedOperationException(
+                "Cannot construct utility class.");
+    }
+}
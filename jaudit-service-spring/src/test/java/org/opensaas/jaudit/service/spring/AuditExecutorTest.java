@@ -0,0 +1,314 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import java.lang.reflect.Method;
+
+import javax.persistence.Id;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.AuditTarget;
+import org.opensaas.jaudit.AuditTargetId;
+import org.opensaas.jaudit.LifeCycleAudit;
+import org.opensaas.jaudit.LifeCycleType;
+
+/**
+ * Test class for {@link AuditExecutor}.
+ */
+public class AuditExecutorTest {
+
+    /**
+     * A subject whose id is marked with {@link Id}.
+     */
+    public static class AnnotatedSubject {
+        private final Long _key;
+
+        /**
+         * Constructor.
+         * 
+         * @param key
+         *            the id.
+         */
+        public AnnotatedSubject(final Long key) {
+            _key = key;
+        }
+
+        /**
+         * Return the id.
+         * 
+         * @return the id.
+         */
+        @Id
+        public Long getKey() {
+            return _key;
+        }
+
+        /**
+         * Not the id, despite the name.
+         * 
+         * @return a constant.
+         */
+        public String getId() {
+            return "wrong";
+        }
+    }
+
+    /**
+     * A subject with a plain <tt>getId</tt> in a non public class.
+     */
+    static class PlainSubject {
+        private final String _id;
+
+        PlainSubject(final String id) {
+            _id = id;
+        }
+
+        /**
+         * Return the id.
+         * 
+         * @return the id.
+         */
+        public String getId() {
+            return _id;
+        }
+    }
+
+    /**
+     * A subject without an id.
+     */
+    static class Anonymous {
+        // nothing
+    }
+
+    /**
+     * A service interface without annotations.
+     */
+    public interface Manager {
+        /**
+         * Remove by id.
+         * 
+         * @param id
+         *            the id.
+         */
+        void remove(Long id);
+
+        /**
+         * Attach a child to a parent.
+         * 
+         * @param parent
+         *            the parent.
+         * @param child
+         *            the child.
+         */
+        void attach(Object parent, Object child);
+    }
+
+    /**
+     * A service implementation annotating its targets.
+     */
+    public static class ManagerImpl implements Manager {
+        /**
+         * {@inheritDoc}
+         */
+        public void remove(
+                @AuditTargetId(targetTypeClass = AnnotatedSubject.class) final Long id) {
+            // nothing
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void attach(final Object parent, @AuditTarget final Object child) {
+            // nothing
+        }
+    }
+
+    /**
+     * Audited the way a service method would be.
+     * 
+     * @param subject
+     *            ignored.
+     */
+    @LifeCycleAudit(type = LifeCycleType.UPDATE)
+    public void update(final Object subject) {
+        // nothing
+    }
+
+    /**
+     * Audited with an explicit subject type.
+     * 
+     * @param subject
+     *            ignored.
+     */
+    @LifeCycleAudit(type = LifeCycleType.UPDATE, subjectType = AnnotatedSubject.class)
+    public void updateTyped(final Object subject) {
+        // nothing
+    }
+
+    /* package */static LifeCycleAudit getAnnotation() {
+        try {
+            return AuditExecutorTest.class.getMethod("update", Object.class)
+                    .getAnnotation(LifeCycleAudit.class);
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * An {@link Id} method wins over <tt>getId</tt>.
+     */
+    @Test
+    public void testAnnotatedId() {
+        final AuditSubject subject = new AuditExecutor().getAuditSubject(
+                new AnnotatedSubject(42L), getAnnotation(), null);
+        Assert.assertEquals("42", subject.getSubjectId());
+        Assert.assertEquals(AnnotatedSubject.class.getName(), subject
+                .getSubjectType());
+    }
+
+    /**
+     * An explicit subject type is recorded by class name, the same way as on
+     * the id only path and for unannotated subjects.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testSubjectTypeName() throws Exception {
+        final LifeCycleAudit annotation = AuditExecutorTest.class.getMethod(
+                "updateTyped", Object.class).getAnnotation(
+                LifeCycleAudit.class);
+        final AuditSubject subject = new AuditExecutor().getAuditSubject(
+                new PlainSubject("abc"), annotation, null);
+        Assert.assertEquals(AnnotatedSubject.class.getName(), subject
+                .getSubjectType());
+    }
+
+    /**
+     * <tt>getId</tt> is used, even on a non public class.
+     */
+    @Test
+    public void testGetId() {
+        final AuditSubject subject = new AuditExecutor().getAuditSubject(
+                new PlainSubject("abc"), getAnnotation(), null);
+        Assert.assertEquals("abc", subject.getSubjectId());
+    }
+
+    /**
+     * A null id is taken from the return value when possible.
+     */
+    @Test
+    public void testIdFromReturnValue() {
+        final AuditSubject subject = new AuditExecutor().getAuditSubject(
+                new PlainSubject(null), getAnnotation(), new PlainSubject(
+                        "saved"));
+        Assert.assertEquals("saved", subject.getSubjectId());
+    }
+
+    /**
+     * Classes without an id fall back to the hash code.
+     */
+    @Test
+    public void testHashCodeFallback() {
+        final Anonymous anonymous = new Anonymous();
+        final AuditSubject subject = new AuditExecutor().getAuditSubject(
+                anonymous, getAnnotation(), null);
+        Assert.assertEquals(Integer.toHexString(anonymous.hashCode()), subject
+                .getSubjectId());
+    }
+
+    /**
+     * An {@link AuditTargetId} parameter is used as the id without loading
+     * anything.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testAuditTargetId() throws Exception {
+        final AuditExecutor executor = new AuditExecutor();
+        final TargetExtractor extractor = executor.getTargetExtractor(
+                Manager.class.getMethod("remove", Long.class),
+                ManagerImpl.class);
+        Assert.assertTrue(extractor.isIdOnly());
+
+        final AuditSubject subject = executor.getAuditSubject(extractor,
+                new Object[] { 7L }, getAnnotation(), null, "remove");
+        Assert.assertEquals("7", subject.getSubjectId());
+        Assert.assertEquals(AnnotatedSubject.class.getName(), subject
+                .getSubjectType());
+    }
+
+    /**
+     * An {@link AuditTarget} parameter is used instead of the first argument.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testAuditTarget() throws Exception {
+        final AuditExecutor executor = new AuditExecutor();
+        final TargetExtractor extractor = executor.getTargetExtractor(
+                Manager.class.getMethod("attach", Object.class, Object.class),
+                ManagerImpl.class);
+        Assert.assertEquals(1, extractor.getIndex());
+        Assert.assertFalse(extractor.isIdOnly());
+
+        final AuditSubject subject = executor.getAuditSubject(extractor,
+                new Object[] { new PlainSubject("parent"),
+                        new PlainSubject("child") }, getAnnotation(), null,
+                "attach");
+        Assert.assertEquals("child", subject.getSubjectId());
+    }
+
+    /**
+     * Without annotations the first argument is the target, and extractors
+     * are compiled once per method and class.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testExtractorsCached() throws Exception {
+        final AuditExecutor executor = new AuditExecutor();
+        final Method remove = Manager.class.getMethod(
+                "remove", Long.class);
+        Assert.assertSame(TargetExtractor.FIRST_ARGUMENT, executor
+                .getTargetExtractor(remove, null));
+        final TargetExtractor extractor = executor.getTargetExtractor(remove,
+                ManagerImpl.class);
+        Assert.assertSame(extractor, executor.getTargetExtractor(remove,
+                ManagerImpl.class));
+        Assert.assertNull(executor.getAuditSubject(extractor, new Object[0],
+                getAnnotation(), null, "remove"));
+    }
+
+    /**
+     * Accessors, including the lack of one, are resolved once per class.
+     */
+    @Test
+    public void testAccessorsCached() {
+        final AuditExecutor executor = new AuditExecutor();
+        final IdAccessor plain = executor.getIdAccessor(PlainSubject.class);
+        Assert.assertTrue(plain.isResolved());
+        Assert.assertSame(plain, executor.getIdAccessor(PlainSubject.class));
+
+        Assert.assertSame(IdAccessor.NONE, executor
+                .getIdAccessor(Anonymous.class));
+        Assert.assertSame(IdAccessor.NONE, executor
+                .getIdAccessor(Anonymous.class));
+    }
+}
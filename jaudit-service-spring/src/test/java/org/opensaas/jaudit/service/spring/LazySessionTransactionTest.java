@@ -0,0 +1,194 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEvent;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.service.AuditService;
+import org.opensaas.jaudit.session.AuditSession;
+import org.opensaas.jaudit.session.SessionRecordResolver;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+/**
+ * Lazy audit sessions whose records are created in a transaction of their
+ * own, with transactions audited through a {@link TransactionEventBridge}.
+ */
+public class LazySessionTransactionTest {
+
+    /**
+     * A transaction manager without a resource that supports suspension, so
+     * <tt>PROPAGATION_REQUIRES_NEW</tt> begins a new transaction.
+     */
+    public static class TransactionManager extends
+            AbstractPlatformTransactionManager {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final ThreadLocal<Object> CURRENT = new ThreadLocal<Object>();
+
+        final AtomicInteger begun = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected Object doGetTransaction() {
+            return new Object[] { CURRENT.get() };
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected boolean isExistingTransaction(final Object transaction) {
+            return ((Object[]) transaction)[0] != null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doBegin(final Object transaction,
+                final TransactionDefinition definition) {
+            begun.incrementAndGet();
+            final Object current = new Object();
+            ((Object[]) transaction)[0] = current;
+            CURRENT.set(current);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected Object doSuspend(final Object transaction) {
+            ((Object[]) transaction)[0] = null;
+            final Object suspended = CURRENT.get();
+            CURRENT.remove();
+            return suspended;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doResume(final Object transaction,
+                final Object suspendedResources) {
+            CURRENT.set(suspendedResources);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doCommit(final DefaultTransactionStatus status) {
+            // nothing
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doRollback(final DefaultTransactionStatus status) {
+            // nothing
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void doCleanupAfterCompletion(final Object transaction) {
+            CURRENT.remove();
+        }
+    }
+
+    private ClassPathXmlApplicationContext _context;
+
+    private AuditService _auditService;
+
+    private RecordingAuditService _recorder;
+
+    /**
+     * Load the context.
+     */
+    @Before
+    public void createContext() {
+        _context = new ClassPathXmlApplicationContext(
+                "lazySessionContext.xml", LazySessionTransactionTest.class);
+        _auditService = (AuditService) _context.getBean("auditService");
+        _recorder = (RecordingAuditService) _context
+                .getBean("auditServiceTarget");
+    }
+
+    /**
+     * Close the context and clear the audit session.
+     */
+    @After
+    public void closeContext() {
+        AuditSession.removeAuditSession();
+        _context.close();
+    }
+
+    /**
+     * The record of a lazy session is created, once, in a transaction of its
+     * own by the first event that needs it, and the transactions begun before
+     * then are recorded without it.
+     */
+    @Test
+    public void testLazySessionRequiresNew() {
+        final AuditSession session = AuditSession
+                .createLazyAuditSession(new SessionRecordResolver() {
+                    public SessionRecord resolveSessionRecord() {
+                        return _auditService.createSessionRecord();
+                    }
+                });
+
+        final LifeCycleAuditEvent event = _auditService
+                .createLifeCycleAuditEvent(LifeCycleType.CREATE,
+                        new AuditSubject(), "created");
+
+        Assert.assertTrue(session.isResolved());
+        Assert.assertEquals(1, _recorder.sessions.get());
+        Assert.assertSame(session.getSessionRecord(), event.getSessionRecord());
+
+        // the event's transaction, and the one its session record was made in
+        final TransactionRecord tr = event.getTransactionRecord();
+        Assert.assertNotNull(tr);
+        Assert.assertNull(tr.getSessionRecord());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_COMMITTED, tr
+                .getTransactionCompletionStatus());
+        Assert.assertEquals(0, _recorder.dangling.get());
+        Assert.assertEquals(2, _recorder.byTransactionId.size());
+        Assert.assertEquals(0, _recorder.duplicates.get());
+
+        // once resolved, new transactions are recorded with the session
+        _auditService.createLifeCycleAuditEvent(LifeCycleType.DELETE,
+                new AuditSubject(), "deleted");
+        Assert.assertSame(session.getSessionRecord(), _recorder.last.get()
+                .getSessionRecord());
+        Assert.assertEquals(1, _recorder.sessions.get());
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEvent;
+import org.opensaas.jaudit.LifeCycleAuditEventVO;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.PropertyValueChangeMutable;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.SessionRecordVO;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.TransactionRecordMutable;
+import org.opensaas.jaudit.TransactionRecordVO;
+import org.opensaas.jaudit.service.AuditService;
+import org.opensaas.jaudit.service.ObjectFactory;
+import org.opensaas.jaudit.session.AuditSession;
+
+/**
+ * An {@link AuditService} for tests. Keeps transaction records in a map keyed
+ * by transaction id, failing on a duplicate the way the unique column would,
+ * and counts the session records it creates. Life cycle events are only
+ * built, with the session record of the current {@link AuditSession} and the
+ * record of the transaction record source, if set.
+ */
+class RecordingAuditService implements AuditService {
+
+    final Map<String, TransactionRecordMutable> byTransactionId = new ConcurrentHashMap<String, TransactionRecordMutable>();
+
+    final AtomicLong ids = new AtomicLong();
+
+    final AtomicReference<TransactionRecordMutable> last = new AtomicReference<TransactionRecordMutable>();
+
+    final AtomicInteger inserts = new AtomicInteger();
+
+    final AtomicInteger updates = new AtomicInteger();
+
+    final AtomicInteger duplicates = new AtomicInteger();
+
+    final AtomicInteger dangling = new AtomicInteger();
+
+    final AtomicInteger sessions = new AtomicInteger();
+
+    ObjectFactory<TransactionRecord> transactionRecordSource;
+
+    /**
+     * Set the source of the transaction record of events.
+     * 
+     * @param transactionRecordSource
+     *            the source, or <tt>null</tt>.
+     */
+    public void setTransactionRecordSource(
+            final ObjectFactory<TransactionRecord> transactionRecordSource) {
+        this.transactionRecordSource = transactionRecordSource;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecord createTransactionRecord(
+            final String transactionId, final SessionRecord sessionRecord) {
+        final TransactionRecordMutable tr = newTransactionRecord(
+                transactionId, sessionRecord);
+        insert(tr);
+        return tr;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecordMutable newTransactionRecord(
+            final String transactionId, final SessionRecord sessionRecord) {
+        final TransactionRecordMutable tr = new TransactionRecordVO();
+        tr.setId(Long.toString(ids.incrementAndGet()));
+        tr.setTransactionId(transactionId);
+        tr.setSessionRecord(sessionRecord);
+        tr.setStartedTs(new Date());
+        last.set(tr);
+        return tr;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecord createCompletedTransactionRecord(
+            final TransactionRecord transactionRecord,
+            final TransactionCompletionStatus transactionStatus,
+            final Date endedTs) {
+        final TransactionRecordMutable tr = (TransactionRecordMutable) transactionRecord;
+        tr.setTransactionCompletionStatus(transactionStatus);
+        tr.setEndedTs(endedTs);
+        insert(tr);
+        return tr;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecord createStartedTransactionRecord(
+            final TransactionRecord transactionRecord) {
+        final TransactionRecordMutable tr = (TransactionRecordMutable) transactionRecord;
+        insert(tr);
+        return tr;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TransactionRecord updateTransactionEnded(
+            final TransactionRecord transactionRecord,
+            final TransactionCompletionStatus transactionStatus,
+            final Date endedTs) {
+        updates.incrementAndGet();
+        final TransactionRecordMutable tr = byTransactionId
+                .get(transactionRecord.getTransactionId());
+        tr.setTransactionCompletionStatus(transactionStatus);
+        tr.setEndedTs(endedTs);
+        return tr;
+    }
+
+    private void insert(final TransactionRecordMutable tr) {
+        inserts.incrementAndGet();
+        if (byTransactionId.put(tr.getTransactionId(), tr) != null) {
+            duplicates.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ResponsibleInformation newResponsibleInformation() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SessionRecord createSessionRecord(final String sessionId,
+            final ResponsibleInformation responsibleInformation) {
+        sessions.incrementAndGet();
+        final SessionRecordVO sr = new SessionRecordVO();
+        sr.setId(Long.toString(ids.incrementAndGet()));
+        sr.setSessionId(sessionId);
+        sr.setResponsibleInformation(responsibleInformation);
+        sr.setStartedTs(new Date());
+        return sr;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SessionRecord createSessionRecord() {
+        return createSessionRecord(null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SessionRecord getSystemSessionRecord(final String workerType) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SessionRecord updateSessionEnded(
+            final SessionRecord sessionRecord) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SessionRecord updateResponsible(
+            final SessionRecord sessionRecord,
+            final ResponsibleInformation responsibleInformation) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LifeCycleAuditEvent createLifeCycleAuditEvent(
+            final LifeCycleType type, final AuditSubject target,
+            final String description) {
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        event.setLifeCycleEventType(type);
+        event.setTarget(target);
+        event.setDescription(description);
+        final AuditSession auditSession = AuditSession.getAuditSession();
+        if (auditSession != null) {
+            event.setSessionRecord(auditSession.getSessionRecord());
+        }
+        if (transactionRecordSource == null) {
+            return event;
+        }
+        final TransactionRecord tr = transactionRecordSource.getObject();
+        if (tr != null && byTransactionId.get(tr.getTransactionId()) != tr) {
+            // the foreign key would fail on insert
+            dangling.incrementAndGet();
+        }
+        event.setTransactionRecord(tr);
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LifeCycleAuditEvent createLifeCycleAuditEvent(
+            final LifeCycleType type,
+            final AuditSubject target,
+            final String description,
+            final Collection<? extends PropertyValueChangeMutable> propertyValueChanges) {
+        throw new UnsupportedOperationException();
+    }
+}
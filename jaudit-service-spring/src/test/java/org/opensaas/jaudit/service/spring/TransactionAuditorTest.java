@@ -0,0 +1,246 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.LifeCycleAuditEvent;
+import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.TransactionCompletionStatus;
+import org.opensaas.jaudit.TransactionRecord;
+import org.opensaas.jaudit.test.LoopingTester;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+/**
+ * Test class for {@link TransactionAuditor}.
+ */
+public class TransactionAuditorTest extends LoopingTester {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(TransactionAuditorTest.class.getName());
+
+    private static final int TRANSACTIONS_PER_TASK = 32;
+
+    /**
+     * Stands in for the transaction manager being audited.
+     */
+    private static final PlatformTransactionManager TRANSACTION_MANAGER = new PlatformTransactionManager() {
+        public TransactionStatus getTransaction(
+                final TransactionDefinition definition) {
+            return new SimpleTransactionStatus(true);
+        }
+
+        public void commit(final TransactionStatus status) {
+            // nothing
+        }
+
+        public void rollback(final TransactionStatus status) {
+            // nothing
+        }
+    };
+
+    private RecordingAuditService _auditService;
+
+    private TransactionAuditor _auditor;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Logger getLogger() {
+        return LOGGER;
+    }
+
+    /**
+     * Build an auditor around a recording service.
+     */
+    @Before
+    public void createAuditor() {
+        _auditService = new RecordingAuditService();
+        _auditor = new TransactionAuditor();
+        _auditor.setAuditService(_auditService);
+    }
+
+    /**
+     * Make sure no synchronization leaks into other tests.
+     */
+    @After
+    public void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /**
+     * Commits and rollbacks are recorded with their own status.
+     */
+    @Test
+    public void testCompletionStatus() {
+        final TransactionRecord committed = runTransaction(TransactionSynchronization.STATUS_COMMITTED);
+        final TransactionRecord rolledBack = runTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+        final TransactionRecord unknown = runTransaction(TransactionSynchronization.STATUS_UNKNOWN);
+
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_COMMITTED,
+                committed.getTransactionCompletionStatus());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_ROLLED_BACK,
+                rolledBack.getTransactionCompletionStatus());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_UNKNOWN,
+                unknown.getTransactionCompletionStatus());
+        Assert.assertNotNull(committed.getEndedTs());
+        Assert.assertEquals(3, _auditService.updates.get());
+    }
+
+    /**
+     * Write behind inserts each record once, at completion.
+     */
+    @Test
+    public void testWriteBehind() {
+        _auditor.setWriteBehind(true);
+        final TransactionRecord rolledBack = runTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        Assert.assertEquals(1, _auditService.inserts.get());
+        Assert.assertEquals(0, _auditService.updates.get());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_ROLLED_BACK,
+                rolledBack.getTransactionCompletionStatus());
+    }
+
+    /**
+     * An event raised in a write behind transaction refers to its record,
+     * which is saved before the event and updated on completion.
+     */
+    @Test
+    public void testWriteBehindReferenced() {
+        _auditor.setWriteBehind(true);
+        _auditService.transactionRecordSource = new TransactionRecordFactory();
+        final AtomicReference<LifeCycleAuditEvent> event = new AtomicReference<LifeCycleAuditEvent>();
+        final TransactionRecord committed = runTransaction(
+                TransactionSynchronization.STATUS_COMMITTED, new Runnable() {
+                    public void run() {
+                        event.set(_auditService.createLifeCycleAuditEvent(
+                                LifeCycleType.CREATE, new AuditSubject(),
+                                "created"));
+                    }
+                });
+
+        Assert.assertSame(committed, event.get().getTransactionRecord());
+        Assert.assertEquals(0, _auditService.dangling.get());
+        Assert.assertEquals(1, _auditService.inserts.get());
+        Assert.assertEquals(1, _auditService.updates.get());
+        Assert.assertEquals(TransactionCompletionStatus.STATUS_COMMITTED,
+                committed.getTransactionCompletionStatus());
+        Assert.assertNotNull(committed.getEndedTs());
+    }
+
+    /**
+     * Outside an audited transaction events get no transaction record.
+     */
+    @Test
+    public void testNoTransactionRecord() {
+        _auditService.transactionRecordSource = new TransactionRecordFactory();
+        Assert.assertNull(_auditService.transactionRecordSource.getObject());
+        TransactionSynchronizationManager.initSynchronization();
+        Assert.assertNull(_auditService.createLifeCycleAuditEvent(
+                LifeCycleType.CREATE, new AuditSubject(), "created")
+                .getTransactionRecord());
+    }
+
+    /**
+     * Over a million transactions on several threads never reuse a
+     * transaction id.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testUniqueTransactionIds() throws Exception {
+        _auditor.setWriteBehind(true);
+        runInThreads(new Runnable() {
+            public void run() {
+                for (int i = 0; i < TRANSACTIONS_PER_TASK; ++i) {
+                    runTransaction(i % 4 == 0 ? TransactionSynchronization.STATUS_ROLLED_BACK
+                            : TransactionSynchronization.STATUS_COMMITTED);
+                }
+            }
+        }, 300L, 4);
+
+        final int expected = LOOPS * TRANSACTIONS_PER_TASK;
+        Assert.assertEquals(expected, _auditService.inserts.get());
+        Assert.assertEquals(0, _auditService.duplicates.get());
+        Assert.assertEquals(expected, _auditService.byTransactionId.size());
+
+        int rolledBack = 0;
+        for (final TransactionRecord tr : _auditService.byTransactionId
+                .values()) {
+            if (tr.getTransactionCompletionStatus() == TransactionCompletionStatus.STATUS_ROLLED_BACK) {
+                ++rolledBack;
+            }
+        }
+        Assert.assertEquals(expected / 4, rolledBack);
+    }
+
+    /**
+     * The factory is required.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransactionIdFactoryNull() {
+        _auditor.setTransactionIdFactory(null);
+    }
+
+    /**
+     * Begin a transaction the way the bridge reports it, then complete it
+     * with the passed status.
+     * 
+     * @return the record of the transaction.
+     */
+    private TransactionRecord runTransaction(final int status) {
+        return runTransaction(status, null);
+    }
+
+    /**
+     * Begin a transaction the way the bridge reports it, run the passed work
+     * in it, then complete it with the passed status.
+     * 
+     * @return the record of the transaction.
+     */
+    private TransactionRecord runTransaction(final int status,
+            final Runnable work) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            _auditor.onApplicationEvent(new NewTransactionEvent(
+                    TRANSACTION_MANAGER, TRANSACTION_MANAGER
+                            .getTransaction(null), null));
+            if (work != null) {
+                work.run();
+            }
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(),
+                    status);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        return _auditService.last.get();
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.service.spring;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.Test;
+import org.opensaas.jaudit.SessionRecord;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Test class for {@link TransactionEventBridge}.
+ */
+public class TransactionEventBridgeTest {
+
+    /**
+     * Records the transactions handed to it.
+     */
+    private static class RecordingAuditor extends TransactionAuditor {
+
+        final List<TransactionStatus> started = new ArrayList<TransactionStatus>();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void transactionStarted(final TransactionStatus ts,
+                final SessionRecord sessionRecord) {
+            started.add(ts);
+        }
+    }
+
+    /**
+     * Stands in for the transaction manager being advised.
+     */
+    private static class TransactionManager implements
+            PlatformTransactionManager {
+
+        /**
+         * {@inheritDoc}
+         */
+        public TransactionStatus getTransaction(
+                final TransactionDefinition definition) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void commit(final TransactionStatus status) {
+            // nothing
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void rollback(final TransactionStatus status) {
+            // nothing
+        }
+    }
+
+    /**
+     * With an auditor, new transactions go straight to it and nothing is
+     * published.
+     * 
+     * @throws Throwable
+     *             when an error occurs.
+     */
+    @Test
+    public void testDirect() throws Throwable {
+        final List<ApplicationEvent> published = new ArrayList<ApplicationEvent>();
+        final RecordingAuditor auditor = new RecordingAuditor();
+        final TransactionEventBridge bridge = new TransactionEventBridge();
+        bridge.setApplicationContext(newApplicationContext(published));
+        bridge.setTransactionAuditor(auditor);
+
+        final TransactionStatus ts = new SimpleTransactionStatus(true);
+        Assert.assertSame(ts, bridge.recordAction(newJoinPoint(
+                "getTransaction", ts)));
+        bridge.recordAction(newJoinPoint("getTransaction",
+                new SimpleTransactionStatus(false)));
+        bridge.recordAction(newJoinPoint("commit", null));
+
+        Assert.assertEquals(1, auditor.started.size());
+        Assert.assertSame(ts, auditor.started.get(0));
+        Assert.assertTrue(published.isEmpty());
+    }
+
+    /**
+     * Without an auditor, new transactions are published as events.
+     * 
+     * @throws Throwable
+     *             when an error occurs.
+     */
+    @Test
+    public void testEvents() throws Throwable {
+        final List<ApplicationEvent> published = new ArrayList<ApplicationEvent>();
+        final TransactionEventBridge bridge = new TransactionEventBridge();
+        bridge.setApplicationContext(newApplicationContext(published));
+
+        final TransactionStatus ts = new SimpleTransactionStatus(true);
+        bridge.recordAction(newJoinPoint("getTransaction", ts));
+        bridge.recordAction(newJoinPoint("getTransaction",
+                new SimpleTransactionStatus(false)));
+
+        Assert.assertEquals(1, published.size());
+        Assert.assertSame(ts, ((NewTransactionEvent) published.get(0))
+                .getTransactionStatus());
+    }
+
+    private static ApplicationContext newApplicationContext(
+            final List<ApplicationEvent> published) {
+        return (ApplicationContext) Proxy.newProxyInstance(
+                TransactionEventBridgeTest.class.getClassLoader(),
+                new Class<?>[] { ApplicationContext.class },
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        if ("publishEvent".equals(method.getName())) {
+                            published.add((ApplicationEvent) args[0]);
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method
+                                .getName());
+                    }
+                });
+    }
+
+    private static ProceedingJoinPoint newJoinPoint(final String methodName,
+            final Object retval) {
+        final TransactionManager target = new TransactionManager();
+        final Signature signature = (Signature) Proxy.newProxyInstance(
+                TransactionEventBridgeTest.class.getClassLoader(),
+                new Class<?>[] { Signature.class }, new InvocationHandler() {
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        return methodName;
+                    }
+                });
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(
+                TransactionEventBridgeTest.class.getClassLoader(),
+                new Class<?>[] { ProceedingJoinPoint.class },
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if ("proceed".equals(name)) {
+                            return retval;
+                        } else if ("getTarget".equals(name)) {
+                            return target;
+                        } else if ("getSignature".equals(name)) {
+                            return signature;
+                        } else if ("getArgs".equals(name)) {
+                            return new Object[0];
+                        }
+                        return name;
+                    }
+                });
+    }
+}
@@ -12,11 +12,13 @@
  */
 package org.opensaas.jaudit.service;
 
+import java.util.Collection;
 import java.util.Date;
 
 import org.opensaas.jaudit.AuditSubject;
 import org.opensaas.jaudit.LifeCycleAuditEvent;
 import org.opensaas.jaudit.LifeCycleType;
+import org.opensaas.jaudit.PropertyValueChangeMutable;
 import org.opensaas.jaudit.ResponsibleInformation;
 import org.opensaas.jaudit.SessionRecord;
 import org.opensaas.jaudit.TransactionRecord;
@@ -50,6 +52,54 @@ public interface AuditService {
     TransactionRecord createTransactionRecord(String transactionId,
             SessionRecord sessionRecord);
 
+    /**
+     * Returns a new TransactionRecord filled in the same way as
+     * {@link #createTransactionRecord(String, SessionRecord)}, id included,
+     * but NOT persisted. Use
+     * {@link #createCompletedTransactionRecord(TransactionRecord, TransactionCompletionStatus, Date)}
+     * to write it once the transaction is over.
+     * 
+     * @param transactionId
+     *            required transaction id.
+     * @param sessionRecord
+     *            the optional session record to associate with the transaction
+     *            record.
+     * @return new unsaved Transaction Record.
+     */
+    TransactionRecord newTransactionRecord(String transactionId,
+            SessionRecord sessionRecord);
+
+    /**
+     * Mark a record obtained from
+     * {@link #newTransactionRecord(String, SessionRecord)} as ended at the
+     * passed time with the passed status and save it, in a single insert.
+     * 
+     * @param transactionRecord
+     *            the unsaved transaction record.
+     * @param transactionStatus
+     *            how the transaction completed.
+     * @param endedTs
+     *            when the transaction completed.
+     * @return the saved Transaction Record.
+     */
+    TransactionRecord createCompletedTransactionRecord(
+            TransactionRecord transactionRecord,
+            TransactionCompletionStatus transactionStatus, Date endedTs);
+
+    /**
+     * Save a record obtained from
+     * {@link #newTransactionRecord(String, SessionRecord)} as it stands, while
+     * its transaction is still running. Used when something must refer to the
+     * record before the transaction is over; end it with
+     * {@link #updateTransactionEnded(TransactionRecord, TransactionCompletionStatus, Date)}.
+     * 
+     * @param transactionRecord
+     *            the unsaved transaction record.
+     * @return the saved Transaction Record.
+     */
+    TransactionRecord createStartedTransactionRecord(
+            TransactionRecord transactionRecord);
+
     /**
      * Mark the passed transaction record as ended at the passed time with the
      * passed status.
@@ -82,6 +132,19 @@ public interface AuditService {
      */
     SessionRecord createSessionRecord();
 
+    /**
+     * Returns the session record shared by all background work of the named
+     * type, such as a batch job or message listener, creating and saving it
+     * the first time it is asked for. Install it with
+     * {@link org.opensaas.jaudit.session.AuditSession#createAuditSession(SessionRecord)}
+     * around such work to audit it without a session record per job.
+     * 
+     * @param workerType
+     *            the required name of the kind of work.
+     * @return the session record for that kind of work.
+     */
+    SessionRecord getSystemSessionRecord(String workerType);
+
     /**
      * The audit service will handle finishing the session information. Mainly
      * the ended timestamp.
@@ -113,4 +176,23 @@ public interface AuditService {
      */
     LifeCycleAuditEvent createLifeCycleAuditEvent(LifeCycleType type,
             AuditSubject target, String description);
+
+    /**
+     * Creates and saves a new instance of a {@link LifeCycleAuditEvent}
+     * together with the properties that changed. Each change is given an id
+     * and associated with the event, and all of them are saved with it.
+     * 
+     * @param type
+     *            The life cycle stage this event represents.
+     * @param target
+     *            The object whose life cycle is being affected.
+     * @param description
+     *            A description of the change.
+     * @param propertyValueChanges
+     *            The properties that changed; may be null or empty.
+     * @return The generated event.
+     */
+    LifeCycleAuditEvent createLifeCycleAuditEvent(LifeCycleType type,
+            AuditSubject target, String description,
+            Collection<? extends PropertyValueChangeMutable> propertyValueChanges);
 }
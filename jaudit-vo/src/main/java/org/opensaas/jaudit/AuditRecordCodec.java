@@ -0,0 +1,89 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit;
+
+/**
+ * The compact binary format shared by {@link AuditRecordEncoder} and
+ * {@link AuditRecordDecoder}, used where audit records are spooled or sent
+ * rather than stored in the database.
+ *
+ * A message is a version byte followed by one or more values. Records are a
+ * tag byte followed by their fields in a fixed order; a record met a second
+ * time in the same message is written as a reference to the first. Numbers
+ * are unsigned LEB128 varints, time stamps are zigzag varint deltas from the
+ * previous time stamp in the message, and strings are UTF-8 with a varint
+ * length. Strings that repeat across records, such as subject types, system
+ * addresses and property types, are interned per message and written in
+ * full only once. Enums are written by ordinal, so new constants must be
+ * added at the end.
+ *
+ * Any change to the layout takes a new {@link #VERSION}; decoders read every
+ * version they know and reject the rest.
+ */
+public final class AuditRecordCodec {
+
+    /**
+     * The current version of the format.
+     */
+    public static final int VERSION = 1;
+
+    /* package */static final int NULL = 0;
+
+    /* package */static final int REFERENCE = 1;
+
+    /* package */static final int SESSION_RECORD = 2;
+
+    /* package */static final int TRANSACTION_RECORD = 3;
+
+    /* package */static final int LIFE_CYCLE_AUDIT_EVENT = 4;
+
+    /* package */static final int BUSINESS_AUDIT_EVENT = 5;
+
+    /* package */static final int CONSUMPTION_AUDIT_EVENT = 6;
+
+    /* package */static final int MEMBERSHIP_CHANGE_AUDIT_EVENT = 7;
+
+    /* package */static final int PROPERTY_VALUE_CHANGE = 8;
+
+    /**
+     * Encode one record, with everything it refers to, as a message.
+     *
+     * @param record
+     *            the record, or null.
+     * @return the message.
+     */
+    public static byte[] encode(final Object record) {
+        final AuditRecordEncoder encoder = new AuditRecordEncoder();
+        encoder.begin();
+        encoder.writeRecord(record);
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Decode a message holding one record into value objects.
+     *
+     * @param message
+     *            the message.
+     * @return the record, or null.
+     */
+    public static Object decode(final byte[] message) {
+        final AuditRecordDecoder decoder = new AuditRecordDecoder();
+        decoder.begin(java.nio.ByteBuffer.wrap(message));
+        return decoder.readRecord();
+    }
+
+    private AuditRecordCodec() {
+        throw new UnsupportedOperationException(
+                "Cannot construct utility class.");
+    }
+}
@@ -0,0 +1,390 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reads audit records written by an {@link AuditRecordEncoder} into value
+ * objects: {@link SessionRecordVO}, {@link TransactionRecordVO},
+ * {@link PropertyValueChangeVO} and the {@link AuditEventVO} subclasses.
+ *
+ * Values are read in place from the passed buffer, which may be a direct or
+ * mapped buffer; nothing is copied except into the strings themselves. A
+ * decoder is not thread safe but may be reused: {@link #begin(ByteBuffer)}
+ * starts a new message. Malformed input fails with an
+ * {@link IllegalArgumentException}.
+ */
+public class AuditRecordDecoder {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ByteBuffer _buffer;
+
+    private long _lastTs;
+
+    private final List<String> _strings = new ArrayList<String>();
+
+    private final List<Object> _records = new ArrayList<Object>();
+
+    /**
+     * Default constructor.
+     */
+    public AuditRecordDecoder() {
+        super();
+    }
+
+    /**
+     * Start reading a message at the position of the passed buffer. Reads
+     * advance the buffer's position.
+     *
+     * @param buffer
+     *            the buffer holding the message.
+     */
+    public void begin(final ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Buffer is required.");
+        }
+        _buffer = buffer;
+        _lastTs = 0L;
+        _strings.clear();
+        _records.clear();
+        final int version = readByte();
+        if (version != AuditRecordCodec.VERSION) {
+            throw new IllegalArgumentException(
+                    "Unsupported audit record version " + version);
+        }
+    }
+
+    /**
+     * Read a record, and the records it refers to.
+     *
+     * @return the record, or null.
+     */
+    public Object readRecord() {
+        final int tag = readByte();
+        switch (tag) {
+        case AuditRecordCodec.NULL:
+            return null;
+        case AuditRecordCodec.REFERENCE:
+            final long index = readVarLong();
+            if (index < 0L || index >= _records.size()) {
+                throw new IllegalArgumentException("Bad record reference "
+                        + index);
+            }
+            return _records.get((int) index);
+        case AuditRecordCodec.SESSION_RECORD:
+            return readSessionRecord();
+        case AuditRecordCodec.TRANSACTION_RECORD:
+            return readTransactionRecord();
+        case AuditRecordCodec.LIFE_CYCLE_AUDIT_EVENT:
+            return readLifeCycleAuditEvent();
+        case AuditRecordCodec.BUSINESS_AUDIT_EVENT:
+            final BusinessAuditEventVO business = new BusinessAuditEventVO();
+            _records.add(business);
+            readAuditEvent(business);
+            business.setBusinessClass(readInternedString());
+            business.setBusinessAction(readString());
+            return business;
+        case AuditRecordCodec.CONSUMPTION_AUDIT_EVENT:
+            return readConsumptionAuditEvent();
+        case AuditRecordCodec.MEMBERSHIP_CHANGE_AUDIT_EVENT:
+            final MembershipChangeAuditEventVO membership = new MembershipChangeAuditEventVO();
+            _records.add(membership);
+            readAuditEvent(membership);
+            membership.setMembershipChangeEventType(readEnum(MembershipChangeType.class));
+            membership.setMembershipGroup(readSubject());
+            return membership;
+        case AuditRecordCodec.PROPERTY_VALUE_CHANGE:
+            return readPropertyValueChange();
+        default:
+            throw new IllegalArgumentException("Unknown record tag " + tag);
+        }
+    }
+
+    private SessionRecordVO readSessionRecord() {
+        final SessionRecordVO record = new SessionRecordVO();
+        _records.add(record);
+        record.setId(readString());
+        record.setSessionId(readString());
+        record.setStartedTs(readDate());
+        record.setEndedTs(readDate());
+        record.setSystem(readSubject());
+        record.setSystemAddress(readInternedString());
+        record.setResponsibleInformation(readResponsibleInformation());
+        return record;
+    }
+
+    private TransactionRecordVO readTransactionRecord() {
+        final TransactionRecordVO record = new TransactionRecordVO();
+        _records.add(record);
+        record.setId(readString());
+        record.setTransactionId(readString());
+        record.setSessionRecord(readRecord(SessionRecord.class));
+        record.setStartedTs(readDate());
+        record.setEndedTs(readDate());
+        record
+                .setTransactionCompletionStatus(readEnum(TransactionCompletionStatus.class));
+        return record;
+    }
+
+    private void readAuditEvent(final AuditEventMutable event) {
+        event.setId(readString());
+        event.setTs(readDate());
+        event.setDescription(readString());
+        event.setTarget(readSubject());
+        event.setSessionRecord(readRecord(SessionRecord.class));
+        event.setTransactionRecord(readRecord(TransactionRecord.class));
+    }
+
+    private LifeCycleAuditEventVO readLifeCycleAuditEvent() {
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        _records.add(event);
+        readAuditEvent(event);
+        event.setLifeCycleEventType(readEnum(LifeCycleType.class));
+        final long count = readVarLong();
+        if (count < 0L || count > _buffer.remaining()) {
+            throw new IllegalArgumentException("Bad change count " + count);
+        }
+        final Collection<PropertyValueChange> changes = new ArrayList<PropertyValueChange>(
+                (int) count);
+        for (long i = 0L; i < count; ++i) {
+            changes.add(readRecord(PropertyValueChange.class));
+        }
+        event.setPropertyValueChanges(changes);
+        return event;
+    }
+
+    private ConsumptionAuditEventVO readConsumptionAuditEvent() {
+        final ConsumptionAuditEventVO event = new ConsumptionAuditEventVO();
+        _records.add(event);
+        readAuditEvent(event);
+        if (readBoolean()) {
+            long bits = 0L;
+            for (int i = 0; i < 8; ++i) {
+                bits = bits << 8 | readByte();
+            }
+            event.setAmountConsumed(Double.valueOf(Double
+                    .longBitsToDouble(bits)));
+        }
+        final long scale = readVarLong();
+        event.setScale(scale == 0L ? null : Integer
+                .valueOf((int) unzigzag(scale - 1L)));
+        return event;
+    }
+
+    private PropertyValueChangeVO readPropertyValueChange() {
+        final PropertyValueChangeVO change = new PropertyValueChangeVO();
+        _records.add(change);
+        change.setId(readString());
+        change.setPropertyName(readInternedString());
+        change.setPropertyType(readInternedString());
+        change.setOldValue(readString());
+        change.setNewValue(readString());
+        final int flags = readByte();
+        change.setOldValueSpecified((flags & 1) != 0);
+        change.setNewValueSpecified((flags & 2) != 0);
+        change.setLifeCycleAuditEvent(readRecord(LifeCycleAuditEvent.class));
+        return change;
+    }
+
+    private <T> T readRecord(final Class<T> type) {
+        final Object record = readRecord();
+        if (record != null && !type.isInstance(record)) {
+            throw new IllegalArgumentException("Expected a "
+                    + type.getSimpleName() + " but found "
+                    + record.getClass().getName());
+        }
+        return type.cast(record);
+    }
+
+    /**
+     * Read an audit subject.
+     *
+     * @return the subject, or null.
+     */
+    public AuditSubject readSubject() {
+        if (!readBoolean()) {
+            return null;
+        }
+        final AuditSubject subject = new AuditSubject();
+        subject.setSubjectType(readInternedString());
+        subject.setSubjectId(readString());
+        subject.setSubjectDiscriminator(readInternedString());
+        return subject;
+    }
+
+    /**
+     * Read responsible information.
+     *
+     * @return the information, or null.
+     */
+    public ResponsibleInformation readResponsibleInformation() {
+        if (!readBoolean()) {
+            return null;
+        }
+        final ResponsibleInformation information = new ResponsibleInformation();
+        information.setResponsible(readSubject());
+        information.setResponsibleAddress(readInternedString());
+        information.setResponsibleAgent(readInternedString());
+        information.setCredentialsType(readInternedString());
+        return information;
+    }
+
+    /**
+     * Read an enum constant written by ordinal.
+     *
+     * @param <E>
+     *            the enum type.
+     * @param type
+     *            the enum class.
+     * @return the constant, or null.
+     */
+    public <E extends Enum<E>> E readEnum(final Class<E> type) {
+        final long ordinal = readVarLong();
+        if (ordinal == 0L) {
+            return null;
+        }
+        final E[] values = type.getEnumConstants();
+        if (ordinal < 0L || ordinal > values.length) {
+            throw new IllegalArgumentException("Bad " + type.getSimpleName()
+                    + " ordinal " + (ordinal - 1L));
+        }
+        return values[(int) ordinal - 1];
+    }
+
+    /**
+     * Read a time stamp.
+     *
+     * @return the time stamp, or null.
+     */
+    public Date readDate() {
+        final long value = readVarLong();
+        if (value == 0L) {
+            return null;
+        }
+        _lastTs += unzigzag(value - 1L);
+        return new Date(_lastTs);
+    }
+
+    /**
+     * Read a string written with
+     * {@link AuditRecordEncoder#writeInternedString(String)}.
+     *
+     * @return the string, or null.
+     */
+    public String readInternedString() {
+        final long value = readVarLong();
+        if (value == 0L) {
+            return null;
+        }
+        if (value == 1L) {
+            final String string = readUtf8();
+            _strings.add(string);
+            return string;
+        }
+        if (value - 2L >= _strings.size() || value < 0L) {
+            throw new IllegalArgumentException("Bad string reference "
+                    + (value - 2L));
+        }
+        return _strings.get((int) (value - 2L));
+    }
+
+    /**
+     * Read a string.
+     *
+     * @return the string, or null.
+     */
+    public String readString() {
+        final long value = readVarLong();
+        if (value == 0L) {
+            return null;
+        }
+        if (value != 1L) {
+            throw new IllegalArgumentException("Bad string marker " + value);
+        }
+        return readUtf8();
+    }
+
+    /**
+     * Read a boolean.
+     *
+     * @return the value.
+     */
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    /**
+     * Read an unsigned varint.
+     *
+     * @return the value.
+     */
+    public long readVarLong() {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint is too long.");
+    }
+
+    /**
+     * Read one byte.
+     *
+     * @return the byte, from 0 to 255.
+     */
+    public int readByte() {
+        try {
+            return _buffer.get() & 0xFF;
+        } catch (final BufferUnderflowException e) {
+            throw new IllegalArgumentException("Message is truncated.");
+        }
+    }
+
+    private String readUtf8() {
+        final long length = readVarLong();
+        if (length < 0L || length > _buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        final int start = _buffer.position();
+        final int end = start + (int) length;
+        final char[] chars = new char[(int) length];
+        for (int i = start; i < end; ++i) {
+            final byte b = _buffer.get(i);
+            if (b < 0) {
+                // not ASCII; let the charset decode the slice in place
+                final ByteBuffer slice = _buffer.duplicate();
+                slice.limit(end);
+                _buffer.position(end);
+                return UTF8.decode(slice).toString();
+            }
+            chars[i - start] = (char) b;
+        }
+        _buffer.position(end);
+        return new String(chars);
+    }
+
+    /* package */static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1L);
+    }
+}
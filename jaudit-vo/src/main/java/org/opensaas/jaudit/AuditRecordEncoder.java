@@ -0,0 +1,397 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes audit records in the format described by {@link AuditRecordCodec}.
+ *
+ * An encoder is not thread safe but may be reused: {@link #begin()} starts a
+ * new message, keeping the buffer. Records are read through their
+ * interfaces, so any implementation can be encoded.
+ */
+public class AuditRecordEncoder {
+
+    private byte[] _buffer;
+
+    private int _size;
+
+    private long _lastTs;
+
+    private final Map<String, Integer> _strings = new HashMap<String, Integer>();
+
+    private final Map<Object, Integer> _records = new IdentityHashMap<Object, Integer>();
+
+    /**
+     * Default constructor.
+     */
+    public AuditRecordEncoder() {
+        this(256);
+    }
+
+    /**
+     * Create an encoder with the passed initial buffer size.
+     *
+     * @param initialSize
+     *            the initial buffer size in bytes.
+     */
+    public AuditRecordEncoder(final int initialSize) {
+        if (initialSize < 1) {
+            throw new IllegalArgumentException(
+                    "Initial size must be positive.");
+        }
+        _buffer = new byte[initialSize];
+    }
+
+    /**
+     * Start a new message, discarding anything written so far.
+     */
+    public void begin() {
+        _size = 0;
+        _lastTs = 0L;
+        _strings.clear();
+        _records.clear();
+        writeByte(AuditRecordCodec.VERSION);
+    }
+
+    /**
+     * Returns the number of bytes written to the current message.
+     *
+     * @return the size.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns a copy of the current message.
+     *
+     * @return the message.
+     */
+    public byte[] toByteArray() {
+        final byte[] message = new byte[_size];
+        System.arraycopy(_buffer, 0, message, 0, _size);
+        return message;
+    }
+
+    /**
+     * Copy the current message into the passed buffer.
+     *
+     * @param target
+     *            the buffer, with at least {@link #size()} bytes remaining.
+     */
+    public void writeTo(final ByteBuffer target) {
+        target.put(_buffer, 0, _size);
+    }
+
+    /**
+     * Write a session record, transaction record, audit event or property
+     * value change, and the records it refers to. A record already written
+     * in this message is written as a reference.
+     *
+     * @param record
+     *            the record, or null.
+     */
+    public void writeRecord(final Object record) {
+        if (record == null) {
+            writeByte(AuditRecordCodec.NULL);
+            return;
+        }
+        final Integer reference = _records.get(record);
+        if (reference != null) {
+            writeByte(AuditRecordCodec.REFERENCE);
+            writeVarLong(reference.intValue());
+            return;
+        }
+        _records.put(record, Integer.valueOf(_records.size()));
+
+        if (record instanceof SessionRecord) {
+            writeByte(AuditRecordCodec.SESSION_RECORD);
+            writeSessionRecord((SessionRecord) record);
+        } else if (record instanceof TransactionRecord) {
+            writeByte(AuditRecordCodec.TRANSACTION_RECORD);
+            writeTransactionRecord((TransactionRecord) record);
+        } else if (record instanceof LifeCycleAuditEvent) {
+            writeByte(AuditRecordCodec.LIFE_CYCLE_AUDIT_EVENT);
+            writeLifeCycleAuditEvent((LifeCycleAuditEvent) record);
+        } else if (record instanceof BusinessAuditEvent) {
+            final BusinessAuditEvent event = (BusinessAuditEvent) record;
+            writeByte(AuditRecordCodec.BUSINESS_AUDIT_EVENT);
+            writeAuditEvent(event);
+            writeInternedString(event.getBusinessClass());
+            writeString(event.getBusinessAction());
+        } else if (record instanceof ConsumptionAuditEvent) {
+            writeByte(AuditRecordCodec.CONSUMPTION_AUDIT_EVENT);
+            writeConsumptionAuditEvent((ConsumptionAuditEvent) record);
+        } else if (record instanceof MembershipChangeAuditEvent) {
+            final MembershipChangeAuditEvent event = (MembershipChangeAuditEvent) record;
+            writeByte(AuditRecordCodec.MEMBERSHIP_CHANGE_AUDIT_EVENT);
+            writeAuditEvent(event);
+            writeEnum(event.getMembershipChangeEventType());
+            writeSubject(event.getMembershipGroup());
+        } else if (record instanceof PropertyValueChange) {
+            writeByte(AuditRecordCodec.PROPERTY_VALUE_CHANGE);
+            writePropertyValueChange((PropertyValueChange) record);
+        } else {
+            _records.remove(record);
+            throw new IllegalArgumentException("Cannot encode record of type "
+                    + record.getClass().getName());
+        }
+    }
+
+    private void writeSessionRecord(final SessionRecord record) {
+        writeString(record.getId());
+        writeString(record.getSessionId());
+        writeDate(record.getStartedTs());
+        writeDate(record.getEndedTs());
+        writeSubject(record.getSystem());
+        writeInternedString(record.getSystemAddress());
+        writeResponsibleInformation(record.getResponsibleInformation());
+    }
+
+    private void writeTransactionRecord(final TransactionRecord record) {
+        writeString(record.getId());
+        writeString(record.getTransactionId());
+        writeRecord(record.getSessionRecord());
+        writeDate(record.getStartedTs());
+        writeDate(record.getEndedTs());
+        writeEnum(record.getTransactionCompletionStatus());
+    }
+
+    private void writeAuditEvent(final AuditEvent event) {
+        writeString(event.getId());
+        writeDate(event.getTs());
+        writeString(event.getDescription());
+        writeSubject(event.getTarget());
+        writeRecord(event.getSessionRecord());
+        writeRecord(event.getTransactionRecord());
+    }
+
+    private void writeLifeCycleAuditEvent(final LifeCycleAuditEvent event) {
+        writeAuditEvent(event);
+        writeEnum(event.getLifeCycleEventType());
+        final Collection<PropertyValueChange> changes = event
+                .getPropertyValueChanges();
+        writeVarLong(changes == null ? 0 : changes.size());
+        if (changes != null) {
+            for (final PropertyValueChange change : changes) {
+                writeRecord(change);
+            }
+        }
+    }
+
+    private void writeConsumptionAuditEvent(final ConsumptionAuditEvent event) {
+        writeAuditEvent(event);
+        final Double amount = event.getAmountConsumed();
+        writeBoolean(amount != null);
+        if (amount != null) {
+            final long bits = Double.doubleToLongBits(amount.doubleValue());
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (bits >>> shift));
+            }
+        }
+        final Integer scale = event.getScale();
+        writeVarLong(scale == null ? 0L : zigzag(scale.intValue()) + 1L);
+    }
+
+    private void writePropertyValueChange(final PropertyValueChange change) {
+        writeString(change.getId());
+        writeInternedString(change.getPropertyName());
+        writeInternedString(change.getPropertyType());
+        writeString(change.getOldValue());
+        writeString(change.getNewValue());
+        writeByte((change.isOldValueSpecified() ? 1 : 0)
+                | (change.isNewValueSpecified() ? 2 : 0));
+        writeRecord(change.getLifeCycleAuditEvent());
+    }
+
+    /**
+     * Write an audit subject.
+     *
+     * @param subject
+     *            the subject, or null.
+     */
+    public void writeSubject(final AuditSubject subject) {
+        writeBoolean(subject != null);
+        if (subject != null) {
+            writeInternedString(subject.getSubjectType());
+            writeString(subject.getSubjectId());
+            writeInternedString(subject.getSubjectDiscriminator());
+        }
+    }
+
+    /**
+     * Write responsible information.
+     *
+     * @param information
+     *            the information, or null.
+     */
+    public void writeResponsibleInformation(
+            final ResponsibleInformation information) {
+        writeBoolean(information != null);
+        if (information != null) {
+            writeSubject(information.getResponsible());
+            writeInternedString(information.getResponsibleAddress());
+            writeInternedString(information.getResponsibleAgent());
+            writeInternedString(information.getCredentialsType());
+        }
+    }
+
+    /**
+     * Write an enum constant by ordinal.
+     *
+     * @param value
+     *            the constant, or null.
+     */
+    public void writeEnum(final Enum<?> value) {
+        writeVarLong(value == null ? 0L : value.ordinal() + 1L);
+    }
+
+    /**
+     * Write a time stamp as the difference from the previous one in the
+     * message.
+     *
+     * @param date
+     *            the time stamp, or null.
+     */
+    public void writeDate(final Date date) {
+        if (date == null) {
+            writeVarLong(0L);
+            return;
+        }
+        final long ts = date.getTime();
+        writeVarLong(zigzag(ts - _lastTs) + 1L);
+        _lastTs = ts;
+    }
+
+    /**
+     * Write a string that is likely to repeat in the message. Only its first
+     * occurrence is written in full.
+     *
+     * @param value
+     *            the string, or null.
+     */
+    public void writeInternedString(final String value) {
+        if (value == null) {
+            writeVarLong(0L);
+            return;
+        }
+        final Integer index = _strings.get(value);
+        if (index != null) {
+            writeVarLong(index.intValue() + 2L);
+            return;
+        }
+        _strings.put(value, Integer.valueOf(_strings.size()));
+        writeVarLong(1L);
+        writeUtf8(value);
+    }
+
+    /**
+     * Write a string.
+     *
+     * @param value
+     *            the string, or null.
+     */
+    public void writeString(final String value) {
+        if (value == null) {
+            writeVarLong(0L);
+            return;
+        }
+        writeVarLong(1L);
+        writeUtf8(value);
+    }
+
+    /**
+     * Write a boolean as one byte.
+     *
+     * @param value
+     *            the value.
+     */
+    public void writeBoolean(final boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Write an unsigned varint.
+     *
+     * @param value
+     *            the value, treated as unsigned.
+     */
+    public void writeVarLong(final long value) {
+        ensure(10);
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0L) {
+            _buffer[_size++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        _buffer[_size++] = (byte) remaining;
+    }
+
+    /**
+     * Write one byte.
+     *
+     * @param value
+     *            the byte, in the low eight bits.
+     */
+    public void writeByte(final int value) {
+        ensure(1);
+        _buffer[_size++] = (byte) value;
+    }
+
+    private void writeUtf8(final String value) {
+        final int length = value.length();
+        int i = 0;
+        while (i < length && value.charAt(i) < 0x80) {
+            ++i;
+        }
+        if (i == length) {
+            writeVarLong(length);
+            ensure(length);
+            for (int j = 0; j < length; ++j) {
+                _buffer[_size++] = (byte) value.charAt(j);
+            }
+            return;
+        }
+
+        final byte[] bytes;
+        try {
+            bytes = value.getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported.");
+        }
+        writeVarLong(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, _buffer, _size, bytes.length);
+        _size += bytes.length;
+    }
+
+    private void ensure(final int count) {
+        if (_size + count > _buffer.length) {
+            final byte[] larger = new byte[Math.max(_buffer.length * 2, _size
+                    + count)];
+            System.arraycopy(_buffer, 0, larger, 0, _size);
+            _buffer = larger;
+        }
+    }
+
+    /* package */static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
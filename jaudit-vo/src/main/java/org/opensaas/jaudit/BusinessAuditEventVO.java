@@ -16,12 +16,19 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Index;
+
 /**
  * Default implementation and persistence mapping for an
  * {@link BusinessAuditEvent}.
  */
 @Entity
 @Table(name = "business_audit_events")
+@org.hibernate.annotations.Table(appliesTo = "business_audit_events", indexes = {
+        @Index(name = "bae_target_idx", columnNames = { "target_subject_id", "target_subject_type", "ts", "id" }),
+        @Index(name = "bae_session_idx", columnNames = { "session_record", "ts", "id" }),
+        @Index(name = "bae_transaction_idx", columnNames = { "transaction_record", "ts", "id" }),
+        @Index(name = "bae_ts_idx", columnNames = { "ts", "id" }) })
 public class BusinessAuditEventVO extends AuditEventVO implements
         BusinessAuditEvent {
 
@@ -16,6 +16,8 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Index;
+
 /**
  * Default implementation and peristence mapping of
  * {@link ConsumptionAuditEvent}.
@@ -23,6 +25,11 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name = "consumption_events")
+@org.hibernate.annotations.Table(appliesTo = "consumption_events", indexes = {
+        @Index(name = "cae_target_idx", columnNames = { "target_subject_id", "target_subject_type", "ts", "id" }),
+        @Index(name = "cae_session_idx", columnNames = { "session_record", "ts", "id" }),
+        @Index(name = "cae_transaction_idx", columnNames = { "transaction_record", "ts", "id" }),
+        @Index(name = "cae_ts_idx", columnNames = { "ts", "id" }) })
 public class ConsumptionAuditEventVO extends AuditEventVO implements
         ConsumptionAuditEvent {
 
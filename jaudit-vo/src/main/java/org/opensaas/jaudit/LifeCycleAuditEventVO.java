@@ -12,8 +12,8 @@
  */
 package org.opensaas.jaudit;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -22,6 +22,11 @@ import javax.persistence.Enumerated;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cascade;
+import org.hibernate.annotations.CascadeType;
+import org.hibernate.annotations.Index;
+
 /**
  * Default implementation and persistence mapping for an
  * {@link LifeCycleAuditEvent}.
@@ -29,12 +34,17 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name = "life_cycle_audit_events")
+@org.hibernate.annotations.Table(appliesTo = "life_cycle_audit_events", indexes = {
+        @Index(name = "lcae_target_idx", columnNames = { "target_subject_id", "target_subject_type", "ts", "id" }),
+        @Index(name = "lcae_session_idx", columnNames = { "session_record", "ts", "id" }),
+        @Index(name = "lcae_transaction_idx", columnNames = { "transaction_record", "ts", "id" }),
+        @Index(name = "lcae_ts_idx", columnNames = { "ts", "id" }) })
 public class LifeCycleAuditEventVO extends AuditEventVO implements
         LifeCycleAuditEventMutable {
 
     private LifeCycleType _lifeCycleEventType;
 
-    private Collection<PropertyValueChange> _propertyValueChanges = new LinkedList<PropertyValueChange>();
+    private Collection<PropertyValueChange> _propertyValueChanges = new ArrayList<PropertyValueChange>(0);
 
     /**
      * {@inheritDoc}
@@ -59,8 +69,14 @@ public class LifeCycleAuditEventVO extends AuditEventVO implements
 
     /**
      * {@inheritDoc}
+     * 
+     * Evicting an event evicts its loaded changes with it, so streaming reads
+     * do not leave them behind in the session. The changes of up to 100 events
+     * in the session are fetched in one query.
      */
     @OneToMany(mappedBy = "lifeCycleAuditEvent", targetEntity = PropertyValueChangeVO.class)
+    @Cascade(CascadeType.EVICT)
+    @BatchSize(size = 100)
     public Collection<PropertyValueChange> getPropertyValueChanges() {
         // TODO: return unmodifyable collection instead
         return _propertyValueChanges;
@@ -80,7 +96,7 @@ public class LifeCycleAuditEventVO extends AuditEventVO implements
             try {
                 _propertyValueChanges.clear();
             } catch (final UnsupportedOperationException e) {
-                _propertyValueChanges = new LinkedList<PropertyValueChange>();
+                _propertyValueChanges = new ArrayList<PropertyValueChange>(0);
             }
         } else {
             for (final PropertyValueChange pvc : propertyValueChanges) {
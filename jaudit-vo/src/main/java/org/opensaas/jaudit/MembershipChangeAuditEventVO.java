@@ -21,6 +21,8 @@ import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Index;
+
 /**
  * The default implementation and persistence mapping of
  * {@link MembershipChangeAuditEvent}.
@@ -28,6 +30,11 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name = "membership_change_audit_events")
+@org.hibernate.annotations.Table(appliesTo = "membership_change_audit_events", indexes = {
+        @Index(name = "mcae_target_idx", columnNames = { "target_subject_id", "target_subject_type", "ts", "id" }),
+        @Index(name = "mcae_session_idx", columnNames = { "session_record", "ts", "id" }),
+        @Index(name = "mcae_transaction_idx", columnNames = { "transaction_record", "ts", "id" }),
+        @Index(name = "mcae_ts_idx", columnNames = { "ts", "id" }) })
 public class MembershipChangeAuditEventVO extends AuditEventVO implements
         MembershipChangeAuditEvent {
 
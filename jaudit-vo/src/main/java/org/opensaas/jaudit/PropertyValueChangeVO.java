@@ -26,7 +26,7 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name = "property_value_changes")
-public class PropertyValueChangeVO implements PropertyValueChange {
+public class PropertyValueChangeVO implements PropertyValueChangeMutable {
 
     private String _id;
 
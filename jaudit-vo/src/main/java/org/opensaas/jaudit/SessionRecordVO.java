@@ -22,13 +22,25 @@ import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Index;
+
 /**
  * This is the default implementation and persistence definition for
  * {@link SessionRecord}.
  * 
+ * Session records are kept in the read-write second level cache region of
+ * this class name, since they are read back by id when they end and as the
+ * session record of every event loaded.
+ * 
  */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "session_records")
+@org.hibernate.annotations.Table(appliesTo = "session_records", indexes = {
+        @Index(name = "sr_responsible_idx", columnNames = { "responsible_subject_id", "responsible_subject_type", "started_ts", "id" }),
+        @Index(name = "sr_started_idx", columnNames = { "started_ts", "id" }) })
 public class SessionRecordVO implements SessionRecordMutable {
 
     /**
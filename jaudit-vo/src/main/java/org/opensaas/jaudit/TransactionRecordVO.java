@@ -23,13 +23,25 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Index;
+
 /**
  * The default implementation and persistence mapping of a
  * {@link TransactionRecord}.
  * 
+ * Transaction records are kept in the read-write second level cache region of
+ * this class name, since they are read back by id when they end and as the
+ * transaction record of every event loaded.
+ * 
  */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "transaction_records")
+@org.hibernate.annotations.Table(appliesTo = "transaction_records", indexes = {
+        @Index(name = "tr_session_idx", columnNames = { "session_record", "started_ts", "id" }),
+        @Index(name = "tr_started_idx", columnNames = { "started_ts", "id" }) })
 public class TransactionRecordVO implements TransactionRecordMutable {
 
     private Date _endedTs;
@@ -0,0 +1,133 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares {@link AuditRecordEncoder} and {@link AuditRecordDecoder} with
+ * Java serialization for a session record, the only record that is
+ * serializable, and reports the codec alone for a typical life cycle event
+ * with its session and transaction records and a few property changes. Run
+ * with
+ * <tt>java org.opensaas.jaudit.AuditRecordCodecBenchmark [iterations]</tt>
+ * on the test class path; reports the message size and the time per round
+ * trip for each.
+ */
+public final class AuditRecordCodecBenchmark {
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args
+     *            optional number of iterations.
+     * @throws Exception
+     *             when an error occurs.
+     */
+    public static void main(final String[] args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0])
+                : 200000;
+        final SessionRecordVO sr = AuditRecordCodecTest.newSessionRecord("s1");
+        final LifeCycleAuditEventVO event = newEvent();
+
+        for (int round = 0; round < 3; ++round) {
+            final long codec = timeCodec(sr, iterations);
+            final long serialization = timeSerialization(sr, iterations);
+            final long eventCodec = timeCodec(event, iterations);
+            System.out.println("round " + round + ": session record codec "
+                    + (codec / iterations) + " ns, serialization "
+                    + (serialization / iterations) + " ns; event codec "
+                    + (eventCodec / iterations) + " ns");
+        }
+        System.out.println("size: session record codec "
+                + AuditRecordCodec.encode(sr).length + " bytes, serialization "
+                + serialize(sr).length + " bytes; event codec "
+                + AuditRecordCodec.encode(event).length + " bytes");
+    }
+
+    private static long timeCodec(final Object record, final int iterations) {
+        final AuditRecordEncoder encoder = new AuditRecordEncoder();
+        final AuditRecordDecoder decoder = new AuditRecordDecoder();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        int check = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            encoder.begin();
+            encoder.writeRecord(record);
+            buffer.clear();
+            encoder.writeTo(buffer);
+            buffer.flip();
+            decoder.begin(buffer);
+            check += decoder.readRecord().hashCode();
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (check == 42) {
+            System.out.println();
+        }
+        return elapsed;
+    }
+
+    private static long timeSerialization(final Object record,
+            final int iterations) throws Exception {
+        int check = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            final ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(serialize(record)));
+            check += in.readObject().hashCode();
+            in.close();
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (check == 42) {
+            System.out.println();
+        }
+        return elapsed;
+    }
+
+    private static byte[] serialize(final Object record) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(record);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static LifeCycleAuditEventVO newEvent() {
+        final SessionRecordVO sr = AuditRecordCodecTest.newSessionRecord("s1");
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        AuditRecordCodecTest.fill(event, sr);
+        event.setLifeCycleEventType(LifeCycleType.UPDATE);
+        for (int i = 0; i < 4; ++i) {
+            final PropertyValueChangeVO change = new PropertyValueChangeVO();
+            change.setId("c" + i);
+            change.setPropertyName("property" + i);
+            change.setPropertyType("java.lang.String");
+            change.setOldValue("old value " + i);
+            change.setNewValue("new value " + i);
+            change.setOldValueSpecified(true);
+            change.setNewValueSpecified(true);
+            change.setLifeCycleAuditEvent(event);
+            event.getPropertyValueChanges().add(change);
+        }
+        return event;
+    }
+
+    private AuditRecordCodecBenchmark() {
+        throw new UnsupportedOperationException(
+                "Cannot construct benchmark class.");
+    }
+}
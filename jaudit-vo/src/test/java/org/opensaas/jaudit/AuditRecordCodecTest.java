@@ -0,0 +1,316 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Iterator;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Round trip tests for {@link AuditRecordEncoder} and
+ * {@link AuditRecordDecoder}.
+ */
+public class AuditRecordCodecTest {
+
+    /**
+     * A session record keeps every field.
+     */
+    @Test
+    public void testSessionRecord() {
+        final SessionRecordVO sr = newSessionRecord("s1");
+        final SessionRecordVO copy = (SessionRecordVO) roundTrip(sr);
+        assertSessionRecord(sr, copy);
+
+        final SessionRecordVO empty = new SessionRecordVO();
+        final SessionRecordVO emptyCopy = (SessionRecordVO) roundTrip(empty);
+        Assert.assertNull(emptyCopy.getId());
+        Assert.assertNull(emptyCopy.getStartedTs());
+        Assert.assertNull(emptyCopy.getSystem());
+        Assert.assertNull(emptyCopy.getResponsibleInformation());
+    }
+
+    /**
+     * A transaction record keeps its fields and its session record.
+     */
+    @Test
+    public void testTransactionRecord() {
+        final TransactionRecordVO tr = newTransactionRecord("t1",
+                newSessionRecord("s1"));
+        final TransactionRecordVO copy = (TransactionRecordVO) roundTrip(tr);
+        Assert.assertEquals(tr.getId(), copy.getId());
+        Assert.assertEquals(tr.getTransactionId(), copy.getTransactionId());
+        Assert.assertEquals(tr.getStartedTs(), copy.getStartedTs());
+        Assert.assertEquals(tr.getEndedTs(), copy.getEndedTs());
+        Assert.assertEquals(tr.getTransactionCompletionStatus(), copy
+                .getTransactionCompletionStatus());
+        assertSessionRecord(tr.getSessionRecord(), copy.getSessionRecord());
+    }
+
+    /**
+     * A life cycle event keeps its changes, which point back at the copy, and
+     * shares one session record copy with its transaction.
+     */
+    @Test
+    public void testLifeCycleAuditEvent() {
+        final SessionRecordVO sr = newSessionRecord("s1");
+        final LifeCycleAuditEventVO event = new LifeCycleAuditEventVO();
+        fill(event, sr);
+        event.setLifeCycleEventType(LifeCycleType.UPDATE);
+        for (int i = 0; i < 3; ++i) {
+            final PropertyValueChangeVO change = new PropertyValueChangeVO();
+            change.setId("c" + i);
+            change.setPropertyName("name");
+            change.setPropertyType("java.lang.String");
+            change.setOldValue(i == 0 ? null : "old" + i);
+            change.setNewValue("n\u00e9w " + i);
+            change.setOldValueSpecified(i > 0);
+            change.setNewValueSpecified(true);
+            change.setLifeCycleAuditEvent(event);
+            event.getPropertyValueChanges().add(change);
+        }
+
+        final LifeCycleAuditEventVO copy = (LifeCycleAuditEventVO) roundTrip(event);
+        assertAuditEvent(event, copy);
+        Assert.assertSame(copy.getSessionRecord(), copy.getTransactionRecord()
+                .getSessionRecord());
+        Assert.assertEquals(LifeCycleType.UPDATE, copy.getLifeCycleEventType());
+        Assert.assertEquals(3, copy.getPropertyValueChanges().size());
+        final Iterator<PropertyValueChange> expected = event
+                .getPropertyValueChanges().iterator();
+        for (final PropertyValueChange change : copy.getPropertyValueChanges()) {
+            final PropertyValueChange original = expected.next();
+            Assert.assertEquals(original.getId(), change.getId());
+            Assert.assertEquals(original.getPropertyName(), change
+                    .getPropertyName());
+            Assert.assertEquals(original.getPropertyType(), change
+                    .getPropertyType());
+            Assert.assertEquals(original.getOldValue(), change.getOldValue());
+            Assert.assertEquals(original.getNewValue(), change.getNewValue());
+            Assert.assertEquals(original.isOldValueSpecified(), change
+                    .isOldValueSpecified());
+            Assert.assertEquals(original.isNewValueSpecified(), change
+                    .isNewValueSpecified());
+            Assert.assertSame(copy, change.getLifeCycleAuditEvent());
+        }
+    }
+
+    /**
+     * The other event types keep their own fields.
+     */
+    @Test
+    public void testOtherEvents() {
+        final BusinessAuditEventVO business = new BusinessAuditEventVO();
+        fill(business, newSessionRecord("s1"));
+        business.setBusinessClass("Invoice");
+        business.setBusinessAction("approve");
+        final BusinessAuditEventVO businessCopy = (BusinessAuditEventVO) roundTrip(business);
+        assertAuditEvent(business, businessCopy);
+        Assert.assertEquals("Invoice", businessCopy.getBusinessClass());
+        Assert.assertEquals("approve", businessCopy.getBusinessAction());
+
+        final ConsumptionAuditEventVO consumption = new ConsumptionAuditEventVO();
+        fill(consumption, null);
+        consumption.setAmountConsumed(Double.valueOf(12.5d));
+        consumption.setScale(Integer.valueOf(3));
+        final ConsumptionAuditEventVO consumptionCopy = (ConsumptionAuditEventVO) roundTrip(consumption);
+        assertAuditEvent(consumption, consumptionCopy);
+        Assert.assertEquals(Double.valueOf(12.5d), consumptionCopy
+                .getAmountConsumed());
+        Assert.assertEquals(Integer.valueOf(3), consumptionCopy.getScale());
+
+        consumption.setAmountConsumed(null);
+        consumption.setScale(null);
+        final ConsumptionAuditEventVO nullCopy = (ConsumptionAuditEventVO) roundTrip(consumption);
+        Assert.assertNull(nullCopy.getAmountConsumed());
+        Assert.assertNull(nullCopy.getScale());
+
+        final MembershipChangeAuditEventVO membership = new MembershipChangeAuditEventVO();
+        fill(membership, newSessionRecord("s2"));
+        membership.setMembershipChangeEventType(MembershipChangeType.values()[0]);
+        membership.setMembershipGroup(newSubject("group", "g1"));
+        final MembershipChangeAuditEventVO membershipCopy = (MembershipChangeAuditEventVO) roundTrip(membership);
+        assertAuditEvent(membership, membershipCopy);
+        Assert.assertEquals(membership.getMembershipChangeEventType(),
+                membershipCopy.getMembershipChangeEventType());
+        Assert.assertEquals(membership.getMembershipGroup(), membershipCopy
+                .getMembershipGroup());
+    }
+
+    /**
+     * Strings that repeat are written once, and a session record, the only
+     * serializable record, is much smaller than with Java serialization.
+     *
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testCompact() throws Exception {
+        final AuditRecordEncoder encoder = new AuditRecordEncoder();
+        encoder.begin();
+        encoder.writeInternedString("org.opensaas.jaudit.SessionRecordVO");
+        final int first = encoder.size();
+        encoder.writeInternedString("org.opensaas.jaudit.SessionRecordVO");
+        Assert.assertEquals(1, encoder.size() - first);
+
+        final SessionRecordVO sr = newSessionRecord("s1");
+        final java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        final java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(
+                bytes);
+        out.writeObject(sr);
+        out.close();
+        Assert.assertTrue(AuditRecordCodec.encode(sr).length * 4 < bytes
+                .size());
+    }
+
+    /**
+     * Messages decode in place from a direct buffer, one after another.
+     */
+    @Test
+    public void testDirectBuffer() {
+        final AuditRecordEncoder encoder = new AuditRecordEncoder(1);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        for (int i = 0; i < 3; ++i) {
+            encoder.begin();
+            encoder.writeRecord(newSessionRecord("s" + i));
+            encoder.writeTo(buffer);
+        }
+        buffer.flip();
+
+        final AuditRecordDecoder decoder = new AuditRecordDecoder();
+        for (int i = 0; i < 3; ++i) {
+            decoder.begin(buffer);
+            Assert.assertEquals("s" + i, ((SessionRecord) decoder.readRecord())
+                    .getId());
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    /**
+     * Unknown versions and truncated messages are rejected.
+     */
+    @Test
+    public void testMalformed() {
+        final byte[] message = AuditRecordCodec.encode(newSessionRecord("s1"));
+        message[0] = (byte) (AuditRecordCodec.VERSION + 1);
+        try {
+            AuditRecordCodec.decode(message);
+            Assert.fail("Unknown version accepted.");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+
+        final byte[] truncated = new byte[message.length / 2];
+        System.arraycopy(AuditRecordCodec.encode(newSessionRecord("s1")), 0,
+                truncated, 0, truncated.length);
+        try {
+            AuditRecordCodec.decode(truncated);
+            Assert.fail("Truncated message accepted.");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Only audit records can be encoded.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownRecord() {
+        AuditRecordCodec.encode("not a record");
+    }
+
+    private static Object roundTrip(final Object record) {
+        return AuditRecordCodec.decode(AuditRecordCodec.encode(record));
+    }
+
+    private static void assertSessionRecord(final SessionRecord expected,
+            final SessionRecord actual) {
+        Assert.assertEquals(expected.getId(), actual.getId());
+        Assert.assertEquals(expected.getSessionId(), actual.getSessionId());
+        Assert.assertEquals(expected.getStartedTs(), actual.getStartedTs());
+        Assert.assertEquals(expected.getEndedTs(), actual.getEndedTs());
+        Assert.assertEquals(expected.getSystem(), actual.getSystem());
+        Assert.assertEquals(expected.getSystemAddress(), actual
+                .getSystemAddress());
+        Assert.assertEquals(expected.getResponsibleInformation(), actual
+                .getResponsibleInformation());
+    }
+
+    private static void assertAuditEvent(final AuditEvent expected,
+            final AuditEvent actual) {
+        Assert.assertEquals(expected.getId(), actual.getId());
+        Assert.assertEquals(expected.getTs(), actual.getTs());
+        Assert.assertEquals(expected.getDescription(), actual.getDescription());
+        Assert.assertEquals(expected.getTarget(), actual.getTarget());
+        if (expected.getSessionRecord() == null) {
+            Assert.assertNull(actual.getSessionRecord());
+            Assert.assertNull(actual.getTransactionRecord());
+        } else {
+            assertSessionRecord(expected.getSessionRecord(), actual
+                    .getSessionRecord());
+            Assert.assertEquals(expected.getTransactionRecord().getId(),
+                    actual.getTransactionRecord().getId());
+        }
+    }
+
+    /* package */static SessionRecordVO newSessionRecord(final String id) {
+        final SessionRecordVO sr = new SessionRecordVO();
+        sr.setId(id);
+        sr.setSessionId("http-" + id);
+        sr.setStartedTs(new Date(1200000000000L));
+        sr.setEndedTs(new Date(1200000360000L));
+        sr.setSystem(newSubject("org.opensaas.jaudit.AuditSystem", "jaudit"));
+        sr.setSystemAddress("10.0.0.1");
+        final ResponsibleInformation ri = new ResponsibleInformation();
+        ri.setResponsible(newSubject("org.opensaas.jaudit.User", "jdoe"));
+        ri.setResponsibleAddress("192.168.1.20");
+        ri.setResponsibleAgent("Mozilla/5.0");
+        ri.setCredentialsType("password");
+        sr.setResponsibleInformation(ri);
+        return sr;
+    }
+
+    /* package */static TransactionRecordVO newTransactionRecord(
+            final String id, final SessionRecord sr) {
+        final TransactionRecordVO tr = new TransactionRecordVO();
+        tr.setId(id);
+        tr.setTransactionId("tx-" + id);
+        tr.setSessionRecord(sr);
+        tr.setStartedTs(new Date(1200000001000L));
+        tr.setEndedTs(new Date(1200000001050L));
+        tr.setTransactionCompletionStatus(TransactionCompletionStatus.STATUS_COMMITTED);
+        return tr;
+    }
+
+    /* package */static void fill(final AuditEventVO event,
+            final SessionRecord sr) {
+        event.setId("e-" + System.identityHashCode(event));
+        event.setTs(new Date(1200000001020L));
+        event.setDescription("updated");
+        event.setTarget(newSubject("org.opensaas.jaudit.User", "42"));
+        if (sr != null) {
+            event.setSessionRecord(sr);
+            event.setTransactionRecord(newTransactionRecord("t1", sr));
+        }
+    }
+
+    private static AuditSubject newSubject(final String type, final String id) {
+        final AuditSubject subject = new AuditSubject();
+        subject.setSubjectType(type);
+        subject.setSubjectId(id);
+        return subject;
+    }
+}
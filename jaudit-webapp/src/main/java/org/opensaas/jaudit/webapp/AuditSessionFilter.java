@@ -26,13 +26,52 @@ import org.opensaas.jaudit.ResponsibleInformation;
 import org.opensaas.jaudit.SessionRecord;
 import org.opensaas.jaudit.service.AuditService;
 import org.opensaas.jaudit.session.AuditSession;
+import org.opensaas.jaudit.session.SessionRecordResolver;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
 
 /**
  * A web application filter responsible for creating an {@link AuditSession},
  * populating it and setting the context.
+ * 
+ * By default every request gets an {@link HttpSession} and a
+ * {@link SessionRecord}. With <tt>lazySessions</tt> set, a request without a
+ * session record gets a lazy {@link AuditSession} instead; the
+ * {@link HttpSession} and the record are only created when something first
+ * asks for the record, such as an audit event. A new transaction does not:
+ * transactions begun before then are recorded without a session. Requests
+ * that audit nothing then leave no trace, but the first audited work must
+ * happen before the response is committed.
+ * 
+ * A lazy record is created from inside whatever transaction first needs it,
+ * usually the business transaction, and kept in the {@link HttpSession} right
+ * away. The audit service must therefore create session records in a
+ * transaction of their own, for example with
+ * <tt>PROPAGATION_REQUIRES_NEW</tt> for <tt>createSessionRecord*</tt>, or a
+ * rolled back business transaction would leave the {@link HttpSession}
+ * holding a record that was never stored.
+ * 
+ * <tt>includePatterns</tt> and <tt>excludePatterns</tt> take comma separated
+ * ant style paths, relative to the context path, to choose which requests
+ * are audited at all.
+ * 
+ * When the {@link ResponsibleFactory} is a
+ * {@link FingerprintingResponsibleFactory}, requests whose responsible
+ * fingerprint matches the previous request's skip the responsible update
+ * entirely.
+ * 
+ * The {@link AuditService} and {@link ResponsibleFactory} are looked up when
+ * the filter starts and held until the application context is refreshed or
+ * closed, so a request only reads a field to get them.
  */
 public class AuditSessionFilter extends OncePerRequestFilter {
     @SuppressWarnings("unused")
@@ -57,12 +96,74 @@ public class AuditSessionFilter extends OncePerRequestFilter {
      */
     public static final String RESPONSIBLE_FACTORY_NAME = "responsibleFactory";
 
+    /**
+     * Suffix added to the session record attribute name to name the
+     * attribute holding the last responsible fingerprint.
+     */
+    public static final String FINGERPRINT_SUFFIX = ".responsibleFingerprint";
+
+    /**
+     * Stands for a <tt>null</tt> fingerprint in the session.
+     */
+    private static final String NO_RESPONSIBLE = "org.opensaas.jaudit.NoResponsible";
+
     private String _auditServiceName = AUDIT_SERVICE_NAME;
 
     private String _responsibleFactoryName = RESPONSIBLE_FACTORY_NAME;
 
     private String _sessionRecordName = SESSION_RECORD_NAME;
 
+    private String _fingerprintName = SESSION_RECORD_NAME + FINGERPRINT_SUFFIX;
+
+    private boolean _lazySessions = false;
+
+    private String[] _includePatterns;
+
+    private String[] _excludePatterns;
+
+    private final PathMatcher _pathMatcher = new AntPathMatcher();
+
+    private final UrlPathHelper _urlPathHelper = new UrlPathHelper();
+
+    private volatile Collaborators _collaborators;
+
+    /**
+     * Look up the collaborators and listen for the context being refreshed.
+     * 
+     * @throws ServletException
+     *             when an error occurs.
+     */
+    @Override
+    protected void initFilterBean() throws ServletException {
+        final WebApplicationContext wac = WebApplicationContextUtils
+                .getWebApplicationContext(getServletContext());
+        if (wac == null) {
+            // looked up on the first request instead
+            return;
+        }
+        if (wac instanceof ConfigurableApplicationContext) {
+            ((ConfigurableApplicationContext) wac)
+                    .addApplicationListener(new RefreshListener());
+        }
+        _collaborators = new Collaborators(wac);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean shouldNotFilter(final HttpServletRequest request)
+            throws ServletException {
+        if (_includePatterns == null && _excludePatterns == null) {
+            return false;
+        }
+        final String path = _urlPathHelper.getPathWithinApplication(request);
+        if (_includePatterns != null && !matches(_includePatterns, path)) {
+            return true;
+        }
+        return _excludePatterns != null && matches(_excludePatterns, path);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -72,57 +173,84 @@ public class AuditSessionFilter extends OncePerRequestFilter {
             throws ServletException, IOException {
 
         // load the current session if available
-        final HttpSession session = request.getSession();
-        SessionRecord sessionRecord = (SessionRecord) session
-                .getAttribute(_sessionRecordName);
+        final HttpSession session = request.getSession(!_lazySessions);
+        SessionRecord sessionRecord = session != null ? (SessionRecord) session
+                .getAttribute(_sessionRecordName)
+                : null;
+        SessionRecord storedRecord = sessionRecord;
 
-        final AuditService auditService = lookupAuditService();
-        final ResponsibleFactory responsibleFactory = lookupResponsibleFactory();
+        final Collaborators collaborators = getCollaborators();
+        final AuditService auditService = collaborators._auditService;
+        final ResponsibleFactory responsibleFactory = collaborators._responsibleFactory;
 
         if (request.getRequestURI().endsWith("/logout.jsp")) {
             // logging out; end session
             if (sessionRecord != null) {
                 auditService.updateSessionEnded(sessionRecord);
                 session.removeAttribute(_sessionRecordName);
+                session.removeAttribute(_fingerprintName);
                 sessionRecord = null;
             }
 
         } else {
             // every url except for logout
 
-            if (sessionRecord == null) {
+            if (sessionRecord == null && _lazySessions) {
+                // no session record; create one only if it is needed
+                final AuditSession auditSession = AuditSession
+                        .createLazyAuditSession(new RequestSessionRecordResolver(
+                                request, auditService, responsibleFactory));
+                LOGGER.log(Level.FINEST,
+                        "Installing session [{0}] into thread [{1}]",
+                        new Object[] { auditSession, Thread.currentThread() });
+            } else if (sessionRecord == null) {
                 // no session; probably a login
-                final ResponsibleInformation ri = auditService
-                        .newResponsibleInformation();
-
-                responsibleFactory.fillInResponsible(ri, request);
-
-                sessionRecord = auditService.createSessionRecord(session
-                        .getId(), ri);
+                sessionRecord = createSessionRecord(request, session,
+                        auditService, responsibleFactory);
+                storedRecord = sessionRecord;
             } else {
                 // session exists; update with credentials if we have them
-                ResponsibleInformation ri = sessionRecord
-                        .getResponsibleInformation();
-                if (ri == null) {
-                    ri = auditService.newResponsibleInformation();
-                    responsibleFactory.fillInResponsible(ri, request);
-                    sessionRecord = auditService.updateResponsible(
-                            sessionRecord, ri);
+                final Object fingerprint = getFingerprint(responsibleFactory,
+                        request);
+                if (fingerprint != null
+                        && fingerprint.equals(session
+                                .getAttribute(_fingerprintName))) {
+                    // same responsible party as the last request
+                    LOGGER.log(Level.FINEST,
+                            "Responsible unchanged for session [{0}]",
+                            sessionRecord);
                 } else {
-                    if (responsibleFactory.updateResponsible(ri, request)) {
+                    ResponsibleInformation ri = sessionRecord
+                            .getResponsibleInformation();
+                    if (ri == null) {
+                        ri = auditService.newResponsibleInformation();
+                        responsibleFactory.fillInResponsible(ri, request);
                         sessionRecord = auditService.updateResponsible(
                                 sessionRecord, ri);
+                    } else {
+                        if (responsibleFactory.updateResponsible(ri, request)) {
+                            sessionRecord = auditService.updateResponsible(
+                                    sessionRecord, ri);
+                        }
+                    }
+                    if (fingerprint != null) {
+                        session.setAttribute(_fingerprintName,
+                                fingerprint);
                     }
                 }
             }
 
-            // install session into current thread
-            final AuditSession auditSession = AuditSession
-                    .createAuditSession(sessionRecord);
-            session.setAttribute(_sessionRecordName, sessionRecord);
-            LOGGER.log(Level.FINEST,
-                    "Installing session [{0}] into thread [{1}]", new Object[] {
-                            auditSession, Thread.currentThread() });
+            if (sessionRecord != null) {
+                // install session into current thread
+                final AuditSession auditSession = AuditSession
+                        .createAuditSession(sessionRecord);
+                if (sessionRecord != storedRecord) {
+                    session.setAttribute(_sessionRecordName, sessionRecord);
+                }
+                LOGGER.log(Level.FINEST,
+                        "Installing session [{0}] into thread [{1}]",
+                        new Object[] { auditSession, Thread.currentThread() });
+            }
         }
 
         // continue on with filter chain
@@ -137,6 +265,52 @@ public class AuditSessionFilter extends OncePerRequestFilter {
 
     }
 
+    /**
+     * Create a session record for the passed session, filling in the
+     * responsible information from the request, and keep it in the session.
+     */
+    private SessionRecord createSessionRecord(final HttpServletRequest request,
+            final HttpSession session, final AuditService auditService,
+            final ResponsibleFactory responsibleFactory) {
+        final Object fingerprint = getFingerprint(responsibleFactory, request);
+        final ResponsibleInformation ri = auditService
+                .newResponsibleInformation();
+
+        responsibleFactory.fillInResponsible(ri, request);
+
+        final SessionRecord sessionRecord = auditService.createSessionRecord(
+                session.getId(), ri);
+        session.setAttribute(_sessionRecordName, sessionRecord);
+        if (fingerprint != null) {
+            session.setAttribute(_fingerprintName, fingerprint);
+        }
+        return sessionRecord;
+    }
+
+    /**
+     * Return the responsible fingerprint of the request, or <tt>null</tt> if
+     * the factory does not provide fingerprints.
+     */
+    private static Object getFingerprint(
+            final ResponsibleFactory responsibleFactory,
+            final HttpServletRequest request) {
+        if (!(responsibleFactory instanceof FingerprintingResponsibleFactory)) {
+            return null;
+        }
+        final Object fingerprint = ((FingerprintingResponsibleFactory) responsibleFactory)
+                .getResponsibleFingerprint(request);
+        return fingerprint != null ? fingerprint : NO_RESPONSIBLE;
+    }
+
+    private boolean matches(final String[] patterns, final String path) {
+        for (final String pattern : patterns) {
+            if (_pathMatcher.match(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Sets the audit session name as an override to
      * {@link #SESSION_RECORD_NAME}.
@@ -146,6 +320,7 @@ public class AuditSessionFilter extends OncePerRequestFilter {
      */
     public void setAuditSessionName(final String auditSessionName) {
         _sessionRecordName = auditSessionName;
+        _fingerprintName = auditSessionName + FINGERPRINT_SUFFIX;
     }
 
     /**
@@ -157,6 +332,7 @@ public class AuditSessionFilter extends OncePerRequestFilter {
      */
     public void setResponsibleFactoryName(final String responsibleFactoryName) {
         _responsibleFactoryName = responsibleFactoryName;
+        _collaborators = null;
     }
 
     /**
@@ -165,32 +341,129 @@ public class AuditSessionFilter extends OncePerRequestFilter {
      */
     public void setAuditServiceName(final String auditServiceName) {
         _auditServiceName = auditServiceName;
+        _collaborators = null;
     }
 
     /**
-     * Look up the AuditService this filter will use.
+     * When set, requests without a session record do not create an
+     * {@link HttpSession} or a {@link SessionRecord} unless they need one.
+     * Default <tt>false</tt>.
      * 
-     * @return AuditService
+     * @param lazySessions
+     *            <tt>true</tt> to create sessions on demand.
      */
-    private AuditService lookupAuditService() {
+    public void setLazySessions(final boolean lazySessions) {
+        _lazySessions = lazySessions;
+    }
 
-        final WebApplicationContext wac = WebApplicationContextUtils
-                .getRequiredWebApplicationContext(getServletContext());
-        return (AuditService) wac
-                .getBean(_auditServiceName, AuditService.class);
+    /**
+     * Only audit requests whose path matches one of these ant style patterns.
+     * Default is all requests.
+     * 
+     * @param includePatterns
+     *            the patterns, or <tt>null</tt> for all requests.
+     */
+    public void setIncludePatterns(final String[] includePatterns) {
+        _includePatterns = includePatterns != null
+                && includePatterns.length > 0 ? includePatterns : null;
     }
 
     /**
-     * Look up the {@link ResponsibleFactory} this filter will use.
+     * Never audit requests whose path matches one of these ant style
+     * patterns, for example static resources and health checks.
      * 
-     * @return ResponsibleFactory
+     * @param excludePatterns
+     *            the patterns, or <tt>null</tt> for none.
      */
-    private ResponsibleFactory lookupResponsibleFactory() {
+    public void setExcludePatterns(final String[] excludePatterns) {
+        _excludePatterns = excludePatterns != null
+                && excludePatterns.length > 0 ? excludePatterns : null;
+    }
 
-        final WebApplicationContext wac = WebApplicationContextUtils
-                .getRequiredWebApplicationContext(getServletContext());
-        return (ResponsibleFactory) wac.getBean(_responsibleFactoryName,
-                ResponsibleFactory.class);
+    /**
+     * Return the collaborators this filter will use, looking them up if they
+     * are not held.
+     * 
+     * @return the collaborators.
+     */
+    private Collaborators getCollaborators() {
+        Collaborators collaborators = _collaborators;
+        if (collaborators == null) {
+            collaborators = new Collaborators(WebApplicationContextUtils
+                    .getRequiredWebApplicationContext(getServletContext()));
+            _collaborators = collaborators;
+        }
+        return collaborators;
+    }
+
+    /**
+     * The beans this filter uses, looked up together.
+     */
+    private final class Collaborators {
+
+        private final AuditService _auditService;
+
+        private final ResponsibleFactory _responsibleFactory;
+
+        Collaborators(final WebApplicationContext wac) {
+            _auditService = (AuditService) wac.getBean(_auditServiceName,
+                    AuditService.class);
+            _responsibleFactory = (ResponsibleFactory) wac.getBean(
+                    _responsibleFactoryName, ResponsibleFactory.class);
+        }
+    }
+
+    /**
+     * Drops the held collaborators when the context is refreshed or closed.
+     */
+    private final class RefreshListener implements ApplicationListener {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void onApplicationEvent(final ApplicationEvent event) {
+            if (event instanceof ContextRefreshedEvent
+                    || event instanceof ContextClosedEvent) {
+                LOGGER.log(Level.FINE, "Dropping collaborators on {0}", event);
+                _collaborators = null;
+            }
+        }
+    }
+
+    /**
+     * Creates the session, and its record, of a request the first time a lazy
+     * {@link AuditSession} is asked for its record.
+     */
+    private class RequestSessionRecordResolver implements
+            SessionRecordResolver {
+
+        private final HttpServletRequest _request;
+
+        private final AuditService _auditService;
+
+        private final ResponsibleFactory _responsibleFactory;
+
+        RequestSessionRecordResolver(final HttpServletRequest request,
+                final AuditService auditService,
+                final ResponsibleFactory responsibleFactory) {
+            _request = request;
+            _auditService = auditService;
+            _responsibleFactory = responsibleFactory;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public SessionRecord resolveSessionRecord() {
+            final HttpSession session = _request.getSession();
+            final SessionRecord existing = (SessionRecord) session
+                    .getAttribute(_sessionRecordName);
+            if (existing != null) {
+                return existing;
+            }
+            return createSessionRecord(_request, session, _auditService,
+                    _responsibleFactory);
+        }
     }
 
 }
@@ -0,0 +1,40 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.webapp;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * A {@link ResponsibleFactory} that can tell {@link AuditSessionFilter}
+ * cheaply whether the responsible party may have changed. The filter keeps
+ * the fingerprint of the last request in the session and only calls
+ * {@link #updateResponsible(org.opensaas.jaudit.ResponsibleInformation, HttpServletRequest)}
+ * when it differs.
+ */
+public interface FingerprintingResponsibleFactory extends ResponsibleFactory {
+
+    /**
+     * Return a value identifying who is responsible for the request, such as
+     * the authenticated principal. It must stay equal, ideally the same
+     * instance, for as long as
+     * {@link #updateResponsible(org.opensaas.jaudit.ResponsibleInformation, HttpServletRequest)}
+     * would find nothing to change. It is kept in the
+     * {@link javax.servlet.http.HttpSession} so it should be
+     * {@link java.io.Serializable}, and it should not be expensive to compute.
+     * 
+     * @param request
+     *            the HttpServletRequest to determine contextual information.
+     * @return the fingerprint, <tt>null</tt> for no responsible party.
+     */
+    Object getResponsibleFingerprint(HttpServletRequest request);
+}
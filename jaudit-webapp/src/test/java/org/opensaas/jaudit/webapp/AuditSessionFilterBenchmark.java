@@ -0,0 +1,197 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.webapp;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+import org.opensaas.jaudit.service.AuditService;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.StaticWebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * Measures the per request cost of {@link AuditSessionFilter} for a request
+ * with an existing session record, through a chain that does nothing, and
+ * the cost of the two bean lookups the filter used to make on every request.
+ * Servlet objects are stubbed with proxies. Not run as part of the build;
+ * start it from an IDE or with the test classpath.
+ */
+public final class AuditSessionFilterBenchmark {
+
+    private static final int ITERATIONS = 1000000;
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args
+     *            ignored.
+     * @throws Exception
+     *             when an error occurs.
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, Object> servletContextAttributes = new HashMap<String, Object>();
+        final ServletContext servletContext = stub(ServletContext.class,
+                servletContextAttributes);
+
+        final StaticWebApplicationContext wac = new StaticWebApplicationContext();
+        wac.setServletContext(servletContext);
+        wac.getBeanFactory().registerSingleton(
+                AuditSessionFilter.AUDIT_SERVICE_NAME,
+                stub(AuditService.class, new HashMap<String, Object>()));
+        wac.getBeanFactory().registerSingleton(
+                AuditSessionFilter.RESPONSIBLE_FACTORY_NAME,
+                stub(ResponsibleFactory.class,
+                        new HashMap<String, Object>()));
+        wac.refresh();
+        servletContextAttributes.put(
+                WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE,
+                wac);
+
+        final Map<String, Object> filterConfigAnswers = new HashMap<String, Object>();
+        filterConfigAnswers.put("getServletContext", servletContext);
+        filterConfigAnswers.put("getFilterName", "audit-session-filter");
+        filterConfigAnswers.put("getInitParameterNames", Collections
+                .enumeration(Collections.emptyList()));
+        final AuditSessionFilter filter = new AuditSessionFilter();
+        filter.setExcludePatterns(new String[] { "/images/**", "/styles/**" });
+        filter.init(stub(FilterConfig.class, filterConfigAnswers));
+
+        final SessionRecord sessionRecord = stub(SessionRecord.class,
+                Collections.<String, Object> singletonMap(
+                        "getResponsibleInformation",
+                        new ResponsibleInformation()));
+        final HttpSession session = stub(HttpSession.class, Collections
+                .<String, Object> singletonMap("getAttribute", sessionRecord));
+        final Map<String, Object> requestAnswers = new HashMap<String, Object>();
+        requestAnswers.put("getSession", session);
+        requestAnswers.put("getRequestURI", "/app/page.html");
+        requestAnswers.put("getContextPath", "/app");
+        final HttpServletRequest request = stub(HttpServletRequest.class,
+                requestAnswers);
+        final HttpServletResponse response = stub(HttpServletResponse.class,
+                new HashMap<String, Object>());
+        final FilterChain chain = new FilterChain() {
+            public void doFilter(final ServletRequest req,
+                    final ServletResponse res) {
+                // nothing
+            }
+        };
+
+        for (int round = 0; round < 3; ++round) {
+            System.out.println("round " + round);
+            System.out.println("  filter per request\t"
+                    + String.format("%.1f", filter(filter, request, response,
+                            chain)) + " ns");
+            System.out.println("  lookups per request\t"
+                    + String.format("%.1f", lookups(servletContext)) + " ns");
+        }
+    }
+
+    private static double filter(final AuditSessionFilter filter,
+            final HttpServletRequest request,
+            final HttpServletResponse response, final FilterChain chain)
+            throws Exception {
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            filter.doFilter(request, response, chain);
+        }
+        return (double) (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static double lookups(final ServletContext servletContext) {
+        Object sink = null;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            WebApplicationContext wac = WebApplicationContextUtils
+                    .getRequiredWebApplicationContext(servletContext);
+            sink = wac.getBean(AuditSessionFilter.AUDIT_SERVICE_NAME,
+                    AuditService.class);
+            wac = WebApplicationContextUtils
+                    .getRequiredWebApplicationContext(servletContext);
+            sink = wac.getBean(AuditSessionFilter.RESPONSIBLE_FACTORY_NAME,
+                    ResponsibleFactory.class);
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (sink == null) {
+            System.out.println();
+        }
+        return (double) elapsed / ITERATIONS;
+    }
+
+    /**
+     * Build a proxy answering methods by name from the passed map, with
+     * <tt>false</tt>, zero or <tt>null</tt> for anything else.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(final Class<T> type,
+            final Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(AuditSessionFilterBenchmark.class
+                .getClassLoader(), new Class<?>[] { type },
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if ("getAttribute".equals(name) && args != null
+                                && answers.containsKey(args[0])) {
+                            return answers.get(args[0]);
+                        }
+                        if ("setAttribute".equals(name) && args != null
+                                && type == ServletContext.class) {
+                            answers.put((String) args[0], args[1]);
+                            return null;
+                        }
+                        if (answers.containsKey(name)) {
+                            return answers.get(name);
+                        }
+                        if ("getAttribute".equals(name)) {
+                            return null;
+                        }
+                        final Class<?> returnType = method.getReturnType();
+                        if (returnType == boolean.class) {
+                            return Boolean.FALSE;
+                        } else if (returnType == int.class) {
+                            return Integer.valueOf(0);
+                        } else if (returnType == long.class) {
+                            return Long.valueOf(0L);
+                        } else if ("hashCode".equals(name)) {
+                            return Integer.valueOf(System
+                                    .identityHashCode(proxy));
+                        } else if ("toString".equals(name)) {
+                            return type.getSimpleName();
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private AuditSessionFilterBenchmark() {
+        throw new UnsupportedOperationException(
+                "Cannot construct utility class.");
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit;
+
+/**
+ * The mutable interface to compliment {@link PropertyValueChange}.
+ */
+public interface PropertyValueChangeMutable extends PropertyValueChange {
+
+    /**
+     * Sets the required id of this change.
+     * 
+     * @see #getId()
+     * 
+     * @param id
+     *            required id to set.
+     */
+    void setId(final String id);
+
+    /**
+     * Sets the required property name.
+     * 
+     * @see #getPropertyName()
+     * 
+     * @param propertyName
+     *            the name of the property changed.
+     */
+    void setPropertyName(final String propertyName);
+
+    /**
+     * Sets the required property type.
+     * 
+     * @see #getPropertyType()
+     * 
+     * @param propertyType
+     *            the property type.
+     */
+    void setPropertyType(final String propertyType);
+
+    /**
+     * Sets the optional old value.
+     * 
+     * @see #getOldValue()
+     * 
+     * @param oldValue
+     *            old value to set.
+     */
+    void setOldValue(final String oldValue);
+
+    /**
+     * Sets the optional new value.
+     * 
+     * @see #getNewValue()
+     * 
+     * @param newValue
+     *            new value to set.
+     */
+    void setNewValue(final String newValue);
+
+    /**
+     * Sets whether or not the old value is specified.
+     * 
+     * @see #isOldValueSpecified()
+     * 
+     * @param oldValueSpecified
+     *            true if the old value, even null, is intentional.
+     */
+    void setOldValueSpecified(final boolean oldValueSpecified);
+
+    /**
+     * Sets whether or not the new value is specified.
+     * 
+     * @see #isNewValueSpecified()
+     * 
+     * @param newValueSpecified
+     *            true if the new value, even null, is intentional.
+     */
+    void setNewValueSpecified(final boolean newValueSpecified);
+
+    /**
+     * Sets the required life cycle audit event this change belongs to.
+     * 
+     * @see #getLifeCycleAuditEvent()
+     * 
+     * @param lifeCycleAuditEvent
+     *            the event.
+     */
+    void setLifeCycleAuditEvent(final LifeCycleAuditEvent lifeCycleAuditEvent);
+}
@@ -12,12 +12,20 @@
  */
 package org.opensaas.jaudit.session;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import org.opensaas.jaudit.SessionRecord;
 
 /**
  * Keeps track of {@link SessionRecord}s on a per-thread basis.
+ * 
+ * A session created with {@link #createLazyAuditSession(SessionRecordResolver)}
+ * has no record until {@link #getSessionRecord()} is first called, so work
+ * that never audits anything never creates one. Until then it is only equal
+ * to itself. The resolver is not serialized, so a lazy session is resolved
+ * before it is written out.
  */
 final public class AuditSession implements Serializable {
 
@@ -26,7 +34,14 @@ final public class AuditSession implements Serializable {
      */
     private static final long serialVersionUID = -4332917630799895418L;
 
-    private final SessionRecord _sessionRecord;
+    private volatile SessionRecord _sessionRecord;
+
+    private transient SessionRecordResolver _resolver;
+
+    /**
+     * Set while the resolver runs; only read by the thread running it.
+     */
+    private transient boolean _resolving;
 
     private static final ThreadLocal<AuditSession> AUDIT_SESSION_CONTEXT = new ThreadLocal<AuditSession>();
 
@@ -38,6 +53,15 @@ final public class AuditSession implements Serializable {
         _sessionRecord = sessionRecord;
     }
 
+    /* Not private for testing only. */
+    /* package */AuditSession(final SessionRecordResolver resolver) {
+        if (resolver == null) {
+            throw new IllegalArgumentException(
+                    "Session record resolver is required.");
+        }
+        _resolver = resolver;
+    }
+
     /**
      * Returns a new empty instance of an AuditSession. The SessionRecord is
      * required.
@@ -62,6 +86,31 @@ final public class AuditSession implements Serializable {
         return auditSession;
     }
 
+    /**
+     * Returns a new AuditSession whose session record is obtained from the
+     * passed resolver the first time it is asked for.
+     * 
+     * @param resolver
+     *            the required resolver.
+     * @return the newly created audit session. This audit session will
+     *         immediately be associated into context and available via
+     *         {@link #getAuditSession()}.
+     */
+    static public AuditSession createLazyAuditSession(
+            final SessionRecordResolver resolver) {
+        final AuditSession oldSession = AUDIT_SESSION_CONTEXT.get();
+        if (oldSession != null) {
+            throw new IllegalStateException(
+                    "Audit Session is already registered.  Old session="
+                            + oldSession + "; new session resolver="
+                            + resolver);
+        }
+
+        final AuditSession auditSession = new AuditSession(resolver);
+        AUDIT_SESSION_CONTEXT.set(auditSession);
+        return auditSession;
+    }
+
     /**
      * Return the AuditSession associated with the current thread, or null if
      * {@link #createAuditSession(SessionRecord)} has not yet been called.
@@ -80,12 +129,98 @@ final public class AuditSession implements Serializable {
     }
 
     /**
-     * Returns our associated session record.
+     * Associate the passed session with the current thread, replacing any
+     * session already there, and return the one replaced. Used to run work
+     * under a captured session; see {@link AuditSessionRunnable}.
+     * 
+     * @param auditSession
+     *            the session to install, <tt>null</tt> to leave none.
+     * @return the session previously associated, or <tt>null</tt>.
+     */
+    static /* package */AuditSession swapAuditSession(
+            final AuditSession auditSession) {
+        final AuditSession previous = AUDIT_SESSION_CONTEXT.get();
+        if (auditSession == null) {
+            AUDIT_SESSION_CONTEXT.remove();
+        } else {
+            AUDIT_SESSION_CONTEXT.set(auditSession);
+        }
+        return previous;
+    }
+
+    /**
+     * Return the current thread's session for running work on another
+     * thread. A lazy session is resolved first, because whatever its resolver
+     * depends on, such as a request, may be gone by the time the work runs.
      * 
-     * @return the sessionRecord
+     * @return the session, or <tt>null</tt> if there is none.
+     */
+    static /* package */AuditSession captureAuditSession() {
+        final AuditSession auditSession = AUDIT_SESSION_CONTEXT.get();
+        if (auditSession != null) {
+            auditSession.getSessionRecord();
+        }
+        return auditSession;
+    }
+
+    /**
+     * Returns our associated session record, resolving it first if this
+     * session is lazy. The resolver is not called again when it asks for the
+     * record itself, as it may by opening a transaction that is audited;
+     * such a call returns <tt>null</tt>.
+     * 
+     * @return the sessionRecord, or <tt>null</tt> if called from within its
+     *         own resolution.
      */
     public SessionRecord getSessionRecord() {
-        return _sessionRecord;
+        SessionRecord sessionRecord = _sessionRecord;
+        if (sessionRecord == null) {
+            synchronized (this) {
+                sessionRecord = _sessionRecord;
+                if (sessionRecord == null) {
+                    if (_resolver == null) {
+                        throw new IllegalStateException(
+                                "Session record was never resolved.");
+                    }
+                    if (_resolving) {
+                        return null;
+                    }
+                    _resolving = true;
+                    try {
+                        sessionRecord = _resolver.resolveSessionRecord();
+                    } finally {
+                        _resolving = false;
+                    }
+                    if (sessionRecord == null) {
+                        throw new IllegalStateException(
+                                "Session record resolver returned null: "
+                                        + _resolver);
+                    }
+                    _sessionRecord = sessionRecord;
+                    _resolver = null;
+                }
+            }
+        }
+        return sessionRecord;
+    }
+
+    /**
+     * Resolve a lazy session before writing it, since the resolver does not
+     * survive serialization.
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        getSessionRecord();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Returns whether this session has its record yet. Always <tt>true</tt>
+     * unless the session is lazy and nothing has asked for the record.
+     * 
+     * @return <tt>true</tt> if the session record exists.
+     */
+    public boolean isResolved() {
+        return _sessionRecord != null;
     }
 
     /**
@@ -106,8 +241,12 @@ final public class AuditSession implements Serializable {
      */
     @Override
     public int hashCode() {
-        // sessionRecord can't be null
-        return 37 * _sessionRecord.hashCode();
+        final SessionRecord sessionRecord = _sessionRecord;
+        if (sessionRecord == null) {
+            // unresolved lazy session
+            return System.identityHashCode(this);
+        }
+        return 37 * sessionRecord.hashCode();
     }
 
     /**
@@ -125,7 +264,9 @@ final public class AuditSession implements Serializable {
             return false;
         }
         final AuditSession other = (AuditSession) obj;
-        // sessionRecord can't be null
-        return _sessionRecord.equals(other._sessionRecord);
+        final SessionRecord sessionRecord = _sessionRecord;
+        // unresolved lazy sessions are only equal to themselves
+        return sessionRecord != null
+                && sessionRecord.equals(other._sessionRecord);
     }
 }
@@ -0,0 +1,71 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.session;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Runs a {@link Callable} under the {@link AuditSession} of the thread that
+ * created it; see {@link AuditSessionRunnable}.
+ * 
+ * @param <V>
+ *            the result type.
+ */
+public class AuditSessionCallable<V> implements Callable<V> {
+
+    private final Callable<V> _callable;
+
+    private final AuditSession _auditSession;
+
+    /**
+     * Wrap the passed callable with the current thread's session.
+     * 
+     * @param callable
+     *            the required work to run.
+     */
+    public AuditSessionCallable(final Callable<V> callable) {
+        if (callable == null) {
+            throw new IllegalArgumentException("Callable is required.");
+        }
+        _callable = callable;
+        _auditSession = AuditSession.captureAuditSession();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V call() throws Exception {
+        final AuditSession previous = AuditSession
+                .swapAuditSession(_auditSession);
+        try {
+            return _callable.call();
+        } finally {
+            AuditSession.swapAuditSession(previous);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(255);
+        sb.append("AuditSessionCallable[");
+        sb.append("_callable=");
+        sb.append(_callable);
+        sb.append(", _auditSession=");
+        sb.append(_auditSession);
+        sb.append("]");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.session;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} that runs every task under the {@link AuditSession} of
+ * the thread that submitted it. Wrap any executor with it, a pool or one
+ * starting a thread per task, to keep audit attribution across the hand off.
+ */
+public class AuditSessionExecutor implements Executor {
+
+    private final Executor _executor;
+
+    /**
+     * Wrap the passed executor.
+     * 
+     * @param executor
+     *            the required executor that runs the tasks.
+     */
+    public AuditSessionExecutor(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor is required.");
+        }
+        _executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute(final Runnable command) {
+        _executor.execute(new AuditSessionRunnable(command));
+    }
+}
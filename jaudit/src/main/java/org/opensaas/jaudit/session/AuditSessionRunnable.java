@@ -0,0 +1,76 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.session;
+
+/**
+ * Runs a {@link Runnable} under the {@link AuditSession} of the thread that
+ * created it, so audit events raised by work handed to another thread carry
+ * the right session record.
+ * 
+ * The session is captured when the wrapper is created and installed only for
+ * the duration of {@link #run()}; whatever the running thread had before,
+ * including nothing, is put back afterwards. Nothing is left behind in pooled
+ * threads, and a thread used for a single task, such as a virtual thread,
+ * needs no cleanup either. The capture and restore pair is the same shape as
+ * binding a scoped value for the extent of a call, so the thread local behind
+ * {@link AuditSession} can later be replaced by one without changing callers
+ * of these wrappers.
+ */
+public class AuditSessionRunnable implements Runnable {
+
+    private final Runnable _runnable;
+
+    private final AuditSession _auditSession;
+
+    /**
+     * Wrap the passed runnable with the current thread's session.
+     * 
+     * @param runnable
+     *            the required work to run.
+     */
+    public AuditSessionRunnable(final Runnable runnable) {
+        if (runnable == null) {
+            throw new IllegalArgumentException("Runnable is required.");
+        }
+        _runnable = runnable;
+        _auditSession = AuditSession.captureAuditSession();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+        final AuditSession previous = AuditSession
+                .swapAuditSession(_auditSession);
+        try {
+            _runnable.run();
+        } finally {
+            AuditSession.swapAuditSession(previous);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(255);
+        sb.append("AuditSessionRunnable[");
+        sb.append("_runnable=");
+        sb.append(_runnable);
+        sb.append(", _auditSession=");
+        sb.append(_auditSession);
+        sb.append("]");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.session;
+
+import org.opensaas.jaudit.SessionRecord;
+
+/**
+ * Supplies the {@link SessionRecord} of an {@link AuditSession} created with
+ * {@link AuditSession#createLazyAuditSession(SessionRecordResolver)}. It is
+ * called at most once, the first time the record is asked for.
+ */
+public interface SessionRecordResolver {
+
+    /**
+     * Create, or find, the session record.
+     * 
+     * @return the session record; never <tt>null</tt>.
+     */
+    SessionRecord resolveSessionRecord();
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE
+ * You may obtain a copy of the License at
+ *
+ *   http://www.gnu.org/licenses/lgpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.opensaas.jaudit.session;
+
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaas.jaudit.AuditSubject;
+import org.opensaas.jaudit.ResponsibleInformation;
+import org.opensaas.jaudit.SessionRecord;
+
+/**
+ * Test class for {@link AuditSessionExecutor}, {@link AuditSessionRunnable}
+ * and {@link AuditSessionCallable}.
+ */
+public class AuditSessionExecutorTest {
+
+    @SuppressWarnings("serial")
+    private static class TestSessionRecord implements SessionRecord {
+
+        /**
+         * {@inheritDoc}
+         */
+        public Date getEndedTs() {
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getId() {
+            return "id";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ResponsibleInformation getResponsibleInformation() {
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getSessionId() {
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Date getStartedTs() {
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public AuditSubject getSystem() {
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getSystemAddress() {
+            return null;
+        }
+    }
+
+    private ExecutorService _pool;
+
+    /**
+     * A single thread pool, so tasks reuse one thread.
+     */
+    @Before
+    public void createPool() {
+        _pool = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Stop the pool and clear the test thread.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @After
+    public void shutdownPool() throws Exception {
+        AuditSession.removeAuditSession();
+        _pool.shutdown();
+        _pool.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Tasks see the submitter's session, and the pooled thread keeps none
+     * afterwards.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testExecutor() throws Exception {
+        final AuditSession session = AuditSession
+                .createAuditSession(new TestSessionRecord());
+        final AtomicReference<AuditSession> seen = new AtomicReference<AuditSession>();
+        new AuditSessionExecutor(_pool).execute(new Runnable() {
+            public void run() {
+                seen.set(AuditSession.getAuditSession());
+            }
+        });
+
+        Assert.assertNull(currentSessionOfPool());
+        Assert.assertSame(session, seen.get());
+    }
+
+    /**
+     * A callable sees the creator's session and the thread's own session is
+     * restored afterwards.
+     * 
+     * @throws Exception
+     *             when an error occurs.
+     */
+    @Test
+    public void testCallableRestores() throws Exception {
+        final AuditSession session = AuditSession
+                .createAuditSession(new TestSessionRecord());
+        final Callable<AuditSession> callable = new AuditSessionCallable<AuditSession>(
+                new Callable<AuditSession>() {
+                    public AuditSession call() {
+                        return AuditSession.getAuditSession();
+                    }
+                });
+        AuditSession.removeAuditSession();
+
+        final AuditSession other = AuditSession
+                .createAuditSession(new TestSessionRecord());
+        Assert.assertSame(session, callable.call());
+        Assert.assertSame(other, AuditSession.getAuditSession());
+    }
+
+    /**
+     * Work created without a session runs without one, even on a thread that
+     * has one.
+     */
+    @Test
+    public void testNoSession() {
+        final AtomicReference<AuditSession> seen = new AtomicReference<AuditSession>();
+        final Runnable runnable = new AuditSessionRunnable(new Runnable() {
+            public void run() {
+                seen.set(AuditSession.getAuditSession());
+            }
+        });
+
+        final AuditSession session = AuditSession
+                .createAuditSession(new TestSessionRecord());
+        runnable.run();
+        Assert.assertNull(seen.get());
+        Assert.assertSame(session, AuditSession.getAuditSession());
+    }
+
+    /**
+     * A lazy session is resolved when captured.
+     */
+    @Test
+    public void testLazySessionResolvedOnCapture() {
+        final AuditSession session = AuditSession
+                .createLazyAuditSession(new SessionRecordResolver() {
+                    public SessionRecord resolveSessionRecord() {
+                        return new TestSessionRecord();
+                    }
+                });
+        new AuditSessionRunnable(new Runnable() {
+            public void run() {
+                // nothing
+            }
+        });
+        Assert.assertTrue(session.isResolved());
+    }
+
+    /**
+     * The wrapped executor is required.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testExecutorNull() {
+        new AuditSessionExecutor(null);
+    }
+
+    private AuditSession currentSessionOfPool() throws Exception {
+        final Future<AuditSession> future = _pool
+                .submit(new Callable<AuditSession>() {
+                    public AuditSession call() {
+                        return AuditSession.getAuditSession();
+                    }
+                });
+        return future.get(10L, TimeUnit.SECONDS);
+    }
+}
@@ -12,8 +12,10 @@
  */
 package org.opensaas.jaudit.session;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -238,6 +240,82 @@ public class AuditSessionTest extends LoopingTester {
         Assert.assertSame(record, session.getSessionRecord());
     }
 
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.session.AuditSession#createLazyAuditSession(SessionRecordResolver)}.
+     */
+    @Test
+    public void testLazySession() {
+        final SessionRecord record = new TestSessionRecord();
+        final int[] calls = new int[1];
+        final AuditSession session = AuditSession
+                .createLazyAuditSession(new SessionRecordResolver() {
+                    public SessionRecord resolveSessionRecord() {
+                        ++calls[0];
+                        return record;
+                    }
+                });
+        Assert.assertSame(session, AuditSession.getAuditSession());
+        Assert.assertFalse(session.isResolved());
+        Assert.assertEquals(0, calls[0]);
+        Assert.assertEquals(session, session);
+        Assert.assertFalse(session.equals(new AuditSession(record)));
+        session.toString();
+        Assert.assertEquals(0, calls[0]);
+
+        Assert.assertSame(record, session.getSessionRecord());
+        Assert.assertSame(record, session.getSessionRecord());
+        Assert.assertTrue(session.isResolved());
+        Assert.assertEquals(1, calls[0]);
+        Assert.assertEquals(new AuditSession(record), session);
+    }
+
+    /**
+     * Test method for
+     * {@link org.opensaas.jaudit.session.AuditSession#createLazyAuditSession(SessionRecordResolver)}.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testLazySessionNull() {
+        AuditSession.createLazyAuditSession(null);
+    }
+
+    /**
+     * A resolver that asks for the record of the session it is resolving, as
+     * one opening an audited transaction does, gets <tt>null</tt> rather than
+     * being called again.
+     */
+    @Test
+    public void testLazySessionReentrant() {
+        final SessionRecord record = new TestSessionRecord();
+        final List<SessionRecord> nested = new ArrayList<SessionRecord>();
+        final AuditSession session = AuditSession
+                .createLazyAuditSession(new SessionRecordResolver() {
+                    public SessionRecord resolveSessionRecord() {
+                        nested.add(AuditSession.getAuditSession()
+                                .getSessionRecord());
+                        return record;
+                    }
+                });
+
+        Assert.assertSame(record, session.getSessionRecord());
+        Assert.assertEquals(1, nested.size());
+        Assert.assertNull(nested.get(0));
+        Assert.assertSame(record, session.getSessionRecord());
+        Assert.assertEquals(1, nested.size());
+    }
+
+    /**
+     * A resolver may not return <tt>null</tt>.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testLazySessionResolvesNull() {
+        AuditSession.createLazyAuditSession(new SessionRecordResolver() {
+            public SessionRecord resolveSessionRecord() {
+                return null;
+            }
+        }).getSessionRecord();
+    }
+
     /**
      * Test method for serialization.
      * 
@@ -249,6 +327,26 @@ public class AuditSessionTest extends LoopingTester {
         SerializableAssert.testSerialization(SESSION_FACTORY);
     }
 
+    /**
+     * A lazy session is resolved before it is serialized, so the copy has its
+     * record.
+     * 
+     * @throws Exception
+     *             if an error occurs.
+     */
+    @Test
+    public void testSerializationLazy() throws Exception {
+        final SessionRecord record = new TestSessionRecord();
+        final AuditSession session = new AuditSession(
+                new SessionRecordResolver() {
+                    public SessionRecord resolveSessionRecord() {
+                        return record;
+                    }
+                });
+        SerializableAssert.testSerialization(session);
+        Assert.assertTrue(session.isResolved());
+    }
+
     /**
      * Test method for hashCode() method.
      */